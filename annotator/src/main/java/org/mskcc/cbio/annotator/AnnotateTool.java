@@ -10,6 +10,7 @@ import org.apache.commons.io.FileUtils;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.CmdLineException;
 import org.mskcc.cbio.maf.MafHeaderUtil;
+import org.mskcc.cbio.oncotator.MemoryRecordCache;
 import org.mskcc.cbio.oncotator.OncotateTool;
 
 /**
@@ -51,6 +52,11 @@ public class AnnotateTool
 				{
 					System.out.println("Process completed with " + result + " error(s).");
 				}
+
+				if (!config.isNoCache())
+				{
+					MemoryRecordCache.getShared().printStats();
+				}
 			}
 			else
 			{
@@ -67,6 +73,11 @@ public class AnnotateTool
 			System.out.println("Fatal error: " + e.getMessage());
 			e.printStackTrace();
 		}
+
+		if (config.getTimingReportFile().length() > 0)
+		{
+			config.getTimingReport().emit(config.getTimingReportFile());
+		}
 	}
 
 	public static int driver(AnnotatorConfig config)
@@ -74,7 +85,19 @@ public class AnnotateTool
 		Date start = new Date();
 		int result = 0;
 
-		Annotator annotator = new Annotator(config);
+		ProgressReporter.setDefaultInterval(config.getProgressInterval() * 1000L);
+
+		Annotator annotator;
+
+		// only annotate novel variants if an annotation store is provided
+		if (config.getAnnotationStore().length() > 0)
+		{
+			annotator = new IncrementalAnnotator(config);
+		}
+		else
+		{
+			annotator = new Annotator(config);
+		}
 
 		try {
 			File inputFile = new File(config.getInput());
@@ -82,7 +105,10 @@ public class AnnotateTool
 
 			System.out.println("[" + start + "] Started annotating: " + config.getInput());
 			result = annotator.annotateFile(inputFile, outputFile);
-			int diff = compareFiles(config.getInput(), config.getOutput());
+
+			// line counts of a VCF and a MAF are not comparable
+			boolean vcf = inputFile.getName().toLowerCase().endsWith(".vcf");
+			int diff = vcf ? 0 : compareFiles(config.getInput(), config.getOutput());
 
 			if (diff != 0)
 			{
@@ -103,6 +129,11 @@ public class AnnotateTool
 			Date end = new Date();
 			double timeElapsed = (end.getTime() - start.getTime()) / 1000.0;
 
+			config.getTimingReport().add("annotate_file",
+				end.getTime() - start.getTime(),
+				annotator.getNumRecordsProcessed(),
+				new File(config.getInput()).length());
+
 //			System.out.println("Total number of records processed: " + annotator.getNumRecordsProcessed());
 			System.out.println("[" + end + "] Total time: " + timeElapsed + " seconds.");
 		}
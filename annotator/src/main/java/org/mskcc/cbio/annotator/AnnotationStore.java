@@ -0,0 +1,51 @@
+package org.mskcc.cbio.annotator;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Persistent store for previously annotated records,
+ * keyed by the variant key (see MafUtil.generateKey).
+ */
+public interface AnnotationStore
+{
+	/**
+	 * Checks if the store contains an annotated record for the given key.
+	 *
+	 * @param key   variant key
+	 * @return      true if the key is known, false otherwise
+	 */
+	public boolean contains(String key);
+
+	/**
+	 * Retrieves the annotated record for the given key.
+	 *
+	 * @param key   variant key
+	 * @return      map of column names to values, or null if not found
+	 * @throws IOException  if an IO error occurs
+	 */
+	public Map<String, String> get(String key) throws IOException;
+
+	/**
+	 * Stores the given annotated record. If the key already exists,
+	 * previous record is replaced.
+	 *
+	 * @param key           variant key
+	 * @param headerLine    tab delimited column names of the record
+	 * @param dataLine      tab delimited values of the record
+	 * @throws IOException  if an IO error occurs
+	 */
+	public void put(String key, String headerLine, String dataLine) throws IOException;
+
+	/**
+	 * @return  total number of records in the store
+	 */
+	public int size();
+
+	/**
+	 * Makes sure that all stored records are persisted.
+	 *
+	 * @throws IOException  if an IO error occurs
+	 */
+	public void flush() throws IOException;
+}
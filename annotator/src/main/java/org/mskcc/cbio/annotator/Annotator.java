@@ -8,7 +8,6 @@ import org.mskcc.cbio.maf.*;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -20,18 +19,105 @@ import java.util.Map;
  */
 public class Annotator
 {
+	public static final int BUFFER_SIZE = 1 << 16;
+
 	private AnnotatorConfig config;
 
+	// cached header of the input file
+	private File headerSource;
+	private long headerTimestamp;
+	private String inputHeaderLine;
+	private MafHeaderUtil inputHeaderUtil;
+
+	// number of records processed by the last annotation
+	private long numRecordsProcessed;
+
 	public Annotator(AnnotatorConfig config)
 	{
 		// init default settings
 		this.config = config;
 	}
 
+	/**
+	 * Annotates the given input file within an isolated workspace. The
+	 * workspace is created for this invocation only, and it is reclaimed
+	 * when the annotation completes (or fails).
+	 *
+	 * @param input     input MAF or VCF
+	 * @param output    target output
+	 * @return          exit value of the annotation process
+	 * @throws IOException  if an IO error occurs
+	 */
 	public int annotateFile(File input,
 			File output) throws IOException
+	{
+		AnnotatorConfig original = this.config;
+		Workspace workspace = new Workspace(new File(original.getWorkspaceRoot()));
+
+		try
+		{
+			this.config = workspace.bind(original);
+			return this.annotateInWorkspace(input, output);
+		}
+		finally
+		{
+			this.config = original;
+			workspace.reclaim();
+		}
+	}
+
+	protected int annotateInWorkspace(File input,
+			File output) throws IOException
 	{
 		int retVal = -1;
+		Map<String, String> env = this.buildEnvironment();
+		TimingReport report = this.config.getTimingReport();
+		long start = System.currentTimeMillis();
+
+		// script to run depends on the extension
+		if (input.getName().toLowerCase().endsWith(".vcf"))
+		{
+			retVal = this.runVcf2Maf(input, output, env);
+
+			// each VCF record is converted into a single MAF record
+			this.numRecordsProcessed = this.countRecords(output);
+			report.add("vcf2maf", System.currentTimeMillis() - start,
+				this.numRecordsProcessed, input.length());
+		}
+		// assuming it is a maf..
+		else
+		{
+			this.numRecordsProcessed = this.countRecords(input);
+			retVal = this.runMaf2Maf(input, env);
+			report.add("maf2maf", System.currentTimeMillis() - start,
+				this.numRecordsProcessed, input.length());
+
+			// clean up the temporary files
+			start = System.currentTimeMillis();
+			this.cleanUp();
+			report.add("cleanup", System.currentTimeMillis() - start,
+				this.numRecordsProcessed, 0);
+
+			if (retVal == 0)
+			{
+				// only keep the comment lines, assuming that annotator handles
+				// everything else (unless merging with the original input is enabled)
+				this.generateOutput(input, output);
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Creates the environment for the external processes, by adding
+	 * the configured perl library and path to the current environment.
+	 *
+	 * @return  environment variables
+	 * @throws IOException  if the current environment cannot be retrieved
+	 */
+	protected Map<String, String> buildEnvironment() throws IOException
+	{
 		Map<String, String> env = EnvironmentUtils.getProcEnvironment();
 
 		// set additional environment variables (if any)
@@ -60,32 +146,24 @@ public class Annotator
 			EnvironmentUtils.addVariableToEnvironment(env, parts[0] + "=" + pathValue);
 		}
 
-		// script to run depends on the extension
-		if (input.getName().toLowerCase().endsWith(".vcf"))
-		{
-			retVal = this.runVcf2Maf(input, output, env);
-		}
-		// assuming it is a maf..
-		else
-		{
-			retVal = this.runMaf2Maf(input, env);
-
-			// clean up the temporary files
-			this.cleanUp();
-
-			if (retVal == 0)
-			{
-				// not using the original input anymore, it is not safe to merge line by line
-				// annotator may change both the order of lines and the chromosome position...
-				//mergeWithOriginal(input, output);
+		return env;
+	}
 
-				// only keep the comment lines,
-				// assuming that annotator handles everything else
-				this.generateOutput(input, output);
-			}
+	/**
+	 * Counts the data lines of the given MAF.
+	 *
+	 * @param maf   MAF file
+	 * @return      number of data lines, or 0 if the file does not exist
+	 * @throws IOException
+	 */
+	protected long countRecords(File maf) throws IOException
+	{
+		if (!maf.exists())
+		{
+			return 0;
 		}
 
-		return retVal;
+		return AnnotateTool.calcLineCount(maf.getAbsolutePath());
 	}
 
 	protected void cleanUp() throws IOException
@@ -101,7 +179,10 @@ public class Annotator
 	}
 
 	/**
-	 * Generates the final output file.
+	 * Generates the final output file in a single pass over the
+	 * intermediate file: comments of the original input are written first,
+	 * then the intermediate file is copied as is. If merging with the
+	 * original input is enabled, the output is generated by merging instead.
 	 *
 	 * @param input     original input
 	 * @param output    target output
@@ -109,39 +190,70 @@ public class Annotator
 	 */
 	protected void generateOutput(File input, File output) throws IOException
 	{
-		BufferedReader bufReader = new BufferedReader(new FileReader(input));
-		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		if (this.config.isMergeOriginal())
+		{
+			this.mergeWithOriginal(input, output);
+			return;
+		}
 
-		// this is to get comments from the original input
-		headerUtil.extractHeader(bufReader);
+		long start = System.currentTimeMillis();
 
-		bufReader.close();
+		// comments from the original input (header is already read before maf2maf)
+		List<String> comments = this.readInputHeader(input).getComments();
 
-		FileWriter writer = new FileWriter(output);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE);
+		Writer writer = new OutputStreamWriter(out);
 
 		// write comments/metadata to the output
-		FileIOUtil.writeLines(writer, headerUtil.getComments());
-
-		bufReader = new BufferedReader(
-				new FileReader(this.config.getIntermediateMaf()));
-
-
-		// get everything else from the intermediate annotator output maf
+		FileIOUtil.writeLines(writer, comments);
+		writer.flush();
+
+		// get everything else from the intermediate annotator output maf,
+		// no need to parse the lines, just copy the bytes
+		InputStream in = new FileInputStream(this.config.getIntermediateMaf());
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int lastByte = '\n';
+		long numLines = 0;
+		int length;
+
+		while ((length = in.read(buffer)) != -1)
+		{
+			if (length > 0)
+			{
+				out.write(buffer, 0, length);
+				lastByte = buffer[length - 1];
 
-		String line;
+				for (int i = 0; i < length; i++)
+				{
+					if (buffer[i] == '\n')
+					{
+						numLines++;
+					}
+				}
+			}
+		}
 
-		while ((line = bufReader.readLine()) != null)
+		// make sure that the last line is terminated
+		if (lastByte != '\n')
 		{
-			writer.write(line);
-			writer.write("\n");
+			out.write('\n');
+			numLines++;
 		}
 
-		bufReader.close();
+		in.close();
 		writer.close();
+
+		// all lines except the header line are records
+		this.config.getTimingReport().add("generate_output",
+			System.currentTimeMillis() - start,
+			Math.max(0, numLines - 1),
+			output.length());
 	}
 
 	/**
 	 * Merges original input file with the annotator (intermediate) output file.
+	 * The intermediate file is read only once (by the annotator service),
+	 * and the output is written while streaming the original input.
 	 *
 	 * @param input     original input
 	 * @param output    target output
@@ -149,10 +261,14 @@ public class Annotator
 	 */
 	protected void mergeWithOriginal(File input, File output) throws IOException
 	{
-		List<String> annoHeaders = this.extractAnnoHeaders(this.config.getIntermediateMaf());
+		long start = System.currentTimeMillis();
+		long numRecords = 0;
+
+		// join by key, either in memory or on disk depending on the file size
+		AnnotatorService service = new AnnotatorService(this.config, input);
+		List<String> annoHeaders = service.getColumnNames();
 
 		FileReader reader = new FileReader(input);
-		//FileReader reader = new FileReader(DEFAULT_INTERMEDIATE_MAF);
 
 		BufferedReader bufReader = new BufferedReader(reader);
 		MafHeaderUtil headerUtil = new MafHeaderUtil();
@@ -162,7 +278,7 @@ public class Annotator
 
 		AnnoMafProcessor processor = new AnnoMafProcessor(headerLine, annoHeaders);
 
-		FileWriter writer = new FileWriter(output);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(output), BUFFER_SIZE);
 
 		// write comments/metadata to the output
 		FileIOUtil.writeLines(writer, headerUtil.getComments());
@@ -174,8 +290,15 @@ public class Annotator
 		// write the header line to output
 		FileIOUtil.writeLine(writer, columnNames);
 
+		// percentage is estimated from the input size (no extra pass to count lines)
+		ProgressReporter progress = new ProgressReporter("Annotator", 0);
+		progress.setInput(input);
+
+		// comments and the header line are already read
+		progress.skip(headerUtil.getComments());
+		progress.skip(headerLine);
+
 		String dataLine = bufReader.readLine();
-		AnnotatorService service = new AnnotatorService(this.config);
 
 		// process the file line by line
 		while (dataLine != null)
@@ -183,15 +306,17 @@ public class Annotator
 			// skip empty lines
 			if (dataLine.trim().length() == 0)
 			{
+				progress.skip(dataLine);
 				dataLine = bufReader.readLine();
 				continue;
 			}
 
 			// update total number of records processed
-			//this.numRecordsProcessed++;
+			numRecords++;
+			progress.increment(dataLine);
 
 			MafRecord mafRecord = mafUtil.parseRecord(dataLine);
-			Map<String, String> annoData = service.annotateRecord(mafRecord);
+			Map<String, String> annoData = service.annotate(mafRecord);
 
 			// get the data and update/add new annotator columns
 			List<String> data = processor.newDataList(dataLine);
@@ -207,6 +332,13 @@ public class Annotator
 		service.cleanUp();
 		bufReader.close();
 		writer.close();
+
+		progress.finish();
+
+		this.config.getTimingReport().add("merge_original",
+			System.currentTimeMillis() - start,
+			numRecords,
+			output.length());
 	}
 
 	public int runMaf2Maf(File input, Map<String, String> env) throws IOException
@@ -215,6 +347,10 @@ public class Annotator
 		{
 			return this.clusterMaf2Maf(input, env);
 		}
+		else if (this.config.getNumShards() > 1)
+		{
+			return this.shardedMaf2Maf(input, env);
+		}
 		else
 		{
 			return this.regularMaf2Maf(input, env);
@@ -233,9 +369,134 @@ public class Annotator
 		                   this.config.getErrorLog());
 	}
 
+	/**
+	 * Splits the input into record aligned shards, runs maf2maf for the
+	 * shards concurrently, and stitches the shard outputs back into the
+	 * intermediate MAF (in the original record order).
+	 *
+	 * @param input     input MAF
+	 * @param env       environment variables
+	 * @return          exit value of the first failed shard, or 0 on success
+	 * @throws IOException  if an IO error occurs
+	 */
+	public int shardedMaf2Maf(File input, final Map<String, String> env) throws IOException
+	{
+		File shardDir = new File(this.config.getIntermediateMaf() + "_shards");
+		FileUtils.deleteQuietly(shardDir);
+		shardDir.mkdirs();
+
+		TimingReport report = this.config.getTimingReport();
+		long start = System.currentTimeMillis();
+
+		List<File> shards = MafSharder.split(input, this.config.getNumShards(), shardDir);
+		report.add("shard_split", System.currentTimeMillis() - start, shards.size(), input.length());
+
+		// too few records to shard
+		if (shards.size() < 2)
+		{
+			FileUtils.deleteQuietly(shardDir);
+			return this.regularMaf2Maf(input, env);
+		}
+
+		List<AnnotatorConfig> configs = new ArrayList<>();
+		List<File> shardOutputs = new ArrayList<>();
+
+		for (int i = 0; i < shards.size(); i++)
+		{
+			File shard = shards.get(i);
+			File shardOutput = new File(shardDir, "shard_" + i + ".out.maf");
+			AnnotatorConfig shardConfig = this.config.copy();
+
+			// each shard has its own intermediate file, tmp dir, and logs
+			shardConfig.setInput(shard.getAbsolutePath());
+			shardConfig.setIntermediateMaf(shardOutput.getAbsolutePath());
+			shardConfig.setTmpDir(new File(shardDir, "shard_" + i + "_tmp").getAbsolutePath());
+
+			if (!this.config.getOutLog().equals(AnnotatorConfig.DEFAULT_OUT_LOG))
+			{
+				shardConfig.setOutLog(this.config.getOutLog() + ".shard" + i);
+			}
+
+			if (!this.config.getErrorLog().equals(AnnotatorConfig.DEFAULT_ERR_LOG))
+			{
+				shardConfig.setErrorLog(this.config.getErrorLog() + ".shard" + i);
+			}
+
+			configs.add(shardConfig);
+			shardOutputs.add(shardOutput);
+		}
+
+		// no retries, only run maf2maf for each shard
+		JobScheduler scheduler = new JobScheduler(this.config.getShardWorkers(), 0) {
+			protected int runJob(AnnotatorConfig config)
+			{
+				try
+				{
+					return new Annotator(config).regularMaf2Maf(
+						new File(config.getInput()), env);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+					return -1;
+				}
+			}
+		};
+
+		List<JobResult> results = scheduler.runAll(configs);
+		int retVal = 0;
+
+		for (JobResult result : results)
+		{
+			if (!result.isSuccess())
+			{
+				System.out.println("[ERROR] maf2maf failed for shard: " + result.getInput() +
+				                   " (exit code: " + result.getExitCode() + ")");
+
+				retVal = result.getExitCode();
+				break;
+			}
+		}
+
+		if (retVal == 0)
+		{
+			File intermediate = new File(this.config.getIntermediateMaf());
+
+			start = System.currentTimeMillis();
+			MafSharder.stitch(shardOutputs, intermediate);
+			report.add("shard_stitch", System.currentTimeMillis() - start,
+				shardOutputs.size(), intermediate.length());
+		}
+
+		FileUtils.deleteQuietly(shardDir);
+
+		return retVal;
+	}
+
 	public int clusterMaf2Maf(File input, Map<String, String> env) throws IOException
 	{
-		CommandLine cmdLine = new CommandLine("bsub");
+		CommandLine cmdLine = this.bsubCommandLine();
+
+		cmdLine.addArgument(this.config.getPerl());
+		this.addMaf2MafArgs(cmdLine, input);
+
+		return execProcess(cmdLine,
+		                   env,
+		                   this.config.getOutLog(),
+		                   this.config.getErrorLog());
+	}
+
+	/**
+	 * Creates a bsub command line to submit a job to the cluster.
+	 * The job is submitted in blocking mode (-K), so that the process
+	 * waits for the job to complete and exits with the job's exit code.
+	 * The actual command should be appended to the returned command line.
+	 *
+	 * @return  bsub command line without the actual command
+	 */
+	protected CommandLine bsubCommandLine()
+	{
+		CommandLine cmdLine = new CommandLine(this.getConfig().getClusterBsub());
 
 		if (!this.getConfig().getClusterSp().equals(AnnotatorConfig.DEFAULT_CLUSTER_SP))
 		{
@@ -253,13 +514,7 @@ public class Annotator
 		cmdLine.addArgument("-R");
 		cmdLine.addArgument("'span[hosts=1]'");
 
-		cmdLine.addArgument(this.config.getPerl());
-		this.addMaf2MafArgs(cmdLine, input);
-
-		return execProcess(cmdLine,
-		                   env,
-		                   this.config.getOutLog(),
-		                   this.config.getErrorLog());
+		return cmdLine;
 	}
 
 	public void addMaf2MafArgs(CommandLine cmdLine, File input) throws IOException
@@ -291,13 +546,31 @@ public class Annotator
 
 	public int runVcf2Maf(File input, File output, Map<String, String> env) throws IOException
 	{
-		// TODO if(this.config.getMode().equals(AnnotatorConfig.DEFAULT_EXECUTION_MODE))
+		CommandLine cmdLine;
 
+		if (this.config.getMode().equals(AnnotatorConfig.DEFAULT_EXECUTION_MODE))
+		{
+			cmdLine = this.bsubCommandLine();
+			cmdLine.addArgument(this.config.getPerl());
+		}
+		else
+		{
+			cmdLine = new CommandLine(this.config.getPerl());
+		}
+
+		this.addVcf2MafArgs(cmdLine, input, output);
+
+		return execProcess(cmdLine,
+		                   env,
+		                   this.config.getOutLog(),
+		                   this.config.getErrorLog());
+	}
+
+	public void addVcf2MafArgs(CommandLine cmdLine, File input, File output)
+	{
 		String inVcf = input.getAbsolutePath();
 		String outMaf = output.getAbsolutePath();
 
-		CommandLine cmdLine = new CommandLine("perl");
-
 		cmdLine.addArgument(this.config.getVcf2maf());
 		cmdLine.addArgument("--vep-path");
 		cmdLine.addArgument(this.config.getVepPath());
@@ -309,11 +582,6 @@ public class Annotator
 		cmdLine.addArgument(inVcf);
 		cmdLine.addArgument("--output-maf");
 		cmdLine.addArgument(outMaf);
-
-		return execProcess(cmdLine,
-		                   env,
-		                   this.config.getOutLog(),
-		                   this.config.getErrorLog());
 	}
 
 	/**
@@ -379,30 +647,40 @@ public class Annotator
 		System.out.println("Writing output to: " + output.getAbsolutePath());
 	}
 
-	protected List<String> extractAnnoHeaders(String input) throws IOException
+	/**
+	 * Reads the comments and the header line of the given input file.
+	 * The result is cached, so that the input header is read only once
+	 * per annotation run (before running maf2maf and after).
+	 *
+	 * @param input input file
+	 * @return      header util containing the comments of the input
+	 * @throws IOException  if an IO error occurs
+	 */
+	protected MafHeaderUtil readInputHeader(File input) throws IOException
 	{
-		FileReader reader = new FileReader(input);
-
-		BufferedReader bufReader = new BufferedReader(reader);
-		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		if (!input.equals(this.headerSource) ||
+		    input.lastModified() != this.headerTimestamp)
+		{
+			BufferedReader bufReader = new BufferedReader(new FileReader(input));
+			MafHeaderUtil headerUtil = new MafHeaderUtil();
 
-		String headerLine = headerUtil.extractHeader(bufReader);
-		String parts[] = headerLine.split("\t");
+			this.inputHeaderLine = headerUtil.extractHeader(bufReader);
+			this.inputHeaderUtil = headerUtil;
+			this.headerSource = input;
+			this.headerTimestamp = input.lastModified();
 
-		reader.close();
+			bufReader.close();
+		}
 
-		return Arrays.asList(parts);
+		return this.inputHeaderUtil;
 	}
 
 	protected String getRetainCols(File input, String excludeCols) throws IOException
 	{
 		List<String> retainCols = new ArrayList<>();
 
-		BufferedReader bufReader = new BufferedReader(new FileReader(input));
-		MafHeaderUtil headerUtil = new MafHeaderUtil();
-		String header = headerUtil.extractHeader(bufReader);
-
-		bufReader.close();
+		this.readInputHeader(input);
+		String header = this.inputHeaderLine;
 
 		// headers in the original input file
 		String[] cols = header.toLowerCase().split("\t");
@@ -445,4 +723,14 @@ public class Annotator
 	{
 		this.config = config;
 	}
+
+	public long getNumRecordsProcessed()
+	{
+		return numRecordsProcessed;
+	}
+
+	protected void setNumRecordsProcessed(long numRecordsProcessed)
+	{
+		this.numRecordsProcessed = numRecordsProcessed;
+	}
 }
@@ -4,12 +4,16 @@ import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import org.apache.log4j.Logger;
 import org.kohsuke.args4j.Option;
+import org.mskcc.cbio.oncotator.CircuitBreaker;
+import org.mskcc.cbio.oncotator.OncotatorService;
+import org.mskcc.cbio.oncotator.RateLimiter;
 
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 /**
  * Configuration parameters (command line arguments).
@@ -40,6 +44,27 @@ public class AnnotatorConfig
 	public static final String DEFAULT_EXECUTION_MODE = "cluster";
 	public static final String DEFAULT_VEP_FORKS = "4";
 	public static final String DEFAULT_CUSTOM_ENST = ".";
+	public static final String DEFAULT_CLUSTER_BSUB = "bsub";
+	public static final int DEFAULT_CLUSTER_MAX_JOBS = 50;
+	public static final int DEFAULT_CLUSTER_MAX_RETRIES = 2;
+	public static final long DEFAULT_JOIN_THRESHOLD = 128L * 1024 * 1024;
+	public static final long DEFAULT_JOIN_MEMORY = 64L * 1024 * 1024;
+	public static final int DEFAULT_NUM_SHARDS = 1;
+	public static final int DEFAULT_SHARD_WORKERS = 4;
+	public static final String DEFAULT_WORKSPACE_ROOT = ".";
+	public static final int DEFAULT_NUM_WORKERS = 1;
+	public static final String DEFAULT_ANNOTATION_STORE = "";
+	public static final String DEFAULT_TIMING_REPORT = "";
+	public static final int DEFAULT_ONCOTATOR_BLOCK_SIZE = 1000;
+	public static final int DEFAULT_ONCOTATOR_FETCHERS = OncotatorService.DEFAULT_NUM_FETCHERS;
+	public static final int DEFAULT_ONCOTATOR_RATE_LIMIT = OncotatorService.DEFAULT_MAX_RATE;
+	public static final int DEFAULT_ONCOTATOR_RETRIES = OncotatorService.DEFAULT_MAX_RETRIES;
+	public static final int DEFAULT_ONCOTATOR_MEMORY_CACHE = 100000;
+	public static final int DEFAULT_ONCOTATOR_MEMORY_CACHE_MB = 256;
+	public static final String DEFAULT_ONCOTATOR_CACHE_FILE = "";
+	public static final String DEFAULT_ONCOTATOR_CHECKPOINT = "";
+	public static final int DEFAULT_PROGRESS_INTERVAL = 10;
+	public static final String DEFAULT_FILE_GLOB = "";
 
 	// TODO allele count col options?
 
@@ -80,6 +105,21 @@ public class AnnotatorConfig
 			usage="User-assigned job priority that orders all jobs in a queue")
 	protected String clusterNode = DEFAULT_CLUSTER_SP;
 
+	@Option(name="-cb",
+			aliases={"--cluster-bsub"},
+			usage="Name of the bsub binary used to submit cluster jobs")
+	protected String clusterBsub = DEFAULT_CLUSTER_BSUB;
+
+	@Option(name="-cmj",
+			aliases={"--cluster-max-jobs"},
+			usage="Maximum number of cluster jobs running at the same time")
+	protected int clusterMaxJobs = DEFAULT_CLUSTER_MAX_JOBS;
+
+	@Option(name="-cmr",
+			aliases={"--cluster-max-retries"},
+			usage="Maximum number of resubmissions for a failed cluster job")
+	protected int clusterMaxRetries = DEFAULT_CLUSTER_MAX_RETRIES;
+
 	@Option(name="-m",
 			aliases={"--mode"},
 			usage="Execution mode, cluster or regular")
@@ -175,6 +215,115 @@ public class AnnotatorConfig
 			usage="List of custom ENST IDs that override canonical selection")
 	protected String customEnst = DEFAULT_CUSTOM_ENST;
 
+	@Option(name="-jt",
+	        aliases={"--join-threshold"},
+	        usage="Intermediate MAF size (in bytes) above which the external sort-merge join is used instead of the in-memory map")
+	protected long joinThreshold = DEFAULT_JOIN_THRESHOLD;
+
+	@Option(name="-jm",
+	        aliases={"--join-memory"},
+	        usage="Approximate memory limit (in bytes) for the external sort-merge join")
+	protected long joinMemory = DEFAULT_JOIN_MEMORY;
+
+	@Option(name="-ns",
+	        aliases={"--num-shards"},
+	        usage="Number of shards to split the input MAF into in regular mode (1 to disable sharding)")
+	protected int numShards = DEFAULT_NUM_SHARDS;
+
+	@Option(name="-sw",
+	        aliases={"--shard-workers"},
+	        usage="Maximum number of shards annotated at the same time")
+	protected int shardWorkers = DEFAULT_SHARD_WORKERS;
+
+	@Option(name="-wr",
+	        aliases={"--workspace-root"},
+	        usage="Parent directory of the isolated per run workspaces")
+	protected String workspaceRoot = DEFAULT_WORKSPACE_ROOT;
+
+	@Option(name="-nw",
+	        aliases={"--num-workers"},
+	        usage="Number of files annotated at the same time when processing multiple files")
+	protected int numWorkers = DEFAULT_NUM_WORKERS;
+
+	@Option(name="-fg",
+	        aliases={"--file-glob"},
+	        usage="Glob pattern (relative to the source directory) of the input files when processing multiple files")
+	protected String fileGlob = DEFAULT_FILE_GLOB;
+
+	@Option(name="-as",
+	        aliases={"--annotation-store"},
+	        usage="Annotation store file, enables incremental annotation (only novel variants are annotated)")
+	protected String annotationStore = DEFAULT_ANNOTATION_STORE;
+
+	@Option(name="-mo",
+	        aliases={"--merge-original"},
+	        usage="Merge annotations into the original input instead of using the annotator output as is")
+	protected boolean mergeOriginal = false;
+
+	@Option(name="-tr",
+	        aliases={"--timing-report"},
+	        usage="Output filename for the per stage timing report (JSON)")
+	protected String timingReportFile = DEFAULT_TIMING_REPORT;
+
+	@Option(name="-pi",
+	        aliases={"--progress-interval"},
+	        usage="Minimum time (in seconds) between two progress reports of a running process")
+	protected int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+	@Option(name="-obs",
+	        aliases={"--oncotator-block-size"},
+	        usage="Number of records resolved at once by the oncotator (cache) service")
+	protected int oncotatorBlockSize = DEFAULT_ONCOTATOR_BLOCK_SIZE;
+
+	@Option(name="-of",
+	        aliases={"--oncotator-fetchers"},
+	        usage="Maximum number of concurrent requests to the oncotator web service")
+	protected int oncotatorFetchers = DEFAULT_ONCOTATOR_FETCHERS;
+
+	@Option(name="-orl",
+	        aliases={"--oncotator-rate-limit"},
+	        usage="Maximum number of requests per second to the oncotator web service (0 for no limit)")
+	protected int oncotatorRateLimit = DEFAULT_ONCOTATOR_RATE_LIMIT;
+
+	@Option(name="-ort",
+	        aliases={"--oncotator-retries"},
+	        usage="Maximum number of retries for a failed oncotator web service request")
+	protected int oncotatorRetries = DEFAULT_ONCOTATOR_RETRIES;
+
+	@Option(name="-omc",
+	        aliases={"--oncotator-memory-cache"},
+	        usage="Maximum number of oncotator records kept in memory in front of the cache database (0 to disable)")
+	protected int oncotatorMemoryCache = DEFAULT_ONCOTATOR_MEMORY_CACHE;
+
+	@Option(name="-omm",
+	        aliases={"--oncotator-memory-cache-mb"},
+	        usage="Maximum memory (in MB) used by the oncotator records kept in memory")
+	protected int oncotatorMemoryCacheMb = DEFAULT_ONCOTATOR_MEMORY_CACHE_MB;
+
+	@Option(name="-ocf",
+	        aliases={"--oncotator-cache-file"},
+	        usage="Embedded oncotator cache file, used instead of the cache database if provided")
+	protected String oncotatorCacheFile = DEFAULT_ONCOTATOR_CACHE_FILE;
+
+	@Option(name="-obc",
+	        aliases={"--oncotator-build-cache"},
+	        usage="Warm the oncotator cache with the keys of the input file (one key per line) instead of oncotating a MAF")
+	protected boolean oncotatorBuildCache = false;
+
+	@Option(name="-ock",
+	        aliases={"--oncotator-checkpoint"},
+	        usage="Checkpoint file to resume an interrupted cache warm-up (defaults to the input filename + .checkpoint)")
+	protected String oncotatorCheckpoint = DEFAULT_ONCOTATOR_CHECKPOINT;
+
+	// collected stage timings, shared by all copies of this config
+	protected TimingReport timingReport = new TimingReport();
+
+	// oncotator request limits shared by all files of a multi file run
+	// (each oncotator has its own limits if not set)
+	protected RateLimiter oncotatorRateLimiter;
+	protected CircuitBreaker oncotatorCircuitBreaker;
+	protected Semaphore oncotatorRequestPermits;
+
 	public AnnotatorConfig copy()
 	{
 		AnnotatorConfig clone = new AnnotatorConfig();
@@ -189,6 +338,10 @@ public class AnnotatorConfig
 		clone.setOutLog(outLog);
 		clone.setClusterLog(clusterLog);
 		clone.setClusterNode(clusterNode);
+		clone.setClusterSp(clusterSp);
+		clone.setClusterBsub(clusterBsub);
+		clone.setClusterMaxJobs(clusterMaxJobs);
+		clone.setClusterMaxRetries(clusterMaxRetries);
 		clone.setSort(sort);
 		clone.setAddMissing(addMissing);
 		clone.setNoCache(noCache);
@@ -204,6 +357,30 @@ public class AnnotatorConfig
 		clone.setAnnotator(annotator);
 		clone.setMode(mode);
 		clone.setCustomEnst(customEnst);
+		clone.setJoinThreshold(joinThreshold);
+		clone.setJoinMemory(joinMemory);
+		clone.setNumShards(numShards);
+		clone.setShardWorkers(shardWorkers);
+		clone.setWorkspaceRoot(workspaceRoot);
+		clone.setNumWorkers(numWorkers);
+		clone.setFileGlob(fileGlob);
+		clone.setAnnotationStore(annotationStore);
+		clone.setMergeOriginal(mergeOriginal);
+		clone.setTimingReportFile(timingReportFile);
+		clone.setTimingReport(timingReport);
+		clone.setOncotatorRateLimiter(oncotatorRateLimiter);
+		clone.setOncotatorCircuitBreaker(oncotatorCircuitBreaker);
+		clone.setOncotatorRequestPermits(oncotatorRequestPermits);
+		clone.setOncotatorBlockSize(oncotatorBlockSize);
+		clone.setOncotatorFetchers(oncotatorFetchers);
+		clone.setOncotatorRateLimit(oncotatorRateLimit);
+		clone.setOncotatorRetries(oncotatorRetries);
+		clone.setOncotatorMemoryCache(oncotatorMemoryCache);
+		clone.setOncotatorMemoryCacheMb(oncotatorMemoryCacheMb);
+		clone.setOncotatorCacheFile(oncotatorCacheFile);
+		clone.setOncotatorBuildCache(oncotatorBuildCache);
+		clone.setOncotatorCheckpoint(oncotatorCheckpoint);
+		clone.setProgressInterval(progressInterval);
 
 		return clone;
 	}
@@ -317,6 +494,36 @@ public class AnnotatorConfig
 		this.clusterSp = clusterSp;
 	}
 
+	public String getClusterBsub()
+	{
+		return clusterBsub;
+	}
+
+	public void setClusterBsub(String clusterBsub)
+	{
+		this.clusterBsub = clusterBsub;
+	}
+
+	public int getClusterMaxJobs()
+	{
+		return clusterMaxJobs;
+	}
+
+	public void setClusterMaxJobs(int clusterMaxJobs)
+	{
+		this.clusterMaxJobs = clusterMaxJobs;
+	}
+
+	public int getClusterMaxRetries()
+	{
+		return clusterMaxRetries;
+	}
+
+	public void setClusterMaxRetries(int clusterMaxRetries)
+	{
+		this.clusterMaxRetries = clusterMaxRetries;
+	}
+
 	public boolean isSort()
 	{
 		return sort;
@@ -468,4 +675,244 @@ public class AnnotatorConfig
 	}
 
 
+
+	public long getJoinThreshold()
+	{
+		return joinThreshold;
+	}
+
+	public void setJoinThreshold(long joinThreshold)
+	{
+		this.joinThreshold = joinThreshold;
+	}
+
+	public long getJoinMemory()
+	{
+		return joinMemory;
+	}
+
+	public void setJoinMemory(long joinMemory)
+	{
+		this.joinMemory = joinMemory;
+	}
+
+	public int getNumShards()
+	{
+		return numShards;
+	}
+
+	public void setNumShards(int numShards)
+	{
+		this.numShards = numShards;
+	}
+
+	public int getShardWorkers()
+	{
+		return shardWorkers;
+	}
+
+	public void setShardWorkers(int shardWorkers)
+	{
+		this.shardWorkers = shardWorkers;
+	}
+
+	public String getWorkspaceRoot()
+	{
+		return workspaceRoot;
+	}
+
+	public void setWorkspaceRoot(String workspaceRoot)
+	{
+		this.workspaceRoot = workspaceRoot;
+	}
+
+	public int getNumWorkers()
+	{
+		return numWorkers;
+	}
+
+	public void setNumWorkers(int numWorkers)
+	{
+		this.numWorkers = numWorkers;
+	}
+
+	public String getAnnotationStore()
+	{
+		return annotationStore;
+	}
+
+	public void setAnnotationStore(String annotationStore)
+	{
+		this.annotationStore = annotationStore;
+	}
+
+	public boolean isMergeOriginal()
+	{
+		return mergeOriginal;
+	}
+
+	public void setMergeOriginal(boolean mergeOriginal)
+	{
+		this.mergeOriginal = mergeOriginal;
+	}
+
+	public String getTimingReportFile()
+	{
+		return timingReportFile;
+	}
+
+	public void setTimingReportFile(String timingReportFile)
+	{
+		this.timingReportFile = timingReportFile;
+	}
+
+	public TimingReport getTimingReport()
+	{
+		return timingReport;
+	}
+
+	public void setTimingReport(TimingReport timingReport)
+	{
+		this.timingReport = timingReport;
+	}
+
+	public int getOncotatorBlockSize()
+	{
+		return oncotatorBlockSize;
+	}
+
+	public void setOncotatorBlockSize(int oncotatorBlockSize)
+	{
+		this.oncotatorBlockSize = oncotatorBlockSize;
+	}
+
+	public int getOncotatorFetchers()
+	{
+		return oncotatorFetchers;
+	}
+
+	public void setOncotatorFetchers(int oncotatorFetchers)
+	{
+		this.oncotatorFetchers = oncotatorFetchers;
+	}
+
+	public int getOncotatorRateLimit()
+	{
+		return oncotatorRateLimit;
+	}
+
+	public void setOncotatorRateLimit(int oncotatorRateLimit)
+	{
+		this.oncotatorRateLimit = oncotatorRateLimit;
+	}
+
+	public int getOncotatorRetries()
+	{
+		return oncotatorRetries;
+	}
+
+	public void setOncotatorRetries(int oncotatorRetries)
+	{
+		this.oncotatorRetries = oncotatorRetries;
+	}
+
+	public int getOncotatorMemoryCache()
+	{
+		return oncotatorMemoryCache;
+	}
+
+	public void setOncotatorMemoryCache(int oncotatorMemoryCache)
+	{
+		this.oncotatorMemoryCache = oncotatorMemoryCache;
+	}
+
+	public int getOncotatorMemoryCacheMb()
+	{
+		return oncotatorMemoryCacheMb;
+	}
+
+	public void setOncotatorMemoryCacheMb(int oncotatorMemoryCacheMb)
+	{
+		this.oncotatorMemoryCacheMb = oncotatorMemoryCacheMb;
+	}
+
+	public String getOncotatorCacheFile()
+	{
+		return oncotatorCacheFile;
+	}
+
+	public void setOncotatorCacheFile(String oncotatorCacheFile)
+	{
+		this.oncotatorCacheFile = oncotatorCacheFile;
+	}
+
+	public boolean isOncotatorBuildCache()
+	{
+		return oncotatorBuildCache;
+	}
+
+	public void setOncotatorBuildCache(boolean oncotatorBuildCache)
+	{
+		this.oncotatorBuildCache = oncotatorBuildCache;
+	}
+
+	public String getOncotatorCheckpoint()
+	{
+		return oncotatorCheckpoint;
+	}
+
+	public void setOncotatorCheckpoint(String oncotatorCheckpoint)
+	{
+		this.oncotatorCheckpoint = oncotatorCheckpoint;
+	}
+
+	public int getProgressInterval()
+	{
+		return progressInterval;
+	}
+
+	public void setProgressInterval(int progressInterval)
+	{
+		this.progressInterval = progressInterval;
+	}
+
+	public String getFileGlob()
+	{
+		return fileGlob;
+	}
+
+	public void setFileGlob(String fileGlob)
+	{
+		this.fileGlob = fileGlob;
+	}
+
+	public RateLimiter getOncotatorRateLimiter()
+	{
+		return oncotatorRateLimiter;
+	}
+
+	public void setOncotatorRateLimiter(RateLimiter oncotatorRateLimiter)
+	{
+		this.oncotatorRateLimiter = oncotatorRateLimiter;
+	}
+
+	public CircuitBreaker getOncotatorCircuitBreaker()
+	{
+		return oncotatorCircuitBreaker;
+	}
+
+	public void setOncotatorCircuitBreaker(CircuitBreaker oncotatorCircuitBreaker)
+	{
+		this.oncotatorCircuitBreaker = oncotatorCircuitBreaker;
+	}
+
+	public Semaphore getOncotatorRequestPermits()
+	{
+		return oncotatorRequestPermits;
+	}
+
+	public void setOncotatorRequestPermits(Semaphore oncotatorRequestPermits)
+	{
+		this.oncotatorRequestPermits = oncotatorRequestPermits;
+	}
 }
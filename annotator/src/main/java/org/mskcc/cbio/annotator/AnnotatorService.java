@@ -7,9 +7,13 @@ import org.mskcc.cbio.maf.MafRecord;
 import org.mskcc.cbio.maf.MafUtil;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -17,6 +21,10 @@ import java.util.Map;
  * Currently, this class is implemented as a local service.
  * It gets the annotation information from a local source.
  *
+ * Annotated records are matched to the original records either by an
+ * in-memory map (for small intermediate files), or by a bounded memory
+ * external sort-merge join (for large intermediate files).
+ *
  * @author Selcuk Onur Sumer
  */
 public class AnnotatorService
@@ -29,11 +37,27 @@ public class AnnotatorService
 	private Map<String, String> lineCache;
 	private AnnotatorConfig config;
 
+	// file read sequentially by annotateRecord
+	private String streamFile;
+
+	// joined file created by the sort-merge join (if any)
+	private File joinedFile;
+
+	// column names of the intermediate file, and their resolved indices
+	private String[] columnNames;
+	private int[] columnIndices;
+
+	// cumulative time (in nanoseconds) and number of annotated records
+	private long annotateTime;
+	private long numAnnotated;
+
 	public AnnotatorService(AnnotatorConfig config)
 	{
+		this.config = config;
+		this.streamFile = config.getIntermediateMaf();
+
 		try
 		{
-			this.config = config;
 			this.lineCache = this.buildMap(config.getIntermediateMaf());
 		}
 		catch (IOException e)
@@ -44,8 +68,60 @@ public class AnnotatorService
 		}
 	}
 
+	/**
+	 * Creates a service to annotate the records of the given input file.
+	 * Selects the join strategy by the size of the intermediate file:
+	 * the in-memory map is used up to the configured join threshold,
+	 * and the external sort-merge join is used above it. In the latter
+	 * case, records should be annotated in the input order.
+	 *
+	 * @param config    annotator configuration
+	 * @param input     original input file
+	 * @throws IOException  if an IO error occurs
+	 */
+	public AnnotatorService(AnnotatorConfig config, File input) throws IOException
+	{
+		this.config = config;
+		this.streamFile = config.getIntermediateMaf();
+
+		File intermediate = new File(config.getIntermediateMaf());
+
+		if (intermediate.length() <= config.getJoinThreshold())
+		{
+			this.lineCache = this.buildMap(config.getIntermediateMaf());
+		}
+		else
+		{
+			File tmpDir = new File(config.getTmpDir());
+
+			if (!tmpDir.isDirectory())
+			{
+				tmpDir = intermediate.getAbsoluteFile().getParentFile();
+			}
+
+			SortMergeJoin join = new SortMergeJoin(config.getJoinMemory(), tmpDir);
+			long start = System.currentTimeMillis();
+
+			this.joinedFile = File.createTempFile("joined", ".maf", tmpDir);
+			join.join(input, intermediate, this.joinedFile);
+			config.getTimingReport().add("sort_merge_join",
+				System.currentTimeMillis() - start,
+				join.getNumRecords(),
+				intermediate.length());
+
+			this.streamFile = this.joinedFile.getPath();
+			this.initColumnMapping(join.getHeaderLine(), new MafUtil(join.getHeaderLine()));
+
+			LOG.info("AnnotatorService(), sort-merge join completed: " +
+			         join.getNumRecords() + " records, " +
+			         join.getNumUnmatched() + " unmatched, " +
+			         join.getNumRuns() + " runs spilled to disk.");
+		}
+	}
+
 	private Map<String, String> buildMap(String filename) throws IOException
 	{
+		long start = System.currentTimeMillis();
 		Map<String, String> cache = new HashMap<String, String>();
 		BufferedReader reader = new BufferedReader(new FileReader(filename));
 		MafHeaderUtil headerUtil = new MafHeaderUtil();
@@ -63,10 +139,107 @@ public class AnnotatorService
 
 		reader.close();
 
+		this.initColumnMapping(headerLine, mafUtil);
+
+		this.config.getTimingReport().add("build_map",
+			System.currentTimeMillis() - start,
+			cache.size(),
+			new File(filename).length());
+
+		return cache;
+	}
+
+	/**
+	 * Resolves the column indices of the intermediate file once,
+	 * so that they are not looked up again for every single record.
+	 *
+	 * @param headerLine    header line of the intermediate file
+	 * @param mafUtil       MAF util for the given header line
+	 */
+	private void initColumnMapping(String headerLine, MafUtil mafUtil)
+	{
 		this.headerLine = headerLine;
 		this.mafUtil = mafUtil;
+		this.columnNames = headerLine.split("\t");
+		this.columnIndices = new int[this.columnNames.length];
 
-		return cache;
+		for (int i = 0; i < this.columnNames.length; i++)
+		{
+			this.columnIndices[i] = mafUtil.getColumnIndex(this.columnNames[i]);
+		}
+	}
+
+	/**
+	 * Extracts annotation data from the given intermediate file line.
+	 * The line is tokenized only once.
+	 *
+	 * @param line  a single data line of the intermediate file
+	 * @return      map of column names to data values
+	 */
+	private Map<String, String> extractData(String line)
+	{
+		Map<String, String> data = new HashMap<String, String>();
+		String parts[] = line.split("\t", -1);
+
+		for (int i = 0; i < this.columnNames.length; i++)
+		{
+			data.put(this.columnNames[i], parts[this.columnIndices[i]]);
+		}
+
+		return data;
+	}
+
+	/**
+	 * Gets the annotation data for the given record by using the join
+	 * strategy selected at construction time.
+	 *
+	 * @param mafRecord record to annotate
+	 * @return          map of column names to data values
+	 * @throws IOException  if an IO error occurs
+	 */
+	public Map<String, String> annotate(MafRecord mafRecord) throws IOException
+	{
+		long start = System.nanoTime();
+		Map<String, String> data;
+
+		if (this.lineCache != null)
+		{
+			data = this.annotateRecordWithCache(mafRecord);
+		}
+		else
+		{
+			data = this.annotateRecord(mafRecord);
+		}
+
+		this.annotateTime += System.nanoTime() - start;
+		this.numAnnotated++;
+
+		return data;
+	}
+
+	/**
+	 * Returns the column names of the intermediate file.
+	 *
+	 * @return  list of intermediate column names
+	 */
+	public List<String> getColumnNames()
+	{
+		if (this.columnNames == null)
+		{
+			return new ArrayList<String>();
+		}
+
+		return Arrays.asList(this.columnNames);
+	}
+
+	/**
+	 * Indicates whether the external sort-merge join is in use.
+	 *
+	 * @return  true if the records are joined on disk
+	 */
+	public boolean isExternalJoin()
+	{
+		return this.joinedFile != null;
 	}
 
 	public Map<String, String> annotateRecord(MafRecord mafRecord) throws IOException
@@ -76,11 +249,11 @@ public class AnnotatorService
 		if (this.reader == null)
 		{
 			this.reader = new BufferedReader(
-					new FileReader(this.config.getIntermediateMaf()));
+					new FileReader(this.streamFile));
 
 			MafHeaderUtil headerUtil = new MafHeaderUtil();
-			this.headerLine = headerUtil.extractHeader(this.reader);
-			this.mafUtil = new MafUtil(headerLine);
+			String headerLine = headerUtil.extractHeader(this.reader);
+			this.initColumnMapping(headerLine, new MafUtil(headerLine));
 		}
 
 		// TODO make sure that this line actually corresponds to the given maf record...
@@ -90,6 +263,11 @@ public class AnnotatorService
 		{
 			LOG.warn("annotateRecordWithoutCache(), input vs intermediate file size mismatch.");
 		}
+		// no match found by the sort-merge join
+		else if (line.length() == 0)
+		{
+			LOG.warn("annotateRecord(), record cannot be found in the intermediate output file.");
+		}
 		else
 		{
 			MafRecord record = this.mafUtil.parseRecord(line);
@@ -103,12 +281,7 @@ public class AnnotatorService
 				         originalKey + " & " + annotatedKey);
 			}
 
-			for (String header: this.headerLine.split("\t"))
-			{
-				String parts[] = line.split("\t", -1);
-
-				data.put(header, parts[this.mafUtil.getColumnIndex(header)]);
-			}
+			data = this.extractData(line);
 		}
 
 		return data;
@@ -126,12 +299,7 @@ public class AnnotatorService
 		}
 		else
 		{
-			for (String header: this.headerLine.split("\t"))
-			{
-				String parts[] = line.split("\t", -1);
-
-				data.put(header, parts[this.mafUtil.getColumnIndex(header)]);
-			}
+			data = this.extractData(line);
 		}
 
 		return data;
@@ -144,6 +312,20 @@ public class AnnotatorService
 			this.reader.close();
 		}
 
+		if (this.joinedFile != null)
+		{
+			this.joinedFile.delete();
+		}
+
+		if (this.numAnnotated > 0)
+		{
+			this.config.getTimingReport().add("annotate_records",
+				this.annotateTime / 1000000, this.numAnnotated, 0);
+
+			this.annotateTime = 0;
+			this.numAnnotated = 0;
+		}
+
 		// TODO also delete intermediate files?
 	}
 }
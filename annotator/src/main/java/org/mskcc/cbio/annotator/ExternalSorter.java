@@ -0,0 +1,385 @@
+package org.mskcc.cbio.annotator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts (key, sequence, value) records with a bounded amount of memory.
+ *
+ * Records are buffered in memory until the approximate buffer size exceeds
+ * the memory limit, then the buffer is sorted and spilled to a temporary
+ * run file. Sorted runs are merged back in a single streaming pass.
+ * Records are ordered by key first, then by sequence number, so records
+ * with the same key retain their insertion order.
+ */
+public class ExternalSorter
+{
+	// maximum number of run files merged at the same time
+	public static final int MAX_MERGE_WIDTH = 64;
+
+	// rough estimate of the per record overhead (object headers, references)
+	private static final int RECORD_OVERHEAD = 64;
+
+	private long memoryLimit;
+	private File tmpDir;
+
+	private List<SortRecord> buffer;
+	private long bufferSize;
+	private List<File> runs;
+	private int numRuns;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param memoryLimit   approximate memory limit in bytes
+	 * @param tmpDir        directory for the run files (system default if null)
+	 */
+	public ExternalSorter(long memoryLimit, File tmpDir)
+	{
+		this.memoryLimit = memoryLimit;
+		this.tmpDir = tmpDir;
+		this.buffer = new ArrayList<SortRecord>();
+		this.bufferSize = 0;
+		this.runs = new ArrayList<File>();
+		this.numRuns = 0;
+	}
+
+	/**
+	 * Adds a new record to the sorter. Spills the buffered records to disk
+	 * if the memory limit is exceeded.
+	 *
+	 * @param key       sort key
+	 * @param seq       sequence number (secondary sort key)
+	 * @param value     value of the record
+	 * @throws IOException  if an IO error occurs while spilling
+	 */
+	public void add(String key, long seq, String value) throws IOException
+	{
+		this.buffer.add(new SortRecord(key, seq, value));
+
+		// java strings use 2 bytes per char
+		this.bufferSize += 2 * (key.length() + value.length()) + RECORD_OVERHEAD;
+
+		if (this.bufferSize > this.memoryLimit)
+		{
+			this.spill();
+		}
+	}
+
+	/**
+	 * Returns a reader over all the records added so far, in sorted order.
+	 * No more records should be added after calling this method.
+	 *
+	 * @return  reader for sorted records
+	 * @throws IOException  if an IO error occurs
+	 */
+	public RecordReader sort() throws IOException
+	{
+		// everything fits into memory, no need to touch the disk
+		if (this.runs.isEmpty())
+		{
+			Collections.sort(this.buffer);
+			return new ListReader(this.buffer);
+		}
+
+		this.spill();
+
+		// too many runs to open at once, merge them in multiple passes
+		while (this.runs.size() > MAX_MERGE_WIDTH)
+		{
+			List<File> group = new ArrayList<File>(this.runs.subList(0, MAX_MERGE_WIDTH));
+			this.runs.removeAll(group);
+
+			File merged = this.createRunFile();
+			RecordReader reader = new MergeReader(group);
+			DataOutputStream out = openRun(merged);
+			SortRecord record;
+
+			while ((record = reader.next()) != null)
+			{
+				writeRecord(out, record);
+			}
+
+			out.writeBoolean(false);
+			out.close();
+			reader.close();
+
+			for (File run : group)
+			{
+				run.delete();
+			}
+
+			this.runs.add(merged);
+		}
+
+		return new MergeReader(this.runs);
+	}
+
+	/**
+	 * Deletes all remaining run files.
+	 */
+	public void cleanUp()
+	{
+		for (File run : this.runs)
+		{
+			run.delete();
+		}
+
+		this.runs.clear();
+		this.buffer.clear();
+	}
+
+	/**
+	 * Returns the total number of run files spilled to the disk.
+	 *
+	 * @return  number of spilled runs
+	 */
+	public int getNumRuns()
+	{
+		return this.numRuns;
+	}
+
+	protected void spill() throws IOException
+	{
+		if (this.buffer.isEmpty())
+		{
+			return;
+		}
+
+		Collections.sort(this.buffer);
+
+		File run = this.createRunFile();
+		DataOutputStream out = openRun(run);
+
+		for (SortRecord record : this.buffer)
+		{
+			writeRecord(out, record);
+		}
+
+		// end of run marker
+		out.writeBoolean(false);
+		out.close();
+
+		this.runs.add(run);
+		this.numRuns++;
+		this.buffer.clear();
+		this.bufferSize = 0;
+	}
+
+	protected File createRunFile() throws IOException
+	{
+		File run = File.createTempFile("sort", ".run", this.tmpDir);
+		run.deleteOnExit();
+
+		return run;
+	}
+
+	private static DataOutputStream openRun(File run) throws IOException
+	{
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(run), 1 << 16));
+	}
+
+	private static void writeRecord(DataOutputStream out, SortRecord record) throws IOException
+	{
+		out.writeBoolean(true);
+		writeString(out, record.getKey());
+		out.writeLong(record.getSeq());
+		writeString(out, record.getValue());
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		// not using writeUTF, since it is limited to 64K bytes
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * A single sortable record.
+	 */
+	public static class SortRecord implements Comparable<SortRecord>
+	{
+		private String key;
+		private long seq;
+		private String value;
+
+		public SortRecord(String key, long seq, String value)
+		{
+			this.key = key;
+			this.seq = seq;
+			this.value = value;
+		}
+
+		public int compareTo(SortRecord other)
+		{
+			int result = this.key.compareTo(other.key);
+
+			if (result == 0)
+			{
+				result = this.seq < other.seq ? -1 : (this.seq == other.seq ? 0 : 1);
+			}
+
+			return result;
+		}
+
+		public String getKey()
+		{
+			return key;
+		}
+
+		public long getSeq()
+		{
+			return seq;
+		}
+
+		public String getValue()
+		{
+			return value;
+		}
+	}
+
+	/**
+	 * Sequential reader for sorted records.
+	 */
+	public interface RecordReader
+	{
+		/**
+		 * @return  next record, or null if there are no more records
+		 */
+		SortRecord next() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	protected static class ListReader implements RecordReader
+	{
+		private Iterator<SortRecord> iterator;
+
+		public ListReader(List<SortRecord> records)
+		{
+			this.iterator = records.iterator();
+		}
+
+		public SortRecord next()
+		{
+			return this.iterator.hasNext() ? this.iterator.next() : null;
+		}
+
+		public void close()
+		{
+			// nothing to close
+		}
+	}
+
+	protected static class RunReader implements RecordReader, Comparable<RunReader>
+	{
+		private DataInputStream in;
+		private SortRecord current;
+
+		public RunReader(File run) throws IOException
+		{
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(run), 1 << 16));
+		}
+
+		public SortRecord next() throws IOException
+		{
+			if (this.in.readBoolean())
+			{
+				String key = readString(this.in);
+				long seq = this.in.readLong();
+				String value = readString(this.in);
+
+				this.current = new SortRecord(key, seq, value);
+			}
+			else
+			{
+				this.current = null;
+			}
+
+			return this.current;
+		}
+
+		public SortRecord getCurrent()
+		{
+			return this.current;
+		}
+
+		public void close() throws IOException
+		{
+			this.in.close();
+		}
+
+		public int compareTo(RunReader other)
+		{
+			return this.current.compareTo(other.current);
+		}
+	}
+
+	/**
+	 * K-way merge of the given sorted run files.
+	 */
+	protected static class MergeReader implements RecordReader
+	{
+		private PriorityQueue<RunReader> queue;
+		private List<RunReader> readers;
+
+		public MergeReader(List<File> runs) throws IOException
+		{
+			this.queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()));
+			this.readers = new ArrayList<RunReader>();
+
+			for (File run : runs)
+			{
+				RunReader reader = new RunReader(run);
+				this.readers.add(reader);
+
+				if (reader.next() != null)
+				{
+					this.queue.add(reader);
+				}
+			}
+		}
+
+		public SortRecord next() throws IOException
+		{
+			RunReader reader = this.queue.poll();
+
+			if (reader == null)
+			{
+				return null;
+			}
+
+			SortRecord record = reader.getCurrent();
+
+			if (reader.next() != null)
+			{
+				this.queue.add(reader);
+			}
+
+			return record;
+		}
+
+		public void close() throws IOException
+		{
+			for (RunReader reader : this.readers)
+			{
+				reader.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package org.mskcc.cbio.annotator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embedded, file backed annotation store.
+ *
+ * Records are kept in a single append-only text file. Only the file
+ * offsets of the records are kept in memory, records themselves are read
+ * from the disk on demand. Each distinct header line is written once,
+ * and records refer to their header by id:
+ *
+ *   #H  [header id]  [tab delimited column names]
+ *   [key]  [header id]  [tab delimited values]
+ *
+ * A single instance is shared per file within the same JVM, so that
+ * concurrent annotation runs can safely use the same store. The store
+ * is not safe to be written by multiple processes at the same time.
+ */
+public class FileAnnotationStore implements AnnotationStore
+{
+	public static final String HEADER_PREFIX = "#H\t";
+
+	private static final String CHARSET = "UTF-8";
+
+	// shared store instances (one per file)
+	private static Map<String, FileAnnotationStore> instances =
+		new HashMap<String, FileAnnotationStore>();
+
+	private File file;
+	private RandomAccessFile raf;
+
+	// key to record offset
+	private Map<String, Long> index;
+
+	// header id to column names, and header line to header id
+	private List<String[]> headers;
+	private Map<String, Integer> headerIds;
+
+	// records not written to the disk yet
+	private ByteArrayOutputStream pending;
+	private long flushedLength;
+
+	/**
+	 * Returns the shared store instance for the given file.
+	 * The file is created if it does not exist.
+	 *
+	 * @param file  store file
+	 * @return      store instance for the file
+	 * @throws IOException  if the store cannot be loaded
+	 */
+	public static synchronized FileAnnotationStore getInstance(File file) throws IOException
+	{
+		String path = file.getCanonicalPath();
+		FileAnnotationStore store = instances.get(path);
+
+		if (store == null)
+		{
+			store = new FileAnnotationStore(file);
+			instances.put(path, store);
+		}
+
+		return store;
+	}
+
+	protected FileAnnotationStore(File file) throws IOException
+	{
+		this.file = file;
+		this.index = new HashMap<String, Long>();
+		this.headers = new ArrayList<String[]>();
+		this.headerIds = new HashMap<String, Integer>();
+		this.pending = new ByteArrayOutputStream();
+
+		File parent = file.getAbsoluteFile().getParentFile();
+
+		if (parent != null)
+		{
+			parent.mkdirs();
+		}
+
+		this.raf = new RandomAccessFile(file, "rw");
+		this.load();
+	}
+
+	/**
+	 * Builds the in-memory index by scanning the whole file once.
+	 */
+	protected void load() throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(this.file), 1 << 16);
+		ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+		long offset = 0;
+		long lineStart = 0;
+		int b;
+
+		while ((b = in.read()) != -1)
+		{
+			offset++;
+
+			if (b == '\n')
+			{
+				this.indexLine(new String(lineBuffer.toByteArray(), CHARSET), lineStart);
+				lineBuffer.reset();
+				lineStart = offset;
+			}
+			else
+			{
+				lineBuffer.write(b);
+			}
+		}
+
+		in.close();
+
+		// ignore a partially written last line (if any)
+		this.flushedLength = lineStart;
+		this.raf.setLength(lineStart);
+	}
+
+	protected void indexLine(String line, long offset)
+	{
+		if (line.startsWith(HEADER_PREFIX))
+		{
+			String parts[] = line.split("\t", 3);
+			String headerLine = parts.length > 2 ? parts[2] : "";
+
+			this.headerIds.put(headerLine, this.headers.size());
+			this.headers.add(headerLine.split("\t", -1));
+		}
+		else if (line.length() > 0)
+		{
+			this.index.put(line.substring(0, line.indexOf('\t')), offset);
+		}
+	}
+
+	public synchronized boolean contains(String key)
+	{
+		return this.index.containsKey(key);
+	}
+
+	public synchronized Map<String, String> get(String key) throws IOException
+	{
+		Long offset = this.index.get(key);
+
+		if (offset == null)
+		{
+			return null;
+		}
+
+		if (offset >= this.flushedLength)
+		{
+			this.flush();
+		}
+
+		String parts[] = this.readLine(offset).split("\t", 3);
+		String[] columns = this.headers.get(Integer.parseInt(parts[1]));
+		String[] values = parts.length > 2 ? parts[2].split("\t", -1) : new String[0];
+
+		Map<String, String> record = new LinkedHashMap<String, String>();
+
+		for (int i = 0; i < columns.length; i++)
+		{
+			record.put(columns[i], i < values.length ? values[i] : "");
+		}
+
+		return record;
+	}
+
+	public synchronized void put(String key,
+			String headerLine,
+			String dataLine) throws IOException
+	{
+		Integer headerId = this.headerIds.get(headerLine);
+
+		if (headerId == null)
+		{
+			headerId = this.headers.size();
+			this.headerIds.put(headerLine, headerId);
+			this.headers.add(headerLine.split("\t", -1));
+			this.append(HEADER_PREFIX + headerId + "\t" + headerLine);
+		}
+
+		long offset = this.append(key + "\t" + headerId + "\t" + dataLine);
+		this.index.put(key, offset);
+	}
+
+	public synchronized int size()
+	{
+		return this.index.size();
+	}
+
+	public synchronized void flush() throws IOException
+	{
+		if (this.pending.size() > 0)
+		{
+			this.raf.seek(this.flushedLength);
+			this.raf.write(this.pending.toByteArray());
+			this.flushedLength += this.pending.size();
+			this.pending.reset();
+		}
+	}
+
+	/**
+	 * Appends the given line to the pending buffer.
+	 *
+	 * @param line  line to append
+	 * @return      offset of the line within the file
+	 */
+	protected long append(String line) throws IOException
+	{
+		long offset = this.flushedLength + this.pending.size();
+
+		this.pending.write(line.getBytes(CHARSET));
+		this.pending.write('\n');
+
+		// do not let the pending buffer grow too much
+		if (this.pending.size() > (1 << 20))
+		{
+			this.flush();
+		}
+
+		return offset;
+	}
+
+	protected String readLine(long offset) throws IOException
+	{
+		ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		boolean done = false;
+
+		this.raf.seek(offset);
+
+		while (!done)
+		{
+			int length = this.raf.read(buffer);
+
+			if (length == -1)
+			{
+				break;
+			}
+
+			for (int i = 0; i < length; i++)
+			{
+				if (buffer[i] == '\n')
+				{
+					lineBuffer.write(buffer, 0, i);
+					done = true;
+					break;
+				}
+			}
+
+			if (!done)
+			{
+				lineBuffer.write(buffer, 0, length);
+			}
+		}
+
+		return new String(lineBuffer.toByteArray(), CHARSET);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+}
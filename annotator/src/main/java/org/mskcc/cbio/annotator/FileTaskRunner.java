@@ -0,0 +1,178 @@
+package org.mskcc.cbio.annotator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs a task for each file of a list, either sequentially or on a
+ * work-stealing pool with a bounded number of threads.
+ *
+ * A failing file does not stop the remaining files. Failures are collected
+ * (in the original file order) so that they can be reported all together
+ * when every file is processed.
+ */
+public class FileTaskRunner
+{
+	/**
+	 * Task to run for a single file.
+	 */
+	public interface FileTask
+	{
+		/**
+		 * Processes the given file.
+		 *
+		 * @param file  file to process
+		 * @return      error message if the file fails, null otherwise
+		 * @throws Exception    if the file cannot be processed
+		 */
+		public String process(File file) throws Exception;
+	}
+
+	private int numThreads;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numThreads    maximum number of files processed at the same time
+	 *                      (files are processed sequentially if less than 2)
+	 */
+	public FileTaskRunner(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Runs the task for all given files, and waits until all are completed.
+	 *
+	 * @param files     list of files to process
+	 * @param task      task to run for each file
+	 * @return          map of failed files to error messages (in file order)
+	 */
+	public Map<File, String> runAll(List<File> files, FileTask task)
+	{
+		List<String> errors = new ArrayList<String>(
+			Collections.<String>nCopies(files.size(), null));
+
+		if (this.numThreads < 2 ||
+		    files.size() < 2)
+		{
+			for (int i = 0; i < files.size(); i++)
+			{
+				errors.set(i, runTask(task, files.get(i)));
+			}
+		}
+		else
+		{
+			this.runParallel(files, task, errors);
+		}
+
+		Map<File, String> failures = new LinkedHashMap<File, String>();
+
+		for (int i = 0; i < files.size(); i++)
+		{
+			if (errors.get(i) != null)
+			{
+				failures.put(files.get(i), errors.get(i));
+			}
+		}
+
+		return failures;
+	}
+
+	protected void runParallel(final List<File> files,
+			final FileTask task,
+			final List<String> errors)
+	{
+		List<Integer> order = new ArrayList<Integer>();
+
+		for (int i = 0; i < files.size(); i++)
+		{
+			order.add(i);
+		}
+
+		// start with the largest files, so that the small ones
+		// fill in the gaps at the end instead of a single large straggler
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b)
+			{
+				long diff = files.get(b).length() - files.get(a).length();
+				return diff > 0 ? 1 : (diff < 0 ? -1 : a.compareTo(b));
+			}
+		});
+
+		List<Callable<Void>> callables = new ArrayList<Callable<Void>>();
+
+		for (final Integer index : order)
+		{
+			callables.add(new Callable<Void>() {
+				public Void call()
+				{
+					String error = runTask(task, files.get(index));
+
+					// each task writes to its own slot only
+					synchronized (errors)
+					{
+						errors.set(index, error);
+					}
+
+					return null;
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+
+		try
+		{
+			pool.invokeAll(callables);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	protected static String runTask(FileTask task, File file)
+	{
+		try
+		{
+			return task.process(file);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Prints a consolidated report of all failures.
+	 *
+	 * @param title     title of the report
+	 * @param numFiles  total number of files processed
+	 * @param failures  map of failed files to error messages
+	 */
+	public static void printReport(String title, int numFiles, Map<File, String> failures)
+	{
+		System.out.println(title + ": " + numFiles + " file(s) processed, " +
+		                   failures.size() + " failed");
+
+		for (Map.Entry<File, String> entry : failures.entrySet())
+		{
+			System.out.println("[FAILED] " + entry.getKey().getAbsolutePath() +
+			                   ": " + entry.getValue());
+		}
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+}
@@ -0,0 +1,546 @@
+package org.mskcc.cbio.annotator;
+
+import com.google.common.base.Joiner;
+import org.mskcc.cbio.maf.FileIOUtil;
+import org.mskcc.cbio.maf.MafHeaderUtil;
+import org.mskcc.cbio.maf.MafRecord;
+import org.mskcc.cbio.maf.MafUtil;
+import org.mskcc.cbio.maf.TabDelimitedFileUtil;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Annotator which skips the variants already annotated in a previous run.
+ *
+ * Input records are split into known and novel variants by looking up
+ * the annotation store. Only the novel variants are sent to maf2maf, and
+ * the two sets are merged back in the original input order. Newly
+ * annotated variants are added to the store at the end of each run.
+ *
+ * Only variant level annotation columns are stored. For known variants,
+ * all other (sample level) columns are taken from the current input.
+ *
+ * Records are stored by the key of the input record, which is carried
+ * through maf2maf in an extra column, since maf2maf may change the
+ * positions and the alleles of a variant (e.g. indels).
+ */
+public class IncrementalAnnotator extends Annotator
+{
+	// standard columns which are determined by the variant itself
+	public static final List<String> VARIANT_COLUMNS = Arrays.asList(
+		MafUtil.HUGO_SYMBOL, MafUtil.ENTREZ_GENE_ID, MafUtil.NCBI_BUILD,
+		MafUtil.CHROMOSOME, MafUtil.START_POSITION, MafUtil.END_POSITION,
+		MafUtil.STRAND, MafUtil.VARIANT_CLASSIFICATION, MafUtil.VARIANT_TYPE,
+		MafUtil.REFERENCE_ALLELE, MafUtil.TUMOR_SEQ_ALLELE_2,
+		MafUtil.DBSNP_RS, MafUtil.DBSNP_VAL_STATUS);
+
+	// column of the novel MAF holding the key of the input record
+	public static final String INPUT_KEY_COLUMN = "Incremental_Input_Key";
+
+	private static final Set<String> VARIANT_COLUMNS_LOWER_CASE = new HashSet<String>();
+
+	static
+	{
+		for (String column : VARIANT_COLUMNS)
+		{
+			VARIANT_COLUMNS_LOWER_CASE.add(column.toLowerCase());
+		}
+	}
+
+	// positions of the novel records within the input
+	private BitSet novelRecords;
+
+	private int numRecords;
+	private int numKnown;
+	private long maf2mafTime;
+
+	public IncrementalAnnotator(AnnotatorConfig config)
+	{
+		super(config);
+	}
+
+	protected int annotateInWorkspace(File input,
+			File output) throws IOException
+	{
+		// only MAF files are supported
+		if (input.getName().toLowerCase().endsWith(".vcf"))
+		{
+			return super.annotateInWorkspace(input, output);
+		}
+
+		AnnotationStore store = FileAnnotationStore.getInstance(
+			new File(this.getConfig().getAnnotationStore()));
+
+		TimingReport report = this.getConfig().getTimingReport();
+		long start = System.currentTimeMillis();
+
+		File novelMaf = new File(this.getConfig().getIntermediateMaf() + ".novel.maf");
+		int numNovel = this.splitNovel(input, novelMaf, store);
+		int retVal = 0;
+
+		this.setNumRecordsProcessed(this.numRecords);
+
+		report.add("split_novel", System.currentTimeMillis() - start,
+			this.numRecords, input.length());
+
+		String annotatedHeader = null;
+
+		if (numNovel > 0)
+		{
+			Map<String, String> env = this.buildEnvironment();
+			start = System.currentTimeMillis();
+
+			retVal = this.runMaf2Maf(novelMaf, env);
+			this.maf2mafTime = System.currentTimeMillis() - start;
+			report.add("maf2maf", this.maf2mafTime, numNovel, novelMaf.length());
+
+			// clean up the temporary files
+			this.cleanUp();
+
+			if (retVal != 0)
+			{
+				return retVal;
+			}
+
+			annotatedHeader = this.extractHeaderLine(
+				new File(this.getConfig().getIntermediateMaf()));
+		}
+
+		start = System.currentTimeMillis();
+		this.mergeOutput(input, output, annotatedHeader, store);
+		report.add("merge_incremental", System.currentTimeMillis() - start,
+			this.numRecords, output.length());
+
+		start = System.currentTimeMillis();
+
+		if (numNovel > 0)
+		{
+			this.updateStore(novelMaf, store);
+		}
+
+		store.flush();
+		report.add("update_store", System.currentTimeMillis() - start, numNovel, 0);
+		novelMaf.delete();
+
+		this.printReport();
+
+		return retVal;
+	}
+
+	/**
+	 * Writes the novel records of the input (not found in the store)
+	 * into a separate MAF with the same comments and header.
+	 *
+	 * @return  number of novel records
+	 */
+	protected int splitNovel(File input,
+			File novelMaf,
+			AnnotationStore store) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+		MafUtil mafUtil = new MafUtil(headerLine);
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter(novelMaf));
+		FileIOUtil.writeLines(writer, headerUtil.getComments());
+		writer.write(headerLine);
+		writer.write("\t");
+		writer.write(INPUT_KEY_COLUMN);
+		writer.write("\n");
+
+		String line;
+		int numNovel = 0;
+
+		this.numRecords = 0;
+		this.numKnown = 0;
+		this.novelRecords = new BitSet();
+
+		while ((line = reader.readLine()) != null)
+		{
+			// skip empty lines
+			if (line.trim().length() == 0)
+			{
+				continue;
+			}
+
+			String key = MafUtil.generateKey(mafUtil.parseRecord(line));
+
+			if (store.contains(key))
+			{
+				this.numKnown++;
+			}
+			else
+			{
+				// pad missing trailing columns, so that the key goes into its own column
+				writer.write(TabDelimitedFileUtil.adjustDataLine(line, mafUtil.getHeaderCount()));
+				writer.write("\t");
+				writer.write(key);
+				writer.write("\n");
+				this.novelRecords.set(this.numRecords);
+				numNovel++;
+			}
+
+			this.numRecords++;
+		}
+
+		writer.close();
+		reader.close();
+
+		return numNovel;
+	}
+
+	/**
+	 * Merges the known and the novel records in the original input order.
+	 *
+	 * @param annotatedHeader   header of the maf2maf output for the novel
+	 *                          records, or null if there are no novel records
+	 */
+	protected void mergeOutput(File input,
+			File output,
+			String annotatedHeader,
+			AnnotationStore store) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+		MafUtil mafUtil = new MafUtil(headerLine);
+		String[] inputColumns = headerLine.split("\t");
+
+		Map<String, String> annotatedLines = null;
+		String[] annotatedColumns = null;
+		List<String> outputColumns;
+
+		if (annotatedHeader != null)
+		{
+			annotatedColumns = annotatedHeader.split("\t");
+			annotatedLines = this.mapByInputKey(
+				new File(this.getConfig().getIntermediateMaf()));
+			outputColumns = new ArrayList<String>();
+
+			for (String column : annotatedHeader.split("\t"))
+			{
+				if (!column.equalsIgnoreCase(INPUT_KEY_COLUMN))
+				{
+					outputColumns.add(column);
+				}
+			}
+		}
+		else
+		{
+			outputColumns = this.composeHeader(input, inputColumns, store);
+		}
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter(output));
+
+		// write comments/metadata to the output
+		FileIOUtil.writeLines(writer, headerUtil.getComments());
+		FileIOUtil.writeLine(writer, outputColumns);
+
+		String line;
+		int position = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			// skip empty lines
+			if (line.trim().length() == 0)
+			{
+				continue;
+			}
+
+			MafRecord record = mafUtil.parseRecord(line);
+			List<String> data = new ArrayList<String>(outputColumns.size());
+
+			// decided at split time, the store may be updated concurrently
+			if (this.novelRecords.get(position++))
+			{
+				// maf2maf may change the key of the record, look it up by the input key
+				String annotatedLine = annotatedLines.get(MafUtil.generateKey(record));
+				Map<String, String> annotated = new HashMap<String, String>();
+
+				if (annotatedLine != null)
+				{
+					String[] parts = annotatedLine.split("\t", -1);
+
+					for (int i = 0; i < annotatedColumns.length; i++)
+					{
+						annotated.put(annotatedColumns[i], i < parts.length ? parts[i] : "");
+					}
+				}
+
+				for (String column : outputColumns)
+				{
+					data.add(annotated.get(column));
+				}
+			}
+			else
+			{
+				Map<String, String> known = store.get(MafUtil.generateKey(record));
+				Map<String, String> inputData = this.mapByLowerCase(
+					inputColumns, line.split("\t", -1));
+
+				for (String column : outputColumns)
+				{
+					String lowerCase = column.toLowerCase();
+					String value = null;
+
+					// sample level columns always come from the current input
+					if (!inputData.containsKey(lowerCase) ||
+					    VARIANT_COLUMNS_LOWER_CASE.contains(lowerCase))
+					{
+						value = known.get(column);
+					}
+
+					if (value == null)
+					{
+						value = inputData.get(lowerCase);
+					}
+
+					data.add(value);
+				}
+			}
+
+			FileIOUtil.writeLine(writer, data);
+		}
+
+		writer.close();
+		reader.close();
+	}
+
+	/**
+	 * Adds the variant level columns of the newly annotated records
+	 * into the store, by the key of the corresponding input record.
+	 */
+	protected void updateStore(File novelMaf, AnnotationStore store) throws IOException
+	{
+		Set<String> inputColumns = new HashSet<String>();
+
+		for (String column : this.extractHeaderLine(novelMaf).split("\t"))
+		{
+			inputColumns.add(column.toLowerCase());
+		}
+
+		BufferedReader reader = new BufferedReader(
+			new FileReader(this.getConfig().getIntermediateMaf()));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+		MafUtil mafUtil = new MafUtil(headerLine);
+		String[] columns = headerLine.split("\t");
+		int keyIndex = -1;
+
+		// indices of the columns to store
+		List<Integer> indices = new ArrayList<Integer>();
+		List<String> storedColumns = new ArrayList<String>();
+
+		for (int i = 0; i < columns.length; i++)
+		{
+			String column = columns[i].toLowerCase();
+
+			if (column.equalsIgnoreCase(INPUT_KEY_COLUMN))
+			{
+				keyIndex = i;
+			}
+			else if (!inputColumns.contains(column) ||
+			    VARIANT_COLUMNS_LOWER_CASE.contains(column))
+			{
+				indices.add(i);
+				storedColumns.add(columns[i]);
+			}
+		}
+
+		String storedHeader = Joiner.on("\t").join(storedColumns);
+		String line;
+
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.trim().length() == 0)
+			{
+				continue;
+			}
+
+			String parts[] = line.split("\t", -1);
+			List<String> values = new ArrayList<String>(indices.size());
+
+			for (Integer index : indices)
+			{
+				values.add(index < parts.length ? parts[index] : "");
+			}
+
+			store.put(this.inputKey(line, parts, keyIndex, mafUtil),
+				storedHeader,
+				Joiner.on("\t").join(values));
+		}
+
+		reader.close();
+	}
+
+	/**
+	 * Maps the data lines of the maf2maf output by the key
+	 * of the corresponding input record.
+	 */
+	protected Map<String, String> mapByInputKey(File annotatedMaf) throws IOException
+	{
+		Map<String, String> lines = new HashMap<String, String>();
+		BufferedReader reader = new BufferedReader(new FileReader(annotatedMaf));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+		MafUtil mafUtil = new MafUtil(headerLine);
+		int keyIndex = this.indexOf(headerLine.split("\t"), INPUT_KEY_COLUMN);
+		String line;
+
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.trim().length() == 0)
+			{
+				continue;
+			}
+
+			lines.put(this.inputKey(line, line.split("\t", -1), keyIndex, mafUtil), line);
+		}
+
+		reader.close();
+
+		return lines;
+	}
+
+	/**
+	 * Composes the output header when no record is sent to maf2maf:
+	 * stored annotation columns followed by the retained input columns.
+	 */
+	protected List<String> composeHeader(File input,
+			String[] inputColumns,
+			AnnotationStore store) throws IOException
+	{
+		List<String> columns = new ArrayList<String>();
+		Set<String> added = new HashSet<String>();
+
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		MafUtil mafUtil = new MafUtil(headerUtil.extractHeader(reader));
+		String line;
+
+		// stored columns of the first known record
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.trim().length() > 0)
+			{
+				Map<String, String> known = store.get(
+					MafUtil.generateKey(mafUtil.parseRecord(line)));
+
+				if (known != null)
+				{
+					for (String column : known.keySet())
+					{
+						columns.add(column);
+						added.add(column.toLowerCase());
+					}
+
+					break;
+				}
+			}
+		}
+
+		reader.close();
+
+		Set<String> retained = new HashSet<String>(Arrays.asList(
+			this.getRetainCols(input, this.getConfig().getExcludeCols()).split(",")));
+
+		for (String column : inputColumns)
+		{
+			String lowerCase = column.toLowerCase();
+
+			if (retained.contains(lowerCase) &&
+			    !added.contains(lowerCase))
+			{
+				columns.add(column);
+				added.add(lowerCase);
+			}
+		}
+
+		return columns;
+	}
+
+	protected void printReport()
+	{
+		int numNovel = this.numRecords - this.numKnown;
+		double hitRate = this.numRecords == 0 ? 0 : (100.0 * this.numKnown) / this.numRecords;
+
+		System.out.println("Annotation store: " + this.numRecords + " records, " +
+		                   this.numKnown + " known, " + numNovel + " novel " +
+		                   "(hit rate: " + String.format("%.1f", hitRate) + "%)");
+
+		if (numNovel > 0)
+		{
+			// assuming that maf2maf time is proportional to the number of records
+			double saved = (this.maf2mafTime / 1000.0) * this.numKnown / numNovel;
+
+			System.out.println("maf2maf time: " + (this.maf2mafTime / 1000.0) +
+			                   " seconds, estimated time saved: " +
+			                   String.format("%.1f", saved) + " seconds");
+		}
+		else if (this.numRecords > 0)
+		{
+			System.out.println("All records are known, maf2maf is skipped.");
+		}
+	}
+
+	private String extractHeaderLine(File maf) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(maf));
+		String headerLine = new MafHeaderUtil().extractHeader(reader);
+		reader.close();
+
+		return headerLine;
+	}
+
+	private String inputKey(String line, String[] parts, int keyIndex, MafUtil mafUtil)
+	{
+		String key = keyIndex >= 0 && keyIndex < parts.length ? parts[keyIndex] : "";
+
+		// input key is not retained, fall back to the annotated record
+		if (key.length() == 0)
+		{
+			key = MafUtil.generateKey(mafUtil.parseRecord(line));
+		}
+
+		return key;
+	}
+
+	private int indexOf(String[] columns, String column)
+	{
+		for (int i = 0; i < columns.length; i++)
+		{
+			if (columns[i].equalsIgnoreCase(column))
+			{
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private Map<String, String> mapByLowerCase(String[] columns, String[] values)
+	{
+		Map<String, String> map = new HashMap<String, String>();
+
+		for (int i = 0; i < columns.length; i++)
+		{
+			map.put(columns[i].toLowerCase(), i < values.length ? values[i] : "");
+		}
+
+		return map;
+	}
+
+	// Getters
+
+	public int getNumRecords()
+	{
+		return numRecords;
+	}
+
+	public int getNumKnown()
+	{
+		return numKnown;
+	}
+}
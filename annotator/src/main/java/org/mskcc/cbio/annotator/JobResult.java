@@ -0,0 +1,57 @@
+package org.mskcc.cbio.annotator;
+
+/**
+ * Final status of a single job executed by the job scheduler.
+ */
+public class JobResult
+{
+	private String input;
+	private String output;
+	private int exitCode;
+	private int attempts;
+
+	public JobResult(String input, String output)
+	{
+		this.input = input;
+		this.output = output;
+		this.exitCode = -1;
+		this.attempts = 0;
+	}
+
+	public boolean isSuccess()
+	{
+		return this.exitCode == 0;
+	}
+
+	// Getters and Setters
+
+	public String getInput()
+	{
+		return input;
+	}
+
+	public String getOutput()
+	{
+		return output;
+	}
+
+	public int getExitCode()
+	{
+		return exitCode;
+	}
+
+	public void setExitCode(int exitCode)
+	{
+		this.exitCode = exitCode;
+	}
+
+	public int getAttempts()
+	{
+		return attempts;
+	}
+
+	public void setAttempts(int attempts)
+	{
+		this.attempts = attempts;
+	}
+}
@@ -0,0 +1,239 @@
+package org.mskcc.cbio.annotator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules annotation jobs with an upper limit on the number of jobs
+ * running at the same time. Jobs are started in submission order, and
+ * a failed job is resubmitted to the end of the queue until it succeeds
+ * or the maximum number of retries is reached.
+ */
+public class JobScheduler
+{
+	private int maxJobs;
+	private int maxRetries;
+
+	private AtomicInteger numRunning;
+	private AtomicInteger peakRunning;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxJobs       maximum number of jobs running at the same time
+	 * @param maxRetries    maximum number of resubmissions for a failed job
+	 */
+	public JobScheduler(int maxJobs, int maxRetries)
+	{
+		this.maxJobs = maxJobs;
+		this.maxRetries = maxRetries;
+		this.numRunning = new AtomicInteger(0);
+		this.peakRunning = new AtomicInteger(0);
+	}
+
+	/**
+	 * Runs a job for each of the given configurations, and waits until
+	 * all jobs are completed.
+	 *
+	 * @param configs   list of job configurations
+	 * @return          list of job results (in the same order with configs)
+	 */
+	public List<JobResult> runAll(List<AnnotatorConfig> configs)
+	{
+		List<JobResult> results = new ArrayList<JobResult>();
+
+		if (configs.isEmpty())
+		{
+			return results;
+		}
+
+		// fixed size pool backed by a FIFO queue,
+		// so jobs are started in the order of submission
+		int poolSize = this.maxJobs > 0 ? this.maxJobs : configs.size();
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		CountDownLatch latch = new CountDownLatch(configs.size());
+
+		for (AnnotatorConfig config : configs)
+		{
+			JobResult result = new JobResult(config.getInput(), config.getOutput());
+			results.add(result);
+			executor.execute(new Job(config, result, executor, latch));
+		}
+
+		try
+		{
+			latch.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			e.printStackTrace();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Executes a single job for the given configuration.
+	 *
+	 * Override this method in a child class to run a different job.
+	 *
+	 * @param config    job configuration
+	 * @return          exit code of the job
+	 */
+	protected int runJob(AnnotatorConfig config)
+	{
+		return AnnotateTool.driver(config);
+	}
+
+	/**
+	 * Prints a per-file success/failure summary for the given results.
+	 *
+	 * @param results   list of job results
+	 */
+	public void printSummary(List<JobResult> results)
+	{
+		int numFailed = 0;
+
+		System.out.println("Job summary:");
+
+		for (JobResult result : results)
+		{
+			String status = result.isSuccess() ? "OK" : "FAILED";
+
+			if (!result.isSuccess())
+			{
+				numFailed++;
+			}
+
+			System.out.println("[" + status + "] " + result.getInput() +
+			                   " (exit code: " + result.getExitCode() +
+			                   ", attempts: " + result.getAttempts() + ")");
+		}
+
+		System.out.println("Total number of jobs: " + results.size() +
+		                   ", succeeded: " + (results.size() - numFailed) +
+		                   ", failed: " + numFailed);
+	}
+
+	// Getters and Setters
+
+	public int getMaxJobs()
+	{
+		return maxJobs;
+	}
+
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+
+	/**
+	 * Returns the highest number of jobs observed running at the same time.
+	 *
+	 * @return  peak number of running jobs
+	 */
+	public int getPeakRunning()
+	{
+		return peakRunning.get();
+	}
+
+	protected class Job implements Runnable
+	{
+		private AnnotatorConfig config;
+		private JobResult result;
+		private ExecutorService executor;
+		private CountDownLatch latch;
+
+		public Job(AnnotatorConfig config,
+				JobResult result,
+				ExecutorService executor,
+				CountDownLatch latch)
+		{
+			this.config = config;
+			this.result = result;
+			this.executor = executor;
+			this.latch = latch;
+		}
+
+		public void run()
+		{
+			int exitCode = -1;
+			int running = numRunning.incrementAndGet();
+
+			// update the peak value (in case of a concurrent update, try again)
+			int peak = peakRunning.get();
+
+			while (running > peak &&
+			       !peakRunning.compareAndSet(peak, running))
+			{
+				peak = peakRunning.get();
+			}
+
+			try
+			{
+				exitCode = runJob(this.config);
+			}
+			catch (RuntimeException e)
+			{
+				System.out.println("[ERROR] Job failed for " + this.config.getInput() +
+				                   ": " + e.getMessage());
+				e.printStackTrace();
+			}
+			finally
+			{
+				numRunning.decrementAndGet();
+
+				// also done when an error escapes, otherwise runAll never returns
+				this.result.setAttempts(this.result.getAttempts() + 1);
+				this.result.setExitCode(exitCode);
+
+				if (!this.resubmit(exitCode))
+				{
+					this.latch.countDown();
+				}
+			}
+		}
+
+		/**
+		 * Sends the job to the end of the queue if it failed, and
+		 * the max number of retries is not reached yet.
+		 *
+		 * @param exitCode  exit code of the last attempt
+		 * @return          true if the job is resubmitted
+		 */
+		private boolean resubmit(int exitCode)
+		{
+			if (exitCode == 0 ||
+			    this.result.getAttempts() > maxRetries)
+			{
+				return false;
+			}
+
+			System.out.println("[WARNING] Resubmitting job for " + this.config.getInput() +
+			                   " (exit code: " + exitCode +
+			                   ", attempt: " + this.result.getAttempts() + ")");
+
+			try
+			{
+				this.executor.execute(this);
+				return true;
+			}
+			catch (RejectedExecutionException e)
+			{
+				System.out.println("[ERROR] Cannot resubmit job for " + this.config.getInput() +
+				                   ": " + e.getMessage());
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.mskcc.cbio.annotator;
+
+import org.mskcc.cbio.maf.FileIOUtil;
+import org.mskcc.cbio.maf.MafHeaderUtil;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utility class to split a MAF file into record aligned shards,
+ * and to stitch the (processed) shards back into a single MAF.
+ */
+public class MafSharder
+{
+	/**
+	 * Splits the given MAF file into (at most) the given number of shards.
+	 * Each shard contains the comments and the header line of the input,
+	 * followed by a contiguous block of data lines. Empty lines are skipped.
+	 *
+	 * @param input     input MAF file
+	 * @param numShards maximum number of shards
+	 * @param outDir    directory for the shard files
+	 * @return          list of shard files, in the original record order
+	 * @throws IOException  if an IO error occurs
+	 */
+	public static List<File> split(File input, int numShards, File outDir) throws IOException
+	{
+		List<File> shards = new ArrayList<File>();
+		int numRecords = AnnotateTool.calcLineCount(input.getAbsolutePath());
+
+		// records per shard (rounded up)
+		int shardSize = Math.max(1, (numRecords + numShards - 1) / Math.max(1, numShards));
+
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+
+		Writer writer = null;
+		String line;
+		int count = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			// skip empty lines
+			if (line.trim().length() == 0)
+			{
+				continue;
+			}
+
+			// start a new shard
+			if (count % shardSize == 0)
+			{
+				if (writer != null)
+				{
+					writer.close();
+				}
+
+				File shard = new File(outDir, "shard_" + shards.size() + ".maf");
+				shards.add(shard);
+
+				writer = new BufferedWriter(new FileWriter(shard));
+				FileIOUtil.writeLines(writer, headerUtil.getComments());
+				writer.write(headerLine);
+				writer.write("\n");
+			}
+
+			writer.write(line);
+			writer.write("\n");
+			count++;
+		}
+
+		if (writer != null)
+		{
+			writer.close();
+		}
+
+		reader.close();
+
+		return shards;
+	}
+
+	/**
+	 * Stitches the given MAF shards into a single output file. Comments and
+	 * the header line are taken from the first shard only, data lines of
+	 * all shards are appended in the given order.
+	 *
+	 * @param shards    shard files in the original record order
+	 * @param output    output MAF file
+	 * @throws IOException  if an IO error occurs
+	 */
+	public static void stitch(List<File> shards, File output) throws IOException
+	{
+		BufferedWriter writer = new BufferedWriter(new FileWriter(output));
+		boolean first = true;
+
+		for (File shard : shards)
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(shard));
+			MafHeaderUtil headerUtil = new MafHeaderUtil();
+			String headerLine = headerUtil.extractHeader(reader);
+
+			if (first)
+			{
+				FileIOUtil.writeLines(writer, headerUtil.getComments());
+
+				if (headerLine != null)
+				{
+					writer.write(headerLine);
+					writer.write("\n");
+				}
+
+				first = false;
+			}
+
+			String line;
+
+			while ((line = reader.readLine()) != null)
+			{
+				writer.write(line);
+				writer.write("\n");
+			}
+
+			reader.close();
+		}
+
+		writer.close();
+	}
+}
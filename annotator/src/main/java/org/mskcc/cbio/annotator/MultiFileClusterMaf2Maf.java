@@ -27,18 +27,22 @@ public class MultiFileClusterMaf2Maf extends MultiFileMaf2Maf
 	 * Annotates all input MAF files within the given map. Writes output
 	 * MAFs to the mapped directory.
 	 *
+	 * Cluster jobs are submitted through a job scheduler, so that the number
+	 * of jobs running at the same time does not exceed the configured limit.
+	 *
 	 * @param map   map of input MAF files to output directories
 	 */
 	protected void annotateAll(Map<File, File> map)
 	{
-		List<Thread> threads = new ArrayList<Thread>();
+		List<AnnotatorConfig> configs = new ArrayList<AnnotatorConfig>();
 
 		for (File file : map.keySet())
 		{
 			File outDir = map.get(file);
 			String inputMaf = file.getAbsolutePath();
 			String outputMaf = outDir.getAbsolutePath() + "/" + file.getName();
-			String cache = outDir.getAbsolutePath() + "/anno_files";
+			// several files may share the same output directory
+			String cache = outDir.getAbsolutePath() + "/anno_files/" + file.getName();
 
 			AnnotatorConfig config = this.config.copy();
 
@@ -52,40 +56,13 @@ public class MultiFileClusterMaf2Maf extends MultiFileMaf2Maf
 			config.setIntermediateMaf(outputMaf + ".tmp");
 			config.setTmpDir(cache);
 
-			// run each in a separate thread
-
-			Thread annotator = new BsubThread(config);
-			threads.add(annotator);
-			annotator.start();
+			configs.add(config);
 		}
 
-		for(Thread t: threads)
-		{
-			try {
-				t.join();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-	}
-
-	protected class BsubThread extends Thread {
-
-		private AnnotatorConfig config;
+		JobScheduler scheduler = new JobScheduler(this.config.getClusterMaxJobs(),
+			this.config.getClusterMaxRetries());
 
-		public BsubThread(AnnotatorConfig config)
-		{
-			this.config = config;
-		}
-
-		public void run()
-		{
-			int result = AnnotateTool.driver(this.config);
-
-			if (result != 0)
-			{
-				System.out.println("[ERROR] Process completed with exit code " + result);
-			}
-		}
+		List<JobResult> results = scheduler.runAll(configs);
+		scheduler.printSummary(results);
 	}
 }
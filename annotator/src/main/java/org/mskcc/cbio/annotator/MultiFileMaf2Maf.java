@@ -3,6 +3,8 @@ package org.mskcc.cbio.annotator;
 import org.mskcc.cbio.oncotator.MultiFileAnnotator;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -18,6 +20,9 @@ public class MultiFileMaf2Maf extends MultiFileAnnotator
 	public MultiFileMaf2Maf(AnnotatorConfig config)
 	{
 		this.config = config;
+		this.timingReport = config.getTimingReport();
+		this.timingReportFile = config.getTimingReportFile();
+		this.fileGlob = config.getFileGlob();
 	}
 
 	public MultiFileMaf2Maf()
@@ -29,29 +34,53 @@ public class MultiFileMaf2Maf extends MultiFileAnnotator
 	 * Annotates all input MAF files within the given map. Writes output
 	 * MAFs to the mapped directory.
 	 *
+	 * If the configured number of workers is greater than one, files are
+	 * annotated in parallel. Each annotation runs in its own workspace,
+	 * so concurrent runs do not share any intermediate files.
+	 *
 	 * @param map   map of input MAF files to output directories
 	 */
 	protected void annotateAll(Map<File, File> map)
 	{
+		List<AnnotatorConfig> configs = new ArrayList<AnnotatorConfig>();
+
 		for (File file : map.keySet())
 		{
 			File outDir = map.get(file);
 			String inputMaf = file.getAbsolutePath();
 			String outputMaf = outDir.getAbsolutePath() + "/" + file.getName();
 
-			this.config.setMode("regular");
-			this.config.setInput(inputMaf);
-			this.config.setOutput(outputMaf);
+			AnnotatorConfig config = this.config.copy();
+
+			config.setMode("regular");
+			config.setInput(inputMaf);
+			config.setOutput(outputMaf);
 			// TODO maf2maf still outputs everything to stdout
 			// (this is probably due to a nested system call)
-			//this.config.setOutLog(outputMaf + ".out.log");
-			//this.config.setErrorLog(outputMaf + ".err.log");
+			//config.setOutLog(outputMaf + ".out.log");
+			//config.setErrorLog(outputMaf + ".err.log");
 
-			int result = AnnotateTool.driver(this.config);
+			configs.add(config);
+		}
 
-			if (result != 0)
+		if (this.config.getNumWorkers() > 1)
+		{
+			// no retries for local runs
+			JobScheduler scheduler = new JobScheduler(this.config.getNumWorkers(), 0);
+
+			List<JobResult> results = scheduler.runAll(configs);
+			scheduler.printSummary(results);
+		}
+		else
+		{
+			for (AnnotatorConfig config : configs)
 			{
-				System.out.println("[ERROR] Process completed with exit code " + result);
+				int result = AnnotateTool.driver(config);
+
+				if (result != 0)
+				{
+					System.out.println("[ERROR] Process completed with exit code " + result);
+				}
 			}
 		}
 	}
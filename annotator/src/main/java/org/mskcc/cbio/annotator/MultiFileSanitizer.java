@@ -1,6 +1,7 @@
 package org.mskcc.cbio.annotator;
 
 import org.mskcc.cbio.maf.MafSanitizer;
+import org.mskcc.cbio.maf.ParallelMafSanitizer;
 import org.mskcc.cbio.oncotator.MultiFileAnnotator;
 
 import java.io.File;
@@ -11,22 +12,56 @@ import java.util.Map;
 /**
  * Sanitizes critical fields of the input MAF file.
  *
+ * If a target directory is provided, sanitized MAFs (and the _misc files
+ * containing the records with critical errors) are written to the target
+ * directory. Otherwise input MAFs are only checked for errors.
+ *
  * @author Selcuk Onur Sumer
  */
 public class MultiFileSanitizer extends MultiFileAnnotator
 {
+	// maximum number of files sanitized at the same time
+	private int numThreads;
+
+	// number of threads used to sanitize a single file
+	private int threadsPerFile;
+
+	// map of input MAF files to output directories (if any)
+	private Map<File, File> outputDirs;
+
+	private Map<File, String> failures;
+
+	public MultiFileSanitizer(int numThreads)
+	{
+		this.numThreads = numThreads;
+		this.threadsPerFile = 1;
+	}
+
+	public MultiFileSanitizer()
+	{
+		this(1);
+	}
+
 	/**
 	 * Driver method.
 	 *
 	 * @param sourceDir main source directory for input MAFs
-	 * @param targetDir main output directory for output MAFs
+	 * @param targetDir main output directory for output MAFs (optional)
 	 */
 	public void annotate(String sourceDir, String targetDir) throws IOException
 	{
 		this.sourceDir = sourceDir;
+		this.targetDir = targetDir;
 
 		List<File> inputMafList = this.getMafFiles(sourceDir);
+
+		if (targetDir != null)
+		{
+			this.outputDirs = this.makeOutputDirs(inputMafList, sourceDir, targetDir);
+		}
+
 		this.sanitizeAll(inputMafList);
+		this.emitTimingReport();
 	}
 
 	protected void annotateAll(Map<File, File> map)
@@ -35,17 +70,60 @@ public class MultiFileSanitizer extends MultiFileAnnotator
 	}
 
 	/**
-	 * Validates all output MAF files within the given map.
+	 * Sanitizes all MAF files within the given list. Files are processed
+	 * in parallel if more than one thread is configured. If there are fewer
+	 * files than threads, the remaining threads are used to sanitize chunks
+	 * of each file in parallel. A failure does not stop the remaining files,
+	 * all failures are reported at the end.
 	 *
 	 * @param list   list of input MAF files
 	 */
 	protected void sanitizeAll(List<File> list) throws IOException
 	{
-		for (File file : list)
+		this.threadsPerFile = Math.max(1, this.numThreads / Math.max(1, list.size()));
+
+		FileTaskRunner runner = new FileTaskRunner(this.numThreads);
+
+		this.failures = runner.runAll(list, new FileTaskRunner.FileTask() {
+			public String process(File file) throws Exception
+			{
+				sanitize(file);
+				return null;
+			}
+		});
+
+		FileTaskRunner.printReport("Sanitizer", list.size(), this.failures);
+	}
+
+	protected void sanitize(File file) throws IOException
+	{
+		System.out.println("FILE: " + file.getAbsolutePath());
+		long start = System.currentTimeMillis();
+
+		String output = null;
+
+		if (this.outputDirs != null)
 		{
-			System.out.println("FILE: " + file.getAbsolutePath());
-			MafSanitizer sanitizer = new MafSanitizer();
-			sanitizer.sanitizeMaf(file.getAbsolutePath());
+			output = this.outputDirs.get(file).getAbsolutePath() + "/" + file.getName();
 		}
+
+		MafSanitizer sanitizer = (this.threadsPerFile > 1) ?
+			new ParallelMafSanitizer(this.threadsPerFile) :
+			new MafSanitizer();
+
+		sanitizer.sanitizeMaf(file.getAbsolutePath(), output);
+
+		this.timingReport.add("sanitize",
+			System.currentTimeMillis() - start,
+			sanitizer.getRecordCount(),
+			file.length());
+	}
+
+	/**
+	 * @return  map of failed input files to error messages of the last run
+	 */
+	public Map<File, String> getFailures()
+	{
+		return failures;
 	}
 }
@@ -4,6 +4,7 @@ import org.mskcc.cbio.oncotator.MultiFileAnnotator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +15,21 @@ import java.util.Map;
  */
 public class MultiFileValidator extends MultiFileAnnotator
 {
+	// maximum number of files validated at the same time
+	private int numThreads;
+
+	private Map<File, String> failures;
+
+	public MultiFileValidator(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+
+	public MultiFileValidator()
+	{
+		this(1);
+	}
+
 	/**
 	 * Driver method.
 	 *
@@ -28,36 +44,60 @@ public class MultiFileValidator extends MultiFileAnnotator
 		List<File> inputMafList = this.getMafFiles(sourceDir);
 		Map<File, File> map = this.makeOutputDirs(inputMafList, sourceDir, targetDir);
 		this.annotateAll(map);
+		this.emitTimingReport();
 	}
 
 	/**
-	 * Validates all output MAF files within the given map.
+	 * Validates all output MAF files within the given map. Files are
+	 * validated in parallel if more than one thread is configured, and
+	 * all failures are reported at the end.
 	 *
 	 * @param map   map of input MAF files to output directories
 	 */
-	protected void annotateAll(Map<File, File> map)
+	protected void annotateAll(final Map<File, File> map)
 	{
-		for (File file : map.keySet())
-		{
-			File outDir = map.get(file);
-			File outputMaf = new File(outDir.getAbsolutePath() + "/" + file.getName());
+		List<File> files = new ArrayList<File>(map.keySet());
+		FileTaskRunner runner = new FileTaskRunner(this.numThreads);
 
-			if (!outputMaf.exists())
-			{
-				System.out.println(file.getAbsolutePath() +
-				                   ": Output file cannot be created");
-			}
-			else if (this.outputDiffers(file, outputMaf))
-			{
-				System.out.println(file.getAbsolutePath() +
-				                   ": Number of data lines in the output file differ from the input");
-			}
-			else
+		this.failures = runner.runAll(files, new FileTaskRunner.FileTask() {
+			public String process(File file)
 			{
-				System.out.println(file.getAbsolutePath() +
-				                   ": Annotation status OK");
+				return validate(file, map.get(file));
 			}
+		});
+
+		FileTaskRunner.printReport("Validator", files.size(), this.failures);
+	}
+
+	/**
+	 * Validates the output MAF for the given input MAF.
+	 *
+	 * @param file      input MAF
+	 * @param outDir    output directory
+	 * @return          error message if the output is not valid, null otherwise
+	 */
+	protected String validate(File file, File outDir)
+	{
+		File outputMaf = new File(outDir.getAbsolutePath() + "/" + file.getName());
+		long start = System.currentTimeMillis();
+		String error = null;
+
+		if (!outputMaf.exists())
+		{
+			error = "Output file cannot be created";
+		}
+		else if (this.outputDiffers(file, outputMaf))
+		{
+			error = "Number of data lines in the output file differ from the input";
 		}
+
+		System.out.println(file.getAbsolutePath() + ": " +
+		                   (error == null ? "Annotation status OK" : error));
+
+		this.timingReport.add("validate",
+			System.currentTimeMillis() - start, 0, file.length() + outputMaf.length());
+
+		return error;
 	}
 
 	protected boolean outputDiffers(File input, File output)
@@ -66,4 +106,12 @@ public class MultiFileValidator extends MultiFileAnnotator
 
 		return !(diff == 0);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return  map of failed input files to error messages of the last run
+	 */
+	public Map<File, String> getFailures()
+	{
+		return failures;
+	}
+}
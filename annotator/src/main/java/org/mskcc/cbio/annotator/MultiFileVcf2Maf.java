@@ -0,0 +1,74 @@
+package org.mskcc.cbio.annotator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Designed to convert all VCF files (with Vcf2Maf tool) within
+ * a given directory into MAF files by using "cluster" mode.
+ *
+ * Output MAFs are named after the input VCFs (with a .maf extension).
+ */
+public class MultiFileVcf2Maf extends MultiFileMaf2Maf
+{
+	public MultiFileVcf2Maf(AnnotatorConfig config)
+	{
+		super(config);
+	}
+
+	public MultiFileVcf2Maf()
+	{
+		super();
+	}
+
+	/**
+	 * Converts all input VCF files within the given map. Writes output
+	 * MAFs to the mapped directory.
+	 *
+	 * Cluster jobs are submitted through a job scheduler, so that the number
+	 * of jobs running at the same time does not exceed the configured limit.
+	 *
+	 * @param map   map of input VCF files to output directories
+	 */
+	protected void annotateAll(Map<File, File> map)
+	{
+		List<AnnotatorConfig> configs = new ArrayList<AnnotatorConfig>();
+
+		for (File file : map.keySet())
+		{
+			File outDir = map.get(file);
+			String outputMaf = outDir.getAbsolutePath() + "/" + this.getOutputName(file);
+
+			AnnotatorConfig config = this.config.copy();
+
+			config.setMode("cluster");
+			config.setInput(file.getAbsolutePath());
+			config.setOutput(outputMaf);
+			config.setClusterLog(outputMaf + ".bsub.log");
+
+			configs.add(config);
+		}
+
+		JobScheduler scheduler = new JobScheduler(this.config.getClusterMaxJobs(),
+			this.config.getClusterMaxRetries());
+
+		List<JobResult> results = scheduler.runAll(configs);
+		scheduler.printSummary(results);
+	}
+
+	protected boolean isMaf(File file)
+	{
+		// only VCF files are processed by this driver
+		return file.isFile() &&
+		       file.getName().toLowerCase().endsWith(".vcf");
+	}
+
+	protected String getOutputName(File input)
+	{
+		String name = input.getName();
+
+		return name.substring(0, name.length() - ".vcf".length()) + ".maf";
+	}
+}
@@ -0,0 +1,401 @@
+package org.mskcc.cbio.annotator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Collection;
+
+/**
+ * Reports the progress of a long running, per record process.
+ *
+ * Records are counted on every update, but a progress line is printed at
+ * most once per report interval, so that the console output does not slow
+ * down (or flood the logs of) runs with millions of records. Each line
+ * contains the number of records processed, the processing rate, and if
+ * the total number of records (or the size of the input file) is known,
+ * percentage done and the ETA.
+ */
+public class ProgressReporter
+{
+	public static final long DEFAULT_INTERVAL = 10000;
+
+	// report interval of new reporters (in ms), set once per run
+	private static long defaultInterval = DEFAULT_INTERVAL;
+
+	private String name;
+	private String unit;
+	private PrintStream out;
+
+	// minimum time between two progress lines (in ms)
+	private long interval;
+
+	// total number of records (unknown if zero or negative)
+	private long total;
+
+	// records processed so far, and records processed by a previous run
+	private long count;
+	private long initialCount;
+
+	// size of the input (unknown if zero), and the bytes read so far
+	private long totalBytes;
+	private long bytes;
+
+	// length of the line terminator of the input ("\n" or "\r\n")
+	private int terminatorBytes = 1;
+
+	private long startTime;
+	private long lastReport;
+
+	/**
+	 * Constructor with the default report interval.
+	 *
+	 * @param name  name of the process (prefix of each progress line)
+	 * @param total total number of records (unknown if zero or negative)
+	 */
+	public ProgressReporter(String name, long total)
+	{
+		this(name, total, defaultInterval);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name      name of the process (prefix of each progress line)
+	 * @param total     total number of records (unknown if zero or negative)
+	 * @param interval  minimum time between two progress lines (in ms)
+	 */
+	public ProgressReporter(String name, long total, long interval)
+	{
+		this.name = name;
+		this.total = total;
+		this.interval = interval;
+		this.unit = "records";
+		this.out = System.out;
+		this.startTime = System.currentTimeMillis();
+		this.lastReport = this.startTime;
+	}
+
+	/**
+	 * Adds a single processed record.
+	 */
+	public void increment()
+	{
+		this.add(1, null);
+	}
+
+	/**
+	 * Adds a single processed record read from the given input line. The
+	 * size of the line is used to estimate the percentage done when the
+	 * total number of records is not known.
+	 *
+	 * @param line  input line of the record
+	 */
+	public synchronized void increment(String line)
+	{
+		this.bytes += this.lineBytes(line);
+		this.add(1, null);
+	}
+
+	/**
+	 * Adds the size of an input line which is not a record
+	 * (comment, header or empty line).
+	 *
+	 * @param line  input line (without the line terminator)
+	 */
+	public synchronized void skip(String line)
+	{
+		this.bytes += this.lineBytes(line);
+	}
+
+	/**
+	 * Adds the size of the given input lines which are not records.
+	 *
+	 * @param lines input lines (without the line terminators)
+	 */
+	public synchronized void skip(Collection<String> lines)
+	{
+		for (String line : lines)
+		{
+			this.skip(line);
+		}
+	}
+
+	/**
+	 * Adds the given number of processed records.
+	 *
+	 * @param numRecords    number of records processed
+	 */
+	public void add(long numRecords)
+	{
+		this.add(numRecords, null);
+	}
+
+	/**
+	 * Adds the given number of processed records, and prints a progress
+	 * line if the report interval has passed since the last one.
+	 *
+	 * @param numRecords    number of records processed
+	 * @param status        additional status info to print (may be null)
+	 */
+	public synchronized void add(long numRecords, String status)
+	{
+		this.count += numRecords;
+
+		long now = System.currentTimeMillis();
+
+		if (now - this.lastReport >= this.interval)
+		{
+			this.report(now, status);
+		}
+	}
+
+	/**
+	 * Sets the number of records already processed by a previous run.
+	 * These records are included in the percentage, but not in the rate.
+	 *
+	 * @param initialCount  number of records processed before
+	 */
+	public synchronized void resume(long initialCount)
+	{
+		this.initialCount = initialCount;
+		this.count = initialCount;
+	}
+
+	/**
+	 * Prints the final progress line, regardless of the report interval.
+	 *
+	 * @param status    additional status info to print (may be null)
+	 */
+	public synchronized void finish(String status)
+	{
+		// the whole input is read at this point
+		this.bytes = Math.max(this.bytes, this.totalBytes);
+		this.report(System.currentTimeMillis(), status);
+	}
+
+	public void finish()
+	{
+		this.finish(null);
+	}
+
+	/**
+	 * Calculates the size of the given line in the input, assuming that
+	 * the input is UTF-8 encoded.
+	 *
+	 * @param line  input line (without the line terminator)
+	 * @return      number of bytes of the line, including the terminator
+	 */
+	protected long lineBytes(String line)
+	{
+		long length = this.terminatorBytes;
+
+		for (int i = 0; i < line.length(); i++)
+		{
+			char c = line.charAt(i);
+
+			if (c < 0x80)
+			{
+				length++;
+			}
+			else if (c < 0x800)
+			{
+				length += 2;
+			}
+			// a surrogate pair is encoded in 4 bytes
+			else if (Character.isHighSurrogate(c) &&
+			         i + 1 < line.length() &&
+			         Character.isLowSurrogate(line.charAt(i + 1)))
+			{
+				length += 4;
+				i++;
+			}
+			else
+			{
+				length += 3;
+			}
+		}
+
+		return length;
+	}
+
+	protected void report(long now, String status)
+	{
+		this.lastReport = now;
+		this.out.println(this.format(now - this.startTime, status));
+	}
+
+	/**
+	 * Creates a progress line for the current state.
+	 *
+	 * @param elapsed   elapsed time (in ms)
+	 * @param status    additional status info (may be null)
+	 * @return          progress line
+	 */
+	protected String format(long elapsed, String status)
+	{
+		StringBuilder builder = new StringBuilder();
+		double rate = elapsed > 0 ? (this.count - this.initialCount) * 1000.0 / elapsed : 0;
+
+		// remaining amount of work, and the rate it is processed at
+		long remaining = -1;
+		double remainingRate = rate;
+
+		builder.append(this.name).append(": ").append(this.count);
+
+		if (this.total > 0)
+		{
+			remaining = this.total - this.count;
+
+			builder.append("/").append(this.total)
+				.append(String.format(" (%.1f%%)", Math.min(100.0, this.count * 100.0 / this.total)));
+		}
+		else if (this.totalBytes > 0)
+		{
+			remaining = this.totalBytes - this.bytes;
+			remainingRate = elapsed > 0 ? this.bytes * 1000.0 / elapsed : 0;
+
+			builder.append(String.format(" (%.1f%%)", Math.min(100.0, this.bytes * 100.0 / this.totalBytes)));
+		}
+
+		builder.append(String.format(", %.1f %s/sec", rate, this.unit));
+
+		if (remaining >= 0 ||
+		    this.total > 0)
+		{
+			builder.append(", ETA ");
+
+			if (remainingRate > 0 ||
+			    remaining <= 0)
+			{
+				builder.append(formatTime(remainingRate > 0 ?
+					(long) (Math.max(0, remaining) / remainingRate) : 0));
+			}
+			else
+			{
+				builder.append("unknown");
+			}
+		}
+
+		if (status != null)
+		{
+			builder.append(" (").append(status).append(")");
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Formats the given duration as h:mm:ss.
+	 *
+	 * @param seconds   duration in seconds
+	 * @return          formatted duration
+	 */
+	public static String formatTime(long seconds)
+	{
+		return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+	}
+
+	public static long getDefaultInterval()
+	{
+		return defaultInterval;
+	}
+
+	public static void setDefaultInterval(long interval)
+	{
+		defaultInterval = interval;
+	}
+
+	public synchronized long getCount()
+	{
+		return count;
+	}
+
+	public long getTotal()
+	{
+		return total;
+	}
+
+	public long getTotalBytes()
+	{
+		return totalBytes;
+	}
+
+	/**
+	 * Sets the size of the input file, so that the percentage done and
+	 * the ETA can be estimated from the lines read, without a separate pass
+	 * to count the records of the input.
+	 *
+	 * @param totalBytes    size of the input (in bytes)
+	 */
+	public void setTotalBytes(long totalBytes)
+	{
+		this.totalBytes = totalBytes;
+	}
+
+	/**
+	 * Sets the size and the line terminator of the given input file.
+	 *
+	 * @param input input file
+	 * @throws IOException  if the input cannot be read
+	 */
+	public void setInput(File input) throws IOException
+	{
+		this.totalBytes = input.length();
+		this.terminatorBytes = lineTerminatorBytes(input);
+	}
+
+	/**
+	 * Finds the length of the line terminator used by the given file,
+	 * by checking the end of the first line.
+	 *
+	 * @param input input file
+	 * @return      2 for "\r\n", 1 otherwise
+	 * @throws IOException  if the input cannot be read
+	 */
+	public static int lineTerminatorBytes(File input) throws IOException
+	{
+		InputStream in = new FileInputStream(input);
+		byte[] buffer = new byte[1 << 16];
+		int previous = -1;
+		int length;
+
+		try
+		{
+			while ((length = in.read(buffer)) != -1)
+			{
+				for (int i = 0; i < length; i++)
+				{
+					if (buffer[i] == '\n')
+					{
+						return previous == '\r' ? 2 : 1;
+					}
+
+					previous = buffer[i];
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return 1;
+	}
+
+	public String getUnit()
+	{
+		return unit;
+	}
+
+	public void setUnit(String unit)
+	{
+		this.unit = unit;
+	}
+
+	public void setOut(PrintStream out)
+	{
+		this.out = out;
+	}
+}
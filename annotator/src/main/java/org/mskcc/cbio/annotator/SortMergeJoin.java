@@ -0,0 +1,231 @@
+package org.mskcc.cbio.annotator;
+
+import org.mskcc.cbio.maf.MafHeaderUtil;
+import org.mskcc.cbio.maf.MafUtil;
+
+import java.io.*;
+
+/**
+ * Bounded memory join of an original input MAF with the annotated
+ * (intermediate) MAF by variant key.
+ *
+ * Both files are externally sorted by key, spilling to disk when needed,
+ * and merged in a single streaming pass. The matching annotated lines are
+ * then sorted back into the original input order, so the joined output
+ * can be consumed line by line along with the original input.
+ */
+public class SortMergeJoin
+{
+	private long memoryLimit;
+	private File tmpDir;
+
+	private String headerLine;
+	private int numRecords;
+	private int numUnmatched;
+	private int numRuns;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param memoryLimit   approximate memory limit in bytes for the whole join
+	 * @param tmpDir        directory for the temporary files (system default if null)
+	 */
+	public SortMergeJoin(long memoryLimit, File tmpDir)
+	{
+		this.memoryLimit = memoryLimit;
+		this.tmpDir = tmpDir;
+	}
+
+	/**
+	 * Joins the input with the annotated file. The output starts with the
+	 * header line of the annotated file, followed by exactly one line for
+	 * each non-empty data line of the input (in the same order): either
+	 * the annotated line with the same key, or an empty line if no match.
+	 *
+	 * When the annotated file contains the same key more than once,
+	 * the last one wins (same as the in-memory map).
+	 *
+	 * @param input     original input MAF
+	 * @param annotated annotated (intermediate) MAF
+	 * @param output    joined output file
+	 * @throws IOException  if an IO error occurs
+	 */
+	public void join(File input, File annotated, File output) throws IOException
+	{
+		// at most three sorters may hold records in memory at the same time
+		long sorterLimit = Math.max(1, this.memoryLimit / 3);
+
+		ExternalSorter inputSorter = new ExternalSorter(sorterLimit, this.tmpDir);
+		ExternalSorter annoSorter = new ExternalSorter(sorterLimit, this.tmpDir);
+		ExternalSorter resultSorter = new ExternalSorter(sorterLimit, this.tmpDir);
+
+		this.numRecords = 0;
+		this.numUnmatched = 0;
+
+		try
+		{
+			// only the keys (and the position) are needed for the input
+			this.sortByKey(input, inputSorter, false);
+			this.headerLine = this.sortByKey(annotated, annoSorter, true);
+
+			this.mergeByKey(inputSorter.sort(), annoSorter.sort(), resultSorter);
+
+			inputSorter.cleanUp();
+			annoSorter.cleanUp();
+
+			// write the matching lines back in the original input order
+			ExternalSorter.RecordReader reader = resultSorter.sort();
+			BufferedWriter writer = new BufferedWriter(new FileWriter(output));
+			ExternalSorter.SortRecord record;
+
+			writer.write(this.headerLine);
+			writer.write("\n");
+
+			while ((record = reader.next()) != null)
+			{
+				writer.write(record.getValue());
+				writer.write("\n");
+			}
+
+			reader.close();
+			writer.close();
+
+			this.numRuns = inputSorter.getNumRuns() +
+			               annoSorter.getNumRuns() +
+			               resultSorter.getNumRuns();
+		}
+		finally
+		{
+			inputSorter.cleanUp();
+			annoSorter.cleanUp();
+			resultSorter.cleanUp();
+		}
+	}
+
+	/**
+	 * Adds all data lines of the given MAF file into the sorter.
+	 *
+	 * @param maf           MAF file
+	 * @param sorter        target sorter
+	 * @param keepLines     whether to keep the actual lines as record values
+	 * @return              header line of the MAF file
+	 * @throws IOException  if an IO error occurs
+	 */
+	protected String sortByKey(File maf,
+			ExternalSorter sorter,
+			boolean keepLines) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(maf));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+		MafUtil mafUtil = new MafUtil(headerLine);
+
+		String line;
+		long seq = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			// skip empty lines
+			if (line.trim().length() == 0)
+			{
+				continue;
+			}
+
+			String key = MafUtil.generateKey(mafUtil.parseRecord(line));
+			sorter.add(key, seq, keepLines ? line : "");
+			seq++;
+		}
+
+		reader.close();
+
+		return headerLine;
+	}
+
+	/**
+	 * Merges the key sorted input and annotated records in a single pass,
+	 * and adds the matching annotated line for each input record into the
+	 * result sorter, keyed by the original position of the input record.
+	 */
+	protected void mergeByKey(ExternalSorter.RecordReader inputReader,
+			ExternalSorter.RecordReader annoReader,
+			ExternalSorter resultSorter) throws IOException
+	{
+		ExternalSorter.SortRecord inputRecord = inputReader.next();
+		ExternalSorter.SortRecord annoRecord = annoReader.next();
+
+		String lastKey = null;
+		String lastMatch = null;
+
+		while (inputRecord != null)
+		{
+			String key = inputRecord.getKey();
+
+			// duplicate input keys share the same match
+			if (!key.equals(lastKey))
+			{
+				lastMatch = null;
+
+				while (annoRecord != null &&
+				       annoRecord.getKey().compareTo(key) < 0)
+				{
+					annoRecord = annoReader.next();
+				}
+
+				// records with the same key are sorted by position, keep the last one
+				while (annoRecord != null &&
+				       annoRecord.getKey().equals(key))
+				{
+					lastMatch = annoRecord.getValue();
+					annoRecord = annoReader.next();
+				}
+
+				lastKey = key;
+			}
+
+			if (lastMatch == null)
+			{
+				this.numUnmatched++;
+			}
+
+			this.numRecords++;
+			resultSorter.add("", inputRecord.getSeq(), lastMatch == null ? "" : lastMatch);
+
+			inputRecord = inputReader.next();
+		}
+
+		inputReader.close();
+		annoReader.close();
+	}
+
+	/**
+	 * @return  header line of the annotated file of the last join
+	 */
+	public String getHeaderLine()
+	{
+		return headerLine;
+	}
+
+	/**
+	 * @return  number of input records processed by the last join
+	 */
+	public int getNumRecords()
+	{
+		return numRecords;
+	}
+
+	/**
+	 * @return  number of input records without a matching annotated record
+	 */
+	public int getNumUnmatched()
+	{
+		return numUnmatched;
+	}
+
+	/**
+	 * @return  total number of run files spilled to disk by the last join
+	 */
+	public int getNumRuns()
+	{
+		return numRuns;
+	}
+}
@@ -0,0 +1,188 @@
+package org.mskcc.cbio.annotator;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects wall time, number of records and number of bytes processed
+ * for each stage of an annotation run, and reports them as JSON.
+ *
+ * The same report may be shared by concurrent workers. In that case wall
+ * times of a stage are summed over all workers, so the total time of a
+ * stage may exceed the elapsed time of the whole run.
+ */
+public class TimingReport
+{
+	private long startTime;
+
+	// stage name to stage statistics (in the order of first occurrence)
+	private Map<String, Stage> stages;
+
+	public TimingReport()
+	{
+		this.startTime = System.currentTimeMillis();
+		this.stages = new LinkedHashMap<String, Stage>();
+	}
+
+	/**
+	 * Adds a single invocation of the given stage to the report.
+	 *
+	 * @param stage     name of the stage
+	 * @param time      wall time in milliseconds
+	 * @param records   number of records processed
+	 * @param bytes     number of bytes processed
+	 */
+	public synchronized void add(String stage, long time, long records, long bytes)
+	{
+		Stage stats = this.stages.get(stage);
+
+		if (stats == null)
+		{
+			stats = new Stage();
+			this.stages.put(stage, stats);
+		}
+
+		stats.calls++;
+		stats.time += time;
+		stats.records += records;
+		stats.bytes += bytes;
+	}
+
+	/**
+	 * Returns a JSON representation of the report.
+	 *
+	 * @return  report as a JSON string
+	 */
+	public synchronized String toJson()
+	{
+		StringBuilder builder = new StringBuilder();
+
+		builder.append("{\"elapsed_time_ms\":")
+			.append(System.currentTimeMillis() - this.startTime)
+			.append(",\"stages\":[");
+
+		boolean first = true;
+
+		for (Map.Entry<String, Stage> entry : this.stages.entrySet())
+		{
+			Stage stats = entry.getValue();
+
+			if (!first)
+			{
+				builder.append(",");
+			}
+
+			builder.append("{\"name\":\"").append(escape(entry.getKey())).append("\"")
+				.append(",\"calls\":").append(stats.calls)
+				.append(",\"wall_time_ms\":").append(stats.time)
+				.append(",\"records\":").append(stats.records)
+				.append(",\"bytes\":").append(stats.bytes)
+				.append("}");
+
+			first = false;
+		}
+
+		builder.append("]}");
+
+		return builder.toString();
+	}
+
+	/**
+	 * Writes the JSON report to the given file.
+	 *
+	 * @param file  output file
+	 * @throws IOException  if an IO error occurs
+	 */
+	public void write(File file) throws IOException
+	{
+		Writer writer = new FileWriter(file);
+		writer.write(this.toJson());
+		writer.write("\n");
+		writer.close();
+	}
+
+	/**
+	 * Writes the report to the given file, or prints it to the standard
+	 * output if no file name is provided.
+	 *
+	 * @param filename  name of the output file (may be null or empty)
+	 */
+	public void emit(String filename)
+	{
+		if (filename == null ||
+		    filename.length() == 0)
+		{
+			System.out.println("Timing report: " + this.toJson());
+			return;
+		}
+
+		try
+		{
+			this.write(new File(filename));
+			System.out.println("Timing report written to: " + filename);
+		}
+		catch (IOException e)
+		{
+			System.out.println("[ERROR] Cannot write the timing report: " + e.getMessage());
+		}
+	}
+
+	public synchronized long getWallTime(String stage)
+	{
+		Stage stats = this.stages.get(stage);
+		return stats == null ? 0 : stats.time;
+	}
+
+	public synchronized long getRecords(String stage)
+	{
+		Stage stats = this.stages.get(stage);
+		return stats == null ? 0 : stats.records;
+	}
+
+	public synchronized long getBytes(String stage)
+	{
+		Stage stats = this.stages.get(stage);
+		return stats == null ? 0 : stats.bytes;
+	}
+
+	public synchronized int getCalls(String stage)
+	{
+		Stage stats = this.stages.get(stage);
+		return stats == null ? 0 : stats.calls;
+	}
+
+	private static String escape(String value)
+	{
+		StringBuilder builder = new StringBuilder();
+
+		for (char c : value.toCharArray())
+		{
+			if (c == '"' || c == '\\')
+			{
+				builder.append('\\').append(c);
+			}
+			else if (c < 0x20)
+			{
+				builder.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				builder.append(c);
+			}
+		}
+
+		return builder.toString();
+	}
+
+	private static class Stage
+	{
+		int calls;
+		long time;
+		long records;
+		long bytes;
+	}
+}
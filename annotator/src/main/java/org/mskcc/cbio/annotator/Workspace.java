@@ -0,0 +1,89 @@
+package org.mskcc.cbio.annotator;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Isolated working directory for a single annotation run.
+ *
+ * Each workspace is a uniquely named directory under the configured
+ * workspace root, so that concurrent runs (in the same JVM or on the same
+ * host) never share intermediate files or temporary directories.
+ * The workspace is deleted entirely when it is reclaimed.
+ */
+public class Workspace
+{
+	public static final String INTERMEDIATE_MAF = "annotator_out.maf";
+	public static final String TMP_DIR = "annotator_dir";
+
+	private File dir;
+
+	// subdirectory of an explicitly configured tmp dir
+	private File tmpDir;
+
+	/**
+	 * Creates a new workspace directory under the given root directory.
+	 *
+	 * @param root  parent directory of the workspace
+	 * @throws IOException  if the directory cannot be created
+	 */
+	public Workspace(File root) throws IOException
+	{
+		root.mkdirs();
+		this.dir = Files.createTempDirectory(root.toPath(), "annotator_").toFile();
+	}
+
+	/**
+	 * Creates a copy of the given configuration which uses this workspace
+	 * for the intermediate MAF and the temporary directory. An explicitly
+	 * configured intermediate MAF is retained as it is. An explicitly
+	 * configured temporary directory may be shared by concurrent runs,
+	 * so a subdirectory of it is used, which is deleted on reclaim.
+	 *
+	 * @param config    original configuration (not modified)
+	 * @return          configuration bound to this workspace
+	 */
+	public AnnotatorConfig bind(AnnotatorConfig config)
+	{
+		AnnotatorConfig bound = config.copy();
+
+		if (config.getIntermediateMaf().equals(AnnotatorConfig.DEFAULT_INTERMEDIATE_MAF))
+		{
+			bound.setIntermediateMaf(new File(this.dir, INTERMEDIATE_MAF).getAbsolutePath());
+		}
+
+		if (config.getTmpDir().equals(AnnotatorConfig.DEFAULT_INTERMEDIATE_DIR))
+		{
+			bound.setTmpDir(new File(this.dir, TMP_DIR).getAbsolutePath());
+		}
+		else
+		{
+			this.tmpDir = new File(config.getTmpDir(), this.dir.getName());
+			bound.setTmpDir(this.tmpDir.getAbsolutePath());
+		}
+
+		return bound;
+	}
+
+	/**
+	 * Deletes the workspace directory together with all its contents,
+	 * and the subdirectory of the explicitly configured tmp dir (if any).
+	 */
+	public void reclaim()
+	{
+		FileUtils.deleteQuietly(this.dir);
+
+		if (this.tmpDir != null)
+		{
+			FileUtils.deleteQuietly(this.tmpDir);
+		}
+	}
+
+	public File getDir()
+	{
+		return dir;
+	}
+}
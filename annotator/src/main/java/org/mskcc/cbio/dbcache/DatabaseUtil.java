@@ -20,12 +20,20 @@ package org.mskcc.cbio.dbcache;
 import org.apache.commons.dbcp.BasicDataSource;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Connection Utility for JDBC.
  */
 public class DatabaseUtil
 {
+	// maximum number of active connections in the pool
+	public static final int MAX_CONNECTIONS = 75;
+
 	private static BasicDataSource ds;
 
     /**
@@ -34,19 +42,28 @@ public class DatabaseUtil
     public static Connection getDbConnection()
 		    throws SQLException
     {
-	    if (ds == null)
-	    {
-		    initDataSource();
-	    }
-
-	    Connection conn = ds.getConnection();
+	    Connection conn = getDataSource().getConnection();
 	    return conn;
     }
 
+	/**
+	 * Gets the pooled data source, initializing it on first use. Parallel
+	 * workers share the same pool, so that it is created only once.
+	 */
+	private static synchronized BasicDataSource getDataSource()
+	{
+		if (ds == null)
+		{
+			initDataSource();
+		}
+
+		return ds;
+	}
+
 	/**
 	 * Initializes DB via the BasicDataSource instance.
 	 */
-	public static void initDataSource()
+	public static synchronized void initDataSource()
 	{
         // this should  come from command line - perhaps 
         // file is not needed and db host, userid, pw, etc are passed via command line
@@ -61,6 +78,23 @@ public class DatabaseUtil
 		                        + "?user=" + userName + "&password=" + password
 		                        + "&zeroDateTimeBehavior=convertToNull");
 
+		initDataSource(driver, url, userName, password);
+	}
+
+	/**
+	 * Initializes DB via the BasicDataSource instance for the given
+	 * connection parameters (for instance, to use an embedded database).
+	 *
+	 * @param driver    JDBC driver class name
+	 * @param url       JDBC connection url
+	 * @param userName  database user
+	 * @param password  database password
+	 */
+	public static synchronized void initDataSource(String driver,
+			String url,
+			String userName,
+			String password)
+	{
 		//  Set up poolable data source
 		ds = new BasicDataSource();
 		ds.setDriverClassName(driver);
@@ -70,7 +104,186 @@ public class DatabaseUtil
 
 		//  By pooling/reusing PreparedStatements, we get a major performance gain
 		ds.setPoolPreparedStatements(true);
-		ds.setMaxActive(75);
+		ds.setMaxActive(MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Splits the given values into chunks of at most the given size,
+	 * to be used in multiple IN (...) queries.
+	 *
+	 * @param values    values to split
+	 * @param size      maximum number of values in a chunk
+	 * @return          list of chunks
+	 */
+	public static List<List<String>> partition(Collection<String> values, int size)
+	{
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		List<String> chunk = new ArrayList<String>(size);
+
+		for (String value : values)
+		{
+			chunk.add(value);
+
+			if (chunk.size() >= size)
+			{
+				chunks.add(chunk);
+				chunk = new ArrayList<String>(size);
+			}
+		}
+
+		if (!chunk.isEmpty())
+		{
+			chunks.add(chunk);
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Finds the keys (among the given ones) which already exist in the
+	 * given table. Used to skip existing keys before a batch insert.
+	 *
+	 * @param con       database connection
+	 * @param table     table name
+	 * @param column    key column name
+	 * @param keys      keys to check
+	 * @param chunkSize maximum number of keys in a single query
+	 * @return          set of existing keys
+	 * @throws SQLException if a database error occurs
+	 */
+	public static Set<String> findExistingKeys(Connection con,
+			String table,
+			String column,
+			Collection<String> keys,
+			int chunkSize) throws SQLException
+	{
+		Set<String> existing = new HashSet<String>();
+
+		for (List<String> chunk : partition(keys, chunkSize))
+		{
+			PreparedStatement pstmt = con.prepareStatement(
+				"SELECT " + column + " FROM " + table + " WHERE " + column +
+				" IN (" + placeholders(chunk.size()) + ")");
+			ResultSet rs = null;
+
+			try
+			{
+				for (int i = 0; i < chunk.size(); i++)
+				{
+					pstmt.setString(i + 1, chunk.get(i));
+				}
+
+				rs = pstmt.executeQuery();
+
+				while (rs.next())
+				{
+					existing.add(rs.getString(1));
+				}
+			}
+			finally
+			{
+				closeStatement(pstmt, rs);
+			}
+		}
+
+		return existing;
+	}
+
+	/**
+	 * Counts the number of updated rows reported by a batch execution.
+	 *
+	 * @param counts    update counts returned by executeBatch
+	 * @return          total number of updated rows
+	 */
+	public static int sumUpdateCounts(int[] counts)
+	{
+		int total = 0;
+
+		for (int count : counts)
+		{
+			// number of rows is unknown, but the statement is successful
+			if (count == Statement.SUCCESS_NO_INFO)
+			{
+				total++;
+			}
+			else if (count > 0)
+			{
+				total += count;
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Creates a comma separated list of parameter placeholders,
+	 * such as "?,?,?", for an IN (...) clause.
+	 *
+	 * @param count number of placeholders
+	 * @return      placeholder list
+	 */
+	public static String placeholders(int count)
+	{
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < count; i++)
+		{
+			if (i > 0)
+			{
+				builder.append(",");
+			}
+
+			builder.append("?");
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Restores the auto commit mode of the given connection before
+	 * returning it to the pool.
+	 *
+	 * @param con   database connection (may be null)
+	 */
+	public static void resetAutoCommit(Connection con)
+	{
+		try
+		{
+			if (con != null &&
+			    !con.isClosed() &&
+			    !con.getAutoCommit())
+			{
+				con.setAutoCommit(true);
+			}
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Makes the given (forward only) statement fetch the results row by
+	 * row instead of loading the whole result set into memory. MySQL
+	 * driver only streams if the fetch size is Integer.MIN_VALUE.
+	 *
+	 * @param con   database connection
+	 * @param pstmt statement to be executed
+	 */
+	public static void streamResults(Connection con, PreparedStatement pstmt)
+			throws SQLException
+	{
+		String product = con.getMetaData().getDatabaseProductName();
+
+		if (product != null &&
+		    product.toLowerCase().contains("mysql"))
+		{
+			pstmt.setFetchSize(Integer.MIN_VALUE);
+		}
+		else
+		{
+			pstmt.setFetchSize(1000);
+		}
 	}
 
     /**
@@ -89,6 +302,33 @@ public class DatabaseUtil
         }
     }
 
+	/**
+	 * Closes the given statement and its result set. Used for the
+	 * statements created for each chunk of a batched query, which would
+	 * otherwise stay open until the (pooled) connection is closed.
+	 *
+	 * @param ps    prepared statement (may be null)
+	 * @param rs    result set (may be null)
+	 */
+	public static void closeStatement(PreparedStatement ps, ResultSet rs)
+	{
+		if (rs != null) {
+			try {
+				rs.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (ps != null) {
+			try {
+				ps.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
     /**
      * Frees Database Connection.
      *
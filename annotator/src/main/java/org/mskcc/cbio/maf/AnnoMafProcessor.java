@@ -1,8 +1,10 @@
 package org.mskcc.cbio.maf;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * MAF Processor specific to the Annotator tool.
@@ -13,6 +15,10 @@ public class AnnoMafProcessor extends MafProcessor
 {
 	protected List<String> annoHeaders;
 
+	// indices of the annotator columns within the new header list
+	private int[] annoIndices;
+	private List<String> indexedHeaders;
+
 	/**
 	 * Constructor.
 	 *
@@ -88,9 +94,12 @@ public class AnnoMafProcessor extends MafProcessor
 	 */
 	protected void addNewColsToHeader(List<String> headerData)
 	{
+		// the number of annotator headers may be large for merged MAFs
+		Set<String> existing = new HashSet<String>(headerData);
+
 		for (String header : this.annoHeaders)
 		{
-			if (!headerData.contains(header))
+			if (existing.add(header))
 			{
 				// add missing annotator headers
 				headerData.add(header);
@@ -105,14 +114,47 @@ public class AnnoMafProcessor extends MafProcessor
 	 */
 	public void updateAnnoData(List<String> data, Map<String, String> annoData)
 	{
-		// create a new maf util for the new header line to get new indices
-		String newHeaderLine = this.newHeaderLineAsString();
-		MafUtil mafUtil = new MafUtil(newHeaderLine);
+		int[] indices = this.getAnnoIndices();
 
 		// update the data using the annotator data
-		for (String header: this.annoHeaders)
+		for (int i = 0; i < indices.length; i++)
+		{
+			data.set(indices[i], annoData.get(this.annoHeaders.get(i)));
+		}
+	}
+
+	/**
+	 * Returns the indices of the annotator columns within the new header
+	 * list. Indices are resolved only once for the current header list.
+	 *
+	 * @return  array of column indices
+	 */
+	protected int[] getAnnoIndices()
+	{
+		if (this.annoIndices == null ||
+		    this.indexedHeaders != this.newHeaders)
 		{
-			data.set(mafUtil.getColumnIndex(header), annoData.get(header));
+			// create a new maf util for the new header line to get new indices
+			MafUtil mafUtil = new MafUtil(this.newHeaderLineAsString());
+
+			this.annoIndices = new int[this.annoHeaders.size()];
+
+			for (int i = 0; i < this.annoIndices.length; i++)
+			{
+				this.annoIndices[i] = mafUtil.getColumnIndex(this.annoHeaders.get(i));
+			}
+
+			this.indexedHeaders = this.newHeaders;
 		}
+
+		return this.annoIndices;
+	}
+
+	public void setNewHeaders(List<String> newHeaders)
+	{
+		super.setNewHeaders(newHeaders);
+
+		// the list may have been modified in place, so always re-index
+		this.annoIndices = null;
 	}
 }
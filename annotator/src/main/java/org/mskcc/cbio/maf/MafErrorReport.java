@@ -15,6 +15,9 @@ public class MafErrorReport
 	public boolean longChrName = false;
 	public boolean nonAdjacentIns = false;
 	public boolean invalidLength = false;
+
+	// critical error which remains after the errors are fixed
+	public boolean unfixedCritical = false;
 	
 	public boolean containsError()
 	{
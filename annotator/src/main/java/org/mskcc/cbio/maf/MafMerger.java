@@ -19,17 +19,29 @@ package org.mskcc.cbio.maf;
 
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Designed to merge two different MAF files into one.
+ * Designed to merge two or more MAF files into one.
+ *
+ * Input files are streamed one at a time into the merged output, so
+ * neither the memory usage nor the number of open files depends on the
+ * number or the size of the input files.
  *
  * @author Selcuk Onur Sumer
  */
 public class MafMerger
 {
+	public static final String GZIP_SUFFIX = ".gz";
+
 	/**
 	 * Merges source MAF into target MAF by matching the source data to the
 	 * correct target column. If no column exists in the target MAF for a
@@ -44,59 +56,119 @@ public class MafMerger
 	{
 		File mergedMAF = new File(targetMAF.getCanonicalPath() + ".merged");
 
-		BufferedReader targetReader = new BufferedReader(new FileReader(targetMAF));
-		BufferedReader sourceReader = new BufferedReader(new FileReader(sourceMAF));
-		BufferedWriter writer = new BufferedWriter(new FileWriter(mergedMAF));
+		this.merge(Arrays.asList(targetMAF, sourceMAF), mergedMAF);
 
-		// get target header
-		MafHeaderUtil targetHeaderUtil = new MafHeaderUtil();
-		String targetHeader = targetHeaderUtil.extractHeader(targetReader);
+		return mergedMAF;
+	}
 
-		// get source header
-		MafHeaderUtil sourceHeaderUtil = new MafHeaderUtil();
-		String sourceHeader = sourceHeaderUtil.extractHeader(sourceReader);
+	/**
+	 * Merges all given MAF files into a single output MAF. The first input
+	 * determines the order of the columns (standard columns are sorted
+	 * and completed as for a two file merge). Columns that do not exist
+	 * in the first input are appended at the end, in the order they first
+	 * appear in the remaining inputs.
+	 *
+	 * Comments/metadata are copied from the first input only. Inputs and
+	 * the output are gzip compressed if their names end with ".gz".
+	 *
+	 * @param inputMAFs list of input MAF files
+	 * @param outputMAF merged output MAF file
+	 * @return  number of data lines written to the output
+	 */
+	public long merge(List<File> inputMAFs, File outputMAF) throws IOException
+	{
+		// header only pass: read the headers to find out the union of all columns
+		List<String> headers = new ArrayList<String>(inputMAFs.size());
+		List<String> comments = null;
+		String baseHeader = null;
 
-		// find out additional columns
-		List<String> additionalColumns = this.extractAdditionalCols(targetHeader, sourceHeader);
-		AnnoMafProcessor processor = new AnnoMafProcessor(targetHeader, additionalColumns);
+		for (File input : inputMAFs)
+		{
+			BufferedReader reader = openReader(input);
+			MafHeaderUtil headerUtil = new MafHeaderUtil();
+			String header = headerUtil.extractHeader(reader);
+			reader.close();
 
-		// write the target file as is
-		// (with additional empty columns included if necessary)
+			if (header == null)
+			{
+				System.out.println("[WARNING] No header line, skipping: " +
+				                   input.getAbsolutePath());
+			}
+			else if (baseHeader == null)
+			{
+				baseHeader = header;
+				comments = headerUtil.getComments();
+			}
 
-		// write comments/metadata to the output
-		FileIOUtil.writeLines(writer, targetHeaderUtil.getComments());
+			headers.add(header);
+		}
 
-		// write header to the outputs
-		FileIOUtil.writeLine(writer, processor.newHeaderList());
+		if (baseHeader == null)
+		{
+			throw new IOException("No header line in any of the input MAFs");
+		}
 
-		// write data lines from target MAF
-		this.processFile(targetReader, writer, processor);
+		List<String> additionalColumns = this.extractAdditionalCols(baseHeader, headers);
+		AnnoMafProcessor processor = new AnnoMafProcessor(baseHeader, additionalColumns);
 
+		BufferedWriter writer = openWriter(outputMAF);
+		long count = 0;
 
-		// append the source MAF at the end of the target
+		try
+		{
+			// write comments/metadata to the output
+			FileIOUtil.writeLines(writer, comments);
 
-		List<String> newHeaders = processor.getNewHeaders();
-		processor = new AnnoMafProcessor(sourceHeader);
-		// we need to manually set the new headers
-		// to match the previous processor's headers,
-		// instead of using processor.newHeaderList()
-		processor.setNewHeaders(newHeaders);
+			// write header to the output
+			List<String> newHeaders = processor.newHeaderList();
+			FileIOUtil.writeLine(writer, newHeaders);
 
-		// write data lines from source MAF
-		this.processFile(sourceReader, writer, processor);
+			// stream the data lines of each input
+			for (int i = 0; i < inputMAFs.size(); i++)
+			{
+				String header = headers.get(i);
 
-		targetReader.close();
-		sourceReader.close();
-		writer.close();
+				if (header == null)
+				{
+					continue;
+				}
 
-		return mergedMAF;
+				if (header != baseHeader)
+				{
+					processor = new AnnoMafProcessor(header);
+					// we need to manually set the new headers
+					// to match the first processor's headers,
+					// instead of using processor.newHeaderList()
+					processor.setNewHeaders(newHeaders);
+				}
+
+				BufferedReader reader = openReader(inputMAFs.get(i));
+
+				try
+				{
+					new MafHeaderUtil().extractHeader(reader);
+					count += this.processFile(reader, writer, processor);
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		return count;
 	}
 
-	protected void processFile(BufferedReader reader,
+	protected long processFile(BufferedReader reader,
 			BufferedWriter writer,
 			AnnoMafProcessor processor) throws IOException
 	{
 		String line;
+		long count = 0;
 
 		while ((line = reader.readLine()) != null)
 		{
@@ -108,36 +180,98 @@ public class MafMerger
 			// process line
 			List<String> data = processor.newDataList(line);
 			FileIOUtil.writeLine(writer, data);
+			count++;
 		}
+
+		return count;
 	}
 
 	protected List<String> extractAdditionalCols(String targetHeader, String sourceHeader)
 	{
-		List<String> targetColumns = Arrays.asList(targetHeader.split("\t"));
-		List<String> sourceColumns = Arrays.asList(sourceHeader.split("\t"));
-		List<String> difference = new LinkedList<String>();
+		return this.extractAdditionalCols(targetHeader, Arrays.asList(sourceHeader));
+	}
+
+	/**
+	 * Finds out the columns of the source headers that do not exist
+	 * in the target header, in the order of their first appearance.
+	 *
+	 * @param targetHeader  header line of the target MAF
+	 * @param sourceHeaders header lines of the source MAFs (null if none)
+	 * @return              list of additional columns
+	 */
+	protected List<String> extractAdditionalCols(String targetHeader,
+			List<String> sourceHeaders)
+	{
+		Set<String> targetColumns = new HashSet<String>(
+			Arrays.asList(targetHeader.split("\t")));
+		Set<String> difference = new LinkedHashSet<String>();
 
-		for (String sourceCol: sourceColumns)
+		for (String sourceHeader : sourceHeaders)
 		{
-			if (!targetColumns.contains(sourceCol))
+			if (sourceHeader == null)
 			{
-				difference.add(sourceCol);
+				continue;
+			}
+
+			for (String sourceCol : sourceHeader.split("\t"))
+			{
+				if (!targetColumns.contains(sourceCol))
+				{
+					difference.add(sourceCol);
+				}
 			}
 		}
 
-		return difference;
+		return new LinkedList<String>(difference);
+	}
+
+	protected static BufferedReader openReader(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+
+		if (file.getName().endsWith(GZIP_SUFFIX))
+		{
+			in = new GZIPInputStream(in);
+		}
+
+		return new BufferedReader(new InputStreamReader(in));
+	}
+
+	protected static BufferedWriter openWriter(File file) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+
+		if (file.getName().endsWith(GZIP_SUFFIX))
+		{
+			out = new GZIPOutputStream(out);
+		}
+
+		return new BufferedWriter(new OutputStreamWriter(out));
 	}
 
 	// main method for stand alone testing
 	public static void main (String...args) {
-		if (args.length < 2) {
+		if (args.length < 2 ||
+		    (args[0].equals("-o") && args.length < 3)) {
 			System.err.println("Usage java MafMerger <target file> <source file>");
+			System.err.println("      java MafMerger -o <output file> <input file>...");
 			return;
 		}
-		File targetFile = new File(args[0]);
-		File sourceFile = new File(args[1]);
-		System.out.println("Merging " +sourceFile.getName() +" into " +targetFile.getName());
 		try {
+			if (args[0].equals("-o")) {
+				List<File> inputFiles = new ArrayList<File>();
+				for (int i = 2; i < args.length; i++) {
+					inputFiles.add(new File(args[i]));
+				}
+				File outputFile = new File(args[1]);
+				System.out.println("Merging " + inputFiles.size() + " files into " + outputFile.getName());
+				long count = new MafMerger().merge(inputFiles, outputFile);
+				System.out.println("Merged file: " + outputFile.getName() + " (" + count + " records)");
+				return;
+			}
+			File targetFile = new File(args[0]);
+			File sourceFile = new File(args[1]);
+			System.out.println("Merging " +sourceFile.getName() +" into " +targetFile.getName());
 			File mergedFile = new MafMerger().merge(targetFile, sourceFile);
 			System.out.println("Merged file: " +mergedFile.getName());
 		} catch (IOException e) {;
@@ -19,7 +19,9 @@ package org.mskcc.cbio.maf;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Helps processing and reordering of MAF file content. Designed
@@ -39,6 +41,13 @@ public class MafProcessor
 	protected List<String> maHeaders;
 	protected List<String> newHeaders;
 
+	// lower case names of all standard, oncotator and MA columns
+	protected Set<String> knownHeaders;
+
+	// source column index for each column of the new header list
+	private int[] columnPlan;
+	private List<String> plannedHeaders;
+
 	public MafProcessor(String headerLine)
 	{
 		this.headerLine = headerLine.trim();
@@ -46,6 +55,7 @@ public class MafProcessor
 		this.standardHeaders = this.initStandardHeaderList();
 		this.oncoHeaders = this.initOncoHeaderList();
 		this.maHeaders = this.initMaHeaderList();
+		this.knownHeaders = this.initKnownHeaderSet();
 	}
 
 	/**
@@ -212,31 +222,7 @@ public class MafProcessor
 	 */
 	protected boolean isCustomHeader(String header)
 	{
-		for (String knownHeader : this.standardHeaders)
-		{
-			if (header.equalsIgnoreCase(knownHeader))
-			{
-				return false;
-			}
-		}
-
-		for (String knownHeader : this.oncoHeaders)
-		{
-			if (header.equalsIgnoreCase(knownHeader))
-			{
-				return false;
-			}
-		}
-
-		for (String knownHeader : this.maHeaders)
-		{
-			if (header.equalsIgnoreCase(knownHeader))
-			{
-				return false;
-			}
-		}
-
-		return true;
+		return !this.knownHeaders.contains(header.toLowerCase());
 	}
 
 	/**
@@ -248,20 +234,29 @@ public class MafProcessor
 	 */
 	public List<String> newDataList(String dataLine)
 	{
-		// adjust data line for consistency with the header
-		dataLine = TabDelimitedFileUtil.adjustDataLine(dataLine,
-			this.mafUtil.getHeaderCount());
+		return this.newDataList(dataLine.split(TAB, -1));
+	}
 
-		String[] parts = dataLine.split(TAB, -1);
-		List<String> dataList = new ArrayList<String>();
+	/**
+	 * Creates a new data list matching the order of the new header list
+	 * by using the given (already split) data line.
+	 *
+	 * @param parts     columns of a single line of a MAF file
+	 * @return          list of data representing a single line
+	 */
+	public List<String> newDataList(String[] parts)
+	{
+		int[] plan = this.getColumnPlan();
 
+		// missing trailing columns are treated as empty values
+		// (same as adjusting the data line for consistency with the header)
+		List<String> dataList = new ArrayList<String>(plan.length);
 
 		// re-order the parts using the new header data
-		for (String header : this.newHeaders)
+		for (int index : plan)
 		{
-			int index = this.mafUtil.getColumnIndex(header);
-
-			if (index != -1)
+			if (index != -1 &&
+			    index < parts.length)
 			{
 				dataList.add(parts[index]);
 			}
@@ -275,6 +270,33 @@ public class MafProcessor
 		return dataList;
 	}
 
+	/**
+	 * Returns the index of the source column for each column of the new
+	 * header list (-1 if the column does not exist in the source).
+	 * The plan is built only once for the current header list.
+	 *
+	 * @return  array of source column indices
+	 */
+	protected int[] getColumnPlan()
+	{
+		if (this.columnPlan == null ||
+		    this.plannedHeaders != this.newHeaders ||
+		    this.columnPlan.length != this.newHeaders.size())
+		{
+			int[] plan = new int[this.newHeaders.size()];
+
+			for (int i = 0; i < plan.length; i++)
+			{
+				plan[i] = this.mafUtil.getColumnIndex(this.newHeaders.get(i));
+			}
+
+			this.columnPlan = plan;
+			this.plannedHeaders = this.newHeaders;
+		}
+
+		return this.columnPlan;
+	}
+
 	/**
 	 * Initializes standard MAF columns list.
 	 * The order of the elements in this list is directly related
@@ -392,6 +414,34 @@ public class MafProcessor
 		return headers;
 	}
 
+	/**
+	 * Initializes the set of known (non-custom) column names.
+	 * Names are stored in lower case for case insensitive lookup.
+	 *
+	 * @return  a set of lower case column names
+	 */
+	protected Set<String> initKnownHeaderSet()
+	{
+		Set<String> headers = new HashSet<String>();
+
+		for (String header : this.standardHeaders)
+		{
+			headers.add(header.toLowerCase());
+		}
+
+		for (String header : this.oncoHeaders)
+		{
+			headers.add(header.toLowerCase());
+		}
+
+		for (String header : this.maHeaders)
+		{
+			headers.add(header.toLowerCase());
+		}
+
+		return headers;
+	}
+
 	/**
 	 * String representation of the new header line.
 	 *
@@ -417,5 +467,8 @@ public class MafProcessor
 	public void setNewHeaders(List<String> newHeaders)
 	{
 		this.newHeaders = newHeaders;
+
+		// the list may have been modified in place, so always re-plan
+		this.columnPlan = null;
 	}
 }
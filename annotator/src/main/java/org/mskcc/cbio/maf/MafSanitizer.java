@@ -23,7 +23,9 @@ import org.apache.commons.logging.LogFactory;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Performs a sanity check for MAF files.
@@ -32,12 +34,35 @@ import java.util.List;
  */
 public class MafSanitizer
 {
+	public static final String TAB = "\t";
+
 	protected int invalidCount;
+	protected int recordCount;
 	private static final Log LOG = LogFactory.getLog(MafSanitizer.class);
 
+	// valid chromosome names (without the "chr" prefix)
+	private static final Set<String> VALID_CHROMOSOMES = initValidChromosomes();
+
 	public MafSanitizer()
 	{
 		this.invalidCount = 0;
+		this.recordCount = 0;
+	}
+
+	/**
+	 * @return  number of lines with errors and/or warnings so far
+	 */
+	public int getInvalidCount()
+	{
+		return invalidCount;
+	}
+
+	/**
+	 * @return  number of (non-empty) data lines checked so far
+	 */
+	public int getRecordCount()
+	{
+		return recordCount;
 	}
 
 	/**
@@ -94,28 +119,86 @@ public class MafSanitizer
 		String line = headerUtil.extractHeader(reader);
 
 		MafUtil util = new MafUtil(line);
-		MafRecord record;
 
 		if (writer != null)
 		{
-			// TODO make sort & add missing optional!
-			// process MAF file to sort & add missing standard columns
-			processor = new AnnoMafProcessor(line);
-			List<String> columnNames = processor.newHeaderList();
+			processor = this.writeHeaders(line, headerUtil.getComments(), writer, miscWriter);
+		}
+
+		// including the header line
+		int lineCount = headerUtil.getComments().size() + 1;
 
-			// write comments/metadata to the output
-			FileIOUtil.writeLines(writer, headerUtil.getComments());
+		this.sanitizeLines(reader, util, processor, writer, miscWriter, lineCount);
 
-			// write header to the outputs
-			FileIOUtil.writeLine(writer, columnNames);
-			FileIOUtil.writeLine(miscWriter, columnNames);
+		printSummary(invalidCount);
+
+		reader.close();
 
-			//writer.write(line);
-			//writer.newLine();
+		if (writer != null)
+		{
+			writer.close();
+			miscWriter.close();
 		}
+	}
 
-		// including the header line
-		int lineCount = headerUtil.getComments().size() + 1;
+	/**
+	 * Writes the comments and the header line to the outputs.
+	 *
+	 * @param headerLine    header line of the input MAF
+	 * @param comments      comments/metadata of the input MAF
+	 * @param writer        writer for the sanitized output
+	 * @param miscWriter    writer for the misc output
+	 * @return              processor for the data lines of the input MAF
+	 * @throws IOException
+	 */
+	protected AnnoMafProcessor writeHeaders(String headerLine,
+			List<String> comments,
+			BufferedWriter writer,
+			BufferedWriter miscWriter) throws IOException
+	{
+		// TODO make sort & add missing optional!
+		// process MAF file to sort & add missing standard columns
+		AnnoMafProcessor processor = new AnnoMafProcessor(headerLine);
+		List<String> columnNames = processor.newHeaderList();
+
+		// write comments/metadata to the output
+		FileIOUtil.writeLines(writer, comments);
+
+		// write header to the outputs
+		FileIOUtil.writeLine(writer, columnNames);
+		FileIOUtil.writeLine(miscWriter, columnNames);
+
+		//writer.write(line);
+		//writer.newLine();
+
+		return processor;
+	}
+
+	/**
+	 * Sanitizes all remaining (data) lines of the given reader. Sanitized
+	 * lines are written to the given writer, and the lines with critical
+	 * errors to the misc writer. If the writers are null, lines are only
+	 * checked for errors.
+	 *
+	 * @param reader        reader positioned after the header line
+	 * @param util          MAF util for the header line
+	 * @param processor     processor for the data lines (null if no output)
+	 * @param writer        writer for the sanitized output (may be null)
+	 * @param miscWriter    writer for the misc output (may be null)
+	 * @param lineCount     line number of the last line before the reader
+	 * @return              line number of the last line read
+	 * @throws IOException
+	 */
+	protected int sanitizeLines(BufferedReader reader,
+			MafUtil util,
+			AnnoMafProcessor processor,
+			BufferedWriter writer,
+			BufferedWriter miscWriter,
+			int lineCount) throws IOException
+	{
+		MafRecord record;
+		String[] parts;
+		String line;
 
 		while ((line = reader.readLine()) != null)
 		{
@@ -126,10 +209,14 @@ public class MafSanitizer
 				continue;
 			}
 
-			record = util.parseRecord(line);
+			this.recordCount++;
 
-			// try to sanitize line
-			String sanitizedLine = sanitizeLine(util, record, line, lineCount);
+			// split the line only once, the record is sanitized in place
+			parts = line.split(TAB, -1);
+			record = this.parseRecord(util, parts);
+
+			// try to sanitize the record
+			MafErrorReport errorReport = sanitizeRecord(util, record, parts, lineCount);
 
 			if (writer != null)
 			{
@@ -137,9 +224,9 @@ public class MafSanitizer
 
 				// if there are still critical errors,
 				// then output the original line to a misc output file
-				if (hasCriticalError(util.parseRecord(sanitizedLine)))
+				if (errorReport.unfixedCritical)
 				{
-					// process original line
+					// process original line (parts are modified by the fix)
 					data = processor.newDataList(line);
 					FileIOUtil.writeLine(miscWriter, data);
 				}
@@ -147,7 +234,7 @@ public class MafSanitizer
 				else
 				{
 					// process sanitized line
-					data = processor.newDataList(sanitizedLine);
+					data = processor.newDataList(parts);
 					FileIOUtil.writeLine(writer, data);
 				}
 
@@ -156,18 +243,10 @@ public class MafSanitizer
 			}
 		}
 
-		printSummary(invalidCount);
-
-		reader.close();
-
-		if (writer != null)
-		{
-			writer.close();
-			miscWriter.close();
-		}
+		return lineCount;
 	}
 
-	private String generateMiscFilename(String output, String miscOut)
+	protected String generateMiscFilename(String output, String miscOut)
 	{
 		if (miscOut != null)
 		{
@@ -191,8 +270,12 @@ public class MafSanitizer
 
 	public boolean hasCriticalError(MafRecord record)
 	{
-		MafErrorReport report = this.identifyErrors(record);
-		return report.hasCriticalError();
+		// same as identifyErrors(record).hasCriticalError(), without the other checks
+		return !isValidAllele(record.getReferenceAllele()) ||
+		       (!isValidAllele(record.getTumorSeqAllele1()) &&
+		        !isValidAllele(record.getTumorSeqAllele2())) ||
+		       !isValidChromosome(record.getChr()) ||
+		       record.getStartPosition() == TabDelimitedFileUtil.NA_LONG;
 	}
 
 	/**
@@ -248,8 +331,7 @@ public class MafSanitizer
 		// check for missing start position
 		errorReport.missingStart = (record.getStartPosition() == TabDelimitedFileUtil.NA_LONG);
 
-		errorReport.invalidChromosome = !record.getChr().replace("chr", "").matches(
-				"[1-9|X|Y|x|y]|[0-1][0-9]|[2][0-2]");
+		errorReport.invalidChromosome = !isValidChromosome(record.getChr());
 
 		// check if chromosome starts with "chr"
 		errorReport.longChrName = record.getChr().startsWith("chr");
@@ -336,16 +418,53 @@ public class MafSanitizer
 			if (message.length() > 0)
 			{
 				//System.out.println(message);
-				LOG.warn("[MafSanitizer] " + message);
+				this.logMessage(message);
 			}
 		}
 	}
 
+	/**
+	 * Logs a single error and/or warning message of a record.
+	 *
+	 * @param message   message starting with the line number of the record
+	 */
+	protected void logMessage(String message)
+	{
+		LOG.warn("[MafSanitizer] " + message);
+	}
+
+	/**
+	 * Fixes the errors of the given line (if possible).
+	 * The given record is updated with the fixed values as well.
+	 *
+	 * @param util          MAF util for the header of the line
+	 * @param record        record parsed from the line
+	 * @param line          a single data line
+	 * @param errorReport   errors identified for the record
+	 * @return              fixed data line
+	 */
 	public String fixErrors(MafUtil util, MafRecord record, String line, MafErrorReport errorReport)
 	{
-		String parts[] = line.split("\t", -1);
-		String newLine = "";
+		String[] parts = line.split(TAB, -1);
+		this.fixErrors(util, record, parts, errorReport);
+
+		return Joiner.on(TAB).join(parts);
+	}
 
+	/**
+	 * Fixes the errors of the given record (if possible) in place.
+	 * Fixed values are written into the given columns, and the record
+	 * is updated accordingly, so that there is no need to parse the
+	 * fixed line again. Critical errors which cannot be fixed are marked
+	 * in the given report.
+	 *
+	 * @param util          MAF util for the header of the line
+	 * @param record        record parsed from the columns
+	 * @param parts         columns of a single data line
+	 * @param errorReport   errors identified for the record
+	 */
+	public void fixErrors(MafUtil util, MafRecord record, String[] parts, MafErrorReport errorReport)
+	{
 		String refAllele = record.getReferenceAllele();
 		String tumAllele1 = record.getTumorSeqAllele1();
 		String tumAllele2 = record.getTumorSeqAllele2();
@@ -389,68 +508,124 @@ public class MafSanitizer
 			}
 		}
 
-		for (int i=0; i < parts.length; i++)
+		int startIndex = util.getStartPositionIndex();
+		int endIndex = util.getEndPositionIndex();
+
+		if (errorReport.malformedAllele)
 		{
-			if (errorReport.malformedAllele &&
-			    util.getReferenceAlleleIndex() == i)
-			{
-				newLine += refAllele;
-			}
-			else if (errorReport.malformedAllele &&
-			         util.getTumorSeqAllele1Index() == i)
-			{
-				newLine += tumAllele1;
-			}
-			else if (errorReport.malformedAllele &&
-			         util.getTumorSeqAllele2Index() == i)
-			{
-				newLine += tumAllele2;
-			}
-			else if (errorReport.isInvalidPos() &&
-			         util.getStartPositionIndex() == i)
-			{
-				newLine += extractPos(parts[i]);
-			}
-			else if (errorReport.isInvalidPos() &&
-			         util.getEndPositionIndex() == i)
-			{
-				newLine += extractPos(parts[i]);
-			}
-			else if ((errorReport.missingEnd || errorReport.invalidLength) &&
-			         util.getEndPositionIndex() == i)
-			{
-				newLine += calculateEndPos(record.getStartPosition(),
-				                           refAllele);
-			}
-			else if ((errorReport.longChrName || errorReport.invalidChromosome) &&
-			         util.getChrIndex() == i)
-			{
-				newLine += chromosome;
-			}
-			// TODO ignore nonAdjacentIns for now
-//			else if (errorReport.nonAdjacentIns &&
-//			         util.getEndPositionIndex() == i)
-//			{
-//				newLine += record.getEndPosition() + 1;
-//			}
-			else
+			setPart(parts, util.getReferenceAlleleIndex(), refAllele);
+			setPart(parts, util.getTumorSeqAllele1Index(), tumAllele1);
+			setPart(parts, util.getTumorSeqAllele2Index(), tumAllele2);
+		}
+
+		if (errorReport.isInvalidPos())
+		{
+			if (hasPart(parts, startIndex))
 			{
-				newLine += parts[i];
+				parts[startIndex] = extractPos(parts[startIndex]);
 			}
 
-			if (i < parts.length - 1)
+			if (hasPart(parts, endIndex))
 			{
-				newLine += "\t";
+				parts[endIndex] = extractPos(parts[endIndex]);
 			}
 		}
+		else if ((errorReport.missingEnd || errorReport.invalidLength) &&
+		         hasPart(parts, endIndex))
+		{
+			parts[endIndex] = String.valueOf(
+				calculateEndPos(record.getStartPosition(), refAllele));
+		}
+
+		if (errorReport.longChrName || errorReport.invalidChromosome)
+		{
+			setPart(parts, util.getChrIndex(), chromosome);
+		}
+
+		// TODO ignore nonAdjacentIns for now
+//		if (errorReport.nonAdjacentIns &&
+//		    hasPart(parts, endIndex))
+//		{
+//			parts[endIndex] = String.valueOf(record.getEndPosition() + 1);
+//		}
+
+		// update the record with the fixed values
+		this.updateRecord(util, record, parts);
 
-		return newLine;
+		// a fix never introduces a critical error, only check the ones identified
+		errorReport.unfixedCritical = errorReport.hasCriticalError() &&
+			this.hasCriticalError(record);
 	}
 
+	/**
+	 * Creates a record from the columns of a single data line. Only the
+	 * fields checked by the sanitizer are set, so that the line does not
+	 * need to be split again by {@link MafUtil#parseRecord(String)}.
+	 *
+	 * @param util      MAF util for the header of the line
+	 * @param parts     columns of a single data line
+	 * @return          record with the position and allele fields
+	 */
+	protected MafRecord parseRecord(MafUtil util, String[] parts)
+	{
+		MafRecord record = new MafRecord();
+		this.updateRecord(util, record, parts);
+
+		return record;
+	}
+
+	/**
+	 * Sets the position and allele fields of the given record from the
+	 * given columns.
+	 *
+	 * @param util      MAF util for the header of the line
+	 * @param record    record to update
+	 * @param parts     columns of a single data line
+	 */
+	protected void updateRecord(MafUtil util, MafRecord record, String[] parts)
+	{
+		record.setChr(TabDelimitedFileUtil.getPartString(util.getChrIndex(), parts));
+		record.setStartPosition(TabDelimitedFileUtil.getPartLong(
+			util.getStartPositionIndex(), parts));
+		record.setEndPosition(TabDelimitedFileUtil.getPartLong(
+			util.getEndPositionIndex(), parts));
+		record.setReferenceAllele(TabDelimitedFileUtil.getPartString(
+			util.getReferenceAlleleIndex(), parts));
+		record.setTumorSeqAllele1(TabDelimitedFileUtil.getPartString(
+			util.getTumorSeqAllele1Index(), parts));
+		record.setTumorSeqAllele2(TabDelimitedFileUtil.getPartString(
+			util.getTumorSeqAllele2Index(), parts));
+	}
+
+	/**
+	 * Identifies the errors of the given line, and fixes them (if possible).
+	 *
+	 * @param util          MAF util for the header of the line
+	 * @param record        record parsed from the line
+	 * @param line          a single data line
+	 * @param lineNumber    line number (for error messages)
+	 * @return              sanitized data line
+	 */
 	public String sanitizeLine(MafUtil util, MafRecord record, String line, int lineNumber)
 	{
-		String newLine = line;
+		String[] parts = line.split(TAB, -1);
+		MafErrorReport errorReport = this.sanitizeRecord(util, record, parts, lineNumber);
+
+		return errorReport.containsError() ? Joiner.on(TAB).join(parts) : line;
+	}
 
+	/**
+	 * Identifies the errors of the given record, and fixes them (if possible)
+	 * in place. See {@link #fixErrors(MafUtil, MafRecord, String[], MafErrorReport)}.
+	 *
+	 * @param util          MAF util for the header of the line
+	 * @param record        record parsed from the columns
+	 * @param parts         columns of a single data line
+	 * @param lineNumber    line number (for error messages)
+	 * @return              errors identified before the fix
+	 */
+	public MafErrorReport sanitizeRecord(MafUtil util, MafRecord record, String[] parts, int lineNumber)
+	{
 		MafErrorReport errorReport = identifyErrors(record, lineNumber);
 		printErrors(record, errorReport);
 
@@ -490,23 +665,51 @@ public class MafSanitizer
 			invalidCount++;
 
 			// fix errors (if possible)
-			newLine = fixErrors(util, record, line, errorReport);
+			fixErrors(util, record, parts, errorReport);
 		}
 
-		return newLine;
+		return errorReport;
 	}
 
 	public boolean isValidAllele(String allele)
 	{
-		boolean valid = false;
+		if (allele.equals("-"))
+		{
+			return true;
+		}
 
-		if (allele.matches("[TCGAtcga]+") ||
-		    allele.equals("-"))
+		// same as matching [TCGAtcga]+ without a regular expression
+		for (int i = 0; i < allele.length(); i++)
 		{
-			valid = true;
+			switch (allele.charAt(i))
+			{
+				case 'T': case 'C': case 'G': case 'A':
+				case 't': case 'c': case 'g': case 'a':
+					break;
+				default:
+					return false;
+			}
 		}
 
-		return valid;
+		return allele.length() > 0;
+	}
+
+	/**
+	 * Checks if the given chromosome is a valid chromosome name,
+	 * ignoring the "chr" prefix.
+	 *
+	 * @param chr   chromosome name
+	 * @return      true if the chromosome is valid, false otherwise
+	 */
+	public boolean isValidChromosome(String chr)
+	{
+		// avoid creating a new string unless there is a "chr" to remove
+		if (chr.contains("chr"))
+		{
+			chr = chr.replace("chr", "");
+		}
+
+		return VALID_CHROMOSOMES.contains(chr);
 	}
 
 	public boolean isValidLength(MafRecord record)
@@ -621,4 +824,41 @@ public class MafSanitizer
 		       record.getEndPosition() != TabDelimitedFileUtil.NA_LONG &&
 		       record.getStartPosition() == record.getEndPosition();
 	}
+
+	private static boolean hasPart(String[] parts, int index)
+	{
+		return index >= 0 && index < parts.length;
+	}
+
+	private static void setPart(String[] parts, int index, String value)
+	{
+		if (hasPart(parts, index))
+		{
+			parts[index] = value;
+		}
+	}
+
+	private static Set<String> initValidChromosomes()
+	{
+		Set<String> chromosomes = new HashSet<String>();
+
+		// 1-9 and X, Y (case insensitive)
+		for (int i = 1; i < 10; i++)
+		{
+			chromosomes.add(Integer.toString(i));
+		}
+
+		chromosomes.add("X");
+		chromosomes.add("Y");
+		chromosomes.add("x");
+		chromosomes.add("y");
+
+		// 00-19 and 20-22 (two digit names)
+		for (int i = 0; i < 23; i++)
+		{
+			chromosomes.add(String.format("%02d", i));
+		}
+
+		return chromosomes;
+	}
 }
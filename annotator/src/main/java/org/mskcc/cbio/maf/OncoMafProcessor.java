@@ -28,6 +28,10 @@ import java.util.List;
  */
 public class OncoMafProcessor extends MafProcessor
 {
+	// indices of the oncotator columns within the new header list
+	private int[] oncoIndices;
+	private List<String> indexedHeaders;
+
 	public OncoMafProcessor(String headerLine)
 	{
 		super(headerLine);
@@ -154,39 +158,106 @@ public class OncoMafProcessor extends MafProcessor
 		String proteinPosEndBe = (oncotatorRecord.getBestEffectTranscript().getProteinPosEnd() == null) ?
 				null : oncotatorRecord.getBestEffectTranscript().getProteinPosEnd().toString();
 
-		// create a new maf util for the new header line to get new oncotator indices
-		String newHeaderLine = this.newHeaderLineAsString();
-		MafUtil mafUtil = new MafUtil(newHeaderLine);
+		int[] indices = this.getOncoIndices();
+
+		// values in the same order as the indices
+		String[] values = {
+			cosmicOverlapping,
+			dbSnpRs,
+			dbSnpValStatus,
+
+			proteinChange,
+			variantClassification,
+			geneSymbol,
+			refseqMrnaId,
+			refseqProtId,
+			uniprotName,
+			uniprotAccession,
+			codonChange,
+			transcriptChange,
+			exonAffected,
+			proteinPosStart,
+			proteinPosEnd,
+
+			proteinChangeBe,
+			variantClassificationBe,
+			geneSymbolBe,
+			refseqMrnaIdBe,
+			refseqProtIdBe,
+			uniprotNameBe,
+			uniprotAccessionBe,
+			codonChangeBe,
+			transcriptChangeBe,
+			exonAffectedBe,
+			proteinPosStartBe,
+			proteinPosEndBe
+		};
 
 		// update oncotator values
-		data.set(mafUtil.getOncoCosmicOverlappingIndex(), cosmicOverlapping);
-		data.set(mafUtil.getOncoDbSnpRsIndex(), dbSnpRs);
-		data.set(mafUtil.getOncoDbSnpValStatusIndex(), dbSnpValStatus);
-
-		data.set(mafUtil.getOncoProteinChangeIndex(), proteinChange);
-		data.set(mafUtil.getOncoVariantClassificationIndex(), variantClassification);
-		data.set(mafUtil.getOncoGeneSymbolIndex(), geneSymbol);
-		data.set(mafUtil.getOncoRefseqMrnaIdIndex(), refseqMrnaId);
-		data.set(mafUtil.getOncoRefseqProtIdIndex(), refseqProtId);
-		data.set(mafUtil.getOncoUniprotNameIndex(), uniprotName);
-		data.set(mafUtil.getOncoUniprotAccessionIndex(), uniprotAccession);
-		data.set(mafUtil.getOncoCodonChangeIndex(), codonChange);
-		data.set(mafUtil.getOncoTranscriptChangeIndex(), transcriptChange);
-		data.set(mafUtil.getOncoExonAffectedIndex(), exonAffected);
-		data.set(mafUtil.getOncoProteinPosStartIndex(), proteinPosStart);
-		data.set(mafUtil.getOncoProteinPosEndIndex(), proteinPosEnd);
-
-		data.set(mafUtil.getOncoProteinChangeBeIndex(), proteinChangeBe);
-		data.set(mafUtil.getOncoVariantClassificationBeIndex(), variantClassificationBe);
-		data.set(mafUtil.getOncoGeneSymbolBeIndex(), geneSymbolBe);
-		data.set(mafUtil.getOncoRefseqMrnaIdBeIndex(), refseqMrnaIdBe);
-		data.set(mafUtil.getOncoRefseqProtIdBeIndex(), refseqProtIdBe);
-		data.set(mafUtil.getOncoUniprotNameBeIndex(), uniprotNameBe);
-		data.set(mafUtil.getOncoUniprotAccessionBeIndex(), uniprotAccessionBe);
-		data.set(mafUtil.getOncoCodonChangeBeIndex(), codonChangeBe);
-		data.set(mafUtil.getOncoTranscriptChangeBeIndex(), transcriptChangeBe);
-		data.set(mafUtil.getOncoExonAffectedBeIndex(), exonAffectedBe);
-		data.set(mafUtil.getOncoProteinPosStartBeIndex(), proteinPosStartBe);
-		data.set(mafUtil.getOncoProteinPosEndBeIndex(), proteinPosEndBe);
+		for (int i = 0; i < indices.length; i++)
+		{
+			data.set(indices[i], values[i]);
+		}
+	}
+
+	/**
+	 * Returns the indices of the oncotator columns within the new header
+	 * list. Indices are resolved only once for the current header list,
+	 * instead of parsing the new header line for every record.
+	 *
+	 * @return  array of column indices
+	 */
+	protected int[] getOncoIndices()
+	{
+		if (this.oncoIndices == null ||
+		    this.indexedHeaders != this.newHeaders)
+		{
+			// create a new maf util for the new header line to get new oncotator indices
+			MafUtil mafUtil = new MafUtil(this.newHeaderLineAsString());
+
+			this.oncoIndices = new int[] {
+				mafUtil.getOncoCosmicOverlappingIndex(),
+				mafUtil.getOncoDbSnpRsIndex(),
+				mafUtil.getOncoDbSnpValStatusIndex(),
+
+				mafUtil.getOncoProteinChangeIndex(),
+				mafUtil.getOncoVariantClassificationIndex(),
+				mafUtil.getOncoGeneSymbolIndex(),
+				mafUtil.getOncoRefseqMrnaIdIndex(),
+				mafUtil.getOncoRefseqProtIdIndex(),
+				mafUtil.getOncoUniprotNameIndex(),
+				mafUtil.getOncoUniprotAccessionIndex(),
+				mafUtil.getOncoCodonChangeIndex(),
+				mafUtil.getOncoTranscriptChangeIndex(),
+				mafUtil.getOncoExonAffectedIndex(),
+				mafUtil.getOncoProteinPosStartIndex(),
+				mafUtil.getOncoProteinPosEndIndex(),
+
+				mafUtil.getOncoProteinChangeBeIndex(),
+				mafUtil.getOncoVariantClassificationBeIndex(),
+				mafUtil.getOncoGeneSymbolBeIndex(),
+				mafUtil.getOncoRefseqMrnaIdBeIndex(),
+				mafUtil.getOncoRefseqProtIdBeIndex(),
+				mafUtil.getOncoUniprotNameBeIndex(),
+				mafUtil.getOncoUniprotAccessionBeIndex(),
+				mafUtil.getOncoCodonChangeBeIndex(),
+				mafUtil.getOncoTranscriptChangeBeIndex(),
+				mafUtil.getOncoExonAffectedBeIndex(),
+				mafUtil.getOncoProteinPosStartBeIndex(),
+				mafUtil.getOncoProteinPosEndBeIndex()
+			};
+
+			this.indexedHeaders = this.newHeaders;
+		}
+
+		return this.oncoIndices;
+	}
+
+	public void setNewHeaders(List<String> newHeaders)
+	{
+		super.setNewHeaders(newHeaders);
+
+		// the list may have been modified in place, so always re-index
+		this.oncoIndices = null;
 	}
 }
@@ -0,0 +1,498 @@
+/** Copyright (c) 2015 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center
+ * has been advised of the possibility of such damage.
+ */
+
+package org.mskcc.cbio.maf;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Sanitizes a single (large) MAF file on multiple threads.
+ *
+ * Data lines of the input are split into byte ranges aligned on line
+ * boundaries. Each range is sanitized concurrently into temporary part
+ * files, and the parts are concatenated in the original order. Outputs
+ * are byte-identical to the outputs of the single threaded sanitizer.
+ */
+public class ParallelMafSanitizer extends MafSanitizer
+{
+	// inputs smaller than this are not split
+	public static final long MIN_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	// more chunks than threads for a better load balance
+	public static final int CHUNKS_PER_THREAD = 4;
+
+	public static final String PART_SUFFIX = ".part";
+
+	private int numThreads;
+
+	// fixed chunk size in bytes (0 for automatic)
+	private long chunkSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numThreads    maximum number of chunks sanitized at the same time
+	 *                      (the input is sanitized sequentially if less than 2)
+	 */
+	public ParallelMafSanitizer(int numThreads)
+	{
+		super();
+		this.numThreads = numThreads;
+		this.chunkSize = 0;
+	}
+
+	public void sanitizeMaf(String input,
+			String output,
+			String miscOut) throws IOException
+	{
+		File inputFile = new File(input);
+
+		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+		reader.close();
+
+		List<long[]> chunks = null;
+
+		if (this.numThreads > 1 &&
+		    headerLine != null)
+		{
+			long dataStart = findDataStart(inputFile, headerLine);
+
+			if (dataStart != -1)
+			{
+				chunks = this.splitChunks(inputFile, dataStart);
+			}
+		}
+
+		// nothing to parallelize (or the header line cannot be located)
+		if (chunks == null ||
+		    chunks.size() < 2)
+		{
+			super.sanitizeMaf(input, output, miscOut);
+			return;
+		}
+
+		File outputFile = (output == null) ? null : new File(output);
+		File miscFile = (output == null) ? null : new File(generateMiscFilename(output, miscOut));
+
+		try
+		{
+			this.sanitizeChunks(inputFile, headerLine, headerUtil.getComments(),
+				chunks, outputFile, miscFile);
+		}
+		finally
+		{
+			if (outputFile != null)
+			{
+				deleteParts(outputFile, chunks.size());
+				deleteParts(miscFile, chunks.size());
+			}
+		}
+
+		printSummary(invalidCount);
+	}
+
+	/**
+	 * Sanitizes all chunks concurrently, and writes the outputs
+	 * (if output files are provided).
+	 */
+	protected void sanitizeChunks(final File input,
+			final String headerLine,
+			List<String> comments,
+			final List<long[]> chunks,
+			final File output,
+			final File miscOutput) throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(
+			Math.min(this.numThreads, chunks.size()));
+
+		try
+		{
+			// first pass: count the lines of each chunk to report correct line numbers
+			List<Callable<Integer>> counters = new ArrayList<Callable<Integer>>();
+
+			for (final long[] chunk : chunks)
+			{
+				counters.add(new Callable<Integer>() {
+					public Integer call() throws IOException
+					{
+						return countLines(input, chunk[0], chunk[1]);
+					}
+				});
+			}
+
+			List<Future<Integer>> counts = pool.invokeAll(counters);
+
+			// second pass: sanitize each chunk into its own part files
+			List<Callable<MafSanitizer>> tasks = new ArrayList<Callable<MafSanitizer>>();
+
+			// including the header line
+			int lineCount = comments.size() + 1;
+
+			for (int i = 0; i < chunks.size(); i++)
+			{
+				final int index = i;
+				final int startLine = lineCount;
+
+				tasks.add(new Callable<MafSanitizer>() {
+					public MafSanitizer call() throws IOException
+					{
+						return sanitizeChunk(input, headerLine, chunks.get(index), startLine,
+							partFile(output, index), partFile(miscOutput, index));
+					}
+				});
+
+				lineCount += counts.get(i).get();
+			}
+
+			for (Future<MafSanitizer> result : pool.invokeAll(tasks))
+			{
+				this.invalidCount += result.get().getInvalidCount();
+				this.recordCount += result.get().getRecordCount();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sanitizing " + input);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+
+			throw new RuntimeException(e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		if (output != null)
+		{
+			this.concatParts(headerLine, comments, chunks.size(), output, miscOutput);
+		}
+	}
+
+	/**
+	 * Sanitizes a single chunk of the input by using a separate sanitizer.
+	 *
+	 * @return  sanitizer of the chunk, holding the counts of the chunk
+	 */
+	protected MafSanitizer sanitizeChunk(File input,
+			String headerLine,
+			long[] chunk,
+			int startLine,
+			File output,
+			File miscOutput) throws IOException
+	{
+		MafSanitizer sanitizer = this.createChunkSanitizer();
+		MafUtil util = new MafUtil(headerLine);
+		AnnoMafProcessor processor = null;
+
+		BufferedReader reader = openChunk(input, chunk[0], chunk[1]);
+		BufferedWriter writer = null;
+		BufferedWriter miscWriter = null;
+
+		try
+		{
+			if (output != null)
+			{
+				writer = new BufferedWriter(new FileWriter(output));
+				miscWriter = new BufferedWriter(new FileWriter(miscOutput));
+
+				// same header list as the main outputs
+				processor = new AnnoMafProcessor(headerLine);
+				processor.newHeaderList();
+			}
+
+			sanitizer.sanitizeLines(reader, util, processor, writer, miscWriter, startLine);
+		}
+		finally
+		{
+			reader.close();
+
+			if (writer != null)
+			{
+				writer.close();
+				miscWriter.close();
+			}
+		}
+
+		return sanitizer;
+	}
+
+	/**
+	 * Creates the sanitizer of a single chunk.
+	 *
+	 * @return  new sanitizer instance
+	 */
+	protected MafSanitizer createChunkSanitizer()
+	{
+		return new MafSanitizer();
+	}
+
+	/**
+	 * Writes the comments and the header line to the outputs, and then
+	 * appends the part files in the original order.
+	 */
+	protected void concatParts(String headerLine,
+			List<String> comments,
+			int numParts,
+			File output,
+			File miscOutput) throws IOException
+	{
+		BufferedWriter writer = new BufferedWriter(new FileWriter(output));
+		BufferedWriter miscWriter = new BufferedWriter(new FileWriter(miscOutput));
+		this.writeHeaders(headerLine, comments, writer, miscWriter);
+		writer.close();
+		miscWriter.close();
+
+		appendParts(output, numParts);
+		appendParts(miscOutput, numParts);
+	}
+
+	/**
+	 * Splits the data lines of the input into byte ranges. Each range
+	 * starts at the beginning of a line, and ends right after a new line
+	 * character (or at the end of the file).
+	 *
+	 * @param input     input file
+	 * @param dataStart offset of the first data line
+	 * @return          list of {start, end} offsets
+	 */
+	protected List<long[]> splitChunks(File input, long dataStart) throws IOException
+	{
+		long length = input.length();
+		long size = this.chunkSize;
+
+		if (size <= 0)
+		{
+			size = Math.max(MIN_CHUNK_SIZE,
+				(length - dataStart) / (this.numThreads * CHUNKS_PER_THREAD));
+		}
+
+		List<long[]> chunks = new ArrayList<long[]>();
+		RandomAccessFile file = new RandomAccessFile(input, "r");
+
+		try
+		{
+			long start = dataStart;
+
+			while (start < length)
+			{
+				long end = alignToLine(file, Math.min(start + size, length));
+				chunks.add(new long[] {start, end});
+				start = end;
+			}
+		}
+		finally
+		{
+			file.close();
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Finds the offset right after the header line, by looking for the
+	 * first non comment line matching the given header line.
+	 *
+	 * @param input         input file
+	 * @param headerLine    header line extracted from the input
+	 * @return              offset of the first data line, -1 if not found
+	 */
+	protected static long findDataStart(File input, String headerLine) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(input));
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		long offset = 0;
+		int b;
+
+		try
+		{
+			while ((b = in.read()) != -1)
+			{
+				offset++;
+
+				if (b != '\n')
+				{
+					buffer.write(b);
+					continue;
+				}
+
+				String line = buffer.toString();
+				buffer.reset();
+
+				if (line.endsWith("\r"))
+				{
+					line = line.substring(0, line.length() - 1);
+				}
+
+				if (!line.startsWith("#") &&
+				    line.equals(headerLine))
+				{
+					return offset;
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		// header line without a new line (no data lines)
+		return buffer.toString().equals(headerLine) ? offset : -1;
+	}
+
+	/**
+	 * Moves the given position to the beginning of the next line,
+	 * unless it is already at the beginning of a line.
+	 */
+	private static long alignToLine(RandomAccessFile file, long position) throws IOException
+	{
+		if (position >= file.length())
+		{
+			return file.length();
+		}
+
+		file.seek(position - 1);
+		int b;
+
+		while ((b = file.read()) != -1)
+		{
+			if (b == '\n')
+			{
+				break;
+			}
+		}
+
+		return file.getFilePointer();
+	}
+
+	private static int countLines(File input, long start, long end) throws IOException
+	{
+		InputStream in = new BoundedInputStream(openStream(input, start), end - start);
+		byte[] buffer = new byte[64 * 1024];
+
+		int count = 0;
+		int read;
+
+		try
+		{
+			while ((read = in.read(buffer)) != -1)
+			{
+				for (int i = 0; i < read; i++)
+				{
+					if (buffer[i] == '\n')
+					{
+						count++;
+					}
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return count;
+	}
+
+	private static BufferedReader openChunk(File input, long start, long end) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(
+			new BoundedInputStream(openStream(input, start), end - start)));
+	}
+
+	private static InputStream openStream(File input, long start) throws IOException
+	{
+		FileInputStream in = new FileInputStream(input);
+		in.getChannel().position(start);
+
+		return in;
+	}
+
+	private static File partFile(File output, int index)
+	{
+		return output == null ? null : new File(output.getPath() + PART_SUFFIX + index);
+	}
+
+	private static void appendParts(File output, int numParts) throws IOException
+	{
+		FileChannel out = new FileOutputStream(output, true).getChannel();
+
+		try
+		{
+			for (int i = 0; i < numParts; i++)
+			{
+				FileChannel in = new FileInputStream(partFile(output, i)).getChannel();
+
+				try
+				{
+					long position = 0;
+					long size = in.size();
+
+					while (position < size)
+					{
+						position += in.transferTo(position, size - position, out);
+					}
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static void deleteParts(File output, int numParts)
+	{
+		for (int i = 0; i < numParts; i++)
+		{
+			partFile(output, i).delete();
+		}
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	public long getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	public void setChunkSize(long chunkSize)
+	{
+		this.chunkSize = chunkSize;
+	}
+}
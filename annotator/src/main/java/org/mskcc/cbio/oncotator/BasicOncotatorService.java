@@ -18,6 +18,8 @@
 package org.mskcc.cbio.oncotator;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Basic Oncotator Service implementaion with no cache or database.
@@ -53,4 +55,36 @@ public class BasicOncotatorService extends OncotatorService
 
 		return record;
 	}
+
+	/**
+	 * Retrieves the data for all of the given query keys from the
+	 * Oncotator service, with concurrent requests if configured.
+	 *
+	 * @param keys  keys for the service query
+	 * @return      map of keys to oncotator records
+	 */
+	public Map<String, OncotatorRecord> getOncotatorRecords(Collection<String> keys)
+			throws OncotatorServiceException
+	{
+		Map<String, OncotatorRecord> records = null;
+
+		try {
+			records = this.getRecordsFromService(keys);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new OncotatorServiceException(e.getMessage());
+		}
+
+		for (Map.Entry<String, OncotatorRecord> entry : records.entrySet())
+		{
+			// if record is null, then there is an error with JSON parsing
+			if (entry.getValue() == null)
+			{
+				entry.setValue(new OncotatorRecord(entry.getKey()));
+				this.errorCount++;
+			}
+		}
+
+		return records;
+	}
 }
@@ -14,67 +14,426 @@
  * Memorial Sloan-Kettering Cancer Center 
  * has been advised of the possibility of such damage.
 */
-
 package org.mskcc.cbio.oncotator;
 
+import org.mskcc.cbio.annotator.ProgressReporter;
+
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Oncotator altered to build JSON cache for existing oncotator key values.
  *
+ * Keys are processed in blocks. Keys already in the cache are skipped by a
+ * single existence check per block, and the remaining ones are retrieved
+ * from the service (concurrently, up to the number of fetchers of the
+ * service). After each block the cache is flushed and a checkpoint file is
+ * updated, so that an interrupted run resumes from the last completed block.
+ *
+ * Keys rejected by the service (a 4xx response, or a response with an
+ * error) would fail the same way in a later run, so they are logged and
+ * skipped. Only transient errors and failed cache writes hold the
+ * checkpoint back.
+ *
  * @author Selcuk Onur Sumer
  */
 public class CacheBuilderOncotator extends Oncotator
 {
+	public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	protected OncotatorCacheService cacheService;
+
+	// checkpoint file (defaults to the key file name + CHECKPOINT_SUFFIX)
+	protected File checkpointFile;
+
+	// keys already cached (or repeated within a block) and keys retrieved
+	protected int numKeysSkipped = 0;
+	protected int numKeysFetched = 0;
+
+	// keys permanently rejected by the service
+	protected int numKeysRejected = 0;
+
+	protected RejectionTrackingService trackingService;
+
 	/**
 	 * Default constructor with the default oncotator service.
 	 */
 	public CacheBuilderOncotator()
+	{
+		this(new WriteBehindCacheService(new DaoJsonCache()));
+	}
+
+	/**
+	 * Alternative constructor with a specific cache service.
+	 *
+	 * @param cacheService  cache to build
+	 */
+	public CacheBuilderOncotator(OncotatorCacheService cacheService)
 	{
 		super();
-		OncotatorCacheService cacheService = new DaoJsonCache();
+		this.cacheService = cacheService;
 
 		// use a cached oncotator service with a custom cache service.
-		this.oncotatorService = new CachedOncotatorService(cacheService);
+		// records found in the shared memory tier are not necessarily in
+		// the cache being built, so the memory tier is disabled
+		this.trackingService = new RejectionTrackingService(cacheService,
+			new MemoryRecordCache(0, 0));
+		this.oncotatorService = this.trackingService;
 	}
 
+	/**
+	 * Retrieves the oncotator records for all keys of the given key file,
+	 * and adds them to the cache. The output file is not used.
+	 *
+	 * @param inputMafFile  key file (with a single CACHE_KEY column)
+	 * @param outputMafFile not used
+	 * @return              number of errors (if any) during the process
+	 * @throws IOException                  if an IO exception occurs
+	 * @throws OncotatorServiceException    if a service exception occurs
+	 */
 	protected int oncotateMaf(File inputMafFile, File outputMafFile)
 			throws IOException, OncotatorServiceException
 	{
+		File checkpoint = this.checkpointFile;
+
+		if (checkpoint == null)
+		{
+			checkpoint = new File(inputMafFile.getAbsolutePath() + CHECKPOINT_SUFFIX);
+		}
+
+		int numLinesDone = readCheckpoint(checkpoint);
+		this.totalNumKeys = this.countKeys(inputMafFile);
+
+		if (numLinesDone > 0)
+		{
+			System.out.println("Resuming from checkpoint: " + numLinesDone +
+			                   " key line(s) already processed");
+		}
+
 		FileReader reader = new FileReader(inputMafFile);
 		BufferedReader bufReader = new BufferedReader(reader);
 
+		// skip header line (which is assumed to be CACHE_KEY)
+		bufReader.readLine();
+
 		String dataLine;
+		int numLines = 0;
 
-		int numRecordsProcessed = 0;
+		// checkpoint is not advanced beyond a block with failed keys
+		boolean failed = false;
 
-		// skip header line (which is assumed to be CACHE_KEY)
-		bufReader.readLine();
+		this.numRecordsProcessed = 0;
+		this.numKeysSkipped = 0;
+		this.numKeysFetched = 0;
+		this.numKeysRejected = 0;
 
-		while ((dataLine = bufReader.readLine()) != null)
+		ProgressReporter progress = new ProgressReporter("Cache builder", this.totalNumKeys);
+		progress.setUnit("keys");
+		progress.resume(numLinesDone);
+
+		List<String> block = new ArrayList<String>();
+
+		while (true)
 		{
-			System.out.println("(" + numRecordsProcessed + ") " + dataLine);
+			dataLine = bufReader.readLine();
 
-			if (dataLine.trim().length() < 0)
+			if (dataLine != null)
 			{
-				continue;
+				numLines++;
+
+				// skip lines processed by a previous run
+				if (numLines <= numLinesDone ||
+				    dataLine.trim().length() == 0)
+				{
+					continue;
+				}
+
+				block.add(dataLine.trim());
 			}
 
-			String key = dataLine.trim();
+			if (block.size() >= this.blockSize ||
+			    (dataLine == null && !block.isEmpty()))
+			{
+				boolean success = this.warmBlock(block);
+				int processed = block.size();
+				this.numRecordsProcessed += processed;
+				block.clear();
 
-			OncotatorRecord oncotatorRecord =
-				oncotatorService.getOncotatorRecord(key);
+				if (!success)
+				{
+					failed = true;
+				}
+				else if (!failed)
+				{
+					writeCheckpoint(checkpoint, numLines);
+				}
 
-			numRecordsProcessed++;
-		}
+				progress.add(processed, this.status());
+			}
 
-		System.out.println("Total Number of Records Processed:  " + numRecordsProcessed);
+			if (dataLine == null)
+			{
+				break;
+			}
+		}
 
 		reader.close();
+		progress.finish(this.status());
+
+		// the checkpoint is not needed after a complete run
+		if (!failed)
+		{
+			checkpoint.delete();
+		}
+
+		System.out.println("Total Number of Records Processed:  " + this.numRecordsProcessed);
 
 		return this.oncotatorService.getErrorCount();
 	}
+
+	/**
+	 * Retrieves the records of all uncached keys within the given block,
+	 * and makes sure that they are written to the cache.
+	 *
+	 * @param block list of keys
+	 * @return      true if all uncached keys are either retrieved and cached
+	 *              successfully, or permanently rejected by the service
+	 */
+	protected boolean warmBlock(List<String> block)
+			throws OncotatorServiceException
+	{
+		Set<String> keys = new LinkedHashSet<String>(block);
+
+		try {
+			keys.removeAll(this.cacheService.getCachedKeys(keys));
+		} catch (OncotatorCacheException e) {
+			throw new OncotatorServiceException(e.getMessage());
+		}
+
+		this.numKeysSkipped += block.size() - keys.size();
+
+		if (keys.isEmpty())
+		{
+			return true;
+		}
+
+		int numErrors = this.oncotatorService.getErrorCount();
+
+		Map<String, OncotatorRecord> records =
+			this.oncotatorService.getOncotatorRecords(keys);
+
+		for (String key : keys)
+		{
+			OncotatorRecord record = records.get(key);
+
+			// invalid records are not cached
+			if (record != null &&
+			    record.getRawJson() != null)
+			{
+				this.numKeysFetched++;
+			}
+		}
+
+		Set<String> rejected = this.trackingService.takeRejectedKeys();
+
+		for (String key : rejected)
+		{
+			System.out.println("Skipping key rejected by the service: " + key);
+		}
+
+		this.numKeysRejected += rejected.size();
+
+		// records must be persisted before the checkpoint is advanced
+		this.oncotatorService.flush();
+
+		// both failed requests and failed cache writes are counted as errors,
+		// each rejected key is counted exactly once
+		return this.oncotatorService.getErrorCount() - numErrors == rejected.size();
+	}
+
+	/**
+	 * @return  numbers of skipped and retrieved keys as a status string
+	 */
+	protected String status()
+	{
+		return this.numKeysSkipped + " skipped, " + this.numKeysFetched + " retrieved, " +
+		       this.numKeysRejected + " rejected";
+	}
+
+	/**
+	 * Counts the number of keys (number of nonempty lines excluding the
+	 * header line) of the given key file.
+	 *
+	 * @param keyFile       key file
+	 * @return              number of keys
+	 * @throws IOException  if an IO error occurs
+	 */
+	protected int countKeys(File keyFile) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(keyFile));
+		String line;
+		int count = 0;
+
+		// skip header line
+		reader.readLine();
+
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.trim().length() > 0)
+			{
+				count++;
+			}
+		}
+
+		reader.close();
+
+		return count;
+	}
+
+	/**
+	 * Reads the number of key lines processed by a previous run.
+	 *
+	 * @param checkpoint    checkpoint file
+	 * @return              number of processed lines, 0 if no checkpoint
+	 * @throws IOException  if an IO error occurs
+	 */
+	public static int readCheckpoint(File checkpoint) throws IOException
+	{
+		if (!checkpoint.exists())
+		{
+			return 0;
+		}
+
+		BufferedReader reader = new BufferedReader(new FileReader(checkpoint));
+		String line = reader.readLine();
+		reader.close();
+
+		try {
+			return line == null ? 0 : Integer.parseInt(line.trim());
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid checkpoint, starting over: " + checkpoint.getAbsolutePath());
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes the number of processed key lines to the checkpoint file.
+	 * The file is replaced at once, so an interruption never leaves
+	 * a partially written checkpoint behind.
+	 *
+	 * @param checkpoint    checkpoint file
+	 * @param numLines      number of processed lines
+	 * @throws IOException  if an IO error occurs
+	 */
+	public static void writeCheckpoint(File checkpoint, int numLines) throws IOException
+	{
+		File tmp = new File(checkpoint.getAbsolutePath() + ".tmp");
+
+		FileWriter writer = new FileWriter(tmp);
+		writer.write(numLines + "\n");
+		writer.close();
+
+		if (!tmp.renameTo(checkpoint))
+		{
+			// rename does not replace an existing file on some platforms
+			checkpoint.delete();
+
+			if (!tmp.renameTo(checkpoint))
+			{
+				throw new IOException("Cannot write checkpoint: " + checkpoint.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Cached oncotator service which keeps track of the keys rejected by
+	 * the service, so that they can be told apart from transient errors.
+	 */
+	protected static class RejectionTrackingService extends CachedOncotatorService
+	{
+		private Set<String> rejectedKeys = new LinkedHashSet<String>();
+
+		public RejectionTrackingService(OncotatorCacheService cache,
+				MemoryRecordCache memoryCache)
+		{
+			super(cache, memoryCache);
+		}
+
+		protected String requestWithRetry(String key) throws IOException
+		{
+			try {
+				return super.requestWithRetry(key);
+			} catch (ServiceResponseException e) {
+				// the request itself is rejected (4xx)
+				if (!e.isRetryable())
+				{
+					this.addRejected(key);
+				}
+
+				throw e;
+			}
+		}
+
+		protected OncotatorRecord storeRecord(String key, OncotatorRecord record)
+		{
+			// the response contains an error (or cannot be parsed)
+			if (record == null)
+			{
+				this.addRejected(key);
+			}
+
+			return super.storeRecord(key, record);
+		}
+
+		protected synchronized void addRejected(String key)
+		{
+			this.rejectedKeys.add(key);
+		}
+
+		/**
+		 * Returns the keys rejected since the last call, and clears them.
+		 *
+		 * @return  set of rejected keys
+		 */
+		public synchronized Set<String> takeRejectedKeys()
+		{
+			Set<String> keys = this.rejectedKeys;
+			this.rejectedKeys = new LinkedHashSet<String>();
+
+			return keys;
+		}
+	}
+
+	public File getCheckpointFile()
+	{
+		return checkpointFile;
+	}
+
+	public void setCheckpointFile(File checkpointFile)
+	{
+		this.checkpointFile = checkpointFile;
+	}
+
+	public int getNumKeysSkipped()
+	{
+		return numKeysSkipped;
+	}
+
+	public int getNumKeysFetched()
+	{
+		return numKeysFetched;
+	}
+
+	public int getNumKeysRejected()
+	{
+		return numKeysRejected;
+	}
 }
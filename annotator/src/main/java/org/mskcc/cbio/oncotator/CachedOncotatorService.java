@@ -18,22 +18,36 @@
 package org.mskcc.cbio.oncotator;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Oncotator service implementation with caching option.
  *
+ * Records are first looked up in a bounded in-memory cache shared by all
+ * services of the JVM, then in the persistent cache, and finally retrieved
+ * from the Oncotator service.
+ *
  * @author Selcuk Onur Sumer
  */
 public class CachedOncotatorService extends OncotatorService
 {
 	protected OncotatorCacheService cache;
 
+	// in-memory tier in front of the cache
+	protected MemoryRecordCache memoryCache;
+
 	/**
-	 * Default constructor with the default cache DAO.
+	 * Default constructor with the default cache DAO. New records are
+	 * written to the cache in batches (write-behind).
 	 */
 	public CachedOncotatorService()
 	{
-		this.cache = new DaoJsonCache();
+		this(new WriteBehindCacheService(new DaoJsonCache()));
 	}
 
 	/**
@@ -42,8 +56,21 @@ public class CachedOncotatorService extends OncotatorService
 	 * @param cache     cache service instance
 	 */
 	public CachedOncotatorService(OncotatorCacheService cache)
+	{
+		this(cache, MemoryRecordCache.getShared());
+	}
+
+	/**
+	 * Alternative constructor with cache service and memory cache options.
+	 *
+	 * @param cache         cache service instance
+	 * @param memoryCache   in-memory tier in front of the cache service
+	 */
+	public CachedOncotatorService(OncotatorCacheService cache,
+			MemoryRecordCache memoryCache)
 	{
 		this.cache = cache;
+		this.memoryCache = memoryCache;
 	}
 
 	/**
@@ -54,11 +81,15 @@ public class CachedOncotatorService extends OncotatorService
 	 */
 	public OncotatorRecord getOncotatorRecord(String key) throws OncotatorServiceException
 	{
-		boolean addToCache = false;
+		// first try to get the record from memory
+		OncotatorRecord record = memoryCache.get(key);
 
-		// first try to get the record from cache
-		OncotatorRecord record = null;
+		if (record != null)
+		{
+			return record;
+		}
 
+		// then from the cache
 		try {
 			record = cache.get(key);
 		} catch (OncotatorCacheException e) {
@@ -68,19 +99,175 @@ public class CachedOncotatorService extends OncotatorService
 
 		// if record is null, then it is not cached yet
 		if (record == null)
+		{
+			memoryCache.addBackingLookups(0, 1);
+			record = this.fetchRecord(key);
+		}
+		else
+		{
+			memoryCache.addBackingLookups(1, 0);
+			memoryCache.put(record);
+		}
+
+		return record;
+	}
+
+	/**
+	 * Retrieves the data for all of the given query keys. Records not in
+	 * memory are looked up in the cache in a single batch, and only the
+	 * missing ones are
+	 * retrieved from the Oncotator service (concurrently if configured).
+	 *
+	 * @param keys  keys for the service query
+	 * @return      map of keys to oncotator records
+	 */
+	public Map<String, OncotatorRecord> getOncotatorRecords(Collection<String> keys)
+			throws OncotatorServiceException
+	{
+		Set<String> uniqueKeys = new LinkedHashSet<String>(keys);
+		Map<String, OncotatorRecord> records = memoryCache.getAll(uniqueKeys);
+		List<String> uncachedKeys = new ArrayList<String>();
+
+		for (String key : uniqueKeys)
+		{
+			if (records.get(key) == null)
+			{
+				uncachedKeys.add(key);
+			}
+		}
+
+		if (uncachedKeys.isEmpty())
+		{
+			return records;
+		}
+
+		Map<String, OncotatorRecord> cached;
+
+		try {
+			cached = cache.getAll(uncachedKeys);
+		} catch (OncotatorCacheException e) {
+			//e.printStackTrace();
+			throw new OncotatorServiceException(e.getMessage());
+		}
+
+		List<String> missingKeys = new ArrayList<String>();
+
+		for (String key : uncachedKeys)
+		{
+			OncotatorRecord record = cached.get(key);
+
+			if (record == null)
+			{
+				missingKeys.add(key);
+			}
+			else
+			{
+				records.put(key, record);
+				memoryCache.put(record);
+			}
+		}
+
+		memoryCache.addBackingLookups(uncachedKeys.size() - missingKeys.size(),
+			missingKeys.size());
+
+		if (missingKeys.isEmpty())
+		{
+			return records;
+		}
+
+		Map<String, OncotatorRecord> fetched = null;
+
+		try {
+			fetched = this.getRecordsFromService(missingKeys);
+		} catch (IOException e) {
+			//e.printStackTrace();
+			throw new OncotatorServiceException(e.getMessage());
+		}
+
+		// cache updates are done by the calling thread only
+		for (String key : missingKeys)
+		{
+			records.put(key, this.storeRecord(key, fetched.get(key)));
+		}
+
+		return records;
+	}
+
+	/**
+	 * Writes the buffered cache records (if any) to the cache.
+	 */
+	public void flush()
+	{
+		try {
+			cache.flush();
+		} catch (OncotatorCacheException e) {
+			System.out.println("Cache error: " + e.getMessage());
+			this.errorCount++;
+		}
+	}
+
+	/**
+	 * Flushes the buffered records, and stops the write-behind buffer.
+	 */
+	public void close()
+	{
+		if (cache instanceof WriteBehindCacheService)
 		{
 			try {
-				record = getRecordFromService(key);
-			} catch (IOException e) {
-				//e.printStackTrace();
-				throw new OncotatorServiceException(e.getMessage());
+				((WriteBehindCacheService) cache).close();
+			} catch (OncotatorCacheException e) {
+				System.out.println("Cache error: " + e.getMessage());
+				this.errorCount++;
 			}
+		}
+		else
+		{
+			this.flush();
+		}
+
+		this.shutdownFetchers();
+	}
+
+	/**
+	 * Retrieves the record for the given (not yet cached) key from
+	 * the Oncotator service, and adds the result to the cache.
+	 *
+	 * @param key   key for the service query
+	 * @return      oncotator record containing the query result
+	 */
+	protected OncotatorRecord fetchRecord(String key) throws OncotatorServiceException
+	{
+		OncotatorRecord record = null;
 
-			addToCache = true;
+		try {
+			record = getRecordFromService(key);
+		} catch (IOException e) {
+			//e.printStackTrace();
+			throw new OncotatorServiceException(e.getMessage());
 		}
 
-		if (addToCache &&
-		    record != null)
+		return this.storeRecord(key, record);
+	}
+
+	/**
+	 * Adds the given record retrieved from the Oncotator service to the
+	 * cache. Empty records (without raw JSON) of failed requests are
+	 * neither cached nor memoized, so that the key is queried again later
+	 * (the failure is already counted as an error).
+	 *
+	 * @param key       key for the service query
+	 * @param record    record retrieved from the service (null if invalid)
+	 * @return          the given record, or an empty record if invalid
+	 */
+	protected OncotatorRecord storeRecord(String key, OncotatorRecord record)
+	{
+		// if record is null, then there is an error with JSON parsing
+		if (record == null)
+		{
+			record = new OncotatorRecord(key);
+			this.errorCount++;
+		}
+		else if (record.getRawJson() != null)
 		{
 			// surrounded with try/catch just to ignore duplicate
 			// key error (race condition if parallel apps accessing
@@ -93,14 +280,15 @@ public class CachedOncotatorService extends OncotatorService
 				System.out.println("Cache error: " + e.getMessage());
 				this.errorCount++;
 			}
-		}
-		// if record is null, then there is an error with JSON parsing
-		else if (record == null)
-		{
-			record = new OncotatorRecord(key);
-			this.errorCount++;
+
+			memoryCache.put(record);
 		}
 
 		return record;
 	}
+
+	public MemoryRecordCache getMemoryCache()
+	{
+		return memoryCache;
+	}
 }
@@ -0,0 +1,107 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+/**
+ * Circuit breaker for a remote service.
+ *
+ * After a number of consecutive failures the circuit opens, and requests
+ * are rejected without contacting the service until the cool down period
+ * is over. Then a single trial request is let through: the circuit closes
+ * again if it succeeds, and stays open for another period if it fails.
+ */
+public class CircuitBreaker
+{
+	private int threshold;
+	private long coolDown;
+
+	private int failures;
+	private long openUntil;
+	private boolean trial;
+
+	private int numRejected;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threshold number of consecutive failures to open the circuit
+	 *                  (never opens if zero or negative)
+	 * @param coolDown  time (in ms) the circuit stays open
+	 */
+	public CircuitBreaker(int threshold, long coolDown)
+	{
+		this.threshold = threshold;
+		this.coolDown = coolDown;
+	}
+
+	/**
+	 * Checks whether a request is allowed.
+	 *
+	 * @return  true if the request may be sent, false if the circuit is open
+	 */
+	public synchronized boolean allowRequest()
+	{
+		if (!this.isOpen())
+		{
+			return true;
+		}
+
+		// let a single trial request through after the cool down period
+		if (!this.trial &&
+		    System.currentTimeMillis() >= this.openUntil)
+		{
+			this.trial = true;
+			return true;
+		}
+
+		this.numRejected++;
+		return false;
+	}
+
+	public synchronized void recordSuccess()
+	{
+		this.failures = 0;
+		this.trial = false;
+	}
+
+	public synchronized void recordFailure()
+	{
+		this.failures++;
+
+		if (this.trial ||
+		    (this.threshold > 0 && this.failures == this.threshold))
+		{
+			this.openUntil = System.currentTimeMillis() + this.coolDown;
+			this.trial = false;
+
+			System.out.println("Oncotator service failed " + this.failures +
+				" time(s) in a row, pausing requests for " + this.coolDown + " ms");
+		}
+	}
+
+	public synchronized boolean isOpen()
+	{
+		return this.threshold > 0 &&
+		       this.failures >= this.threshold;
+	}
+
+	public synchronized int getNumRejected()
+	{
+		return numRejected;
+	}
+}
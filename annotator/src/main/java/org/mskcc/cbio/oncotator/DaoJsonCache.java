@@ -17,12 +17,22 @@
 
 package org.mskcc.cbio.oncotator;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.mskcc.cbio.dbcache.DatabaseUtil;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * DAO for oncotator JSON cache.
@@ -31,6 +41,22 @@ import java.sql.SQLException;
  */
 public class DaoJsonCache implements OncotatorCacheService
 {
+	/**
+	 * Handler for the records read by readAll().
+	 */
+	public interface RecordHandler
+	{
+		public void handle(String key, String rawJson) throws OncotatorCacheException;
+	}
+
+	private static final Log LOG = LogFactory.getLog(DaoJsonCache.class);
+
+	// maximum number of keys in a single IN (...) query
+	public static final int MAX_KEYS_PER_QUERY = 500;
+
+	private static final String INSERT_QUERY =
+		"INSERT INTO onco_json_cache (`CACHE_KEY`, `RAW_JSON`) VALUES (?,?)";
+
 	public int put(OncotatorRecord record) throws OncotatorCacheException
 	{
 		Connection con = null;
@@ -45,9 +71,7 @@ public class DaoJsonCache implements OncotatorCacheService
 
 		try {
 			con = DatabaseUtil.getDbConnection();
-			pstmt = con.prepareStatement
-					("INSERT INTO onco_json_cache (`CACHE_KEY`, `RAW_JSON`)" +
-					 " VALUES (?,?)");
+			pstmt = con.prepareStatement(INSERT_QUERY);
 			pstmt.setString(1, record.getKey());
 			pstmt.setString(2, record.getRawJson());
 			int rows = pstmt.executeUpdate();
@@ -60,6 +84,137 @@ public class DaoJsonCache implements OncotatorCacheService
 		}
 	}
 
+	/**
+	 * Adds all given records to the JSON cache with a single batch insert,
+	 * committed as a single transaction. Keys already in the cache are
+	 * skipped. If the batch still fails (for instance due to a concurrent
+	 * insert of the same key), records are inserted one by one.
+	 *
+	 * @param records   oncotator records to add
+	 * @return          number of records successfully added
+	 * @throws OncotatorCacheException  if a database error occurs
+	 */
+	public int putAll(Collection<OncotatorRecord> records) throws OncotatorCacheException
+	{
+		Connection con = null;
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+
+		// do not allow null values to go into db, and remove duplicates
+		Map<String, String> unique = new LinkedHashMap<String, String>();
+
+		for (OncotatorRecord record : records)
+		{
+			if (record.getRawJson() != null)
+			{
+				unique.put(record.getKey(), record.getRawJson());
+			}
+		}
+
+		if (unique.isEmpty())
+		{
+			return 0;
+		}
+
+		try {
+			con = DatabaseUtil.getDbConnection();
+
+			Set<String> existing = DatabaseUtil.findExistingKeys(
+				con, "onco_json_cache", "CACHE_KEY", unique.keySet(), MAX_KEYS_PER_QUERY);
+
+			List<String> keys = new ArrayList<String>();
+
+			for (String key : unique.keySet())
+			{
+				if (!existing.contains(key))
+				{
+					keys.add(key);
+				}
+			}
+
+			if (keys.isEmpty())
+			{
+				return 0;
+			}
+
+			con.setAutoCommit(false);
+			pstmt = con.prepareStatement(INSERT_QUERY);
+
+			try
+			{
+				for (String key : keys)
+				{
+					pstmt.setString(1, key);
+					pstmt.setString(2, unique.get(key));
+					pstmt.addBatch();
+				}
+
+				int rows = DatabaseUtil.sumUpdateCounts(pstmt.executeBatch());
+				con.commit();
+
+				return rows;
+			}
+			catch (SQLException e)
+			{
+				con.rollback();
+				con.setAutoCommit(true);
+
+				return this.putOneByOne(con, keys, unique);
+			}
+		} catch (SQLException e) {
+			//e.printStackTrace();
+			throw new OncotatorCacheException(e.getMessage());
+		} finally {
+			DatabaseUtil.resetAutoCommit(con);
+			DatabaseUtil.closeAll(con, pstmt, rs);
+		}
+	}
+
+	public void flush() throws OncotatorCacheException
+	{
+		// nothing to flush, records are inserted immediately
+	}
+
+	private int putOneByOne(Connection con,
+			List<String> keys,
+			Map<String, String> json) throws SQLException
+	{
+		PreparedStatement pstmt = con.prepareStatement(INSERT_QUERY);
+		int rows = 0;
+		int failed = 0;
+		String lastError = null;
+
+		try
+		{
+			for (String key : keys)
+			{
+				try
+				{
+					pstmt.setString(1, key);
+					pstmt.setString(2, json.get(key));
+					rows += pstmt.executeUpdate();
+				}
+				catch (SQLException e)
+				{
+					// most likely a duplicate key, skip the record
+					failed++;
+					lastError = e.getMessage();
+				}
+			}
+		}
+		finally
+		{
+			DatabaseUtil.closeStatement(pstmt, null);
+		}
+
+		if (failed > 0)
+		{
+			LOG.warn("putOneByOne(), " + failed + " of " + keys.size() +
+			         " records cannot be cached, last error: " + lastError);
+		}
+
+		return rows;
+	}
 
 	public OncotatorRecord get(String key) throws OncotatorCacheException
 	{
@@ -88,4 +243,162 @@ public class DaoJsonCache implements OncotatorCacheService
 			DatabaseUtil.closeAll(con, pstmt, rs);
 		}
 	}
+
+	public Map<String, OncotatorRecord> getAll(Collection<String> keys) throws OncotatorCacheException
+	{
+		Map<String, OncotatorRecord> records = new HashMap<String, OncotatorRecord>();
+
+		if (keys.isEmpty())
+		{
+			return records;
+		}
+
+		Connection con = null;
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+
+		try
+		{
+			con = DatabaseUtil.getDbConnection();
+
+			// query in chunks by using the same connection
+			for (List<String> chunk : DatabaseUtil.partition(keys, MAX_KEYS_PER_QUERY))
+			{
+				pstmt = con.prepareStatement
+						("SELECT * FROM onco_json_cache WHERE CACHE_KEY IN (" +
+						 DatabaseUtil.placeholders(chunk.size()) + ")");
+
+				try
+				{
+					for (int i = 0; i < chunk.size(); i++)
+					{
+						pstmt.setString(i + 1, chunk.get(i));
+					}
+
+					rs = pstmt.executeQuery();
+
+					while (rs.next())
+					{
+						String key = rs.getString("CACHE_KEY");
+						records.put(key, OncotatorParser.parseJSON(key, rs.getString("RAW_JSON")));
+					}
+				}
+				finally
+				{
+					// close the statement of each chunk
+					DatabaseUtil.closeStatement(pstmt, rs);
+					pstmt = null;
+					rs = null;
+				}
+			}
+
+			return records;
+		} catch (SQLException e) {
+			//e.printStackTrace();
+			throw new OncotatorCacheException(e.getMessage());
+		} finally {
+			DatabaseUtil.closeAll(con, pstmt, rs);
+		}
+	}
+
+	/**
+	 * Checks which of the given keys are in the cache, by querying the
+	 * keys only.
+	 *
+	 * @param keys  cache keys
+	 * @return      subset of the given keys found in the cache
+	 */
+	public Set<String> getCachedKeys(Collection<String> keys) throws OncotatorCacheException
+	{
+		Set<String> cachedKeys = new HashSet<String>();
+
+		if (keys.isEmpty())
+		{
+			return cachedKeys;
+		}
+
+		Connection con = null;
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+
+		try
+		{
+			con = DatabaseUtil.getDbConnection();
+
+			// query in chunks by using the same connection
+			for (List<String> chunk : DatabaseUtil.partition(keys, MAX_KEYS_PER_QUERY))
+			{
+				pstmt = con.prepareStatement
+						("SELECT CACHE_KEY FROM onco_json_cache WHERE CACHE_KEY IN (" +
+						 DatabaseUtil.placeholders(chunk.size()) + ")");
+
+				try
+				{
+					for (int i = 0; i < chunk.size(); i++)
+					{
+						pstmt.setString(i + 1, chunk.get(i));
+					}
+
+					rs = pstmt.executeQuery();
+
+					while (rs.next())
+					{
+						cachedKeys.add(rs.getString("CACHE_KEY"));
+					}
+				}
+				finally
+				{
+					// close the statement of each chunk
+					DatabaseUtil.closeStatement(pstmt, rs);
+					pstmt = null;
+					rs = null;
+				}
+			}
+
+			return cachedKeys;
+		} catch (SQLException e) {
+			//e.printStackTrace();
+			throw new OncotatorCacheException(e.getMessage());
+		} finally {
+			DatabaseUtil.closeAll(con, pstmt, rs);
+		}
+	}
+
+	/**
+	 * Reads all records of the cache, and passes them one by one to the
+	 * given handler. The result set is streamed, so the whole table is
+	 * never loaded into memory.
+	 *
+	 * @param handler   handler for each cache record
+	 * @return          number of records read
+	 */
+	public int readAll(RecordHandler handler) throws OncotatorCacheException
+	{
+		Connection con = null;
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		int count = 0;
+
+		try
+		{
+			con = DatabaseUtil.getDbConnection();
+			pstmt = con.prepareStatement("SELECT CACHE_KEY, RAW_JSON FROM onco_json_cache",
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			DatabaseUtil.streamResults(con, pstmt);
+			rs = pstmt.executeQuery();
+
+			while (rs.next())
+			{
+				handler.handle(rs.getString("CACHE_KEY"), rs.getString("RAW_JSON"));
+				count++;
+			}
+
+			return count;
+		} catch (SQLException e) {
+			//e.printStackTrace();
+			throw new OncotatorCacheException(e.getMessage());
+		} finally {
+			DatabaseUtil.closeAll(con, pstmt, rs);
+		}
+	}
 }
@@ -17,12 +17,23 @@
 
 package org.mskcc.cbio.oncotator;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.mskcc.cbio.dbcache.DatabaseUtil;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Database implementation (DAO) for the Oncotator Cache Service.
@@ -30,6 +41,17 @@ import java.sql.SQLException;
  */
 public class DaoOncotatorCache implements OncotatorCacheService
 {
+    // maximum number of keys in a single IN (...) query
+    public static final int MAX_KEYS_PER_QUERY = 500;
+
+    private static final String INSERT_QUERY =
+            "INSERT INTO oncotator_cache (`CACHE_KEY`,`GENE_SYMBOL`, `GENOME_CHANGE`, `PROTEIN_CHANGE`," +
+            " `VARIANT_CLASSIFICATION`," +
+            " `EXON_AFFECTED`, `COSMIC_OVERLAP`, `DB_SNP_RS`)" +
+            " VALUES (?,?,?,?,?,?,?,?)";
+
+    private static final Log LOG = LogFactory.getLog(DaoOncotatorCache.class);
+
     private static DaoOncotatorCache daoOncotatorCache;
 
     private DaoOncotatorCache() {
@@ -62,19 +84,8 @@ public class DaoOncotatorCache implements OncotatorCacheService
 
         try {
             con = DatabaseUtil.getDbConnection();
-            pstmt = con.prepareStatement
-                    ("INSERT INTO oncotator_cache (`CACHE_KEY`,`GENE_SYMBOL`, `GENOME_CHANGE`, `PROTEIN_CHANGE`," +
-                            " `VARIANT_CLASSIFICATION`," +
-                            " `EXON_AFFECTED`, `COSMIC_OVERLAP`, `DB_SNP_RS`)" +
-                            " VALUES (?,?,?,?,?,?,?,?)");
-            pstmt.setString(1, record.getKey());
-            pstmt.setString(2, record.getBestEffectTranscript().getGene());
-            pstmt.setString(3, record.getGenomeChange());
-            pstmt.setString(4, record.getBestEffectTranscript().getProteinChange());
-            pstmt.setString(5, record.getBestEffectTranscript().getVariantClassification());
-            pstmt.setInt(6, record.getBestEffectTranscript().getExonAffected());
-            pstmt.setString(7, record.getCosmicOverlappingMutations());
-            pstmt.setString(8, record.getDbSnpRs());
+            pstmt = con.prepareStatement(INSERT_QUERY);
+            this.setInsertParams(pstmt, record);
             int rows = pstmt.executeUpdate();
             return rows;
         } catch (SQLException e) {
@@ -85,6 +96,117 @@ public class DaoOncotatorCache implements OncotatorCacheService
         }
     }
 
+    /**
+     * Adds all given records to the database cache with a single batch
+     * insert, committed as a single transaction. Keys already in the cache
+     * are skipped. If the batch still fails (for instance, a concurrent
+     * process inserted the same key in the meantime), records are inserted
+     * one by one, ignoring the failing ones.
+     *
+     * @param records   Oncotator Records.
+     * @return          number of records successfully added.
+     * @throws OncotatorCacheException  Database Error.
+     */
+    public int putAll(Collection<OncotatorRecord> records) throws OncotatorCacheException {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        // remove duplicates within the batch itself
+        Map<String, OncotatorRecord> unique = new LinkedHashMap<String, OncotatorRecord>();
+        for (OncotatorRecord record : records) {
+            unique.put(record.getKey(), record);
+        }
+
+        if (unique.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            con = DatabaseUtil.getDbConnection();
+            Set<String> existing = DatabaseUtil.findExistingKeys(
+                    con, "oncotator_cache", "CACHE_KEY", unique.keySet(), MAX_KEYS_PER_QUERY);
+            List<OncotatorRecord> toInsert = new ArrayList<OncotatorRecord>();
+            for (OncotatorRecord record : unique.values()) {
+                if (!existing.contains(record.getKey())) {
+                    toInsert.add(record);
+                }
+            }
+
+            if (toInsert.isEmpty()) {
+                return 0;
+            }
+
+            con.setAutoCommit(false);
+            pstmt = con.prepareStatement(INSERT_QUERY);
+            try {
+                for (OncotatorRecord record : toInsert) {
+                    this.setInsertParams(pstmt, record);
+                    pstmt.addBatch();
+                }
+                int rows = DatabaseUtil.sumUpdateCounts(pstmt.executeBatch());
+                con.commit();
+                return rows;
+            } catch (SQLException e) {
+                con.rollback();
+                con.setAutoCommit(true);
+                return this.putOneByOne(con, toInsert);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new OncotatorCacheException(e.getMessage());
+        } finally {
+            DatabaseUtil.resetAutoCommit(con);
+            DatabaseUtil.closeAll(con, pstmt, rs);
+        }
+    }
+
+    public void flush() throws OncotatorCacheException {
+        // nothing to flush, records are inserted immediately
+    }
+
+    private int putOneByOne(Connection con, List<OncotatorRecord> records) throws SQLException {
+        PreparedStatement pstmt = con.prepareStatement(INSERT_QUERY);
+        int rows = 0;
+        int failed = 0;
+        String lastError = null;
+        try {
+            for (OncotatorRecord record : records) {
+                try {
+                    this.setInsertParams(pstmt, record);
+                    rows += pstmt.executeUpdate();
+                } catch (SQLException e) {
+                    // most likely a duplicate key, skip the record
+                    failed++;
+                    lastError = e.getMessage();
+                }
+            }
+        } finally {
+            DatabaseUtil.closeStatement(pstmt, null);
+        }
+        if (failed > 0) {
+            LOG.warn("putOneByOne(), " + failed + " of " + records.size() +
+                     " records cannot be cached, last error: " + lastError);
+        }
+        return rows;
+    }
+
+    private void setInsertParams(PreparedStatement pstmt, OncotatorRecord record) throws SQLException {
+        pstmt.setString(1, record.getKey());
+        pstmt.setString(2, record.getBestEffectTranscript().getGene());
+        pstmt.setString(3, record.getGenomeChange());
+        pstmt.setString(4, record.getBestEffectTranscript().getProteinChange());
+        pstmt.setString(5, record.getBestEffectTranscript().getVariantClassification());
+        // exon is not available for all records (e.g. intergenic variants)
+        if (record.getBestEffectTranscript().getExonAffected() != null) {
+            pstmt.setInt(6, record.getBestEffectTranscript().getExonAffected());
+        } else {
+            pstmt.setNull(6, Types.INTEGER);
+        }
+        pstmt.setString(7, record.getCosmicOverlappingMutations());
+        pstmt.setString(8, record.getDbSnpRs());
+    }
+
 	/**
 	 * Gets an oncotator record for the provided key.
 	 *
@@ -103,15 +225,7 @@ public class DaoOncotatorCache implements OncotatorCacheService
             pstmt.setString(1, key);
             rs = pstmt.executeQuery();
             if (rs.next()) {
-                OncotatorRecord record = new OncotatorRecord(rs.getString("CACHE_KEY"));
-                record.getBestEffectTranscript().setGene(rs.getString("GENE_SYMBOL"));
-                record.setGenomeChange(rs.getString("GENOME_CHANGE"));
-                record.getBestEffectTranscript().setProteinChange(rs.getString("PROTEIN_CHANGE"));
-                record.getBestEffectTranscript().setVariantClassification(rs.getString("VARIANT_CLASSIFICATION"));
-                record.setCosmicOverlappingMutations(rs.getString("COSMIC_OVERLAP"));
-                record.getBestEffectTranscript().setExonAffected(rs.getInt("EXON_AFFECTED"));
-                record.setDbSnpRs(rs.getString("DB_SNP_RS"));
-                return record;
+                return this.createRecord(rs);
             } else {
                 return null;
             }
@@ -123,6 +237,111 @@ public class DaoOncotatorCache implements OncotatorCacheService
         }
     }
 
+	/**
+	 * Gets the oncotator records for the provided keys. Keys are queried
+	 * in chunks of MAX_KEYS_PER_QUERY, all by using a single connection.
+	 *
+	 * @param keys              cache keys
+	 * @return                  map of cache keys to corresponding records
+	 * @throws OncotatorCacheException
+	 */
+    public Map<String, OncotatorRecord> getAll(Collection<String> keys) throws OncotatorCacheException {
+        Map<String, OncotatorRecord> records = new HashMap<String, OncotatorRecord>();
+
+        if (keys.isEmpty()) {
+            return records;
+        }
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DatabaseUtil.getDbConnection();
+
+            for (List<String> chunk : DatabaseUtil.partition(keys, MAX_KEYS_PER_QUERY)) {
+                pstmt = con.prepareStatement
+                        ("SELECT * FROM oncotator_cache WHERE CACHE_KEY IN (" +
+                         DatabaseUtil.placeholders(chunk.size()) + ")");
+                try {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setString(i + 1, chunk.get(i));
+                    }
+                    rs = pstmt.executeQuery();
+                    while (rs.next()) {
+                        OncotatorRecord record = this.createRecord(rs);
+                        records.put(record.getKey(), record);
+                    }
+                } finally {
+                    // close the statement of each chunk
+                    DatabaseUtil.closeStatement(pstmt, rs);
+                    pstmt = null;
+                    rs = null;
+                }
+            }
+
+            return records;
+        } catch (SQLException e) {
+            e.printStackTrace();
+	        throw new OncotatorCacheException(e.getMessage());
+        } finally {
+            DatabaseUtil.closeAll(con, pstmt, rs);
+        }
+    }
+
+    public Set<String> getCachedKeys(Collection<String> keys) throws OncotatorCacheException {
+        Set<String> cachedKeys = new HashSet<String>();
+
+        if (keys.isEmpty()) {
+            return cachedKeys;
+        }
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DatabaseUtil.getDbConnection();
+
+            for (List<String> chunk : DatabaseUtil.partition(keys, MAX_KEYS_PER_QUERY)) {
+                pstmt = con.prepareStatement
+                        ("SELECT CACHE_KEY FROM oncotator_cache WHERE CACHE_KEY IN (" +
+                         DatabaseUtil.placeholders(chunk.size()) + ")");
+                try {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setString(i + 1, chunk.get(i));
+                    }
+                    rs = pstmt.executeQuery();
+                    while (rs.next()) {
+                        cachedKeys.add(rs.getString("CACHE_KEY"));
+                    }
+                } finally {
+                    // close the statement of each chunk
+                    DatabaseUtil.closeStatement(pstmt, rs);
+                    pstmt = null;
+                    rs = null;
+                }
+            }
+
+            return cachedKeys;
+        } catch (SQLException e) {
+            e.printStackTrace();
+	        throw new OncotatorCacheException(e.getMessage());
+        } finally {
+            DatabaseUtil.closeAll(con, pstmt, rs);
+        }
+    }
+
+    private OncotatorRecord createRecord(ResultSet rs) throws SQLException {
+        OncotatorRecord record = new OncotatorRecord(rs.getString("CACHE_KEY"));
+        record.getBestEffectTranscript().setGene(rs.getString("GENE_SYMBOL"));
+        record.setGenomeChange(rs.getString("GENOME_CHANGE"));
+        record.getBestEffectTranscript().setProteinChange(rs.getString("PROTEIN_CHANGE"));
+        record.getBestEffectTranscript().setVariantClassification(rs.getString("VARIANT_CLASSIFICATION"));
+        record.setCosmicOverlappingMutations(rs.getString("COSMIC_OVERLAP"));
+        record.getBestEffectTranscript().setExonAffected(rs.getInt("EXON_AFFECTED"));
+        record.setDbSnpRs(rs.getString("DB_SNP_RS"));
+        return record;
+    }
+
     public void deleteAllRecords() throws SQLException {
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -0,0 +1,517 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded, file backed oncotator cache.
+ *
+ * Raw JSON responses of the oncotator service are kept in a single
+ * append-only (log structured) file, and parsed when retrieved. Only the
+ * file offsets of the records are kept in memory. Each record is written
+ * as a single block:
+ *
+ *   [payload length] [CRC32 of the payload] [key length] [key] [raw JSON]
+ *
+ * Since cache entries never change, records are never overwritten or
+ * deleted, and the file never needs to be compacted.
+ *
+ * Multiple processes may use the same file. Appends are done while holding
+ * an exclusive lock on the file, and a writer first indexes the records
+ * appended by other processes, so the same key is not written twice.
+ * Readers do not lock the file: records appended by other processes are
+ * indexed when a key is missing, and a record which is not completely
+ * written yet (or a record left over by a crashed writer) is detected by
+ * its length and checksum, and ignored. A single instance is shared per
+ * file within the same JVM.
+ */
+public class FileOncotatorCache implements OncotatorCacheService
+{
+	// file identifier and format version
+	public static final int MAGIC = 0x4f4e4331; // "ONC1"
+
+	private static final int HEADER_SIZE = 4;
+	private static final int RECORD_HEADER_SIZE = 12;
+
+	// upper limit for a single record (to detect corrupt lengths)
+	private static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	// shared cache instances (one per file)
+	private static Map<String, FileOncotatorCache> instances =
+		new HashMap<String, FileOncotatorCache>();
+
+	private File file;
+	private FileChannel channel;
+
+	// key to record offset
+	private Map<String, Long> index;
+
+	// end of the last valid record indexed so far
+	private long indexedLength;
+
+	/**
+	 * Returns the shared cache instance for the given file.
+	 * The file is created if it does not exist.
+	 *
+	 * @param file  cache file
+	 * @return      cache instance for the file
+	 * @throws OncotatorCacheException  if the cache cannot be opened
+	 */
+	public static synchronized FileOncotatorCache getInstance(File file)
+			throws OncotatorCacheException
+	{
+		try {
+			String path = file.getCanonicalPath();
+			FileOncotatorCache cache = instances.get(path);
+
+			if (cache == null)
+			{
+				cache = new FileOncotatorCache(file);
+				instances.put(path, cache);
+			}
+
+			return cache;
+		} catch (IOException e) {
+			throw new OncotatorCacheException("Cannot open the cache file " +
+				file + ": " + e.getMessage());
+		}
+	}
+
+	protected FileOncotatorCache(File file) throws IOException
+	{
+		this.file = file;
+		this.index = new HashMap<String, Long>();
+
+		File parent = file.getAbsoluteFile().getParentFile();
+
+		if (parent != null)
+		{
+			parent.mkdirs();
+		}
+
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+
+		FileLock lock = this.channel.lock();
+
+		try {
+			// new file, write the header
+			if (this.channel.size() == 0)
+			{
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC);
+				header.flip();
+				this.writeFully(header, 0);
+			}
+		} finally {
+			lock.release();
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		if (this.readFully(header, 0) < HEADER_SIZE ||
+		    header.getInt(0) != MAGIC)
+		{
+			this.channel.close();
+			throw new IOException("not an oncotator cache file");
+		}
+
+		this.indexedLength = HEADER_SIZE;
+		this.refresh();
+	}
+
+	public int put(OncotatorRecord record) throws OncotatorCacheException
+	{
+		return this.putAll(Collections.singletonList(record));
+	}
+
+	/**
+	 * Appends the given records (except the ones without raw JSON, or
+	 * already in the cache) to the cache file, while holding the file lock.
+	 *
+	 * @param records   records to add
+	 * @return          number of records added
+	 */
+	public synchronized int putAll(Collection<OncotatorRecord> records)
+			throws OncotatorCacheException
+	{
+		FileLock lock = null;
+
+		try {
+			lock = this.channel.lock();
+
+			// records appended by other processes
+			if (this.refresh() < this.channel.size())
+			{
+				// a torn record left over by a crashed writer
+				this.channel.truncate(this.indexedLength);
+			}
+
+			Map<String, ByteBuffer> blocks = new LinkedHashMap<String, ByteBuffer>();
+
+			for (OncotatorRecord record : records)
+			{
+				// do not allow null values to go into the cache
+				if (record.getRawJson() != null &&
+				    !this.index.containsKey(record.getKey()) &&
+				    !blocks.containsKey(record.getKey()))
+				{
+					blocks.put(record.getKey(), encode(record.getKey(), record.getRawJson()));
+				}
+			}
+
+			long offset = this.indexedLength;
+
+			for (Map.Entry<String, ByteBuffer> entry : blocks.entrySet())
+			{
+				int size = entry.getValue().remaining();
+
+				this.writeFully(entry.getValue(), offset);
+				this.index.put(entry.getKey(), offset);
+
+				offset += size;
+			}
+
+			this.indexedLength = offset;
+
+			return blocks.size();
+		} catch (IOException e) {
+			throw new OncotatorCacheException(e.getMessage());
+		} finally {
+			release(lock);
+		}
+	}
+
+	public OncotatorRecord get(String key) throws OncotatorCacheException
+	{
+		String json = this.getRawJson(key);
+		return json == null ? null : OncotatorParser.parseJSON(key, json);
+	}
+
+	public Map<String, OncotatorRecord> getAll(Collection<String> keys)
+			throws OncotatorCacheException
+	{
+		Map<String, OncotatorRecord> records = new HashMap<String, OncotatorRecord>();
+
+		for (String key : keys)
+		{
+			String json = this.getRawJson(key);
+
+			if (json != null)
+			{
+				records.put(key, OncotatorParser.parseJSON(key, json));
+			}
+		}
+
+		return records;
+	}
+
+	/**
+	 * Checks the given keys against the in-memory index only, no records
+	 * are read from the file.
+	 *
+	 * @param keys  cache keys
+	 * @return      subset of the given keys found in the cache
+	 */
+	public synchronized Set<String> getCachedKeys(Collection<String> keys)
+			throws OncotatorCacheException
+	{
+		Set<String> cachedKeys = new HashSet<String>();
+
+		try {
+			// check for records appended by other processes
+			if (this.channel.size() > this.indexedLength)
+			{
+				this.refresh();
+			}
+		} catch (IOException e) {
+			throw new OncotatorCacheException(e.getMessage());
+		}
+
+		for (String key : keys)
+		{
+			if (this.index.containsKey(key))
+			{
+				cachedKeys.add(key);
+			}
+		}
+
+		return cachedKeys;
+	}
+
+	/**
+	 * Records are written to the file as soon as they are added,
+	 * forces them to the storage device.
+	 */
+	public synchronized void flush() throws OncotatorCacheException
+	{
+		try {
+			this.channel.force(false);
+		} catch (IOException e) {
+			throw new OncotatorCacheException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Retrieves the raw JSON for the given key.
+	 *
+	 * @param key   cache key
+	 * @return      raw JSON, or null if the key is not in the cache
+	 */
+	public String getRawJson(String key) throws OncotatorCacheException
+	{
+		Long offset;
+
+		try {
+			synchronized (this)
+			{
+				offset = this.index.get(key);
+
+				// check for records appended by other processes
+				if (offset == null &&
+				    this.channel.size() > this.indexedLength)
+				{
+					this.refresh();
+					offset = this.index.get(key);
+				}
+			}
+
+			if (offset == null)
+			{
+				return null;
+			}
+
+			// positional reads do not need to be synchronized
+			return this.readRecord(offset)[1];
+		} catch (IOException e) {
+			throw new OncotatorCacheException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return  keys of all records in the cache (in file order)
+	 */
+	public synchronized List<String> getKeys() throws OncotatorCacheException
+	{
+		try {
+			this.refresh();
+		} catch (IOException e) {
+			throw new OncotatorCacheException(e.getMessage());
+		}
+
+		List<String> keys = new ArrayList<String>(this.index.keySet());
+		final Map<String, Long> offsets = this.index;
+
+		Collections.sort(keys, new Comparator<String>() {
+			public int compare(String a, String b)
+			{
+				return offsets.get(a).compareTo(offsets.get(b));
+			}
+		});
+
+		return keys;
+	}
+
+	public synchronized int size()
+	{
+		return this.index.size();
+	}
+
+	/**
+	 * Indexes the records appended after the last indexed record, up to the
+	 * first incomplete or corrupt record (if any).
+	 *
+	 * @return  end of the last valid record
+	 */
+	protected synchronized long refresh() throws IOException
+	{
+		long size = this.channel.size();
+		long offset = this.indexedLength;
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+		while (offset + RECORD_HEADER_SIZE <= size)
+		{
+			header.clear();
+			this.readFully(header, offset);
+
+			int length = header.getInt(0);
+
+			if (length < 4 ||
+			    length > MAX_PAYLOAD_SIZE ||
+			    offset + 8 + length > size)
+			{
+				break;
+			}
+
+			String[] record = this.readRecord(offset);
+
+			if (record == null)
+			{
+				break;
+			}
+
+			// the first record wins (in case of concurrent duplicates)
+			if (!this.index.containsKey(record[0]))
+			{
+				this.index.put(record[0], offset);
+			}
+
+			offset += 8 + length;
+		}
+
+		this.indexedLength = offset;
+
+		return offset;
+	}
+
+	/**
+	 * Reads and verifies the record at the given offset.
+	 *
+	 * @param offset    record offset
+	 * @return          key and raw JSON, or null if the record is invalid
+	 */
+	protected String[] readRecord(long offset) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(8);
+
+		if (this.readFully(header, offset) < 8)
+		{
+			return null;
+		}
+
+		int length = header.getInt(0);
+		int checksum = header.getInt(4);
+
+		if (length < 4 ||
+		    length > MAX_PAYLOAD_SIZE)
+		{
+			return null;
+		}
+
+		ByteBuffer payload = ByteBuffer.allocate(length);
+
+		if (this.readFully(payload, offset + 8) < length)
+		{
+			return null;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(payload.array(), 0, length);
+
+		int keyLength = payload.getInt(0);
+
+		if ((int) crc.getValue() != checksum ||
+		    keyLength < 0 ||
+		    keyLength > length - 4)
+		{
+			return null;
+		}
+
+		String key = new String(payload.array(), 4, keyLength, CHARSET);
+		String json = new String(payload.array(), 4 + keyLength, length - 4 - keyLength, CHARSET);
+
+		return new String[] {key, json};
+	}
+
+	protected static ByteBuffer encode(String key, String json)
+	{
+		byte[] keyBytes = key.getBytes(CHARSET);
+		byte[] jsonBytes = json.getBytes(CHARSET);
+		int length = 4 + keyBytes.length + jsonBytes.length;
+
+		ByteBuffer block = ByteBuffer.allocate(8 + length);
+		block.putInt(length);
+		block.putInt(0);
+		block.putInt(keyBytes.length);
+		block.put(keyBytes);
+		block.put(jsonBytes);
+
+		CRC32 crc = new CRC32();
+		crc.update(block.array(), 8, length);
+		block.putInt(4, (int) crc.getValue());
+
+		block.flip();
+
+		return block;
+	}
+
+	protected int readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		int total = 0;
+
+		while (buffer.hasRemaining())
+		{
+			int count = this.channel.read(buffer, position + total);
+
+			if (count < 0)
+			{
+				break;
+			}
+
+			total += count;
+		}
+
+		return total;
+	}
+
+	protected void writeFully(ByteBuffer buffer, long position) throws IOException
+	{
+		long offset = position;
+
+		while (buffer.hasRemaining())
+		{
+			offset += this.channel.write(buffer, offset);
+		}
+	}
+
+	protected static void release(FileLock lock)
+	{
+		if (lock != null)
+		{
+			try {
+				lock.release();
+			} catch (IOException e) {
+				System.out.println("Cache error: " + e.getMessage());
+			}
+		}
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+}
@@ -0,0 +1,296 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of oncotator records, in front of the persistent
+ * cache. Least recently used records are evicted when either the maximum
+ * number of entries or the (estimated) maximum memory is exceeded.
+ *
+ * A single shared instance is used by all cached oncotator services within
+ * the same JVM, so that recurrent variants of different files are resolved
+ * without a database query. Lookups missing the memory tier are passed to
+ * the persistent cache, and the shared instance also counts hits and misses
+ * of that tier for the final report.
+ */
+public class MemoryRecordCache
+{
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	// rough size of an object header and a reference
+	private static final int OBJECT_OVERHEAD = 16;
+	private static final int STRING_OVERHEAD = 40;
+
+	private static MemoryRecordCache shared;
+
+	private int maxEntries;
+	private long maxBytes;
+	private long numBytes;
+
+	// records in access order (least recently used first)
+	private LinkedHashMap<String, OncotatorRecord> records;
+	private Map<String, Long> sizes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	// persistent cache tier behind this one
+	private long backingHits;
+	private long backingMisses;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxEntries    maximum number of records (disabled if zero)
+	 * @param maxBytes      maximum estimated memory (in bytes) of records
+	 */
+	public MemoryRecordCache(int maxEntries, long maxBytes)
+	{
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.records = new LinkedHashMap<String, OncotatorRecord>(16, 0.75f, true);
+		this.sizes = new HashMap<String, Long>();
+	}
+
+	/**
+	 * Returns the instance shared by all services of this JVM.
+	 *
+	 * @return  shared memory cache
+	 */
+	public static synchronized MemoryRecordCache getShared()
+	{
+		if (shared == null)
+		{
+			shared = new MemoryRecordCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+		}
+
+		return shared;
+	}
+
+	public synchronized OncotatorRecord get(String key)
+	{
+		OncotatorRecord record = this.records.get(key);
+
+		if (record == null)
+		{
+			this.misses++;
+		}
+		else
+		{
+			this.hits++;
+		}
+
+		return record;
+	}
+
+	/**
+	 * Retrieves all of the given keys available in memory.
+	 *
+	 * @param keys  keys to look up
+	 * @return      map of found keys to records
+	 */
+	public synchronized Map<String, OncotatorRecord> getAll(Collection<String> keys)
+	{
+		Map<String, OncotatorRecord> found = new HashMap<String, OncotatorRecord>();
+
+		for (String key : keys)
+		{
+			OncotatorRecord record = this.get(key);
+
+			if (record != null)
+			{
+				found.put(key, record);
+			}
+		}
+
+		return found;
+	}
+
+	public synchronized void put(OncotatorRecord record)
+	{
+		if (this.maxEntries <= 0 ||
+		    record == null ||
+		    this.records.containsKey(record.getKey()))
+		{
+			return;
+		}
+
+		long size = estimateSize(record);
+
+		// larger than the whole cache
+		if (size > this.maxBytes)
+		{
+			return;
+		}
+
+		this.records.put(record.getKey(), record);
+		this.sizes.put(record.getKey(), size);
+		this.numBytes += size;
+
+		this.evict();
+	}
+
+	/**
+	 * Changes the limits of the cache, evicting records if necessary.
+	 *
+	 * @param maxEntries    maximum number of records (disabled if zero)
+	 * @param maxBytes      maximum estimated memory (in bytes) of records
+	 */
+	public synchronized void setLimits(int maxEntries, long maxBytes)
+	{
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+
+		this.evict();
+	}
+
+	/**
+	 * Adds the results of lookups in the persistent cache tier.
+	 *
+	 * @param hits      number of keys found in the persistent cache
+	 * @param misses    number of keys not found in the persistent cache
+	 */
+	public synchronized void addBackingLookups(long hits, long misses)
+	{
+		this.backingHits += hits;
+		this.backingMisses += misses;
+	}
+
+	/**
+	 * Prints hit/miss counts of both cache tiers.
+	 */
+	public synchronized void printStats()
+	{
+		System.out.println("Memory cache: " + this.hits + " hit(s), " +
+		                   this.misses + " miss(es), " +
+		                   this.records.size() + " record(s) (~" +
+		                   (this.numBytes / 1024) + " KB), " +
+		                   this.evictions + " eviction(s)");
+		System.out.println("Database cache: " + this.backingHits + " hit(s), " +
+		                   this.backingMisses + " miss(es)");
+	}
+
+	protected void evict()
+	{
+		Iterator<Map.Entry<String, OncotatorRecord>> iterator =
+			this.records.entrySet().iterator();
+
+		while (iterator.hasNext() &&
+		       (this.records.size() > Math.max(this.maxEntries, 0) ||
+		        this.numBytes > this.maxBytes))
+		{
+			String key = iterator.next().getKey();
+			iterator.remove();
+
+			this.numBytes -= this.sizes.remove(key);
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Estimates the memory used by the given record.
+	 *
+	 * @param record    oncotator record
+	 * @return          estimated size in bytes
+	 */
+	protected static long estimateSize(OncotatorRecord record)
+	{
+		long size = OBJECT_OVERHEAD * 8;
+
+		size += estimateSize(record.getKey());
+		size += estimateSize(record.getRawJson());
+		size += estimateSize(record.getGenomeChange());
+		size += estimateSize(record.getDbSnpRs());
+		size += estimateSize(record.getDbSnpValStatus());
+		size += estimateSize(record.getCosmicOverlappingMutations());
+		size += estimateSize(record.getBestCanonicalTranscript());
+		size += estimateSize(record.getBestEffectTranscript());
+
+		return size;
+	}
+
+	protected static long estimateSize(Transcript transcript)
+	{
+		if (transcript == null)
+		{
+			return 0;
+		}
+
+		long size = OBJECT_OVERHEAD * 14;
+
+		size += estimateSize(transcript.getGene());
+		size += estimateSize(transcript.getProteinChange());
+		size += estimateSize(transcript.getVariantClassification());
+		size += estimateSize(transcript.getRefseqMrnaId());
+		size += estimateSize(transcript.getRefseqProtId());
+		size += estimateSize(transcript.getUniprotName());
+		size += estimateSize(transcript.getUniprotAccession());
+		size += estimateSize(transcript.getCodonChange());
+		size += estimateSize(transcript.getTranscriptChange());
+
+		return size;
+	}
+
+	protected static long estimateSize(String value)
+	{
+		return value == null ? 0 : STRING_OVERHEAD + 2L * value.length();
+	}
+
+	public synchronized int size()
+	{
+		return records.size();
+	}
+
+	public synchronized long getNumBytes()
+	{
+		return numBytes;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	public synchronized long getBackingHits()
+	{
+		return backingHits;
+	}
+
+	public synchronized long getBackingMisses()
+	{
+		return backingMisses;
+	}
+}
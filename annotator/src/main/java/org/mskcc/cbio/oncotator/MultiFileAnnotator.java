@@ -17,10 +17,16 @@
 
 package org.mskcc.cbio.oncotator;
 
+import org.mskcc.cbio.annotator.TimingReport;
+
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.io.File;
@@ -36,6 +42,19 @@ public abstract class MultiFileAnnotator
 	protected String sourceDir;
 	protected String targetDir;
 
+	// per stage timings of all annotated files
+	protected TimingReport timingReport = new TimingReport();
+
+	// output file for the timing report (printed to stdout if empty)
+	protected String timingReportFile = "";
+
+	// glob pattern of the input files relative to the source directory
+	// (files are selected by isMaf if empty)
+	protected String fileGlob = "";
+
+	private Path sourcePath;
+	private PathMatcher fileMatcher;
+
 	/**
 	 * Driver method.
 	 *
@@ -51,6 +70,16 @@ public abstract class MultiFileAnnotator
 		Map<File, File> map = this.makeOutputDirs(inputMafList, sourceDir, targetDir);
 		this.annotateAll(map);
 		this.generateCopyScript("cp", map, targetDir);
+		this.emitTimingReport();
+	}
+
+	/**
+	 * Writes the collected timing report into the configured file,
+	 * or prints it to the standard output if no file is configured.
+	 */
+	protected void emitTimingReport()
+	{
+		this.timingReport.emit(this.timingReportFile);
 	}
 
 	/**
@@ -98,15 +127,36 @@ public abstract class MultiFileAnnotator
 	 */
 	abstract protected void annotateAll(Map<File, File> map);
 
+	/**
+	 * Finds all input files under the given source directory, either by
+	 * the configured glob pattern or by isMaf.
+	 *
+	 * @param sourceDir main source directory for input MAFs
+	 * @return          sorted list of input files
+	 */
 	protected List<File> getMafFiles(String sourceDir)
 	{
 		File inFile = new File(sourceDir);
 
 		List<File> mafList = null;
 
+		if (this.fileGlob != null &&
+		    this.fileGlob.length() > 0)
+		{
+			this.sourcePath = inFile.getAbsoluteFile().toPath();
+			this.fileMatcher = FileSystems.getDefault().getPathMatcher("glob:" + this.fileGlob);
+		}
+		else
+		{
+			this.fileMatcher = null;
+		}
+
 		if (inFile.isDirectory())
 		{
 			mafList = processDir(inFile);
+
+			// listing order depends on the file system
+			Collections.sort(mafList);
 		}
 
 		return mafList;
@@ -131,8 +181,8 @@ public abstract class MultiFileAnnotator
 
 		for (File file : map.keySet())
 		{
-			String targetFile = file.getAbsolutePath();
-			String sourceFile = map.get(file).getAbsolutePath() + "/" + file.getName();
+			String targetFile = file.getParentFile().getAbsolutePath() + "/" + this.getOutputName(file);
+			String sourceFile = map.get(file).getAbsolutePath() + "/" + this.getOutputName(file);
 
 			writer.write(scriptName + " " +
 			             sourceFile + " " +
@@ -144,6 +194,18 @@ public abstract class MultiFileAnnotator
 		writer.close();
 	}
 
+	/**
+	 * Returns the output file name for the given input file.
+	 * By default, output file has the same name with the input.
+	 *
+	 * @param input input file
+	 * @return      name of the output file
+	 */
+	protected String getOutputName(File input)
+	{
+		return input.getName();
+	}
+
 	/**
 	 * Recursively processes the given input directory and creates a
 	 * list of MAF files under its all subdirectories.
@@ -168,7 +230,7 @@ public abstract class MultiFileAnnotator
 					{
 						mafList.addAll(processDir(file));
 					}
-					else if (isMaf(file))
+					else if (isInputFile(file))
 					{
 						mafList.add(file);
 					}
@@ -179,6 +241,33 @@ public abstract class MultiFileAnnotator
 		return mafList;
 	}
 
+	/**
+	 * Checks if the given file is an input file. If a glob pattern is
+	 * configured, the path relative to the source directory should match
+	 * the pattern. A pattern without any directory part is matched
+	 * against the file name only.
+	 *
+	 * @param file  file to check
+	 * @return      true if the file should be processed
+	 */
+	protected boolean isInputFile(File file)
+	{
+		if (this.fileMatcher == null)
+		{
+			return isMaf(file);
+		}
+
+		Path path = this.sourcePath.relativize(file.getAbsoluteFile().toPath());
+
+		if (!this.fileGlob.contains("/"))
+		{
+			path = path.getFileName();
+		}
+
+		return file.isFile() &&
+		       this.fileMatcher.matches(path);
+	}
+
 	/**
 	 * Checks if the given file is a MAF file.
 	 *
@@ -194,4 +283,14 @@ public abstract class MultiFileAnnotator
 //		        file.getName().toLowerCase().endsWith("data_mutations_extended.txt"));
 			file.getName().toLowerCase().endsWith("data_mutations_extended.txt");
 	}
+
+	public String getFileGlob()
+	{
+		return fileGlob;
+	}
+
+	public void setFileGlob(String fileGlob)
+	{
+		this.fileGlob = fileGlob;
+	}
 }
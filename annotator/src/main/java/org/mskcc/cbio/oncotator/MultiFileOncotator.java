@@ -14,49 +14,174 @@
  * Memorial Sloan-Kettering Cancer Center 
  * has been advised of the possibility of such damage.
 */
-
 package org.mskcc.cbio.oncotator;
 
+import org.mskcc.cbio.annotator.AnnotatorConfig;
+import org.mskcc.cbio.annotator.FileTaskRunner;
+import org.mskcc.cbio.dbcache.DatabaseUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Designed to oncotate all MAF files within a given directory.
  *
+ * If more than one worker is configured, files are oncotated in parallel.
+ * All workers share the same memory cache, request rate limit and circuit
+ * breaker, and the configured number of fetchers is split among them. The
+ * number of concurrent requests of all workers together is limited to the
+ * configured number of fetchers, so that the oncotator service sees the
+ * same load as a single file run.
+ *
  * @author Selcuk Onur Sumer
  */
 public class MultiFileOncotator extends MultiFileAnnotator
 {
+	// a worker holds at most one connection for lookups,
+	// and one more for its write-behind flushes
+	public static final int CONNECTIONS_PER_WORKER = 2;
+
+	protected AnnotatorConfig config;
+
+	private Map<File, String> failures;
+
+	public MultiFileOncotator(AnnotatorConfig config)
+	{
+		this.config = config;
+		this.timingReport = config.getTimingReport();
+		this.timingReportFile = config.getTimingReportFile();
+		this.fileGlob = config.getFileGlob();
+	}
+
+	public MultiFileOncotator()
+	{
+		this(new AnnotatorConfig());
+	}
+
+	/**
+	 * Driver method. Reports cache hits of all files at the end.
+	 *
+	 * @param sourceDir main source directory for input MAFs
+	 * @param targetDir main output directory for output MAFs
+	 */
+	public void annotate(String sourceDir, String targetDir) throws IOException
+	{
+		super.annotate(sourceDir, targetDir);
+		MemoryRecordCache.getShared().printStats();
+	}
+
 	/**
 	 * Oncotates all input MAF files within the given map. Writes output
 	 * MAFs to the mapped directory.
 	 *
 	 * @param map   map of input MAF files to output directories
 	 */
-	protected void annotateAll(Map<File, File> map)
+	protected void annotateAll(final Map<File, File> map)
 	{
-		for (File file : map.keySet())
-		{
-			File outDir = map.get(file);
-			String inputMaf = file.getAbsolutePath();
-			String outputMaf = outDir.getAbsolutePath() + "/" + file.getName();
-
-			// TODO allow user to change these?
-			boolean useCache = true;
-			boolean sort = true;
-			boolean addMissing = true;
-
-			int oncoResult = OncotateTool.driver(inputMaf,
-				outputMaf,
-				useCache,
-				sort,
-				addMissing);
-
-			if (oncoResult != 0)
+		List<File> files = new ArrayList<File>(map.keySet());
+		Collections.sort(files);
+
+		final int numWorkers = this.getNumWorkers(files.size());
+
+		// JVM wide settings are applied once, not by each worker
+		OncotateTool.applyRunSettings(this.config);
+
+		// limits shared by all workers
+		final RateLimiter rateLimiter = new RateLimiter(this.config.getOncotatorRateLimit());
+		final CircuitBreaker circuitBreaker = new CircuitBreaker(
+			OncotatorService.DEFAULT_BREAKER_THRESHOLD,
+			OncotatorService.DEFAULT_BREAKER_COOL_DOWN);
+		final Semaphore requestPermits = new Semaphore(
+			Math.max(1, this.config.getOncotatorFetchers()));
+
+		FileTaskRunner runner = new FileTaskRunner(numWorkers);
+
+		this.failures = runner.runAll(files, new FileTaskRunner.FileTask() {
+			public String process(File file)
 			{
-				// TODO write this in another log file into the main output dir
-				System.out.println("Process completed with " + oncoResult + " error(s).");
+				AnnotatorConfig config = createConfig(file, map.get(file));
+
+				config.setOncotatorFetchers(Math.max(1,
+					config.getOncotatorFetchers() / numWorkers));
+				config.setOncotatorRateLimiter(rateLimiter);
+				config.setOncotatorCircuitBreaker(circuitBreaker);
+				config.setOncotatorRequestPermits(requestPermits);
+
+				int oncoResult = OncotateTool.oncotateFile(config);
+
+				if (oncoResult != 0)
+				{
+					// TODO write this in another log file into the main output dir
+					System.out.println("Process completed with " + oncoResult + " error(s).");
+					return oncoResult + " error(s)";
+				}
+
+				return null;
 			}
+		});
+
+		FileTaskRunner.printReport("Oncotator", files.size(), this.failures);
+	}
+
+	/**
+	 * Creates the configuration to oncotate a single input MAF.
+	 *
+	 * @param file      input MAF
+	 * @param outDir    output directory
+	 * @return          configuration for the given file
+	 */
+	protected AnnotatorConfig createConfig(File file, File outDir)
+	{
+		String inputMaf = file.getAbsolutePath();
+		String outputMaf = outDir.getAbsolutePath() + "/" + file.getName();
+
+		AnnotatorConfig config = this.config.copy();
+
+		config.setInput(inputMaf);
+		config.setOutput(outputMaf);
+
+		// TODO allow user to change these?
+		config.setNoCache(false);
+		config.setSort(true);
+		config.setAddMissing(true);
+
+		// collect timings of all files in the same report
+		config.setTimingReport(this.timingReport);
+
+		return config;
+	}
+
+	/**
+	 * Determines the number of files oncotated at the same time. When the
+	 * cache database is used, the number of workers is limited so that
+	 * all workers together do not exhaust the connection pool.
+	 *
+	 * @param numFiles  number of input files
+	 * @return          number of workers
+	 */
+	protected int getNumWorkers(int numFiles)
+	{
+		int numWorkers = Math.max(1, Math.min(this.config.getNumWorkers(), numFiles));
+
+		if (this.config.getOncotatorCacheFile().length() == 0)
+		{
+			numWorkers = Math.min(numWorkers,
+				DatabaseUtil.MAX_CONNECTIONS / CONNECTIONS_PER_WORKER);
 		}
+
+		return numWorkers;
+	}
+
+	/**
+	 * @return  map of failed input files to error messages of the last run
+	 */
+	public Map<File, String> getFailures()
+	{
+		return failures;
 	}
 }
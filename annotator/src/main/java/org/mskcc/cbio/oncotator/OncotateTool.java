@@ -18,6 +18,7 @@
 package org.mskcc.cbio.oncotator;
 
 import org.mskcc.cbio.annotator.AnnotatorConfig;
+import org.mskcc.cbio.annotator.ProgressReporter;
 
 import java.io.*;
 import java.util.Date;
@@ -48,13 +49,72 @@ public class OncotateTool
 	}
 
 	public static int driver(AnnotatorConfig config)
+	{
+		applyRunSettings(config);
+
+		return oncotateFile(config);
+	}
+
+	/**
+	 * Applies the settings shared by all files of the same run (JVM wide).
+	 * Called once per run, before any of the files is oncotated.
+	 *
+	 * @param config    annotator configuration
+	 */
+	public static void applyRunSettings(AnnotatorConfig config)
+	{
+		ProgressReporter.setDefaultInterval(config.getProgressInterval() * 1000L);
+
+		// the memory cache is shared by all files of the same run
+		MemoryRecordCache.getShared().setLimits(config.getOncotatorMemoryCache(),
+			config.getOncotatorMemoryCacheMb() * 1024L * 1024L);
+	}
+
+	/**
+	 * Oncotates the input MAF of the given configuration, without changing
+	 * the settings shared with the other files of the same run.
+	 *
+	 * @param config    annotator configuration
+	 * @return          number of errors
+	 */
+	public static int oncotateFile(AnnotatorConfig config)
 	{
 		Date start = new Date();
 		int oncoResult = 0;
 
-		Oncotator tool = new Oncotator(!config.isNoCache());
+		Oncotator tool;
+
+		try {
+			tool = createOncotator(config);
+		} catch (OncotatorCacheException e) {
+			System.out.println("Cache error: " + e.getMessage());
+			return 1;
+		}
+
 		tool.setSortColumns(config.isSort());
 		tool.setAddMissingCols(config.isAddMissing());
+		tool.setBlockSize(config.getOncotatorBlockSize());
+
+		OncotatorService service = tool.getOncotatorService();
+		service.setNumFetchers(config.getOncotatorFetchers());
+		service.setMaxRate(config.getOncotatorRateLimit());
+		service.setMaxRetries(config.getOncotatorRetries());
+
+		// limits shared with the other files of the same run (if any)
+		if (config.getOncotatorRateLimiter() != null)
+		{
+			service.setRateLimiter(config.getOncotatorRateLimiter());
+		}
+
+		if (config.getOncotatorCircuitBreaker() != null)
+		{
+			service.setCircuitBreaker(config.getOncotatorCircuitBreaker());
+		}
+
+		if (config.getOncotatorRequestPermits() != null)
+		{
+			service.setRequestPermits(config.getOncotatorRequestPermits());
+		}
 
 		try {
 			oncoResult = tool.oncotateMaf(new File(config.getInput()),
@@ -67,9 +127,16 @@ public class OncotateTool
 			e.printStackTrace();
 		}
 		finally {
+			tool.close();
+
 			Date end = new Date();
 			double timeElapsed = (end.getTime() - start.getTime()) / 1000.0;
 
+			config.getTimingReport().add("oncotate",
+				end.getTime() - start.getTime(),
+				tool.getNumRecordsProcessed(),
+				new File(config.getInput()).length());
+
 			System.out.println("Total number of records processed: " +
 			                   tool.getNumRecordsProcessed());
 
@@ -84,4 +151,65 @@ public class OncotateTool
 
 		return oncoResult;
 	}
+
+	/**
+	 * Creates an oncotator for the given configuration. If a cache file
+	 * is provided, the embedded file cache is used instead of the
+	 * cache database.
+	 *
+	 * @param config    annotator configuration
+	 * @return          new oncotator instance
+	 */
+	public static Oncotator createOncotator(AnnotatorConfig config)
+			throws OncotatorCacheException
+	{
+		if (config.isOncotatorBuildCache())
+		{
+			return createCacheBuilder(config);
+		}
+
+		if (!config.isNoCache() &&
+		    config.getOncotatorCacheFile().length() > 0)
+		{
+			FileOncotatorCache fileCache =
+				FileOncotatorCache.getInstance(new File(config.getOncotatorCacheFile()));
+
+			return new Oncotator(new CachedOncotatorService(
+				new WriteBehindCacheService(fileCache)));
+		}
+
+		return new Oncotator(!config.isNoCache());
+	}
+
+	/**
+	 * Creates a cache builder for the given configuration, which builds
+	 * the cache file if provided, or the JSON cache database otherwise.
+	 *
+	 * @param config    annotator configuration
+	 * @return          new cache builder instance
+	 */
+	public static CacheBuilderOncotator createCacheBuilder(AnnotatorConfig config)
+			throws OncotatorCacheException
+	{
+		OncotatorCacheService cacheService;
+
+		if (config.getOncotatorCacheFile().length() > 0)
+		{
+			cacheService = FileOncotatorCache.getInstance(new File(config.getOncotatorCacheFile()));
+		}
+		else
+		{
+			cacheService = new DaoJsonCache();
+		}
+
+		CacheBuilderOncotator builder =
+			new CacheBuilderOncotator(new WriteBehindCacheService(cacheService));
+
+		if (config.getOncotatorCheckpoint().length() > 0)
+		{
+			builder.setCheckpointFile(new File(config.getOncotatorCheckpoint()));
+		}
+
+		return builder;
+	}
 }
\ No newline at end of file
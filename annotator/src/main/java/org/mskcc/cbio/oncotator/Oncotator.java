@@ -17,10 +17,17 @@
 
 package org.mskcc.cbio.oncotator;
 
+import org.mskcc.cbio.annotator.ProgressReporter;
 import org.mskcc.cbio.maf.*;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Main controller class for MAF processing and IO operations.
@@ -31,6 +38,7 @@ public class Oncotator
 {
 	protected static final String SILENT_MUTATION = "Silent";
 	protected static int MAX_NUM_RECORDS_TO_PROCESS = -1;
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
 
 	protected OncotatorService oncotatorService;
 
@@ -38,11 +46,21 @@ public class Oncotator
 	protected int numRecordsProcessed = 0;
 	protected int totalNumRecords = 0;
 
+	// progress of the key resolution (number of unique keys)
+	protected int numKeysResolved = 0;
+	protected int totalNumKeys = 0;
+
 	// config params (TODO create a config class instead?)
 	protected boolean useCache;
 	protected boolean sortColumns;
 	protected boolean addMissingCols;
 
+	// number of keys resolved at once by the oncotator service
+	protected int blockSize;
+
+	// oncotator records resolved for all unique keys of the current file
+	protected Map<String, OncotatorRecord> resolvedRecords;
+
 	/**
 	 * Default constructor with the default oncotator service.
 	 */
@@ -52,6 +70,7 @@ public class Oncotator
 		this.sortColumns = false;
 		this.addMissingCols = false;
 		this.useCache = true;
+		this.blockSize = DEFAULT_BLOCK_SIZE;
 		this.oncotatorService = new CachedOncotatorService();
 	}
 
@@ -101,6 +120,12 @@ public class Oncotator
 	 * Oncotates the given input MAF file and creates a new MAF
 	 * file with new/updated oncotator columns.
 	 *
+	 * The input is read twice. The first pass only collects the unique
+	 * keys of the file, and all unique keys are resolved (in blocks, with
+	 * a single batch lookup per block for a cached service) before the
+	 * second pass writes the output. So a variant occurring in many
+	 * records of the file is resolved only once.
+	 *
 	 * @param inputMafFile  input MAF
 	 * @param outputMafFile output MAF
 	 * @return              number of errors (if any) during the process
@@ -111,7 +136,8 @@ public class Oncotator
 			throws IOException, OncotatorServiceException
 	{
 		this.outputFileNames(inputMafFile, outputMafFile);
-		this.totalNumRecords = this.countNumRecords(inputMafFile);
+
+		this.resolveKeys(this.collectKeys(inputMafFile));
 
 		FileReader reader = new FileReader(inputMafFile);
 		BufferedReader bufReader = new BufferedReader(reader);
@@ -134,20 +160,21 @@ public class Oncotator
 		// write the header line to output
 		FileIOUtil.writeLine(writer, columnNames);
 
-		String dataLine = bufReader.readLine();
+		ProgressReporter progress = new ProgressReporter("Oncotator", this.totalNumRecords);
+		String dataLine;
 
 		// process the file line by line
-		while (dataLine != null)
+		while ((dataLine = bufReader.readLine()) != null)
 		{
 			// skip empty lines
 			if (dataLine.trim().length() == 0)
 			{
-				dataLine = bufReader.readLine();
 				continue;
 			}
 
 			// update total number of records processed
 			this.numRecordsProcessed++;
+			progress.increment();
 
 			MafRecord mafRecord = mafUtil.parseRecord(dataLine);
 			OncotatorRecord oncotatorRecord = this.conditionallyOncotateRecord(mafRecord);
@@ -159,16 +186,166 @@ public class Oncotator
 
 			// write data to the output file
 			FileIOUtil.writeLine(writer, data);
-
-			dataLine = bufReader.readLine();
 		}
 
 		reader.close();
 		writer.close();
 
+		progress.finish();
+		this.resolvedRecords = null;
+
+		// make sure that the newly retrieved records are cached
+		this.oncotatorService.flush();
+
 		return this.oncotatorService.getErrorCount();
 	}
 
+	/**
+	 * Releases the resources held by the oncotator service
+	 * (after flushing any pending cache records).
+	 */
+	public void close()
+	{
+		this.oncotatorService.close();
+	}
+
+	/**
+	 * Collects the unique keys of all records (with a supported build)
+	 * of the given MAF file, in the order of first occurrence. Also
+	 * counts the total number of records.
+	 *
+	 * @param inputMaf      input MAF file
+	 * @return              set of unique keys
+	 * @throws IOException  if an IO error occurs
+	 */
+	protected Set<String> collectKeys(File inputMaf) throws IOException
+	{
+		Set<String> keys = new LinkedHashSet<String>();
+
+		FileReader reader = new FileReader(inputMaf);
+		BufferedReader bufReader = new BufferedReader(reader);
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+
+		MafUtil mafUtil = new MafUtil(headerUtil.extractHeader(bufReader));
+		String dataLine;
+
+		this.totalNumRecords = 0;
+
+		while ((dataLine = bufReader.readLine()) != null)
+		{
+			// skip empty lines
+			if (dataLine.trim().length() == 0)
+			{
+				continue;
+			}
+
+			this.totalNumRecords++;
+
+			MafRecord mafRecord = mafUtil.parseRecord(dataLine);
+			String key = MafUtil.generateKey(mafRecord);
+
+			if (key != null &&
+			    this.isSupportedBuild(mafRecord.getNcbiBuild()))
+			{
+				keys.add(key);
+			}
+		}
+
+		bufReader.close();
+
+		return keys;
+	}
+
+	/**
+	 * Resolves the oncotator records for all given keys, block by block.
+	 * Resolved records are kept until the output is written, without
+	 * their raw JSON (only the parsed fields are needed for the output).
+	 *
+	 * @param keys  unique keys to resolve
+	 * @throws OncotatorServiceException    if a service exception occurs
+	 */
+	protected void resolveKeys(Collection<String> keys)
+			throws OncotatorServiceException
+	{
+		this.resolvedRecords = new HashMap<String, OncotatorRecord>();
+		this.totalNumKeys = keys.size();
+		this.numKeysResolved = 0;
+
+		ProgressReporter progress = new ProgressReporter("Resolving keys", this.totalNumKeys);
+		progress.setUnit("keys");
+
+		List<String> block = new ArrayList<String>();
+
+		for (String key : keys)
+		{
+			block.add(key);
+
+			if (block.size() >= this.blockSize)
+			{
+				this.resolveBlock(block);
+				progress.add(block.size());
+				block.clear();
+			}
+		}
+
+		// resolve the remaining keys
+		if (!block.isEmpty())
+		{
+			this.resolveBlock(block);
+			progress.add(block.size());
+		}
+
+		progress.finish();
+	}
+
+	/**
+	 * Resolves a block of unique keys at once.
+	 *
+	 * @param block list of keys
+	 * @throws OncotatorServiceException    if a service exception occurs
+	 */
+	protected void resolveBlock(List<String> block)
+			throws OncotatorServiceException
+	{
+		Map<String, OncotatorRecord> records =
+			this.oncotatorService.getOncotatorRecords(block);
+
+		for (Map.Entry<String, OncotatorRecord> entry : records.entrySet())
+		{
+			this.resolvedRecords.put(entry.getKey(), compactRecord(entry.getValue()));
+		}
+
+		this.numKeysResolved += block.size();
+	}
+
+	/**
+	 * Creates a copy of the given record without the raw JSON. The record
+	 * itself is not modified, since it may be shared with the memory tier
+	 * of the cache.
+	 *
+	 * @param record    oncotator record (may be null)
+	 * @return          copy of the record with the parsed fields only
+	 */
+	protected static OncotatorRecord compactRecord(OncotatorRecord record)
+	{
+		if (record == null ||
+		    record.getRawJson() == null)
+		{
+			return record;
+		}
+
+		OncotatorRecord compact = new OncotatorRecord(record.getKey());
+
+		compact.setGenomeChange(record.getGenomeChange());
+		compact.setDbSnpRs(record.getDbSnpRs());
+		compact.setDbSnpValStatus(record.getDbSnpValStatus());
+		compact.setCosmicOverlappingMutations(record.getCosmicOverlappingMutations());
+		compact.setBestCanonicalTranscript(record.getBestCanonicalTranscript());
+		compact.setBestEffectTranscript(record.getBestEffectTranscript());
+
+		return compact;
+	}
+
 	/**
 	 * Conditionally oncotates a single line of a MAF file.
 	 *
@@ -181,9 +358,7 @@ public class Oncotator
 		String ncbiBuild = mafRecord.getNcbiBuild();
 		OncotatorRecord oncotatorRecord = null;
 
-		if (!ncbiBuild.equals("37") &&
-		    !ncbiBuild.equalsIgnoreCase("hg19") &&
-		    !ncbiBuild.equalsIgnoreCase("GRCh37"))
+		if (!this.isSupportedBuild(ncbiBuild))
 		{
 			this.outputBuildNumErrorMessage(ncbiBuild);
 			this.buildNumErrors++;
@@ -196,6 +371,19 @@ public class Oncotator
 		return oncotatorRecord;
 	}
 
+	/**
+	 * Checks if the given NCBI build is supported by oncotator.
+	 *
+	 * @param ncbiBuild NCBI build of a MAF record
+	 * @return          true if the build is 37/hg19
+	 */
+	protected boolean isSupportedBuild(String ncbiBuild)
+	{
+		return ncbiBuild.equals("37") ||
+		       ncbiBuild.equalsIgnoreCase("hg19") ||
+		       ncbiBuild.equalsIgnoreCase("GRCh37");
+	}
+
 	/**
 	 * Oncotates a single line of a MAF file, and returns an OncotatorRecord
 	 * instance containing the data retrieved from oncotator service.
@@ -212,50 +400,19 @@ public class Oncotator
 
 		if (key != null)
 		{
-			oncotatorRecord = oncotatorService.getOncotatorRecord(key);
-
-			String progress = "(" + this.numRecordsProcessed + "/" + this.totalNumRecords + ")";
-
-			// print percentage complete and coordinate info (key) to stdout
-			System.out.println(progress + " " + key);
-		}
-
-		return oncotatorRecord;
-	}
-
-	/**
-	 * Counts the number of records (number of nonempty lines) for
-	 * the given MAF file.
-	 *
-	 * @param inputMaf      input MAF file
-	 * @return              total number of records
-	 * @throws IOException  if an IO error occurs
-	 */
-	protected int countNumRecords(File inputMaf) throws IOException
-	{
-		int count = 0;
-
-		FileReader reader = new FileReader(inputMaf);
-		BufferedReader bufReader = new BufferedReader(reader);
-
-		// skip header line
-		bufReader.readLine();
-
-		String dataLine;
-
-		// process the file line by line
-		while ((dataLine = bufReader.readLine()) != null)
-		{
-			// skip empty lines
-			if (dataLine.trim().length() > 0)
+			// already resolved before writing the output
+			if (this.resolvedRecords != null &&
+			    this.resolvedRecords.containsKey(key))
 			{
-				count++;
+				oncotatorRecord = this.resolvedRecords.get(key);
+			}
+			else
+			{
+				oncotatorRecord = oncotatorService.getOncotatorRecord(key);
 			}
 		}
 
-		bufReader.close();
-
-		return count;
+		return oncotatorRecord;
 	}
 
 	protected void abortDueToBuildNumErrors()
@@ -313,6 +470,22 @@ public class Oncotator
 		this.addMissingCols = addMissingCols;
 	}
 
+	public OncotatorService getOncotatorService()
+	{
+		return oncotatorService;
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize)
+	{
+		// at least one record per block
+		this.blockSize = Math.max(1, blockSize);
+	}
+
 	public int getBuildNumErrors()
 	{
 		return buildNumErrors;
@@ -322,4 +495,9 @@ public class Oncotator
 	{
 		return numRecordsProcessed;
 	}
+
+	public int getTotalNumKeys()
+	{
+		return totalNumKeys;
+	}
 }
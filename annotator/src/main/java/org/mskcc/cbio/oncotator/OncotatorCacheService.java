@@ -17,6 +17,10 @@
 
 package org.mskcc.cbio.oncotator;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Interface to define a Cache Service for Oncotator records.
  *
@@ -32,6 +36,20 @@ public interface OncotatorCacheService
 	 */
 	public int put(OncotatorRecord record) throws OncotatorCacheException;
 
+	/**
+	 * Adds all of the given records to the cache at once. Records already
+	 * in the cache are skipped (instead of failing the whole batch).
+	 *
+	 * @param records   oncotator records to add
+	 * @return          number of records successfully added
+	 */
+	public int putAll(Collection<OncotatorRecord> records) throws OncotatorCacheException;
+
+	/**
+	 * Makes sure that all records added so far are persisted.
+	 * Does nothing for cache services without any buffering.
+	 */
+	public void flush() throws OncotatorCacheException;
 
 	/**
 	 * Gets the oncotator record for the given key.
@@ -41,4 +59,22 @@ public interface OncotatorCacheService
 	 */
 	public OncotatorRecord get(String key) throws OncotatorCacheException;
 
+	/**
+	 * Gets the oncotator records for all of the given keys at once.
+	 * Keys not found in the cache are not included in the result.
+	 *
+	 * @param keys  cache keys
+	 * @return      map of cache keys to corresponding records
+	 */
+	public Map<String, OncotatorRecord> getAll(Collection<String> keys) throws OncotatorCacheException;
+
+	/**
+	 * Checks which of the given keys are in the cache at once, without
+	 * retrieving (and parsing) the corresponding records.
+	 *
+	 * @param keys  cache keys
+	 * @return      subset of the given keys found in the cache
+	 */
+	public Set<String> getCachedKeys(Collection<String> keys) throws OncotatorCacheException;
+
 }
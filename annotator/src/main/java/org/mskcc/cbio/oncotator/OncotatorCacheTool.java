@@ -0,0 +1,171 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line tool to copy oncotator cache records between the embedded
+ * file cache and the MySQL cache tables.
+ *
+ * Usage:
+ *   OncotatorCacheTool import [cache file]
+ *   OncotatorCacheTool export [cache file] [json|legacy]
+ *
+ * Import copies all records of the JSON cache table (onco_json_cache) into
+ * the cache file. Export copies all records of the cache file into the JSON
+ * cache table (default), or into the legacy oncotator_cache table (parsed
+ * fields only). Records which already exist in the target are skipped, so
+ * both commands can be repeated to synchronize the caches.
+ */
+public class OncotatorCacheTool
+{
+	public static final int BATCH_SIZE = 1000;
+
+	public static void main(String[] args)
+	{
+		if (args.length < 2 ||
+		    !(args[0].equals("import") || args[0].equals("export")))
+		{
+			System.out.println("Usage: OncotatorCacheTool import <cache file>");
+			System.out.println("       OncotatorCacheTool export <cache file> [json|legacy]");
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+
+		try
+		{
+			FileOncotatorCache fileCache = FileOncotatorCache.getInstance(new File(args[1]));
+			int[] counts;
+
+			if (args[0].equals("import"))
+			{
+				counts = importRecords(new DaoJsonCache(), fileCache);
+			}
+			else if (args.length > 2 && args[2].equals("legacy"))
+			{
+				counts = exportRecords(fileCache, DaoOncotatorCache.getInstance(), true);
+			}
+			else
+			{
+				counts = exportRecords(fileCache, new DaoJsonCache(), false);
+			}
+
+			System.out.println(counts[0] + " record(s) read, " +
+			                   counts[1] + " record(s) added");
+		}
+		catch (OncotatorCacheException e)
+		{
+			System.out.println("Cache error: " + e.getMessage());
+			e.printStackTrace();
+		}
+
+		double timeElapsed = (System.currentTimeMillis() - start) / 1000.0;
+		System.out.println("Total time: " + timeElapsed + " seconds.");
+	}
+
+	/**
+	 * Copies all records of the given JSON cache table into the file cache.
+	 *
+	 * @param source    JSON cache table
+	 * @param target    file cache
+	 * @return          number of records read, and number of records added
+	 */
+	public static int[] importRecords(DaoJsonCache source,
+			final FileOncotatorCache target) throws OncotatorCacheException
+	{
+		final List<OncotatorRecord> batch = new ArrayList<OncotatorRecord>();
+		final int[] counts = new int[2];
+
+		counts[0] = source.readAll(new DaoJsonCache.RecordHandler() {
+			public void handle(String key, String rawJson) throws OncotatorCacheException
+			{
+				OncotatorRecord record = new OncotatorRecord(key);
+				record.setRawJson(rawJson);
+				batch.add(record);
+
+				if (batch.size() >= BATCH_SIZE)
+				{
+					counts[1] += target.putAll(batch);
+					batch.clear();
+				}
+			}
+		});
+
+		counts[1] += target.putAll(batch);
+		target.flush();
+
+		return counts;
+	}
+
+	/**
+	 * Copies all records of the file cache into the given cache.
+	 *
+	 * @param source    file cache
+	 * @param target    target cache
+	 * @param parse     whether to send parsed records (for the caches which
+	 *                  do not keep the raw JSON)
+	 * @return          number of records read, and number of records added
+	 */
+	public static int[] exportRecords(FileOncotatorCache source,
+			OncotatorCacheService target,
+			boolean parse) throws OncotatorCacheException
+	{
+		List<String> keys = source.getKeys();
+		List<OncotatorRecord> batch = new ArrayList<OncotatorRecord>();
+		int[] counts = new int[2];
+
+		for (String key : keys)
+		{
+			String rawJson = source.getRawJson(key);
+			OncotatorRecord record;
+
+			if (parse)
+			{
+				record = OncotatorParser.parseJSON(key, rawJson);
+			}
+			else
+			{
+				record = new OncotatorRecord(key);
+				record.setRawJson(rawJson);
+			}
+
+			counts[0]++;
+
+			// skip invalid records
+			if (record != null)
+			{
+				batch.add(record);
+			}
+
+			if (batch.size() >= BATCH_SIZE)
+			{
+				counts[1] += target.putAll(batch);
+				batch.clear();
+			}
+		}
+
+		counts[1] += target.putAll(batch);
+		target.flush();
+
+		return counts;
+	}
+}
@@ -19,26 +19,49 @@ package org.mskcc.cbio.oncotator;
 
 import java.io.IOException;
 
+import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
  * Parses JSON Retrieved from Oncotator.
  *
+ * There are two equivalent parsers: a tree parser building the whole JSON
+ * tree, and a streaming parser which only keeps the required fields (and
+ * the best canonical & best effect transcripts) while reading the tokens,
+ * regardless of the total number of transcripts.
+ *
  * @author Selcuk Onur Sumer
  */
 public class OncotatorParser
 {
+	// thread-safe, and expensive to create for each response
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
 
 	/**
 	 * Parses the JSON returned by the oncotator web service, and returns
 	 * the information as a new OncotateRecord instance.
+	 *
+	 * @param key   chr#_start_end_allele1_allele2
+	 * @param json  JSON object returned by the web service
+	 * @return      new OncotatorRecord, or null if JSON has an error
+	 */
+	public static OncotatorRecord parseJSON(String key, String json)
+	{
+		return parseJSONStream(key, json);
+	}
+
+	/**
+	 * Parses the JSON returned by the oncotator web service by building
+	 * the whole JSON tree.
 	 * 
 	 * @param key   chr#_start_end_allele1_allele2
 	 * @param json  JSON object returned by the web service
 	 * @return      new OncotatorRecord, or null if JSON has an error
 	 */
-    public static OncotatorRecord parseJSON(String key, String json)
+    public static OncotatorRecord parseJSONTree(String key, String json)
     {
         ObjectMapper m = new ObjectMapper();
 	    JsonNode rootNode = null;
@@ -108,6 +131,359 @@ public class OncotatorParser
         return oncoRecord;
     }
 
+	/**
+	 * Parses the JSON returned by the oncotator web service token by token,
+	 * without building the JSON tree. Only the best canonical and the best
+	 * effect transcripts are parsed, all other transcripts are skipped.
+	 *
+	 * If the transcript list comes before the best transcript indices within
+	 * the JSON, the indices are not known while reading the list, so the
+	 * list is read again (with a new parser) once the indices are known.
+	 *
+	 * @param key   chr#_start_end_allele1_allele2
+	 * @param json  JSON object returned by the web service
+	 * @return      new OncotatorRecord, or null if JSON has an error
+	 */
+	public static OncotatorRecord parseJSONStream(String key, String json)
+	{
+		// check for invalid json value
+		if (json == null)
+		{
+			return null;
+		}
+
+		OncotatorRecord oncoRecord = new OncotatorRecord(key);
+		oncoRecord.setRawJson(json);
+
+		StreamState state = new StreamState();
+
+		try {
+			if (!parseRoot(json, oncoRecord, state, false))
+			{
+				// no content
+				return null;
+			}
+
+			// transcripts skipped before the indices were known
+			if (state.rereadTranscripts)
+			{
+				parseRoot(json, oncoRecord, state, true);
+			}
+		}
+		catch (IOException e) {
+			//e.printStackTrace();
+			return null;
+		}
+
+		// check if JSON has an ERROR
+		if (state.error)
+		{
+			System.out.println("JSON parse error for " + key + ": " + state.errorText);
+			return null;
+		}
+
+		// keep the default (empty) transcripts if the index is out of range
+		if (state.bestCanonical != null)
+		{
+			oncoRecord.setBestCanonicalTranscript(state.bestCanonical);
+		}
+
+		if (state.bestEffect != null)
+		{
+			oncoRecord.setBestEffectTranscript(state.bestEffect);
+		}
+
+		return oncoRecord;
+	}
+
+	/**
+	 * Reads the fields of the root JSON object. If transcriptsOnly is set,
+	 * all fields except the transcript list are skipped.
+	 *
+	 * @param json              JSON object returned by the web service
+	 * @param oncoRecord        record to fill in
+	 * @param state             parse state
+	 * @param transcriptsOnly   whether to parse only the transcript list
+	 * @return                  false if the JSON has no content
+	 * @throws IOException      if the JSON is invalid
+	 */
+	protected static boolean parseRoot(String json,
+			OncotatorRecord oncoRecord,
+			StreamState state,
+			boolean transcriptsOnly) throws IOException
+	{
+		JsonParser parser = JSON_FACTORY.createJsonParser(json);
+
+		try
+		{
+			JsonToken token = parser.nextToken();
+
+			if (token == null)
+			{
+				return false;
+			}
+
+			// nothing to extract if the root is not an object
+			if (token != JsonToken.START_OBJECT)
+			{
+				parser.skipChildren();
+				return true;
+			}
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String field = parser.getCurrentName();
+				parser.nextToken();
+
+				if (field.equals("transcripts"))
+				{
+					parseTranscripts(parser, state, transcriptsOnly);
+				}
+				else if (transcriptsOnly)
+				{
+					parser.skipChildren();
+				}
+				else if (field.equals("ERROR"))
+				{
+					state.error = true;
+					state.errorText = textValue(parser);
+				}
+				else if (field.equals("genome_change"))
+				{
+					oncoRecord.setGenomeChange(textValue(parser));
+				}
+				else if (field.equals("Cosmic_overlapping_mutations"))
+				{
+					oncoRecord.setCosmicOverlappingMutations(textValue(parser));
+				}
+				else if (field.equals("dbSNP_RS"))
+				{
+					oncoRecord.setDbSnpRs(textValue(parser));
+				}
+				else if (field.equals("dbSNP_Val_Status"))
+				{
+					oncoRecord.setDbSnpValStatus(textValue(parser));
+				}
+				else if (field.equals("best_canonical_transcript"))
+				{
+					state.canonicalIndex = intValue(parser);
+				}
+				else if (field.equals("best_effect_transcript"))
+				{
+					state.effectIndex = intValue(parser);
+				}
+				else
+				{
+					parser.skipChildren();
+				}
+			}
+		}
+		finally
+		{
+			parser.close();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses the best transcripts within the transcript list (the current
+	 * token), and skips all others.
+	 *
+	 * @param parser        JSON parser
+	 * @param state         parse state
+	 * @param indicesKnown  whether the indices are final
+	 * @throws IOException  if the JSON is invalid
+	 */
+	protected static void parseTranscripts(JsonParser parser,
+			StreamState state,
+			boolean indicesKnown) throws IOException
+	{
+		// a later transcript list replaces an earlier one
+		state.bestCanonical = null;
+		state.bestEffect = null;
+
+		if (!indicesKnown &&
+		    (state.canonicalIndex == null || state.effectIndex == null))
+		{
+			state.rereadTranscripts = true;
+			parser.skipChildren();
+			return;
+		}
+
+		if (parser.getCurrentToken() != JsonToken.START_ARRAY)
+		{
+			parser.skipChildren();
+			return;
+		}
+
+		int index = 0;
+
+		while (parser.nextToken() != JsonToken.END_ARRAY)
+		{
+			boolean canonical = state.canonicalIndex != null &&
+			                    state.canonicalIndex == index;
+			boolean effect = state.effectIndex != null &&
+			                 state.effectIndex == index;
+
+			if (canonical || effect)
+			{
+				Transcript transcript = parseTranscript(parser);
+
+				if (canonical)
+				{
+					state.bestCanonical = transcript;
+				}
+
+				if (effect)
+				{
+					state.bestEffect = transcript;
+				}
+			}
+			else
+			{
+				parser.skipChildren();
+			}
+
+			index++;
+		}
+	}
+
+	/**
+	 * Parses a single transcript (the current token).
+	 *
+	 * @param parser        JSON parser
+	 * @return              Transcript instance containing parsed info
+	 * @throws IOException  if the JSON is invalid
+	 */
+	protected static Transcript parseTranscript(JsonParser parser) throws IOException
+	{
+		Transcript transcript = new Transcript();
+
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT)
+		{
+			parser.skipChildren();
+			return transcript;
+		}
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			parser.nextToken();
+
+			if (field.equals("variant_classification"))
+			{
+				transcript.setVariantClassification(textValue(parser));
+			}
+			else if (field.equals("protein_change"))
+			{
+				transcript.setProteinChange(textValue(parser));
+			}
+			else if (field.equals("gene"))
+			{
+				transcript.setGene(textValue(parser));
+			}
+			else if (field.equals("exon_affected"))
+			{
+				transcript.setExonAffected(intValue(parser));
+			}
+			else if (field.equals("refseq_mRNA_id"))
+			{
+				transcript.setRefseqMrnaId(textValue(parser));
+			}
+			else if (field.equals("refseq_prot_id"))
+			{
+				transcript.setRefseqProtId(textValue(parser));
+			}
+			else if (field.equals("uniprot_entry_name"))
+			{
+				transcript.setUniprotName(textValue(parser));
+			}
+			else if (field.equals("uniprot_accession"))
+			{
+				transcript.setUniprotAccession(textValue(parser));
+			}
+			else if (field.equals("codon_change"))
+			{
+				transcript.setCodonChange(textValue(parser));
+			}
+			else if (field.equals("transcript_change"))
+			{
+				transcript.setTranscriptChange(textValue(parser));
+			}
+			else if (field.equals("protein_position_start"))
+			{
+				transcript.setProteinPosStart(intValue(parser));
+			}
+			else if (field.equals("protein_position_end"))
+			{
+				transcript.setProteinPosEnd(intValue(parser));
+			}
+			else
+			{
+				parser.skipChildren();
+			}
+		}
+
+		return transcript;
+	}
+
+	/**
+	 * Returns the text of the current value, same as JsonNode.getTextValue().
+	 *
+	 * @param parser    JSON parser
+	 * @return          text value, or null if the value is not a string
+	 */
+	protected static String textValue(JsonParser parser) throws IOException
+	{
+		if (parser.getCurrentToken() == JsonToken.VALUE_STRING)
+		{
+			return parser.getText();
+		}
+
+		parser.skipChildren();
+		return null;
+	}
+
+	/**
+	 * Returns the int value of the current value, same as
+	 * JsonNode.getIntValue().
+	 *
+	 * @param parser    JSON parser
+	 * @return          int value, or zero if the value is not a number
+	 */
+	protected static int intValue(JsonParser parser) throws IOException
+	{
+		JsonToken token = parser.getCurrentToken();
+
+		if (token == JsonToken.VALUE_NUMBER_INT ||
+		    token == JsonToken.VALUE_NUMBER_FLOAT)
+		{
+			return parser.getIntValue();
+		}
+
+		parser.skipChildren();
+		return 0;
+	}
+
+	/**
+	 * Values collected while streaming a single response.
+	 */
+	protected static class StreamState
+	{
+		boolean error = false;
+		String errorText;
+
+		// null if the index is not (yet) provided
+		Integer canonicalIndex;
+		Integer effectIndex;
+
+		Transcript bestCanonical;
+		Transcript bestEffect;
+
+		boolean rereadTranscripts = false;
+	}
+
 	/**
 	 * Determines the best canonical transcript for the given root node.
 	 *
@@ -23,13 +23,33 @@ import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Base class for Oncotator Service implementations.
  *
  * This class provides a method to connect to Oncotator Web service and
- * retrieve details on a single mutation.
+ * retrieve details on a single mutation, and a method to retrieve multiple
+ * mutations with a bounded number of concurrent requests. All requests are
+ * subject to a rate limit, failed requests are retried with an exponential
+ * backoff, and a circuit breaker stops sending requests for a while when
+ * the service keeps failing.
  *
  * @author Selcuk Onur Sumer
  */
@@ -39,8 +59,41 @@ public abstract class OncotatorService
 		    "http://www.broadinstitute.org/oncotator/mutation/";
 	//protected final static long SLEEP_PERIOD = 0;  // in ms
 
+	public static final int DEFAULT_NUM_FETCHERS = 1;
+	public static final int DEFAULT_MAX_RATE = 0;
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	public static final long DEFAULT_RETRY_DELAY = 1000;
+	public static final int DEFAULT_BREAKER_THRESHOLD = 10;
+	public static final long DEFAULT_BREAKER_COOL_DOWN = 30000;
+
+	// connect & read timeout for a single request (in ms)
+	protected final static int REQUEST_TIMEOUT = 60000;
+
 	protected int errorCount = 0;
 
+	protected String baseUrl = ONCOTATOR_BASE_URL;
+
+	// maximum number of concurrent requests
+	protected int numFetchers = DEFAULT_NUM_FETCHERS;
+
+	// maximum number of retries for a single key
+	protected int maxRetries = DEFAULT_MAX_RETRIES;
+
+	// delay before the first retry (doubled for each following retry)
+	protected long retryDelay = DEFAULT_RETRY_DELAY;
+
+	protected RateLimiter rateLimiter = new RateLimiter(DEFAULT_MAX_RATE);
+
+	protected CircuitBreaker circuitBreaker =
+		new CircuitBreaker(DEFAULT_BREAKER_THRESHOLD, DEFAULT_BREAKER_COOL_DOWN);
+
+	// permits for concurrent requests shared with other services
+	// (only numFetchers limits the concurrent requests if not set)
+	protected Semaphore requestPermits;
+
+	// fetcher threads (created on first use, shut down on close)
+	protected ExecutorService fetcherPool;
+
 	/**
 	 * Retrieves the data from the Oncotator service for the given query key.
 	 *
@@ -49,6 +102,48 @@ public abstract class OncotatorService
 	 */
     public abstract OncotatorRecord getOncotatorRecord(String key) throws OncotatorServiceException;
 
+	/**
+	 * Retrieves the data for all of the given query keys. By default,
+	 * keys are queried one by one. Implementing classes may override
+	 * this method to retrieve multiple keys at once.
+	 *
+	 * @param keys  keys for the service query
+	 * @return      map of keys to oncotator records
+	 */
+	public Map<String, OncotatorRecord> getOncotatorRecords(Collection<String> keys)
+			throws OncotatorServiceException
+	{
+		Map<String, OncotatorRecord> records = new HashMap<String, OncotatorRecord>();
+
+		for (String key : keys)
+		{
+			if (!records.containsKey(key))
+			{
+				records.put(key, this.getOncotatorRecord(key));
+			}
+		}
+
+		return records;
+	}
+
+	/**
+	 * Makes sure that all records retrieved so far are persisted
+	 * (if the service has a persistent cache).
+	 */
+	public void flush()
+	{
+		// nothing to flush by default
+	}
+
+	/**
+	 * Flushes and releases the resources held by this service.
+	 */
+	public void close()
+	{
+		this.flush();
+		this.shutdownFetchers();
+	}
+
 	/**
 	 * Retrieves the record from the oncotator web service.
 	 *
@@ -58,24 +153,266 @@ public abstract class OncotatorService
 	 */
 	protected OncotatorRecord getRecordFromService(String key) throws IOException
 	{
-		BufferedReader in = null;
-		InputStream inputStream = null;
 		OncotatorRecord record;
 
 		try
 		{
-			URL url = new URL(ONCOTATOR_BASE_URL + key);
-			inputStream = url.openStream();
-			in = new BufferedReader(new InputStreamReader(inputStream));
-			String content = WebFileConnect.readFile(in);
+			String content = this.requestWithRetry(key);
 			record = OncotatorParser.parseJSON(key, content);
 		}
+		catch (InterruptedIOException e)
+		{
+			throw e;
+		}
 		catch (IOException e)
 		{
 			System.out.println("IO error: " + e.getMessage());
-			this.errorCount++;
+			this.addError();
 			record = new OncotatorRecord(key);
 		}
+
+		return record;
+	}
+
+	/**
+	 * Retrieves the records for all of the given keys from the oncotator
+	 * web service. Up to numFetchers requests are sent at the same time.
+	 *
+	 * @param keys  oncotator keys
+	 * @return      map of keys to query results (in key order)
+	 * @throws IOException
+	 */
+	protected Map<String, OncotatorRecord> getRecordsFromService(Collection<String> keys)
+			throws IOException
+	{
+		final List<String> uniqueKeys = new ArrayList<String>(new LinkedHashSet<String>(keys));
+		Map<String, OncotatorRecord> records = new LinkedHashMap<String, OncotatorRecord>();
+
+		if (this.numFetchers < 2 ||
+		    uniqueKeys.size() < 2)
+		{
+			for (String key : uniqueKeys)
+			{
+				records.put(key, this.getRecordFromService(key));
+			}
+
+			return records;
+		}
+
+		List<Callable<OncotatorRecord>> tasks = new ArrayList<Callable<OncotatorRecord>>();
+
+		for (final String key : uniqueKeys)
+		{
+			tasks.add(new Callable<OncotatorRecord>() {
+				public OncotatorRecord call() throws IOException
+				{
+					return getRecordFromService(key);
+				}
+			});
+		}
+
+		try
+		{
+			List<Future<OncotatorRecord>> results = this.getFetcherPool().invokeAll(tasks);
+
+			for (int i = 0; i < uniqueKeys.size(); i++)
+			{
+				records.put(uniqueKeys.get(i), results.get(i).get());
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while querying the oncotator service");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+
+			throw new RuntimeException(e.getCause());
+		}
+
+		return records;
+	}
+
+	/**
+	 * Returns the thread pool used to send concurrent requests. The same
+	 * pool is used for all blocks until the service is closed.
+	 *
+	 * @return  pool of numFetchers threads
+	 */
+	protected synchronized ExecutorService getFetcherPool()
+	{
+		if (this.fetcherPool == null)
+		{
+			this.fetcherPool = Executors.newFixedThreadPool(this.numFetchers,
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable, "oncotator-fetcher");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		}
+
+		return this.fetcherPool;
+	}
+
+	/**
+	 * Stops the fetcher threads (if any). A new pool is created if
+	 * the service is used again.
+	 */
+	protected synchronized void shutdownFetchers()
+	{
+		if (this.fetcherPool != null)
+		{
+			this.fetcherPool.shutdownNow();
+			this.fetcherPool = null;
+		}
+	}
+
+	/**
+	 * Requests the given key from the web service. Failed requests are
+	 * retried (with an exponential backoff) unless the failure is caused
+	 * by the request itself (an HTTP 4xx response).
+	 *
+	 * @param key   oncotator key representing a single mutation
+	 * @return      response content
+	 * @throws IOException  if all attempts fail, or the circuit is open
+	 */
+	protected String requestWithRetry(String key) throws IOException
+	{
+		int attempt = 0;
+
+		while (true)
+		{
+			if (!this.circuitBreaker.allowRequest())
+			{
+				throw new IOException("Oncotator service is unavailable, skipping " + key);
+			}
+
+			try
+			{
+				String content;
+
+				if (this.requestPermits != null)
+				{
+					this.requestPermits.acquire();
+				}
+
+				try
+				{
+					this.rateLimiter.acquire();
+					content = this.readFromService(key);
+				}
+				finally
+				{
+					if (this.requestPermits != null)
+					{
+						this.requestPermits.release();
+					}
+				}
+
+				this.circuitBreaker.recordSuccess();
+
+				return content;
+			}
+			catch (InterruptedException e)
+			{
+				this.circuitBreaker.recordFailure();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while querying " + key);
+			}
+			catch (IOException e)
+			{
+				boolean retry = true;
+
+				// the service is up, but does not accept this query
+				if (e instanceof ServiceResponseException &&
+				    !((ServiceResponseException) e).isRetryable())
+				{
+					this.circuitBreaker.recordSuccess();
+					retry = false;
+				}
+				else
+				{
+					this.circuitBreaker.recordFailure();
+				}
+
+				if (!retry ||
+				    attempt >= this.maxRetries)
+				{
+					throw e;
+				}
+
+				this.backoff(key, attempt, e);
+				attempt++;
+			}
+		}
+	}
+
+	/**
+	 * Waits before the next attempt.
+	 *
+	 * @param key       key being queried
+	 * @param attempt   number of the failed attempt (starting from zero)
+	 * @param cause     cause of the failure
+	 * @throws InterruptedIOException   if interrupted while waiting
+	 */
+	protected void backoff(String key, int attempt, IOException cause)
+			throws InterruptedIOException
+	{
+		long delay = this.retryDelay << Math.min(attempt, 16);
+
+		System.out.println("IO error for " + key + ": " + cause.getMessage() +
+		                   ", retrying in " + delay + " ms");
+
+		try
+		{
+			Thread.sleep(delay);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while querying " + key);
+		}
+	}
+
+	/**
+	 * Sends a single request to the web service.
+	 *
+	 * @param key   oncotator key representing a single mutation
+	 * @return      response content
+	 * @throws IOException  if the request fails, or the response is not OK
+	 */
+	protected String readFromService(String key) throws IOException
+	{
+		URL url = new URL(this.baseUrl + key);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(REQUEST_TIMEOUT);
+		connection.setReadTimeout(REQUEST_TIMEOUT);
+
+		InputStream inputStream = null;
+
+		try
+		{
+			int code = connection.getResponseCode();
+
+			if (code != HttpURLConnection.HTTP_OK)
+			{
+				inputStream = connection.getErrorStream();
+				throw new ServiceResponseException(code);
+			}
+
+			inputStream = connection.getInputStream();
+			BufferedReader in = new BufferedReader(new InputStreamReader(inputStream));
+
+			return WebFileConnect.readFile(in);
+		}
 		finally
 		{
 			// Must close input stream!  Otherwise, we maintain too many open connections
@@ -85,14 +422,132 @@ public abstract class OncotatorService
 				inputStream.close();
 			}
 		}
+	}
 
-		return record;
+	protected synchronized void addError()
+	{
+		this.errorCount++;
 	}
 
 	// Getters and Setters
 
-	public int getErrorCount()
+	public synchronized int getErrorCount()
 	{
 		return errorCount;
 	}
+
+	public String getBaseUrl()
+	{
+		return baseUrl;
+	}
+
+	public void setBaseUrl(String baseUrl)
+	{
+		this.baseUrl = baseUrl;
+	}
+
+	public int getNumFetchers()
+	{
+		return numFetchers;
+	}
+
+	public void setNumFetchers(int numFetchers)
+	{
+		if (numFetchers != this.numFetchers)
+		{
+			// the pool is recreated with the new size when needed
+			this.shutdownFetchers();
+		}
+
+		this.numFetchers = numFetchers;
+	}
+
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries)
+	{
+		this.maxRetries = maxRetries;
+	}
+
+	public long getRetryDelay()
+	{
+		return retryDelay;
+	}
+
+	public void setRetryDelay(long retryDelay)
+	{
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * @param maxRate   maximum number of requests per second
+	 *                  (no limit if zero or negative)
+	 */
+	public void setMaxRate(double maxRate)
+	{
+		this.rateLimiter = new RateLimiter(maxRate);
+	}
+
+	public RateLimiter getRateLimiter()
+	{
+		return rateLimiter;
+	}
+
+	public void setRateLimiter(RateLimiter rateLimiter)
+	{
+		this.rateLimiter = rateLimiter;
+	}
+
+	public CircuitBreaker getCircuitBreaker()
+	{
+		return circuitBreaker;
+	}
+
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker)
+	{
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public Semaphore getRequestPermits()
+	{
+		return requestPermits;
+	}
+
+	public void setRequestPermits(Semaphore requestPermits)
+	{
+		this.requestPermits = requestPermits;
+	}
+
+	/**
+	 * Non-OK response of the web service.
+	 */
+	protected static class ServiceResponseException extends IOException
+	{
+		private int code;
+
+		public ServiceResponseException(int code)
+		{
+			super("Server returned HTTP response code: " + code);
+			this.code = code;
+		}
+
+		/**
+		 * @return  false if the request itself is rejected (4xx),
+		 *          true if the service may succeed later
+		 */
+		public boolean isRetryable()
+		{
+			return this.code == 429 ||
+			       this.code < 400 ||
+			       this.code >= 500;
+		}
+
+		public int getCode()
+		{
+			return code;
+		}
+	}
 }
\ No newline at end of file
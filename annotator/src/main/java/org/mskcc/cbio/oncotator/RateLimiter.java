@@ -0,0 +1,77 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+/**
+ * Limits the rate of requests sent to a remote service.
+ *
+ * Requests are spread evenly: each call to acquire() reserves the next
+ * free time slot, and waits until that slot is reached. The limiter is
+ * shared by all threads sending requests to the same service.
+ */
+public class RateLimiter
+{
+	// minimum time between two consecutive requests (in ns)
+	private long interval;
+
+	// time of the next free slot (in ns)
+	private long nextSlot;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxRate   maximum number of requests per second
+	 *                  (no limit if zero or negative)
+	 */
+	public RateLimiter(double maxRate)
+	{
+		this.interval = maxRate > 0 ? (long) (1000000000L / maxRate) : 0;
+		this.nextSlot = System.nanoTime();
+	}
+
+	/**
+	 * Waits until the next request is allowed.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException
+	{
+		if (this.interval == 0)
+		{
+			return;
+		}
+
+		long slot;
+
+		synchronized (this)
+		{
+			long now = System.nanoTime();
+
+			// do not accumulate unused slots while idle
+			slot = Math.max(now, this.nextSlot);
+			this.nextSlot = slot + this.interval;
+		}
+
+		long wait = slot - System.nanoTime();
+
+		if (wait > 0)
+		{
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+	}
+}
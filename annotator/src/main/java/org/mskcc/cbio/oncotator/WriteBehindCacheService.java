@@ -0,0 +1,343 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer in front of another cache service.
+ *
+ * New records are collected in memory, and written to the underlying
+ * cache with a single batch insert when the buffer is full, when the
+ * oldest buffered record is older than the maximum delay, on an explicit
+ * flush, or when the JVM shuts down. Each flush is a single transaction,
+ * so a crash loses at most the records of one buffer (which are simply
+ * retrieved again by the next run).
+ *
+ * Buffered records are visible to the lookups before they are flushed.
+ */
+public class WriteBehindCacheService implements OncotatorCacheService
+{
+	public static final int DEFAULT_MAX_SIZE = 500;
+	public static final long DEFAULT_MAX_DELAY = 5000;
+
+	// single daemon thread shared by all instances to check the buffer age
+	private static ScheduledExecutorService timer;
+
+	private OncotatorCacheService delegate;
+	private int maxSize;
+	private long maxDelay;
+
+	// buffered records by key (in insertion order)
+	private Map<String, OncotatorRecord> buffer;
+
+	// time when the oldest record in the buffer is added
+	private long oldestTime;
+
+	private ScheduledFuture<?> timerTask;
+	private Thread shutdownHook;
+
+	private int numFlushes;
+	private int numFlushed;
+
+	public WriteBehindCacheService(OncotatorCacheService delegate)
+	{
+		this(delegate, DEFAULT_MAX_SIZE, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate  underlying cache service
+	 * @param maxSize   maximum number of buffered records
+	 * @param maxDelay  maximum time (in ms) a record may stay in the buffer
+	 */
+	public WriteBehindCacheService(OncotatorCacheService delegate,
+			int maxSize,
+			long maxDelay)
+	{
+		this.delegate = delegate;
+		this.maxSize = Math.max(1, maxSize);
+		this.maxDelay = maxDelay;
+		this.buffer = new LinkedHashMap<String, OncotatorRecord>();
+	}
+
+	private static synchronized ScheduledExecutorService getTimer()
+	{
+		if (timer == null)
+		{
+			timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "cache-write-behind");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return timer;
+	}
+
+	/**
+	 * Adds the record to the buffer. The buffer is flushed if it is full.
+	 * A record with the same key as a buffered one is ignored.
+	 *
+	 * @param record    oncotator record to add
+	 * @return          number of records added to the buffer
+	 */
+	public synchronized int put(OncotatorRecord record) throws OncotatorCacheException
+	{
+		if (this.buffer.containsKey(record.getKey()))
+		{
+			return 0;
+		}
+
+		if (this.buffer.isEmpty())
+		{
+			this.oldestTime = System.currentTimeMillis();
+			this.scheduleFlush();
+		}
+
+		this.buffer.put(record.getKey(), record);
+
+		if (this.buffer.size() >= this.maxSize)
+		{
+			this.flush();
+		}
+
+		return 1;
+	}
+
+	public int putAll(Collection<OncotatorRecord> records) throws OncotatorCacheException
+	{
+		int count = 0;
+
+		for (OncotatorRecord record : records)
+		{
+			count += this.put(record);
+		}
+
+		return count;
+	}
+
+	public OncotatorRecord get(String key) throws OncotatorCacheException
+	{
+		synchronized (this)
+		{
+			OncotatorRecord record = this.buffer.get(key);
+
+			if (record != null)
+			{
+				return record;
+			}
+		}
+
+		return this.delegate.get(key);
+	}
+
+	public Map<String, OncotatorRecord> getAll(Collection<String> keys) throws OncotatorCacheException
+	{
+		Map<String, OncotatorRecord> records = new HashMap<String, OncotatorRecord>();
+		List<String> remaining = new ArrayList<String>();
+
+		synchronized (this)
+		{
+			for (String key : keys)
+			{
+				OncotatorRecord record = this.buffer.get(key);
+
+				if (record != null)
+				{
+					records.put(key, record);
+				}
+				else
+				{
+					remaining.add(key);
+				}
+			}
+		}
+
+		if (!remaining.isEmpty())
+		{
+			records.putAll(this.delegate.getAll(remaining));
+		}
+
+		return records;
+	}
+
+	public Set<String> getCachedKeys(Collection<String> keys) throws OncotatorCacheException
+	{
+		Set<String> cachedKeys = new HashSet<String>();
+		List<String> remaining = new ArrayList<String>();
+
+		synchronized (this)
+		{
+			for (String key : keys)
+			{
+				if (this.buffer.containsKey(key))
+				{
+					cachedKeys.add(key);
+				}
+				else
+				{
+					remaining.add(key);
+				}
+			}
+		}
+
+		if (!remaining.isEmpty())
+		{
+			cachedKeys.addAll(this.delegate.getCachedKeys(remaining));
+		}
+
+		return cachedKeys;
+	}
+
+	/**
+	 * Writes all buffered records to the underlying cache in a single
+	 * batch. The buffer is cleared even if the batch fails, so that a
+	 * failing database does not make the buffer grow without bounds.
+	 */
+	public synchronized void flush() throws OncotatorCacheException
+	{
+		if (this.buffer.isEmpty())
+		{
+			return;
+		}
+
+		List<OncotatorRecord> records = new ArrayList<OncotatorRecord>(this.buffer.values());
+		this.buffer.clear();
+
+		this.numFlushes++;
+		this.numFlushed += records.size();
+
+		this.delegate.putAll(records);
+		this.delegate.flush();
+	}
+
+	/**
+	 * Flushes the remaining records, and cancels the scheduled flush.
+	 */
+	public synchronized void close() throws OncotatorCacheException
+	{
+		if (this.timerTask != null)
+		{
+			this.timerTask.cancel(false);
+			this.timerTask = null;
+		}
+
+		if (this.shutdownHook != null)
+		{
+			try
+			{
+				Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+			}
+			catch (IllegalStateException e)
+			{
+				// already shutting down, the hook takes care of the flush
+			}
+
+			this.shutdownHook = null;
+		}
+
+		this.flush();
+	}
+
+	/**
+	 * Schedules a flush for when the oldest buffered record expires.
+	 * Nothing is scheduled (or registered as a shutdown hook) until the
+	 * first record is buffered, so an unused instance holds no resources.
+	 */
+	protected void scheduleFlush()
+	{
+		if (this.shutdownHook == null)
+		{
+			this.shutdownHook = new Thread() {
+				public void run()
+				{
+					flushQuietly();
+				}
+			};
+
+			Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+		}
+
+		this.timerTask = getTimer().schedule(new Runnable() {
+			public void run()
+			{
+				flushIfExpired();
+			}
+		}, this.maxDelay, TimeUnit.MILLISECONDS);
+	}
+
+	protected synchronized void flushIfExpired()
+	{
+		if (!this.buffer.isEmpty() &&
+		    System.currentTimeMillis() - this.oldestTime >= this.maxDelay)
+		{
+			this.flushQuietly();
+		}
+	}
+
+	protected void flushQuietly()
+	{
+		try
+		{
+			this.flush();
+		}
+		catch (OncotatorCacheException e)
+		{
+			System.out.println("Cache error: " + e.getMessage());
+		}
+	}
+
+	// Getters
+
+	public synchronized int getBufferSize()
+	{
+		return this.buffer.size();
+	}
+
+	public synchronized int getNumFlushes()
+	{
+		return numFlushes;
+	}
+
+	public synchronized int getNumFlushed()
+	{
+		return numFlushed;
+	}
+
+	public OncotatorCacheService getDelegate()
+	{
+		return delegate;
+	}
+}
@@ -0,0 +1,168 @@
+package org.mskcc.cbio.annotator;
+
+import org.mskcc.cbio.maf.MafHeaderUtil;
+import org.mskcc.cbio.maf.MafRecord;
+import org.mskcc.cbio.maf.MafUtil;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand alone benchmark comparing the record annotation throughput of the
+ * previous implementation (which splits the line once per column) with
+ * the current AnnotatorService implementation (which splits the line once).
+ *
+ * Usage: AnnotatorServiceBenchmark [number of lines] [number of columns]
+ */
+public class AnnotatorServiceBenchmark
+{
+	public static void main(String[] args) throws IOException
+	{
+		int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int numCols = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		File maf = File.createTempFile("synthetic", ".maf");
+		maf.deleteOnExit();
+
+		System.out.println("Generating synthetic MAF: " +
+		                   numLines + " lines, " + numCols + " columns");
+		generateMaf(maf, numLines, numCols);
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setIntermediateMaf(maf.getAbsolutePath());
+
+		AnnotatorService service = new AnnotatorService(config);
+
+		long start = System.currentTimeMillis();
+		long count = runLegacy(maf);
+		report("before (split per column)", count, System.currentTimeMillis() - start);
+
+		start = System.currentTimeMillis();
+		count = runCurrent(maf, service);
+		report("after (split once)", count, System.currentTimeMillis() - start);
+
+		service.cleanUp();
+	}
+
+	private static void report(String name, long count, long time)
+	{
+		double seconds = time / 1000.0;
+
+		System.out.println(name + ": " + count + " records in " + seconds +
+		                   " seconds (" + (long) (count / Math.max(seconds, 0.001)) +
+		                   " records/sec)");
+	}
+
+	private static long runCurrent(File maf, AnnotatorService service) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(maf));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		MafUtil mafUtil = new MafUtil(headerUtil.extractHeader(reader));
+
+		String line;
+		long count = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			MafRecord record = mafUtil.parseRecord(line);
+			count += service.annotateRecordWithCache(record).size() > 0 ? 1 : 0;
+		}
+
+		reader.close();
+
+		return count;
+	}
+
+	/**
+	 * Replicates the previous annotation loop (line split once per column)
+	 * over a map of lines, to have a baseline for comparison.
+	 */
+	private static long runLegacy(File maf) throws IOException
+	{
+		Map<String, String> cache = new HashMap<String, String>();
+		BufferedReader reader = new BufferedReader(new FileReader(maf));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		String headerLine = headerUtil.extractHeader(reader);
+		MafUtil mafUtil = new MafUtil(headerLine);
+
+		String line;
+
+		while ((line = reader.readLine()) != null)
+		{
+			cache.put(MafUtil.generateKey(mafUtil.parseRecord(line)), line);
+		}
+
+		reader.close();
+
+		reader = new BufferedReader(new FileReader(maf));
+		headerUtil.extractHeader(reader);
+
+		long count = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			MafRecord record = mafUtil.parseRecord(line);
+			String cached = cache.get(MafUtil.generateKey(record));
+			Map<String, String> data = new HashMap<String, String>();
+
+			for (String header: headerLine.split("\t"))
+			{
+				String parts[] = cached.split("\t", -1);
+
+				data.put(header, parts[mafUtil.getColumnIndex(header)]);
+			}
+
+			count += data.size() > 0 ? 1 : 0;
+		}
+
+		reader.close();
+
+		return count;
+	}
+
+	private static void generateMaf(File maf, int numLines, int numCols) throws IOException
+	{
+		String[] standardCols = {MafUtil.HUGO_SYMBOL, MafUtil.NCBI_BUILD,
+			MafUtil.CHROMOSOME, MafUtil.START_POSITION, MafUtil.END_POSITION,
+			MafUtil.REFERENCE_ALLELE, MafUtil.TUMOR_SEQ_ALLELE_1,
+			MafUtil.TUMOR_SEQ_ALLELE_2};
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter(maf));
+		StringBuilder builder = new StringBuilder();
+
+		for (String col : standardCols)
+		{
+			builder.append(col).append("\t");
+		}
+
+		for (int i = standardCols.length; i < numCols; i++)
+		{
+			builder.append("Custom_Column_").append(i).append("\t");
+		}
+
+		writer.write(builder.toString().trim());
+		writer.newLine();
+
+		for (int line = 0; line < numLines; line++)
+		{
+			long start = 1000000L + line;
+
+			builder.setLength(0);
+			builder.append("GENE").append(line % 1000).append("\t37\t")
+				.append(line % 22 + 1).append("\t")
+				.append(start).append("\t").append(start).append("\t")
+				.append("A\tA\tG");
+
+			for (int i = standardCols.length; i < numCols; i++)
+			{
+				builder.append("\tvalue_").append(i);
+			}
+
+			writer.write(builder.toString());
+			writer.newLine();
+		}
+
+		writer.close();
+	}
+}
@@ -0,0 +1,115 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests output generation of the annotator (with and without merging
+ * with the original input) by using a stub maf2maf script.
+ */
+public class TestAnnotatorOutput extends TestCase
+{
+	// reverses the order of records, adds an annotation column,
+	// and does not terminate the last line
+	private static final String STUB_MAF2MAF =
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    --input-maf) IN=\"$2\"; shift 2 ;;\n" +
+		"    --output-maf) OUT=\"$2\"; shift 2 ;;\n" +
+		"    --retain-cols) echo \"$2\" > \"$(dirname \"$0\")/retain_cols.txt\"; shift 2 ;;\n" +
+		"    *) shift ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"grep -v '^#' \"$IN\" | head -n 1 | awk '{ print $0 \"\\tAnno\" }' > \"$OUT\"\n" +
+		"grep -v '^#' \"$IN\" | tail -n +2 | awk -F '\\t' '{ print $0 \"\\tA_\" $3 }' | sort -r | " +
+		"awk 'NR > 1 { print prev } { prev = $0 } END { printf \"%s\", prev }' >> \"$OUT\"\n";
+
+	private static final String INPUT =
+		"#version 2.4\n" +
+		"Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\tReference_Allele\t" +
+		"Tumor_Seq_Allele1\tTumor_Seq_Allele2\tCustom_Column\tONCOTATOR_GENE\n" +
+		"GENE1\t1\t100\t100\tA\tA\tG\tc1\to1\n" +
+		"GENE2\t2\t200\t200\tA\tA\tG\tc2\to2\n" +
+		"GENE3\t3\t300\t300\tA\tA\tG\tc3\to3\n";
+
+	public void testGenerateOutput() throws IOException
+	{
+		File workDir = this.prepare("generate");
+		File output = this.annotate(workDir, false);
+
+		List<String> lines = FileUtils.readLines(output);
+
+		// comments of the original input + intermediate file as is
+		assertEquals(5, lines.size());
+		assertEquals("#version 2.4", lines.get(0));
+		assertTrue(lines.get(1).endsWith("\tAnno"));
+		assertTrue(lines.get(2).startsWith("GENE3\t"));
+		assertTrue(FileUtils.readFileToString(output).endsWith("\n"));
+
+		// excluded (oncotator) columns should not be retained
+		String retainCols = FileUtils.readFileToString(
+			new File(workDir, "retain_cols.txt")).trim();
+		assertEquals("hugo_symbol,chromosome,start_position,end_position,reference_allele," +
+		             "tumor_seq_allele1,tumor_seq_allele2,custom_column", retainCols);
+	}
+
+	public void testMergeWithOriginal() throws IOException
+	{
+		File workDir = this.prepare("merge");
+		File output = this.annotate(workDir, true);
+
+		List<String> lines = FileUtils.readLines(output);
+		List<String> header = Arrays.asList(lines.get(1).split("\t"));
+
+		assertEquals(5, lines.size());
+		assertEquals("#version 2.4", lines.get(0));
+		assertTrue(header.contains("Anno"));
+		assertTrue(header.contains("ONCOTATOR_GENE"));
+
+		// original input order with the matching annotation
+		for (int i = 1; i <= 3; i++)
+		{
+			String[] data = lines.get(i + 1).split("\t", -1);
+
+			assertEquals("GENE" + i, data[header.indexOf("Hugo_Symbol")]);
+			assertEquals("A_" + (i * 100), data[header.indexOf("Anno")]);
+			assertEquals("o" + i, data[header.indexOf("ONCOTATOR_GENE")]);
+		}
+	}
+
+	private File prepare(String name) throws IOException
+	{
+		File workDir = new File("target/test-classes/output_" + name).getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		FileUtils.writeStringToFile(new File(workDir, "maf2maf.sh"), STUB_MAF2MAF);
+		FileUtils.writeStringToFile(new File(workDir, "input.maf"), INPUT);
+
+		return workDir;
+	}
+
+	private File annotate(File workDir, boolean merge) throws IOException
+	{
+		File input = new File(workDir, "input.maf");
+		File output = new File(workDir, "output.maf");
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setMode("regular");
+		config.setPerl("/bin/sh");
+		config.setMaf2maf(new File(workDir, "maf2maf.sh").getAbsolutePath());
+		config.setInput(input.getAbsolutePath());
+		config.setOutput(output.getAbsolutePath());
+		config.setWorkspaceRoot(workDir.getAbsolutePath());
+		config.setMergeOriginal(merge);
+
+		assertEquals(0, new Annotator(config).annotateFile(input, output));
+
+		return output;
+	}
+}
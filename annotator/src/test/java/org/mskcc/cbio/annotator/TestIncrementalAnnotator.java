@@ -0,0 +1,198 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests incremental annotation with a file backed annotation store
+ * by using a stub maf2maf script.
+ */
+public class TestIncrementalAnnotator extends TestCase
+{
+	// replaces the gene symbol, shifts the start of insertions (imitating
+	// the normalisation of indels), adds an annotation column, and logs
+	// the number of records processed by each invocation
+	private static final String STUB_MAF2MAF =
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    --input-maf) IN=\"$2\"; shift 2 ;;\n" +
+		"    --output-maf) OUT=\"$2\"; shift 2 ;;\n" +
+		"    *) shift ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"awk -F '\\t' 'BEGIN { OFS = \"\\t\"; h = 0 } /^#/ { next } " +
+		"h == 0 { print $0, \"Anno\"; h = 1; next } " +
+		"{ $1 = \"G_\" $2; if ($5 == \"-\") $3 = $3 + 1; print $0, \"A_\" $2 \"_\" $3 }' " +
+		"\"$IN\" > \"$OUT\"\n" +
+		"grep -v '^#' \"$IN\" | tail -n +2 | wc -l | tr -d ' ' >> \"$(dirname \"$0\")/processed.log\"\n";
+
+	private static final String HEADER =
+		"Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\tReference_Allele\t" +
+		"Tumor_Seq_Allele1\tTumor_Seq_Allele2\tTumor_Sample_Barcode\tt_ref_count\n";
+
+	public void testIncremental() throws IOException
+	{
+		File workDir = new File("target/test-classes/incremental").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		File maf2maf = new File(workDir, "maf2maf.sh");
+		FileUtils.writeStringToFile(maf2maf, STUB_MAF2MAF);
+
+		File store = new File(workDir, "store/annotations.txt");
+
+		// first release: everything is novel
+		File input1 = new File(workDir, "input1.maf");
+		FileUtils.writeStringToFile(input1, HEADER +
+			this.record(1, 100, "S1", 10) +
+			this.record(2, 200, "S1", 11) +
+			this.record(3, 300, "S2", 12) +
+			this.record(4, 400, "S2", 13));
+
+		File output1 = this.annotate(workDir, maf2maf, input1, store, "out1");
+		assertEquals(4, AnnotateTool.calcLineCount(output1.getAbsolutePath()));
+
+		// second release: 2 known and 2 novel variants, in a different order
+		File input2 = new File(workDir, "input2.maf");
+		FileUtils.writeStringToFile(input2, HEADER +
+			this.record(5, 500, "S3", 20) +
+			this.record(2, 200, "S3", 21) +
+			this.record(6, 600, "S4", 22) +
+			this.record(4, 400, "S4", 23));
+
+		File output2 = this.annotate(workDir, maf2maf, input2, store, "out2");
+
+		// same output as annotating the whole file
+		File full = this.annotate(workDir, maf2maf, input2, null, "full");
+		assertTrue(FileUtils.contentEquals(full, output2));
+
+		// only novel records should be processed by maf2maf
+		List<String> processed = FileUtils.readLines(new File(workDir, "processed.log"));
+		assertEquals("4", processed.get(0));
+		assertEquals("2", processed.get(1));
+
+		// full run processes everything
+		assertEquals("4", processed.get(2));
+
+		// third run: all known, maf2maf should not be invoked at all
+		File output3 = this.annotate(workDir, maf2maf, input2, store, "out3");
+		processed = FileUtils.readLines(new File(workDir, "processed.log"));
+		assertEquals(3, processed.size());
+
+		List<String> lines = FileUtils.readLines(output3);
+		List<String> columns = Arrays.asList(lines.get(0).split("\t"));
+		assertEquals(5, lines.size());
+
+		String[] second = lines.get(2).split("\t", -1);
+		assertEquals("G_2", second[columns.indexOf("Hugo_Symbol")]);
+		assertEquals("A_2_200", second[columns.indexOf("Anno")]);
+		assertEquals("S3", second[columns.indexOf("Tumor_Sample_Barcode")]);
+		assertEquals("21", second[columns.indexOf("t_ref_count")]);
+	}
+
+	public void testNormalisedIndel() throws IOException
+	{
+		File workDir = new File("target/test-classes/incremental_indel").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		File maf2maf = new File(workDir, "maf2maf.sh");
+		FileUtils.writeStringToFile(maf2maf, STUB_MAF2MAF);
+
+		File store = new File(workDir, "store/annotations.txt");
+
+		// maf2maf changes the start position of the insertion
+		File input1 = new File(workDir, "input1.maf");
+		FileUtils.writeStringToFile(input1, HEADER +
+			this.insertion(7, 100, "S1", 10) +
+			this.record(1, 100, "S1", 11));
+
+		File output1 = this.annotate(workDir, maf2maf, input1, store, "out1");
+
+		// the shifted insertion is annotated in its first release as well
+		List<String> lines = FileUtils.readLines(output1);
+		List<String> columns = Arrays.asList(lines.get(0).split("\t"));
+		assertEquals(3, lines.size());
+
+		String[] first = lines.get(1).split("\t", -1);
+		assertEquals("G_7", first[columns.indexOf("Hugo_Symbol")]);
+		assertEquals("101", first[columns.indexOf("Start_Position")]);
+		assertEquals("A_7_101", first[columns.indexOf("Anno")]);
+		assertEquals("S1", first[columns.indexOf("Tumor_Sample_Barcode")]);
+		assertEquals("10", first[columns.indexOf("t_ref_count")]);
+
+		// same variants in the next release
+		File input2 = new File(workDir, "input2.maf");
+		FileUtils.writeStringToFile(input2, HEADER +
+			this.record(1, 100, "S2", 20) +
+			this.insertion(7, 100, "S2", 21));
+
+		File output2 = this.annotate(workDir, maf2maf, input2, store, "out2");
+
+		// the insertion is known, maf2maf is not invoked again
+		List<String> processed = FileUtils.readLines(new File(workDir, "processed.log"));
+		assertEquals(1, processed.size());
+
+		lines = FileUtils.readLines(output2);
+		columns = Arrays.asList(lines.get(0).split("\t"));
+		assertEquals(3, lines.size());
+		assertFalse(columns.contains(IncrementalAnnotator.INPUT_KEY_COLUMN));
+
+		String[] second = lines.get(2).split("\t", -1);
+		assertEquals("G_7", second[columns.indexOf("Hugo_Symbol")]);
+		assertEquals("101", second[columns.indexOf("Start_Position")]);
+		assertEquals("A_7_101", second[columns.indexOf("Anno")]);
+		assertEquals("S2", second[columns.indexOf("Tumor_Sample_Barcode")]);
+		assertEquals("21", second[columns.indexOf("t_ref_count")]);
+	}
+
+	private String record(int chr, int pos, String sample, int refCount)
+	{
+		return "GENE" + chr + "\t" + chr + "\t" + pos + "\t" + pos + "\tA\tA\tG\t" +
+		       sample + "\t" + refCount + "\n";
+	}
+
+	private String insertion(int chr, int pos, String sample, int refCount)
+	{
+		return "GENE" + chr + "\t" + chr + "\t" + pos + "\t" + (pos + 1) + "\t-\t-\tT\t" +
+		       sample + "\t" + refCount + "\n";
+	}
+
+	private File annotate(File workDir,
+			File maf2maf,
+			File input,
+			File store,
+			String name) throws IOException
+	{
+		File output = new File(workDir, name + ".maf");
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setMode("regular");
+		config.setPerl("/bin/sh");
+		config.setMaf2maf(maf2maf.getAbsolutePath());
+		config.setInput(input.getAbsolutePath());
+		config.setOutput(output.getAbsolutePath());
+		config.setWorkspaceRoot(new File(workDir, "workspaces").getAbsolutePath());
+
+		Annotator annotator;
+
+		if (store != null)
+		{
+			config.setAnnotationStore(store.getAbsolutePath());
+			annotator = new IncrementalAnnotator(config);
+		}
+		else
+		{
+			annotator = new Annotator(config);
+		}
+
+		assertEquals(0, annotator.annotateFile(input, output));
+
+		return output;
+	}
+}
@@ -0,0 +1,152 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the cluster job scheduler by using a local fake bsub script, which
+ * runs the submitted command locally.
+ */
+public class TestJobScheduler extends TestCase
+{
+	// strips the bsub options and runs the actual command locally
+	private static final String FAKE_BSUB =
+		"#!/bin/sh\n" +
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    -K) shift ;;\n" +
+		"    -sp|-n|-oo|-eo|-R|-q|-J) shift 2 ;;\n" +
+		"    *) break ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"exec \"$@\"\n";
+
+	// copies the input MAF to the output MAF, fails on demand:
+	// always fails for "fail" inputs, fails only once for "flaky" inputs
+	private static final String FAKE_MAF2MAF =
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    --input-maf) IN=\"$2\"; shift 2 ;;\n" +
+		"    --output-maf) OUT=\"$2\"; shift 2 ;;\n" +
+		"    *) shift ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"case \"$IN\" in\n" +
+		"  *fail*) exit 1 ;;\n" +
+		"  *flaky*) if [ ! -f \"$OUT.attempted\" ]; then touch \"$OUT.attempted\"; exit 1; fi ;;\n" +
+		"esac\n" +
+		"sleep 0.2\n" +
+		"cp \"$IN\" \"$OUT\"\n";
+
+	private static final String MAF =
+		"Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\tReference_Allele\tTumor_Seq_Allele1\tTumor_Seq_Allele2\n" +
+		"OR5M8\t11\t56258437\t56258437\tT\tT\tC\n";
+
+	public void testScheduler() throws IOException
+	{
+		File workDir = new File("target/test-classes/scheduler").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		File bsub = new File(workDir, "bsub");
+		FileUtils.writeStringToFile(bsub, FAKE_BSUB);
+		bsub.setExecutable(true);
+
+		File maf2maf = new File(workDir, "maf2maf.sh");
+		FileUtils.writeStringToFile(maf2maf, FAKE_MAF2MAF);
+
+		String[] names = {"ok1", "ok2", "flaky", "ok3", "fail", "ok4"};
+		List<AnnotatorConfig> configs = new ArrayList<AnnotatorConfig>();
+
+		for (String name : names)
+		{
+			File input = new File(workDir, name + ".maf");
+			FileUtils.writeStringToFile(input, MAF);
+
+			String output = workDir.getAbsolutePath() + "/" + name + ".out.maf";
+
+			AnnotatorConfig config = new AnnotatorConfig();
+			config.setMode("cluster");
+			config.setClusterBsub(bsub.getAbsolutePath());
+			config.setPerl("/bin/sh");
+			config.setMaf2maf(maf2maf.getAbsolutePath());
+			config.setInput(input.getAbsolutePath());
+			config.setOutput(output);
+			config.setClusterLog(output + ".bsub.log");
+			config.setIntermediateMaf(output + ".tmp");
+			config.setTmpDir(workDir.getAbsolutePath() + "/" + name + "_files");
+
+			configs.add(config);
+		}
+
+		JobScheduler scheduler = new JobScheduler(2, 1);
+		List<JobResult> results = scheduler.runAll(configs);
+		scheduler.printSummary(results);
+
+		assertEquals(names.length, results.size());
+
+		// never more than the max number of jobs at the same time
+		assertTrue(scheduler.getPeakRunning() > 0);
+		assertTrue(scheduler.getPeakRunning() <= 2);
+
+		for (int i = 0; i < names.length; i++)
+		{
+			JobResult result = results.get(i);
+
+			if (names[i].startsWith("ok"))
+			{
+				assertTrue(result.isSuccess());
+				assertEquals(1, result.getAttempts());
+				assertTrue(new File(result.getOutput()).exists());
+			}
+			else if (names[i].equals("flaky"))
+			{
+				// should succeed after a single resubmission
+				assertTrue(result.isSuccess());
+				assertEquals(2, result.getAttempts());
+			}
+			else
+			{
+				// should give up after the max number of retries
+				assertFalse(result.isSuccess());
+				assertEquals(2, result.getAttempts());
+			}
+		}
+	}
+
+	public void testEscapingError()
+	{
+		List<AnnotatorConfig> configs = new ArrayList<AnnotatorConfig>();
+
+		for (String name : new String[]{"ok", "error"})
+		{
+			AnnotatorConfig config = new AnnotatorConfig();
+			config.setInput(name + ".maf");
+			configs.add(config);
+		}
+
+		// errors are not caught by the job, but the job is still completed
+		JobScheduler scheduler = new JobScheduler(2, 1) {
+			protected int runJob(AnnotatorConfig config)
+			{
+				if (config.getInput().startsWith("error"))
+				{
+					throw new AssertionError("job error");
+				}
+
+				return 0;
+			}
+		};
+
+		List<JobResult> results = scheduler.runAll(configs);
+
+		assertTrue(results.get(0).isSuccess());
+		assertFalse(results.get(1).isSuccess());
+		assertEquals(2, results.get(1).getAttempts());
+	}
+}
@@ -0,0 +1,134 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests parallel annotation of multiple files with isolated workspaces.
+ */
+public class TestMultiFileMaf2Maf extends TestCase
+{
+	// copies the input to the output (slowly, so that the runs overlap),
+	// and leaves a file behind in the tmp dir
+	private static final String STUB_MAF2MAF =
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    --input-maf) IN=\"$2\"; shift 2 ;;\n" +
+		"    --output-maf) OUT=\"$2\"; shift 2 ;;\n" +
+		"    --tmp-dir) TMP=\"$2\"; shift 2 ;;\n" +
+		"    *) shift ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"mkdir -p \"$TMP\"\n" +
+		"cp \"$IN\" \"$TMP/input.vep.maf\"\n" +
+		"sleep 0.3\n" +
+		"cp \"$TMP/input.vep.maf\" \"$OUT\"\n";
+
+	private static final String HEADER =
+		"Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\t" +
+		"Reference_Allele\tTumor_Seq_Allele1\tTumor_Seq_Allele2\n";
+
+	public void testParallelWorkspaces() throws IOException
+	{
+		File workDir = new File("target/test-classes/multi_maf2maf").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+
+		File sourceDir = new File(workDir, "source");
+		File targetDir = new File(workDir, "target");
+		File workspaceRoot = new File(workDir, "workspaces");
+
+		File maf2maf = new File(workDir, "maf2maf.sh");
+		FileUtils.writeStringToFile(maf2maf, STUB_MAF2MAF);
+
+		String[] studies = {"study1", "study2", "study3", "study4"};
+
+		for (int i = 0; i < studies.length; i++)
+		{
+			File maf = new File(sourceDir, studies[i] + "/data_mutations_extended.txt");
+			FileUtils.writeStringToFile(maf, HEADER +
+				"GENE" + i + "\t1\t" + (1000 + i) + "\t" + (1000 + i) + "\tA\tA\tG\n");
+		}
+
+		// default intermediate file and tmp dir, shared by all files
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setPerl("/bin/sh");
+		config.setMaf2maf(maf2maf.getAbsolutePath());
+		config.setWorkspaceRoot(workspaceRoot.getAbsolutePath());
+		config.setNumWorkers(studies.length);
+
+		new MultiFileMaf2Maf(config).annotate(sourceDir.getAbsolutePath(),
+			targetDir.getAbsolutePath());
+
+		// each output should contain its own record only
+		for (int i = 0; i < studies.length; i++)
+		{
+			File output = new File(targetDir, studies[i] + "/data_mutations_extended.txt");
+			String content = FileUtils.readFileToString(output);
+
+			assertTrue(content.contains("GENE" + i + "\t"));
+			assertEquals(1, AnnotateTool.calcLineCount(output.getAbsolutePath()));
+		}
+
+		// all workspaces should be reclaimed
+		assertEquals(0, workspaceRoot.list().length);
+
+		// shared configuration should not be modified
+		assertEquals(AnnotatorConfig.DEFAULT_INTERMEDIATE_MAF, config.getIntermediateMaf());
+		assertEquals(AnnotatorConfig.DEFAULT_INTERMEDIATE_DIR, config.getTmpDir());
+	}
+
+	public void testSharedTmpDir() throws IOException
+	{
+		File workDir = new File("target/test-classes/multi_maf2maf_tmp").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+
+		File sourceDir = new File(workDir, "source");
+		File targetDir = new File(workDir, "target");
+		File tmpDir = new File(workDir, "tmp");
+
+		File maf2maf = new File(workDir, "maf2maf.sh");
+		FileUtils.writeStringToFile(maf2maf, STUB_MAF2MAF);
+
+		// not created by the annotator, should be kept
+		File other = new File(tmpDir, "other.txt");
+		FileUtils.writeStringToFile(other, "other");
+
+		String[] studies = {"study1", "study2", "study3", "study4"};
+
+		for (int i = 0; i < studies.length; i++)
+		{
+			File maf = new File(sourceDir, studies[i] + "/data_mutations_extended.txt");
+			FileUtils.writeStringToFile(maf, HEADER +
+				"GENE" + i + "\t1\t" + (1000 + i) + "\t" + (1000 + i) + "\tA\tA\tG\n");
+		}
+
+		// explicit tmp dir, shared by all files
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setPerl("/bin/sh");
+		config.setMaf2maf(maf2maf.getAbsolutePath());
+		config.setWorkspaceRoot(new File(workDir, "workspaces").getAbsolutePath());
+		config.setTmpDir(tmpDir.getAbsolutePath());
+		config.setNumWorkers(studies.length);
+
+		new MultiFileMaf2Maf(config).annotate(sourceDir.getAbsolutePath(),
+			targetDir.getAbsolutePath());
+
+		// each run should use its own subdirectory of the tmp dir
+		for (int i = 0; i < studies.length; i++)
+		{
+			File output = new File(targetDir, studies[i] + "/data_mutations_extended.txt");
+			String content = FileUtils.readFileToString(output);
+
+			assertTrue(content.contains("GENE" + i + "\t"));
+			assertEquals(1, AnnotateTool.calcLineCount(output.getAbsolutePath()));
+		}
+
+		// only the subdirectories of the runs should be deleted
+		assertEquals(1, tmpDir.list().length);
+		assertTrue(other.exists());
+		assertEquals(tmpDir.getAbsolutePath(), config.getTmpDir());
+	}
+}
@@ -0,0 +1,76 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests that parallel sanitization and validation of multiple files
+ * produce the same outputs and failures as the sequential mode.
+ */
+public class TestMultiFileSanitizer extends TestCase
+{
+	private static final String[] STUDIES = {"study1", "study2", "study3", "study4", "study5"};
+
+	public void testParallelSanitizer() throws IOException
+	{
+		File workDir = new File("target/test-classes/multi_sanitizer").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+
+		File sourceDir = new File(workDir, "source");
+		File sequentialDir = new File(workDir, "sequential");
+		File parallelDir = new File(workDir, "parallel");
+
+		File input = new File("target/test-classes/maf_to_sanitize.txt");
+
+		for (String study : STUDIES)
+		{
+			FileUtils.copyFile(input, new File(sourceDir, study + "/data_mutations_extended.txt"));
+		}
+
+		// an empty file cannot be sanitized
+		File bad = new File(sourceDir, "bad/data_mutations_extended.txt");
+		FileUtils.writeStringToFile(bad, "");
+
+		MultiFileSanitizer sequential = new MultiFileSanitizer();
+		sequential.annotate(sourceDir.getAbsolutePath(), sequentialDir.getAbsolutePath());
+
+		MultiFileSanitizer parallel = new MultiFileSanitizer(4);
+		parallel.annotate(sourceDir.getAbsolutePath(), parallelDir.getAbsolutePath());
+
+		// failures are reported instead of aborting
+		assertEquals(1, sequential.getFailures().size());
+		assertEquals(sequential.getFailures().keySet(), parallel.getFailures().keySet());
+		assertTrue(parallel.getFailures().containsKey(bad));
+
+		for (String study : STUDIES)
+		{
+			String[] names = {"data_mutations_extended.txt", "data_mutations_extended_misc.txt"};
+
+			for (String name : names)
+			{
+				File expected = new File(sequentialDir, study + "/" + name);
+				File actual = new File(parallelDir, study + "/" + name);
+
+				assertTrue(expected.exists());
+				assertTrue(FileUtils.contentEquals(expected, actual));
+			}
+		}
+
+		// validate sanitized outputs against the original inputs
+		MultiFileValidator sequentialValidator = new MultiFileValidator();
+		sequentialValidator.annotate(sourceDir.getAbsolutePath(), sequentialDir.getAbsolutePath());
+
+		MultiFileValidator parallelValidator = new MultiFileValidator(4);
+		parallelValidator.annotate(sourceDir.getAbsolutePath(), sequentialDir.getAbsolutePath());
+
+		Map<File, String> failures = parallelValidator.getFailures();
+
+		// records with critical errors are moved to the _misc files
+		assertEquals(STUDIES.length, failures.size());
+		assertEquals(sequentialValidator.getFailures(), failures);
+	}
+}
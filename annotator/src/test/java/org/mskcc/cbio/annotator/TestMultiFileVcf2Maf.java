@@ -0,0 +1,108 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests cluster mode vcf2maf execution by using a local fake bsub script,
+ * which runs the submitted command locally.
+ */
+public class TestMultiFileVcf2Maf extends TestCase
+{
+	// records each submission, strips the bsub options
+	// and runs the actual command locally
+	private static final String FAKE_BSUB =
+		"#!/bin/sh\n" +
+		"echo submitted >> \"$(dirname \"$0\")/submissions.log\"\n" +
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    -K) shift ;;\n" +
+		"    -sp|-n|-oo|-eo|-R|-q|-J) shift 2 ;;\n" +
+		"    *) break ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"exec \"$@\"\n";
+
+	// converts VCF records into minimal MAF records, fails for "bad" inputs
+	private static final String FAKE_VCF2MAF =
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    --input-vcf) IN=\"$2\"; shift 2 ;;\n" +
+		"    --output-maf) OUT=\"$2\"; shift 2 ;;\n" +
+		"    *) shift ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"case \"$IN\" in\n" +
+		"  *bad*) exit 3 ;;\n" +
+		"esac\n" +
+		"echo \"Chromosome\tStart_Position\tReference_Allele\tTumor_Seq_Allele2\" > \"$OUT\"\n" +
+		"grep -v '^#' \"$IN\" | awk -F '\\t' '{ print $1 \"\\t\" $2 \"\\t\" $4 \"\\t\" $5 }' >> \"$OUT\"\n";
+
+	private static final String VCF =
+		"##fileformat=VCFv4.1\n" +
+		"#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n" +
+		"11\t56258437\t.\tT\tC\t.\tPASS\t.\n" +
+		"17\t7577120\t.\tC\tT\t.\tPASS\t.\n";
+
+	public void testClusterVcf2Maf() throws IOException
+	{
+		File workDir = new File("target/test-classes/vcf2maf").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+
+		File sourceDir = new File(workDir, "source");
+		File targetDir = new File(workDir, "target");
+		File binDir = new File(workDir, "bin");
+
+		File bsub = new File(binDir, "bsub");
+		FileUtils.writeStringToFile(bsub, FAKE_BSUB);
+		bsub.setExecutable(true);
+
+		File vcf2maf = new File(binDir, "vcf2maf.sh");
+		FileUtils.writeStringToFile(vcf2maf, FAKE_VCF2MAF);
+
+		String[] names = {"study1/sample1", "study1/sample2", "study2/sample3", "study2/bad"};
+
+		for (String name : names)
+		{
+			FileUtils.writeStringToFile(new File(sourceDir, name + ".vcf"), VCF);
+		}
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setClusterBsub(bsub.getAbsolutePath());
+		config.setPerl("/bin/sh");
+		config.setVcf2maf(vcf2maf.getAbsolutePath());
+		config.setWorkspaceRoot(new File(workDir, "workspaces").getAbsolutePath());
+		config.setClusterMaxJobs(2);
+		config.setClusterMaxRetries(0);
+
+		new MultiFileVcf2Maf(config).annotate(sourceDir.getAbsolutePath(),
+			targetDir.getAbsolutePath());
+
+		// every file should be submitted through bsub
+		List<String> submissions = FileUtils.readLines(new File(binDir, "submissions.log"));
+		assertEquals(names.length, submissions.size());
+
+		for (String name : names)
+		{
+			File output = new File(targetDir, name + ".maf");
+
+			if (name.endsWith("bad"))
+			{
+				assertFalse(output.exists());
+			}
+			else
+			{
+				assertEquals(2, AnnotateTool.calcLineCount(output.getAbsolutePath()));
+			}
+		}
+
+		// copy script should refer to the MAF outputs
+		String script = FileUtils.readFileToString(new File(targetDir, "copy.sh"));
+		assertTrue(script.contains("sample1.maf"));
+		assertFalse(script.contains(".vcf"));
+	}
+}
@@ -0,0 +1,144 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Tests throttling and formatting of progress reports.
+ */
+public class TestProgressReporter extends TestCase
+{
+	public void testThrottling()
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		// nothing is printed before the interval passes
+		ProgressReporter reporter = new ProgressReporter("Test", 1000, 60000);
+		reporter.setOut(new PrintStream(buffer));
+
+		for (int i = 0; i < 1000; i++)
+		{
+			reporter.increment();
+		}
+
+		assertEquals(0, buffer.size());
+		assertEquals(1000, reporter.getCount());
+
+		// the final line is always printed
+		reporter.finish("done");
+
+		String[] lines = buffer.toString().trim().split("\n");
+
+		assertEquals(1, lines.length);
+		assertTrue(lines[0].startsWith("Test: 1000/1000 (100.0%), "));
+		assertTrue(lines[0].contains(" records/sec, ETA "));
+		assertTrue(lines[0].endsWith(" (done)"));
+	}
+
+	public void testEveryUpdate() throws InterruptedException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		ProgressReporter reporter = new ProgressReporter("Test", 0, 0);
+		reporter.setOut(new PrintStream(buffer));
+		reporter.setUnit("keys");
+
+		Thread.sleep(5);
+		reporter.add(10);
+		reporter.add(20);
+
+		String[] lines = buffer.toString().trim().split("\n");
+
+		// no percentage or ETA if the total is unknown
+		assertEquals(2, lines.length);
+		assertTrue(lines[1].startsWith("Test: 30, "));
+		assertTrue(lines[1].endsWith(" keys/sec"));
+	}
+
+	public void testResume()
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		ProgressReporter reporter = new ProgressReporter("Test", 200, 60000);
+		reporter.setOut(new PrintStream(buffer));
+		reporter.resume(50);
+		reporter.add(50);
+		reporter.finish();
+
+		assertEquals(100, reporter.getCount());
+		assertTrue(buffer.toString().startsWith("Test: 100/200 (50.0%), "));
+	}
+
+	public void testFormatTime()
+	{
+		assertEquals("0:00:59", ProgressReporter.formatTime(59));
+		assertEquals("1:01:01", ProgressReporter.formatTime(3661));
+		assertEquals("27:46:40", ProgressReporter.formatTime(100000));
+	}
+
+	public void testInputSize()
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		// the total number of records is unknown, but the input size is not
+		ProgressReporter reporter = new ProgressReporter("Test", 0, 60000);
+		reporter.setOut(new PrintStream(buffer));
+		reporter.setTotalBytes(40);
+
+		reporter.increment("A\t1\t2\t3\t4");
+		reporter.increment("B\t1\t2\t3\t4");
+		reporter.report(System.currentTimeMillis(), null);
+
+		assertEquals(2, reporter.getCount());
+		assertTrue(buffer.toString().startsWith("Test: 2 (50.0%), "));
+		assertTrue(buffer.toString().contains(" records/sec, ETA "));
+
+		// the whole input is read when finished
+		buffer.reset();
+		reporter.finish();
+
+		assertTrue(buffer.toString().startsWith("Test: 2 (100.0%), "));
+	}
+
+	public void testInputBytes() throws IOException
+	{
+		File workDir = new File("target/test-classes/progress_bytes").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		// non-ASCII values and Windows line terminators
+		String header = "Hugo_Symbol\tProtein_Change";
+		String first = "G\u00c9NE1\tp.\u20ac1";
+		String second = "GENE2\tp.\ud83d\ude001";
+
+		File input = new File(workDir, "input.maf");
+		FileUtils.writeStringToFile(input,
+			"#version 2.4\r\n" + header + "\r\n" + first + "\r\n\r\n" + second + "\r\n",
+			"UTF-8");
+
+		assertEquals(2, ProgressReporter.lineTerminatorBytes(input));
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		ProgressReporter reporter = new ProgressReporter("Test", 0, 60000);
+		reporter.setOut(new PrintStream(buffer));
+		reporter.setInput(input);
+
+		reporter.skip(Arrays.asList("#version 2.4"));
+		reporter.skip(header);
+		reporter.increment(first);
+		reporter.skip("");
+		reporter.increment(second);
+
+		// all bytes of the input are counted before finishing
+		reporter.report(System.currentTimeMillis(), null);
+
+		assertEquals(2, reporter.getCount());
+		assertTrue(buffer.toString().startsWith("Test: 2 (100.0%), "));
+	}
+}
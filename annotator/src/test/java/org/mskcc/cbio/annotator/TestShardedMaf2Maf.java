@@ -0,0 +1,89 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests sharded maf2maf execution by using a stub maf2maf script.
+ */
+public class TestShardedMaf2Maf extends TestCase
+{
+	// adds a comment line and a new column derived from the record itself
+	private static final String STUB_MAF2MAF =
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    --input-maf) IN=\"$2\"; shift 2 ;;\n" +
+		"    --output-maf) OUT=\"$2\"; shift 2 ;;\n" +
+		"    --tmp-dir) TMP=\"$2\"; shift 2 ;;\n" +
+		"    *) shift ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"mkdir -p \"$TMP\"\n" +
+		"echo \"#version 2.4\" > \"$OUT\"\n" +
+		"awk -F '\\t' 'BEGIN { h = 0 } /^#/ { next } " +
+		"h == 0 { print $0 \"\\tStub_Annotation\"; h = 1; next } " +
+		"{ print $0 \"\\t\" $1 \"_\" $3 }' \"$IN\" >> \"$OUT\"\n";
+
+	private static final int NUM_RECORDS = 103;
+
+	public void testSharding() throws IOException
+	{
+		File workDir = new File("target/test-classes/sharding").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		File maf2maf = new File(workDir, "maf2maf.sh");
+		FileUtils.writeStringToFile(maf2maf, STUB_MAF2MAF);
+
+		StringBuilder builder = new StringBuilder();
+		builder.append("#version 2.4\n");
+		builder.append("Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\t" +
+		               "Reference_Allele\tTumor_Seq_Allele1\tTumor_Seq_Allele2\n");
+
+		for (int i = 0; i < NUM_RECORDS; i++)
+		{
+			builder.append("GENE").append(i).append("\t").append(i % 22 + 1).append("\t")
+				.append(1000 + i).append("\t").append(1000 + i).append("\tA\tA\tG\n");
+		}
+
+		File input = new File(workDir, "input.maf");
+		FileUtils.writeStringToFile(input, builder.toString());
+
+		File unsharded = this.annotate(workDir, maf2maf, input, "unsharded", 1);
+		File sharded = this.annotate(workDir, maf2maf, input, "sharded", 4);
+
+		assertEquals(NUM_RECORDS, AnnotateTool.calcLineCount(sharded.getAbsolutePath()));
+		assertTrue(FileUtils.contentEquals(unsharded, sharded));
+
+		// shard files should be cleaned up
+		assertFalse(new File(workDir, "sharded.tmp.maf_shards").exists());
+	}
+
+	private File annotate(File workDir,
+			File maf2maf,
+			File input,
+			String name,
+			int numShards) throws IOException
+	{
+		File output = new File(workDir, name + ".out.maf");
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setMode("regular");
+		config.setPerl("/bin/sh");
+		config.setMaf2maf(maf2maf.getAbsolutePath());
+		config.setInput(input.getAbsolutePath());
+		config.setOutput(output.getAbsolutePath());
+		config.setIntermediateMaf(new File(workDir, name + ".tmp.maf").getAbsolutePath());
+		config.setTmpDir(new File(workDir, name + "_files").getAbsolutePath());
+		config.setNumShards(numShards);
+		config.setShardWorkers(2);
+
+		Annotator annotator = new Annotator(config);
+		assertEquals(0, annotator.annotateFile(input, output));
+
+		return output;
+	}
+}
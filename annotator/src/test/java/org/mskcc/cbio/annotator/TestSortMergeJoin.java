@@ -0,0 +1,132 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.mskcc.cbio.maf.MafHeaderUtil;
+import org.mskcc.cbio.maf.MafUtil;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests the external sort-merge join against the in-memory map join.
+ */
+public class TestSortMergeJoin extends TestCase
+{
+	private static final int NUM_RECORDS = 2000;
+
+	private static final String HEADER =
+		"Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\tReference_Allele\tTumor_Seq_Allele1\tTumor_Seq_Allele2";
+
+	public void testJoin() throws IOException
+	{
+		File workDir = new File("target/test-classes/join").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		File input = new File(workDir, "input.maf");
+		File annotated = new File(workDir, "annotated.maf");
+		this.generateFiles(input, annotated);
+
+		// small memory limit to force spilling to disk
+		SortMergeJoin join = new SortMergeJoin(4096, workDir);
+		File joined = new File(workDir, "joined.maf");
+		join.join(input, annotated, joined);
+
+		assertEquals(NUM_RECORDS, join.getNumRecords());
+		// every 100th record is not annotated
+		assertEquals(NUM_RECORDS / 100, join.getNumUnmatched());
+		assertTrue(join.getNumRuns() > 1);
+
+		// no run files should be left behind
+		assertEquals(3, workDir.list().length);
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setIntermediateMaf(annotated.getAbsolutePath());
+		config.setTmpDir(workDir.getAbsolutePath());
+
+		AnnotatorService mapService = new AnnotatorService(config, input);
+		assertFalse(mapService.isExternalJoin());
+
+		config.setJoinThreshold(0);
+		config.setJoinMemory(4096);
+
+		AnnotatorService joinService = new AnnotatorService(config, input);
+		assertTrue(joinService.isExternalJoin());
+
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		MafUtil mafUtil = new MafUtil(new MafHeaderUtil().extractHeader(reader));
+		String line;
+		int count = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.trim().length() == 0)
+			{
+				continue;
+			}
+
+			Map<String, String> expected = mapService.annotate(mafUtil.parseRecord(line));
+			Map<String, String> actual = joinService.annotate(mafUtil.parseRecord(line));
+
+			assertEquals(expected, actual);
+			count++;
+		}
+
+		reader.close();
+		mapService.cleanUp();
+		joinService.cleanUp();
+
+		assertEquals(NUM_RECORDS, count);
+	}
+
+	private void generateFiles(File input, File annotated) throws IOException
+	{
+		List<String> annoLines = new ArrayList<String>();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(input));
+
+		writer.write("#version 2.4\n");
+		writer.write(HEADER + "\n");
+
+		for (int i = 0; i < NUM_RECORDS; i++)
+		{
+			// some duplicate variants in the input
+			int base = i % 50 == 49 ? i - 1 : i;
+			int pos = 1000 + base;
+			String data = "GENE" + i + "\t" + (base % 22 + 1) + "\t" + pos + "\t" + pos + "\tA\tA\tG";
+
+			writer.write(data + "\n");
+
+			// an empty line in the middle
+			if (i == NUM_RECORDS / 2)
+			{
+				writer.write("\n");
+			}
+
+			// duplicate input variants are annotated only once,
+			// and some variants are not annotated at all
+			if (i % 50 != 49 && i % 100 != 0)
+			{
+				annoLines.add(data + "\tANNO_" + i);
+			}
+		}
+
+		writer.close();
+
+		// annotated twice, the last one should win
+		annoLines.add("GENE1\t2\t1001\t1001\tA\tA\tG\tANNO_LAST");
+
+		// annotator does not preserve the order
+		Collections.shuffle(annoLines.subList(0, annoLines.size() - 1), new Random(42));
+
+		writer = new BufferedWriter(new FileWriter(annotated));
+		writer.write(HEADER + "\tAnno_Column\n");
+
+		for (String annoLine : annoLines)
+		{
+			writer.write(annoLine + "\n");
+		}
+
+		writer.close();
+	}
+}
@@ -0,0 +1,98 @@
+package org.mskcc.cbio.annotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests the per stage timing report, both on its own and as collected
+ * by an annotator run with a stub maf2maf script.
+ */
+public class TestTimingReport extends TestCase
+{
+	// copies the input as is (without comments) and adds an annotation column
+	private static final String STUB_MAF2MAF =
+		"while [ $# -gt 0 ]; do\n" +
+		"  case \"$1\" in\n" +
+		"    --input-maf) IN=\"$2\"; shift 2 ;;\n" +
+		"    --output-maf) OUT=\"$2\"; shift 2 ;;\n" +
+		"    *) shift ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"grep -v '^#' \"$IN\" | awk 'NR == 1 { print $0 \"\\tAnno\"; next } { print $0 \"\\tA\" }' > \"$OUT\"\n";
+
+	private static final String INPUT =
+		"#version 2.4\n" +
+		"Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\tReference_Allele\t" +
+		"Tumor_Seq_Allele1\tTumor_Seq_Allele2\n" +
+		"GENE1\t1\t100\t100\tA\tA\tG\n" +
+		"GENE2\t2\t200\t200\tA\tA\tG\n" +
+		"GENE3\t3\t300\t300\tA\tA\tG\n";
+
+	public void testJson()
+	{
+		TimingReport report = new TimingReport();
+
+		report.add("stage \"1\"", 10, 100, 1000);
+		report.add("stage 2", 5, 0, 0);
+		report.add("stage \"1\"", 20, 50, 500);
+
+		assertEquals(2, report.getCalls("stage \"1\""));
+		assertEquals(30, report.getWallTime("stage \"1\""));
+		assertEquals(150, report.getRecords("stage \"1\""));
+		assertEquals(1500, report.getBytes("stage \"1\""));
+		assertEquals(0, report.getCalls("unknown"));
+
+		String json = report.toJson();
+
+		assertTrue(json.startsWith("{\"elapsed_time_ms\":"));
+		assertTrue(json.contains("{\"name\":\"stage \\\"1\\\"\",\"calls\":2," +
+		                         "\"wall_time_ms\":30,\"records\":150,\"bytes\":1500}"));
+
+		// stages are reported in the order of first occurrence
+		assertTrue(json.indexOf("stage \\\"1\\\"") < json.indexOf("stage 2"));
+	}
+
+	public void testAnnotatorStages() throws IOException
+	{
+		File workDir = new File("target/test-classes/timing").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		FileUtils.writeStringToFile(new File(workDir, "maf2maf.sh"), STUB_MAF2MAF);
+		File input = new File(workDir, "input.maf");
+		File output = new File(workDir, "output.maf");
+		File reportFile = new File(workDir, "timing.json");
+		FileUtils.writeStringToFile(input, INPUT);
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setMode("regular");
+		config.setPerl("/bin/sh");
+		config.setMaf2maf(new File(workDir, "maf2maf.sh").getAbsolutePath());
+		config.setInput(input.getAbsolutePath());
+		config.setOutput(output.getAbsolutePath());
+		config.setWorkspaceRoot(workDir.getAbsolutePath());
+
+		assertEquals(0, AnnotateTool.driver(config));
+
+		// copies of the config share the same report
+		TimingReport report = config.copy().getTimingReport();
+
+		assertEquals(1, report.getCalls("maf2maf"));
+		assertEquals(input.length(), report.getBytes("maf2maf"));
+		assertEquals(3, report.getRecords("maf2maf"));
+		assertEquals(3, report.getRecords("cleanup"));
+		assertEquals(3, report.getRecords("generate_output"));
+		assertEquals(output.length(), report.getBytes("generate_output"));
+		assertEquals(1, report.getCalls("annotate_file"));
+		assertEquals(3, report.getRecords("annotate_file"));
+
+		report.write(reportFile);
+		String json = FileUtils.readFileToString(reportFile);
+
+		assertTrue(json.contains("\"name\":\"maf2maf\""));
+		assertTrue(json.contains("\"name\":\"generate_output\""));
+	}
+}
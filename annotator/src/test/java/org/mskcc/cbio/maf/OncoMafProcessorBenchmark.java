@@ -0,0 +1,219 @@
+package org.mskcc.cbio.maf;
+
+import org.mskcc.cbio.oncotator.OncotatorRecord;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Stand alone benchmark comparing the oncotator data update throughput of
+ * the previous implementation (which parses the new header line for every
+ * record) with the current OncoMafProcessor implementation (which resolves
+ * the oncotator column indices once per header list). Both runs write
+ * their output to a file, and the outputs are compared at the end.
+ *
+ * Usage: OncoMafProcessorBenchmark [number of lines] [number of columns]
+ */
+public class OncoMafProcessorBenchmark
+{
+	public static void main(String[] args) throws IOException
+	{
+		int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int numCols = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		File maf = File.createTempFile("synthetic", ".maf");
+		File before = File.createTempFile("before", ".maf");
+		File after = File.createTempFile("after", ".maf");
+		maf.deleteOnExit();
+		before.deleteOnExit();
+		after.deleteOnExit();
+
+		System.out.println("Generating synthetic MAF: " +
+		                   numLines + " lines, " + numCols + " columns");
+		generateMaf(maf, numLines, numCols);
+
+		OncotatorRecord[] records = createRecords(100);
+
+		long start = System.currentTimeMillis();
+		long count = run(maf, before, records, true);
+		report("before (header parsed per record)", count, System.currentTimeMillis() - start);
+
+		start = System.currentTimeMillis();
+		count = run(maf, after, records, false);
+		report("after (indices resolved once)", count, System.currentTimeMillis() - start);
+
+		if (!contentEquals(before, after))
+		{
+			throw new IllegalStateException("outputs differ");
+		}
+
+		System.out.println("outputs are identical");
+	}
+
+	private static void report(String name, long count, long time)
+	{
+		double seconds = time / 1000.0;
+
+		System.out.println(name + ": " + count + " records in " + seconds +
+		                   " seconds (" + (long) (count / Math.max(seconds, 0.001)) +
+		                   " records/sec)");
+	}
+
+	private static long run(File maf,
+			File output,
+			OncotatorRecord[] records,
+			boolean legacy) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(maf));
+		BufferedWriter writer = new BufferedWriter(new FileWriter(output));
+		String headerLine = reader.readLine();
+
+		OncoMafProcessor processor = legacy ?
+			new LegacyOncoMafProcessor(headerLine) :
+			new OncoMafProcessor(headerLine);
+
+		FileIOUtil.writeLine(writer, processor.newHeaderList());
+
+		String line;
+		long count = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			List<String> data = processor.newDataList(line);
+			processor.updateOncotatorData(data, records[(int) (count % records.length)]);
+			FileIOUtil.writeLine(writer, data);
+			count++;
+		}
+
+		reader.close();
+		writer.close();
+
+		return count;
+	}
+
+	/**
+	 * Replicates the previous behaviour, which created a new MafUtil
+	 * for the new header line every time a record is updated.
+	 */
+	private static class LegacyOncoMafProcessor extends OncoMafProcessor
+	{
+		public LegacyOncoMafProcessor(String headerLine)
+		{
+			super(headerLine);
+		}
+
+		protected int[] getOncoIndices()
+		{
+			MafUtil mafUtil = new MafUtil(this.newHeaderLineAsString());
+
+			if (mafUtil.getHeaderCount() != this.newHeaders.size())
+			{
+				throw new IllegalStateException("invalid header line");
+			}
+
+			return super.getOncoIndices();
+		}
+	}
+
+	private static OncotatorRecord[] createRecords(int numRecords)
+	{
+		OncotatorRecord[] records = new OncotatorRecord[numRecords];
+
+		for (int i = 0; i < numRecords; i++)
+		{
+			OncotatorRecord record = new OncotatorRecord("KEY_" + i);
+
+			record.setCosmicOverlappingMutations("p.V600E(" + i + ")");
+			record.setDbSnpRs("rs" + i);
+			record.setDbSnpValStatus(i % 2 == 0 ? "byFrequency" : null);
+
+			record.getBestCanonicalTranscript().setGene("GENE" + i);
+			record.getBestCanonicalTranscript().setProteinChange("p.A" + i + "G");
+			record.getBestCanonicalTranscript().setVariantClassification("Missense_Mutation");
+			record.getBestCanonicalTranscript().setExonAffected(i % 20);
+			record.getBestCanonicalTranscript().setProteinPosStart(i);
+			record.getBestCanonicalTranscript().setProteinPosEnd(i + 1);
+
+			record.getBestEffectTranscript().setGene("GENE" + i);
+			record.getBestEffectTranscript().setProteinChange("p.A" + i + "T");
+			record.getBestEffectTranscript().setVariantClassification("Nonsense_Mutation");
+			record.getBestEffectTranscript().setRefseqMrnaId("NM_" + i);
+
+			records[i] = record;
+		}
+
+		return records;
+	}
+
+	private static boolean contentEquals(File first, File second) throws IOException
+	{
+		BufferedReader firstReader = new BufferedReader(new FileReader(first));
+		BufferedReader secondReader = new BufferedReader(new FileReader(second));
+
+		String firstLine;
+		String secondLine;
+		boolean equal = true;
+
+		do
+		{
+			firstLine = firstReader.readLine();
+			secondLine = secondReader.readLine();
+
+			if (firstLine == null ? secondLine != null : !firstLine.equals(secondLine))
+			{
+				equal = false;
+				break;
+			}
+		} while (firstLine != null);
+
+		firstReader.close();
+		secondReader.close();
+
+		return equal;
+	}
+
+	private static void generateMaf(File maf, int numLines, int numCols) throws IOException
+	{
+		String[] standardCols = {MafUtil.HUGO_SYMBOL, MafUtil.NCBI_BUILD,
+			MafUtil.CHROMOSOME, MafUtil.START_POSITION, MafUtil.END_POSITION,
+			MafUtil.REFERENCE_ALLELE, MafUtil.TUMOR_SEQ_ALLELE_1,
+			MafUtil.TUMOR_SEQ_ALLELE_2};
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter(maf));
+		StringBuilder builder = new StringBuilder();
+
+		for (String col : standardCols)
+		{
+			builder.append(col).append("\t");
+		}
+
+		for (int i = standardCols.length; i < numCols; i++)
+		{
+			builder.append("Custom_Column_").append(i).append("\t");
+		}
+
+		writer.write(builder.toString().trim());
+		writer.newLine();
+
+		for (int line = 0; line < numLines; line++)
+		{
+			long start = 1000000L + line;
+
+			builder.setLength(0);
+			builder.append("GENE").append(line % 1000).append("\t37\t")
+				.append(line % 22 + 1).append("\t")
+				.append(start).append("\t").append(start).append("\t")
+				.append("A\tA\tG");
+
+			for (int i = standardCols.length; i < numCols; i++)
+			{
+				builder.append("\tvalue_").append(i);
+			}
+
+			writer.write(builder.toString());
+			writer.newLine();
+		}
+
+		writer.close();
+	}
+}
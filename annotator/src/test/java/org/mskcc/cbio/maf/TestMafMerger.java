@@ -2,10 +2,13 @@ package org.mskcc.cbio.maf;
 
 import junit.framework.TestCase;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class TestMafMerger extends TestCase
 {
@@ -40,4 +43,68 @@ public class TestMafMerger extends TestCase
 			e.printStackTrace();
 		}
 	}
+
+	public void testMultiMerge() throws IOException
+	{
+		File workDir = new File("target/test-classes/multi_merger").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		// more inputs than a typical open file limit
+		int numFiles = 1500;
+		List<File> inputs = new ArrayList<File>();
+
+		for (int i = 0; i < numFiles; i++)
+		{
+			// each sample has an extra column of its own (every 100th shares one)
+			String header = "Hugo_Symbol\tTumor_Sample_Barcode\tSample_Col_" + (i % 100);
+			String line = "GENE" + i + "\tSAMPLE" + i + "\tvalue" + i;
+
+			File input = new File(workDir, "sample" + i + (i % 2 == 0 ? ".maf" : ".maf.gz"));
+			Writer writer = new OutputStreamWriter(i % 2 == 0 ?
+				new FileOutputStream(input) :
+				new GZIPOutputStream(new FileOutputStream(input)));
+			writer.write("#version 2.4\n" + header + "\n" + line + "\n\n" + line + "\n");
+			writer.close();
+
+			inputs.add(input);
+		}
+
+		File output = new File(workDir, "merged.maf.gz");
+		MafMerger merger = new MafMerger();
+
+		assertEquals(2 * numFiles, merger.merge(inputs, output));
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new GZIPInputStream(new FileInputStream(output))));
+
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		MafUtil util = new MafUtil(headerUtil.extractHeader(reader));
+
+		// comments of the first input only
+		assertEquals(1, headerUtil.getComments().size());
+
+		// 32 standard + 100 distinct sample columns
+		assertEquals(132, util.getHeaderCount());
+
+		String line;
+		int count = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			String[] parts = line.split("\t", -1);
+			int sample = count / 2;
+
+			assertEquals(util.getHeaderCount(), parts.length);
+			assertEquals("GENE" + sample, parts[util.getHugoGeneSymbolIndex()]);
+			assertEquals("SAMPLE" + sample, parts[util.getTumorSampleIndex()]);
+			assertEquals("value" + sample, parts[util.getColumnIndex("Sample_Col_" + (sample % 100))]);
+
+			count++;
+		}
+
+		reader.close();
+
+		assertEquals(2 * numFiles, count);
+	}
 }
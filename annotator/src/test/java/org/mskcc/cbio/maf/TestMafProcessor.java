@@ -0,0 +1,141 @@
+package org.mskcc.cbio.maf;
+
+import junit.framework.TestCase;
+import org.mskcc.cbio.oncotator.OncotatorRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the column projection of the MAF processors.
+ */
+public class TestMafProcessor extends TestCase
+{
+	private static final String HEADER =
+		"Chromosome\tCustom_Col\tHugo_Symbol\tma:FImpact\tStart_Position\tONCOTATOR_PROTEIN_CHANGE";
+
+	public void testCustomHeaders()
+	{
+		MafProcessor processor = new MafProcessor(HEADER);
+
+		// known headers are matched case insensitively
+		assertFalse(processor.isCustomHeader("hugo_symbol"));
+		assertFalse(processor.isCustomHeader("MA:FIMPACT"));
+		assertFalse(processor.isCustomHeader(MafUtil.ONCOTATOR_PROTEIN_CHANGE));
+		assertTrue(processor.isCustomHeader("Custom_Col"));
+
+		List<String> headers = processor.newHeaderList(true, false);
+
+		assertEquals(Arrays.asList(MafUtil.HUGO_SYMBOL,
+			MafUtil.CHROMOSOME,
+			MafUtil.START_POSITION,
+			MafUtil.ONCOTATOR_PROTEIN_CHANGE,
+			MafUtil.MA_FIMPACT,
+			"Custom_Col"), headers);
+	}
+
+	public void testNewDataList()
+	{
+		MafProcessor processor = new OncoMafProcessor(HEADER);
+		processor.newHeaderList();
+
+		String line = "7\tc1\tEGFR\thigh\t100\tp.L858R";
+
+		List<String> data = processor.newDataList(line);
+		assertEquals(expectedData(processor, line), data);
+		assertEquals(processor.getNewHeaders().size(), data.size());
+
+		// missing trailing columns result in empty values
+		String shortLine = "7\tc1\tEGFR";
+		data = processor.newDataList(shortLine);
+		assertEquals(expectedData(processor, shortLine), data);
+		assertEquals("", data.get(processor.getNewHeaders().indexOf(MafUtil.START_POSITION)));
+
+		// the plan follows the header list even if it is modified in place
+		List<String> headers = processor.getNewHeaders();
+		headers.add(0, "Custom_Col");
+		processor.setNewHeaders(headers);
+
+		data = processor.newDataList(line);
+		assertEquals("c1", data.get(0));
+		assertEquals(expectedData(processor, line), data);
+	}
+
+	public void testOncotatorData()
+	{
+		OncoMafProcessor processor = new OncoMafProcessor(HEADER);
+		List<String> headers = processor.newHeaderList();
+
+		OncotatorRecord record = new OncotatorRecord("KEY");
+		record.setDbSnpRs("rs1");
+		record.getBestCanonicalTranscript().setProteinChange("p.L858R");
+		record.getBestEffectTranscript().setExonAffected(21);
+
+		for (int i = 0; i < 2; i++)
+		{
+			List<String> data = processor.newDataList("7\tc1\tEGFR\thigh\t100\tp.X");
+			processor.updateOncotatorData(data, record);
+
+			assertEquals("rs1", data.get(headers.indexOf(MafUtil.ONCOTATOR_DBSNP_RS)));
+			assertEquals("p.L858R", data.get(headers.indexOf(MafUtil.ONCOTATOR_PROTEIN_CHANGE)));
+			assertEquals("21", data.get(headers.indexOf(MafUtil.ONCOTATOR_EXON_AFFECTED_BE)));
+			assertNull(data.get(headers.indexOf(MafUtil.ONCOTATOR_GENE_SYMBOL)));
+			assertEquals("EGFR", data.get(headers.indexOf(MafUtil.HUGO_SYMBOL)));
+
+			// indices are resolved again after the header list is modified
+			headers.remove(MafUtil.ONCOTATOR_DBSNP_RS);
+			headers.add(MafUtil.ONCOTATOR_DBSNP_RS);
+			processor.setNewHeaders(headers);
+		}
+	}
+
+	public void testAnnotatorData()
+	{
+		AnnoMafProcessor processor = new AnnoMafProcessor(HEADER,
+			Arrays.asList("Anno_1", "Anno_2"));
+		List<String> headers = processor.newHeaderList();
+
+		Map<String, String> annoData = new HashMap<String, String>();
+		annoData.put("Anno_1", "a1");
+		annoData.put("Anno_2", "a2");
+
+		for (int i = 0; i < 2; i++)
+		{
+			List<String> data = processor.newDataList("7\tc1\tEGFR\thigh\t100\tp.X");
+			processor.updateAnnoData(data, annoData);
+
+			assertEquals("a1", data.get(headers.indexOf("Anno_1")));
+			assertEquals("a2", data.get(headers.indexOf("Anno_2")));
+			assertEquals("EGFR", data.get(headers.indexOf(MafUtil.HUGO_SYMBOL)));
+
+			// indices are resolved again after the header list is modified
+			headers.remove("Anno_1");
+			headers.add("Anno_1");
+			processor.setNewHeaders(headers);
+		}
+	}
+
+	/**
+	 * Creates the expected data list by looking up the column of each
+	 * header in the original header line.
+	 */
+	private List<String> expectedData(MafProcessor processor, String line)
+	{
+		MafUtil mafUtil = new MafUtil(HEADER);
+		String[] parts = TabDelimitedFileUtil.adjustDataLine(line,
+			mafUtil.getHeaderCount()).split("\t", -1);
+
+		List<String> data = new ArrayList<String>();
+
+		for (String header : processor.getNewHeaders())
+		{
+			int index = mafUtil.getColumnIndex(header);
+			data.add(index == -1 ? "" : parts[index]);
+		}
+
+		return data;
+	}
+}
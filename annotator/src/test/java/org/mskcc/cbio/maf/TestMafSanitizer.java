@@ -1,5 +1,6 @@
 package org.mskcc.cbio.maf;
 
+import com.google.common.base.Joiner;
 import junit.framework.TestCase;
 
 import java.io.BufferedReader;
@@ -49,6 +50,51 @@ public class TestMafSanitizer extends TestCase
 		}
 	}
 
+	public void testSanitizeRecord()
+	{
+		MafSanitizer sanitizer = new MafSanitizer();
+		MafUtil util = new MafUtil("Hugo_Symbol\tChromosome\tStart_Position\t" +
+			"End_Position\tReference_Allele\tTumor_Seq_Allele1\tTumor_Seq_Allele2");
+
+		String line = "EGFR\tchr23\t100\t\tAC\tAC\t3";
+		MafRecord record = util.parseRecord(line);
+		String[] parts = line.split("\t", -1);
+
+		MafErrorReport report = sanitizer.sanitizeRecord(util, record, parts, 1);
+
+		assertTrue(report.longChrName);
+		assertTrue(report.missingEnd);
+		assertTrue(report.malformedTum2);
+
+		// columns are fixed in place
+		assertEquals("X", parts[1]);
+		assertEquals("101", parts[3]);
+		assertEquals("AAA", parts[6]);
+
+		// the record is updated without parsing the line again
+		assertEquals("X", record.getChr());
+		assertEquals(101, record.getEndPosition());
+		assertEquals("AAA", record.getTumorSeqAllele2());
+		assertFalse(sanitizer.hasCriticalError(record));
+
+		// same result as sanitizing the whole line
+		assertEquals(Joiner.on("\t").join(parts),
+			sanitizer.sanitizeLine(util, util.parseRecord(line), line, 1));
+	}
+
+	public void testValidChromosome()
+	{
+		MafSanitizer sanitizer = new MafSanitizer();
+
+		assertTrue(sanitizer.isValidChromosome("1"));
+		assertTrue(sanitizer.isValidChromosome("chr22"));
+		assertTrue(sanitizer.isValidChromosome("07"));
+		assertTrue(sanitizer.isValidChromosome("x"));
+		assertFalse(sanitizer.isValidChromosome("23"));
+		assertFalse(sanitizer.isValidChromosome("M"));
+		assertFalse(sanitizer.isValidChromosome(""));
+	}
+
 	private void validateRecord(MafRecord record)
 	{
 		MafSanitizer sanitizer = new MafSanitizer();
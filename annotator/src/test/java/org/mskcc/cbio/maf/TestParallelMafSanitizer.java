@@ -0,0 +1,186 @@
+package org.mskcc.cbio.maf;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that sanitizing byte range chunks of a single MAF in parallel
+ * produces byte-identical outputs to the single threaded sanitizer.
+ */
+public class TestParallelMafSanitizer extends TestCase
+{
+	private static final String[] CHROMOSOMES = {"1", "chr2", "X", "chrY", "23", "24", "M", ""};
+	private static final String[] ALLELES = {"A", "CG", "-", "3", "", "A;C", "acgt", "N"};
+	private static final String[] POSITIONS = {"100", "101", "100abc", "", "NA"};
+
+	public void testParallelSanitizer() throws IOException
+	{
+		File workDir = new File("target/test-classes/parallel_sanitizer").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		File input = new File(workDir, "input.maf");
+		generateMaf(input, 20000);
+
+		File sequentialOut = new File(workDir, "sequential.maf");
+		File parallelOut = new File(workDir, "parallel.maf");
+
+		List<String> sequentialMessages = new ArrayList<String>();
+		final List<String> parallelMessages = Collections.synchronizedList(new ArrayList<String>());
+
+		MafSanitizer sequential = new CollectingSanitizer(sequentialMessages);
+		sequential.sanitizeMaf(input.getAbsolutePath(), sequentialOut.getAbsolutePath());
+
+		ParallelMafSanitizer parallel = new ParallelMafSanitizer(4) {
+			protected MafSanitizer createChunkSanitizer()
+			{
+				return new CollectingSanitizer(parallelMessages);
+			}
+		};
+
+		// small chunks to end up with many chunks for a small file
+		parallel.setChunkSize(10000);
+		parallel.sanitizeMaf(input.getAbsolutePath(), parallelOut.getAbsolutePath());
+
+		File sequentialMisc = new File(workDir, "sequential_misc.maf");
+		File parallelMisc = new File(workDir, "parallel_misc.maf");
+
+		assertTrue(sequentialOut.length() > 0);
+		assertTrue(sequentialMisc.length() > 0);
+		assertTrue(FileUtils.contentEquals(sequentialOut, parallelOut));
+		assertTrue(FileUtils.contentEquals(sequentialMisc, parallelMisc));
+		assertEquals(sequential.getInvalidCount(), parallel.getInvalidCount());
+		assertEquals(20000, sequential.getRecordCount());
+		assertEquals(20000, parallel.getRecordCount());
+
+		// chunks report the line numbers of the whole input
+		Collections.sort(sequentialMessages);
+		Collections.sort(parallelMessages);
+
+		assertFalse(sequentialMessages.isEmpty());
+		assertEquals(sequentialMessages, parallelMessages);
+		this.checkLineNumbers(input, parallelMessages);
+
+		// no part files are left behind
+		assertEquals(5, workDir.list().length);
+
+		// check only mode
+		ParallelMafSanitizer checker = new ParallelMafSanitizer(4);
+		checker.setChunkSize(10000);
+		checker.sanitizeMaf(input.getAbsolutePath());
+
+		assertEquals(sequential.getInvalidCount(), checker.getInvalidCount());
+	}
+
+	public void testSingleChunk() throws IOException
+	{
+		File workDir = new File("target/test-classes/parallel_sanitizer_single").getAbsoluteFile();
+		FileUtils.deleteDirectory(workDir);
+		workDir.mkdirs();
+
+		File sequentialOut = new File(workDir, "sequential.maf");
+		File parallelOut = new File(workDir, "parallel.maf");
+		String input = "target/test-classes/maf_to_sanitize.txt";
+
+		new MafSanitizer().sanitizeMaf(input, sequentialOut.getAbsolutePath());
+
+		// small inputs are not split at all
+		new ParallelMafSanitizer(4).sanitizeMaf(input, parallelOut.getAbsolutePath());
+
+		assertTrue(FileUtils.contentEquals(sequentialOut, parallelOut));
+		assertTrue(FileUtils.contentEquals(new File(workDir, "sequential_misc.maf"),
+			new File(workDir, "parallel_misc.maf")));
+	}
+
+	/**
+	 * Generates a MAF with comments, empty lines, CRLF line endings, and
+	 * records with both fixable and critical errors. The last line has
+	 * no new line character.
+	 */
+	private void generateMaf(File maf, int numLines) throws IOException
+	{
+		Random random = new Random(42);
+		Writer writer = new BufferedWriter(new FileWriter(maf));
+
+		writer.write("#version 2.4\n#generated\n");
+		writer.write("Hugo_Symbol\tChromosome\tStart_Position\tEnd_Position\t" +
+			"Reference_Allele\tTumor_Seq_Allele1\tTumor_Seq_Allele2\tCustom_Col\n");
+
+		for (int i = 0; i < numLines; i++)
+		{
+			StringBuilder builder = new StringBuilder();
+
+			builder.append("GENE").append(i).append("\t")
+				.append(pick(random, CHROMOSOMES)).append("\t")
+				.append(pick(random, POSITIONS)).append("\t")
+				.append(pick(random, POSITIONS)).append("\t")
+				.append(pick(random, ALLELES)).append("\t")
+				.append(pick(random, ALLELES)).append("\t")
+				.append(pick(random, ALLELES));
+
+			// some lines are missing the trailing columns
+			if (random.nextInt(10) > 0)
+			{
+				builder.append("\tcustom").append(i);
+			}
+
+			writer.write(builder.toString());
+
+			if (i < numLines - 1)
+			{
+				writer.write(random.nextInt(20) == 0 ? "\r\n" : "\n");
+			}
+
+			if (random.nextInt(50) == 0)
+			{
+				writer.write("\n");
+			}
+		}
+
+		writer.close();
+	}
+
+	/**
+	 * Checks that the line number of each message points at a data line
+	 * of the input.
+	 */
+	private void checkLineNumbers(File input, List<String> messages) throws IOException
+	{
+		List<String> lines = FileUtils.readLines(input);
+
+		for (String message : messages)
+		{
+			int lineNumber = Integer.parseInt(message.substring(1, message.indexOf(']')));
+			assertTrue(lines.get(lineNumber - 1).startsWith("GENE"));
+		}
+	}
+
+	private String pick(Random random, String[] values)
+	{
+		return values[random.nextInt(values.length)];
+	}
+
+	/**
+	 * Collects the error and warning messages instead of logging them.
+	 */
+	private static class CollectingSanitizer extends MafSanitizer
+	{
+		private List<String> messages;
+
+		public CollectingSanitizer(List<String> messages)
+		{
+			this.messages = messages;
+		}
+
+		protected void logMessage(String message)
+		{
+			this.messages.add(message);
+		}
+	}
+}
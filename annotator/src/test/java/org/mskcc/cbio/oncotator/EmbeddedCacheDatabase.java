@@ -0,0 +1,76 @@
+package org.mskcc.cbio.oncotator;
+
+import org.mskcc.cbio.dbcache.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Initializes an in-memory (H2) database with the oncotator cache tables,
+ * to test the cache DAOs without a MySQL server.
+ */
+public class EmbeddedCacheDatabase
+{
+	public static final String URL = "jdbc:h2:mem:oncotator_cache;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+	/**
+	 * Points the DatabaseUtil to the embedded database, and (re)creates
+	 * empty cache tables.
+	 *
+	 * @throws SQLException if a database error occurs
+	 */
+	public static void init() throws SQLException
+	{
+		DatabaseUtil.initDataSource("org.h2.Driver", URL, "sa", "");
+
+		Connection con = DatabaseUtil.getDbConnection();
+		Statement stmt = con.createStatement();
+
+		stmt.executeUpdate("DROP TABLE IF EXISTS oncotator_cache");
+		stmt.executeUpdate("CREATE TABLE oncotator_cache (" +
+		                   "CACHE_KEY VARCHAR(255) NOT NULL PRIMARY KEY, " +
+		                   "GENE_SYMBOL VARCHAR(255), " +
+		                   "GENOME_CHANGE VARCHAR(255), " +
+		                   "PROTEIN_CHANGE VARCHAR(255), " +
+		                   "VARIANT_CLASSIFICATION VARCHAR(255), " +
+		                   "EXON_AFFECTED INT, " +
+		                   "COSMIC_OVERLAP VARCHAR(1024), " +
+		                   "DB_SNP_RS VARCHAR(255))");
+
+		stmt.executeUpdate("DROP TABLE IF EXISTS onco_json_cache");
+		stmt.executeUpdate("CREATE TABLE onco_json_cache (" +
+		                   "CACHE_KEY VARCHAR(255) NOT NULL PRIMARY KEY, " +
+		                   "RAW_JSON CLOB)");
+
+		stmt.close();
+		con.close();
+	}
+
+	/**
+	 * Creates a simple oncotator record for the given key.
+	 *
+	 * @param key   cache key
+	 * @param index index used to generate field values
+	 * @return      oncotator record
+	 */
+	public static OncotatorRecord createRecord(String key, int index)
+	{
+		OncotatorRecord record = new OncotatorRecord(key);
+
+		record.getBestEffectTranscript().setGene("GENE" + index);
+		record.getBestEffectTranscript().setProteinChange("p.K" + index + "R");
+		record.getBestEffectTranscript().setVariantClassification("Missense_Mutation");
+		record.getBestEffectTranscript().setExonAffected(index % 20);
+		record.setGenomeChange("g.chr1:" + index + "A>G");
+		record.setCosmicOverlappingMutations("NA");
+		record.setDbSnpRs("rs" + index);
+
+		return record;
+	}
+
+	public static String generateKey(int index)
+	{
+		return (index % 22 + 1) + "_" + (1000000 + index) + "_" + (1000000 + index) + "_A_G";
+	}
+}
@@ -17,7 +17,11 @@
 
 package org.mskcc.cbio.oncotator;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Oncotator cache service built on a hash map for testing purposes.
@@ -46,11 +50,62 @@ public class HashCacheService implements OncotatorCacheService
 		return 1;
 	}
 
+	public int putAll(Collection<OncotatorRecord> records) throws OncotatorCacheException
+	{
+		int count = 0;
+
+		for (OncotatorRecord record : records)
+		{
+			if (this.cache.get(record.getKey()) == null)
+			{
+				this.cache.put(record.getKey(), record);
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	public void flush() throws OncotatorCacheException
+	{
+		// nothing to flush
+	}
+
 	public OncotatorRecord get(String key) throws OncotatorCacheException
 	{
 		return this.cache.get(key);
 	}
 
+	public Map<String, OncotatorRecord> getAll(Collection<String> keys) throws OncotatorCacheException
+	{
+		Map<String, OncotatorRecord> records = new HashMap<String, OncotatorRecord>();
+
+		for (String key : keys)
+		{
+			if (this.cache.get(key) != null)
+			{
+				records.put(key, this.cache.get(key));
+			}
+		}
+
+		return records;
+	}
+
+	public Set<String> getCachedKeys(Collection<String> keys) throws OncotatorCacheException
+	{
+		Set<String> cachedKeys = new HashSet<String>();
+
+		for (String key : keys)
+		{
+			if (this.cache.containsKey(key))
+			{
+				cachedKeys.add(key);
+			}
+		}
+
+		return cachedKeys;
+	}
+
 	protected HashMap<String, OncotatorRecord> initCache()
 	{
 		HashMap<String, OncotatorRecord> cache =
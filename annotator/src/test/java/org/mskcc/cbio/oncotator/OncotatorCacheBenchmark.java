@@ -0,0 +1,64 @@
+package org.mskcc.cbio.oncotator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand alone benchmark comparing the lookup throughput of the per key
+ * cache lookup with the batched (multi-key) lookup, by using an embedded
+ * database populated with synthetic records.
+ *
+ * Usage: OncotatorCacheBenchmark [number of records] [block size]
+ */
+public class OncotatorCacheBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : Oncotator.DEFAULT_BLOCK_SIZE;
+
+		EmbeddedCacheDatabase.init();
+		DaoOncotatorCache dao = DaoOncotatorCache.getInstance();
+		List<String> keys = new ArrayList<String>(numRecords);
+
+		System.out.println("Populating cache: " + numRecords + " records");
+
+		for (int i = 0; i < numRecords; i++)
+		{
+			String key = EmbeddedCacheDatabase.generateKey(i);
+			dao.put(EmbeddedCacheDatabase.createRecord(key, i));
+			keys.add(key);
+		}
+
+		long start = System.currentTimeMillis();
+		long count = 0;
+
+		for (String key : keys)
+		{
+			count += dao.get(key) != null ? 1 : 0;
+		}
+
+		report("per key lookup", count, System.currentTimeMillis() - start);
+
+		start = System.currentTimeMillis();
+		count = 0;
+
+		for (int i = 0; i < keys.size(); i += blockSize)
+		{
+			List<String> block = keys.subList(i, Math.min(keys.size(), i + blockSize));
+			count += dao.getAll(block).size();
+		}
+
+		report("batched lookup (block size: " + blockSize + ")",
+			count, System.currentTimeMillis() - start);
+	}
+
+	private static void report(String name, long count, long time)
+	{
+		double seconds = time / 1000.0;
+
+		System.out.println(name + ": " + count + " records in " + seconds +
+		                   " seconds (" + (long) (count / Math.max(seconds, 0.001)) +
+		                   " records/sec)");
+	}
+}
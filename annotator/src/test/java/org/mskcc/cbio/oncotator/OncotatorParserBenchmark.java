@@ -0,0 +1,116 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Stand alone microbenchmark comparing the tree parser with the streaming
+ * parser for oncotator responses of increasing number of transcripts, both
+ * with the best transcript indices before and after the transcript list.
+ * Heap allocation per response is reported as well (if supported by the
+ * JVM).
+ *
+ * Usage: OncotatorParserBenchmark [number of iterations]
+ */
+public class OncotatorParserBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int[] sizes = {1, 10, 100, 1000};
+		boolean[] orders = {true, false};
+
+		for (boolean indicesFirst : orders)
+		{
+			for (int size : sizes)
+			{
+				String json = TestOncotatorParser.generateResponse(
+					size, size / 2, size - 1, indicesFirst);
+				int count = Math.max(10, iterations * 10 / Math.max(size, 10));
+				String name = size + " transcripts, indices " +
+					(indicesFirst ? "first" : "last");
+
+				// warm up
+				run(json, count, false);
+				run(json, count, true);
+
+				long allocated = allocatedBytes();
+				long time = run(json, count, false);
+				report("tree parser (" + name + ")", count, time,
+					allocatedBytes() - allocated);
+
+				allocated = allocatedBytes();
+				time = run(json, count, true);
+				report("streaming parser (" + name + ")", count, time,
+					allocatedBytes() - allocated);
+			}
+		}
+	}
+
+	private static long run(String json, int count, boolean stream)
+	{
+		long start = System.nanoTime();
+
+		for (int i = 0; i < count; i++)
+		{
+			OncotatorRecord record = stream ?
+				OncotatorParser.parseJSONStream("KEY", json) :
+				OncotatorParser.parseJSONTree("KEY", json);
+
+			if (record == null)
+			{
+				throw new IllegalStateException("invalid response");
+			}
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, int count, long time, long allocated)
+	{
+		double micros = time / 1000.0 / count;
+		String output = name + ": " + count + " responses, " +
+			String.format("%.1f", micros) + " us/response";
+
+		if (allocated >= 0)
+		{
+			output += ", " + (allocated / count / 1024) + " KB allocated/response";
+		}
+
+		System.out.println(output);
+	}
+
+	/**
+	 * @return  total bytes allocated by the current thread, or -1
+	 *          if not supported
+	 */
+	private static long allocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+				Thread.currentThread().getId());
+		}
+
+		return -1;
+	}
+}
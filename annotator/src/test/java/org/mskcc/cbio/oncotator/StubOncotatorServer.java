@@ -0,0 +1,161 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process HTTP server imitating the oncotator web service for testing
+ * purposes. Each request waits for the configured latency, then responds
+ * according to the key:
+ *
+ * FLAKY... keys fail with 503 for the first two requests,
+ * DOWN... keys always fail with 500,
+ * BAD... keys always fail with 400,
+ * any other key returns a small JSON document containing the key.
+ */
+public class StubOncotatorServer
+{
+	private HttpServer server;
+	private ExecutorService executor;
+	private long latency;
+
+	private int numRequests;
+	private int numActive;
+	private int maxActive;
+	private Map<String, Integer> attempts;
+
+	public StubOncotatorServer(long latency) throws IOException
+	{
+		this.latency = latency;
+		this.attempts = new HashMap<String, Integer>();
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/oncotator/mutation/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				respond(exchange);
+			}
+		});
+		this.executor = Executors.newCachedThreadPool();
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * @return  base URL to be used by the oncotator service
+	 */
+	public String getBaseUrl()
+	{
+		return "http://127.0.0.1:" + this.server.getAddress().getPort() +
+		       "/oncotator/mutation/";
+	}
+
+	public void stop()
+	{
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	protected void respond(HttpExchange exchange) throws IOException
+	{
+		String path = exchange.getRequestURI().getPath();
+		String key = path.substring(path.lastIndexOf('/') + 1);
+		int attempt;
+
+		synchronized (this)
+		{
+			this.numRequests++;
+			this.numActive++;
+			this.maxActive = Math.max(this.maxActive, this.numActive);
+
+			attempt = this.attempts.containsKey(key) ? this.attempts.get(key) + 1 : 1;
+			this.attempts.put(key, attempt);
+		}
+
+		try
+		{
+			Thread.sleep(this.latency);
+
+			int code = 200;
+			String body = "{\"genome_change\":\"" + key + "\"}";
+
+			if (key.startsWith("FLAKY") && attempt <= 2)
+			{
+				code = 503;
+			}
+			else if (key.startsWith("DOWN"))
+			{
+				code = 500;
+			}
+			else if (key.startsWith("BAD"))
+			{
+				code = 400;
+			}
+
+			if (code != 200)
+			{
+				body = "{\"ERROR\":\"" + code + "\"}";
+			}
+
+			byte[] content = body.getBytes("UTF-8");
+			exchange.sendResponseHeaders(code, content.length);
+
+			OutputStream out = exchange.getResponseBody();
+			out.write(content);
+			out.close();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				this.numActive--;
+			}
+		}
+	}
+
+	public synchronized int getNumRequests()
+	{
+		return numRequests;
+	}
+
+	public synchronized int getMaxActive()
+	{
+		return maxActive;
+	}
+
+	public synchronized int getAttempts(String key)
+	{
+		Integer count = this.attempts.get(key);
+		return count == null ? 0 : count;
+	}
+}
@@ -0,0 +1,198 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests resumable warming of the oncotator cache against an in-process
+ * stub server.
+ */
+public class TestCacheBuilder extends TestCase
+{
+	private StubOncotatorServer server;
+
+	protected void setUp() throws Exception
+	{
+		this.server = new StubOncotatorServer(10);
+	}
+
+	protected void tearDown() throws Exception
+	{
+		this.server.stop();
+	}
+
+	public void testWarmCache() throws Exception
+	{
+		File keyFile = createKeyFile("warm_keys.txt", 0);
+
+		HashCacheService cache = new HashCacheService();
+		cache.put(new OncotatorRecord("KEY_5"));
+
+		CacheBuilderOncotator builder = this.createBuilder(cache);
+		builder.getOncotatorService().setNumFetchers(4);
+
+		assertEquals(0, builder.oncotateMaf(keyFile, null));
+
+		// cached keys are not requested again
+		assertEquals(49, this.server.getNumRequests());
+		assertEquals(1, builder.getNumKeysSkipped());
+		assertEquals(49, builder.getNumKeysFetched());
+		assertTrue(this.server.getMaxActive() > 1);
+		assertEquals(50, cache.getCachedKeys(keys(50)).size());
+
+		// no checkpoint is left behind after a complete run
+		assertFalse(checkpoint(keyFile).exists());
+	}
+
+	public void testResume() throws Exception
+	{
+		File keyFile = createKeyFile("resume_keys.txt", 0);
+		CacheBuilderOncotator.writeCheckpoint(checkpoint(keyFile), 30);
+
+		HashCacheService cache = new HashCacheService();
+		CacheBuilderOncotator builder = this.createBuilder(cache);
+
+		assertEquals(0, builder.oncotateMaf(keyFile, null));
+
+		// only the keys after the checkpoint are processed
+		assertEquals(20, this.server.getNumRequests());
+		assertEquals(20, builder.getNumRecordsProcessed());
+		assertEquals(0, cache.getCachedKeys(keys(30)).size());
+		assertFalse(checkpoint(keyFile).exists());
+	}
+
+	public void testFailedBlock() throws Exception
+	{
+		// a key failing in the third block (lines 21 to 30)
+		File keyFile = createKeyFile("failed_keys.txt", 25);
+		File checkpoint = checkpoint(keyFile);
+
+		// invalid records are never written to a file cache
+		FileOncotatorCache cache = new FileOncotatorCache(
+			TestFileOncotatorCache.createFile("cache_builder"));
+		CacheBuilderOncotator builder = this.createBuilder(cache);
+
+		assertTrue(builder.oncotateMaf(keyFile, null) > 0);
+
+		// the remaining blocks are still processed, but the checkpoint
+		// is not advanced beyond the failed block
+		assertEquals(49, builder.getNumKeysFetched());
+		assertTrue(checkpoint.exists());
+		assertEquals(20, CacheBuilderOncotator.readCheckpoint(checkpoint));
+
+		// a rerun skips the keys already cached
+		this.server.stop();
+		this.server = new StubOncotatorServer(0);
+
+		builder = this.createBuilder(cache);
+		builder.oncotateMaf(keyFile, null);
+
+		assertEquals(29, builder.getNumKeysSkipped());
+		assertEquals(1, this.server.getNumRequests());
+	}
+
+	public void testResumePastRejectedKey() throws Exception
+	{
+		// a key always rejected with 400 in the third block
+		File keyFile = createKeyFile("rejected_keys.txt", 25, "BAD");
+		File checkpoint = checkpoint(keyFile);
+		CacheBuilderOncotator.writeCheckpoint(checkpoint, 20);
+
+		HashCacheService cache = new HashCacheService();
+		CacheBuilderOncotator builder = this.createBuilder(cache);
+
+		// the rejected key is still reported as an error
+		assertEquals(1, builder.oncotateMaf(keyFile, null));
+
+		// but it does not hold the checkpoint back
+		assertEquals(1, this.server.getAttempts("BAD_25"));
+		assertEquals(1, builder.getNumKeysRejected());
+		assertEquals(29, builder.getNumKeysFetched());
+		assertFalse(cache.getCachedKeys(keys(50)).contains("BAD_25"));
+		assertFalse(checkpoint.exists());
+	}
+
+	private CacheBuilderOncotator createBuilder(OncotatorCacheService cache)
+	{
+		CacheBuilderOncotator builder = new CacheBuilderOncotator(cache);
+		builder.setBlockSize(10);
+
+		OncotatorService service = builder.getOncotatorService();
+		service.setBaseUrl(this.server.getBaseUrl());
+		service.setRetryDelay(10);
+		service.setMaxRetries(0);
+
+		return builder;
+	}
+
+	/**
+	 * Creates a key file with 50 keys. If a failing line number is given,
+	 * the key on that line always fails.
+	 */
+	private static File createKeyFile(String name, int failingLine) throws IOException
+	{
+		return createKeyFile(name, failingLine, "DOWN");
+	}
+
+	/**
+	 * Creates a key file with 50 keys. If a failing line number is given,
+	 * the key on that line has the given stub server prefix.
+	 */
+	private static File createKeyFile(String name,
+			int failingLine,
+			String failingPrefix) throws IOException
+	{
+		File keyFile = new File("target/test-classes/cache_builder/" + name).getAbsoluteFile();
+		List<String> lines = new ArrayList<String>();
+
+		lines.add("CACHE_KEY");
+
+		for (String key : keys(50))
+		{
+			lines.add(lines.size() == failingLine ? failingPrefix + "_" + failingLine : key);
+		}
+
+		FileUtils.deleteQuietly(checkpoint(keyFile));
+		FileUtils.writeLines(keyFile, lines);
+
+		return keyFile;
+	}
+
+	private static File checkpoint(File keyFile)
+	{
+		return new File(keyFile.getAbsolutePath() + CacheBuilderOncotator.CHECKPOINT_SUFFIX);
+	}
+
+	private static List<String> keys(int count)
+	{
+		List<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < count; i++)
+		{
+			keys.add("KEY_" + i);
+		}
+
+		return keys;
+	}
+}
@@ -0,0 +1,183 @@
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests batched (multi-key) lookups and inserts of the oncotator cache
+ * DAO against an embedded database.
+ */
+public class TestDaoOncotatorCache extends TestCase
+{
+	protected void setUp() throws Exception
+	{
+		EmbeddedCacheDatabase.init();
+	}
+
+	public void testGetAll() throws Exception
+	{
+		DaoOncotatorCache dao = DaoOncotatorCache.getInstance();
+
+		// more than one chunk of keys
+		int numRecords = DaoOncotatorCache.MAX_KEYS_PER_QUERY * 2 + 100;
+
+		for (int i = 0; i < numRecords; i++)
+		{
+			dao.put(EmbeddedCacheDatabase.createRecord(EmbeddedCacheDatabase.generateKey(i), i));
+		}
+
+		List<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < numRecords; i++)
+		{
+			keys.add(EmbeddedCacheDatabase.generateKey(i));
+		}
+
+		// keys not in the cache
+		keys.add("X_1_1_A_G");
+		keys.add("Y_2_2_C_T");
+
+		Map<String, OncotatorRecord> records = dao.getAll(keys);
+
+		assertEquals(numRecords, records.size());
+		assertFalse(records.containsKey("X_1_1_A_G"));
+
+		// same records as the single key lookup
+		for (int i = 0; i < numRecords; i += 97)
+		{
+			String key = EmbeddedCacheDatabase.generateKey(i);
+			OncotatorRecord expected = dao.get(key);
+			OncotatorRecord actual = records.get(key);
+
+			assertEquals(expected.getKey(), actual.getKey());
+			assertEquals(expected.getGenomeChange(), actual.getGenomeChange());
+			assertEquals(expected.getDbSnpRs(), actual.getDbSnpRs());
+			assertEquals(expected.getBestEffectTranscript().getGene(),
+			             actual.getBestEffectTranscript().getGene());
+			assertEquals(expected.getBestEffectTranscript().getProteinChange(),
+			             actual.getBestEffectTranscript().getProteinChange());
+			assertEquals(expected.getBestEffectTranscript().getExonAffected(),
+			             actual.getBestEffectTranscript().getExonAffected());
+		}
+
+		assertEquals(0, dao.getAll(new ArrayList<String>()).size());
+	}
+
+	public void testPutAll() throws Exception
+	{
+		DaoOncotatorCache dao = DaoOncotatorCache.getInstance();
+		List<OncotatorRecord> records = new ArrayList<OncotatorRecord>();
+
+		for (int i = 0; i < 20; i++)
+		{
+			records.add(EmbeddedCacheDatabase.createRecord(EmbeddedCacheDatabase.generateKey(i), i));
+		}
+
+		// already in the cache
+		dao.put(records.get(5));
+
+		// duplicate within the same batch
+		records.add(EmbeddedCacheDatabase.createRecord(EmbeddedCacheDatabase.generateKey(7), 7));
+
+		assertEquals(19, dao.putAll(records));
+		assertEquals(20, dao.getAll(this.keys(20)).size());
+
+		// everything is a duplicate now
+		assertEquals(0, dao.putAll(records));
+	}
+
+	public void testWriteBehind() throws Exception
+	{
+		WriteBehindCacheService cache = new WriteBehindCacheService(
+			DaoOncotatorCache.getInstance(), 10, 60000);
+
+		for (int i = 0; i < 25; i++)
+		{
+			cache.put(EmbeddedCacheDatabase.createRecord(EmbeddedCacheDatabase.generateKey(i), i));
+		}
+
+		// two full buffers are flushed, the rest is still buffered
+		assertEquals(20, DaoOncotatorCache.getInstance().getAll(this.keys(25)).size());
+		assertEquals(25, cache.getAll(this.keys(25)).size());
+
+		cache.close();
+
+		assertEquals(25, DaoOncotatorCache.getInstance().getAll(this.keys(25)).size());
+	}
+
+	private List<String> keys(int count)
+	{
+		List<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < count; i++)
+		{
+			keys.add(EmbeddedCacheDatabase.generateKey(i));
+		}
+
+		return keys;
+	}
+
+	public void testFileCacheImportExport() throws Exception
+	{
+		DaoJsonCache dao = new DaoJsonCache();
+		List<OncotatorRecord> records = new ArrayList<OncotatorRecord>();
+
+		for (int i = 0; i < OncotatorCacheTool.BATCH_SIZE + 10; i++)
+		{
+			records.add(TestFileOncotatorCache.createRecord(i));
+		}
+
+		dao.putAll(records);
+
+		File file = TestFileOncotatorCache.createFile("import_export");
+		FileOncotatorCache fileCache = FileOncotatorCache.getInstance(file);
+
+		int[] counts = OncotatorCacheTool.importRecords(dao, fileCache);
+
+		assertEquals(records.size(), counts[0]);
+		assertEquals(records.size(), counts[1]);
+		assertEquals(dao.get(EmbeddedCacheDatabase.generateKey(7)).getRawJson(),
+		             fileCache.getRawJson(EmbeddedCacheDatabase.generateKey(7)));
+
+		// everything is already in the JSON table
+		counts = OncotatorCacheTool.exportRecords(fileCache, dao, false);
+
+		assertEquals(records.size(), counts[0]);
+		assertEquals(0, counts[1]);
+
+		// legacy table only keeps the parsed fields
+		counts = OncotatorCacheTool.exportRecords(fileCache, DaoOncotatorCache.getInstance(), true);
+
+		assertEquals(records.size(), counts[1]);
+		assertEquals("GENE7", DaoOncotatorCache.getInstance().get(
+			EmbeddedCacheDatabase.generateKey(7)).getBestEffectTranscript().getGene());
+	}
+
+	public void testCachedServiceBatch() throws Exception
+	{
+		DaoOncotatorCache dao = DaoOncotatorCache.getInstance();
+		List<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < 10; i++)
+		{
+			String key = EmbeddedCacheDatabase.generateKey(i);
+			dao.put(EmbeddedCacheDatabase.createRecord(key, i));
+			keys.add(key);
+		}
+
+		// duplicate keys should be resolved only once
+		keys.add(EmbeddedCacheDatabase.generateKey(0));
+
+		CachedOncotatorService service = new CachedOncotatorService(dao);
+		Map<String, OncotatorRecord> records = service.getOncotatorRecords(keys);
+
+		assertEquals(10, records.size());
+		assertEquals("GENE3", records.get(EmbeddedCacheDatabase.generateKey(3))
+			.getBestEffectTranscript().getGene());
+		assertEquals(0, service.getErrorCount());
+	}
+}
@@ -0,0 +1,231 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the embedded file cache, including concurrent use of the same
+ * cache file by multiple processes.
+ */
+public class TestFileOncotatorCache extends TestCase
+{
+	private File file;
+
+	public void testPutAndGet() throws Exception
+	{
+		this.file = createFile("put_get");
+		FileOncotatorCache cache = new FileOncotatorCache(this.file);
+		List<OncotatorRecord> records = new ArrayList<OncotatorRecord>();
+
+		for (int i = 0; i < 10; i++)
+		{
+			records.add(createRecord(i));
+		}
+
+		// duplicate within the batch, and a record without raw JSON
+		records.add(createRecord(3));
+		records.add(new OncotatorRecord("X_1_1_A_G"));
+
+		assertEquals(10, cache.putAll(records));
+		assertEquals(0, cache.put(createRecord(5)));
+		assertEquals("GENE7", cache.get(generateKey(7)).getBestEffectTranscript().getGene());
+		assertNull(cache.get("X_1_1_A_G"));
+
+		Map<String, OncotatorRecord> found = cache.getAll(Arrays.asList(
+			generateKey(1), generateKey(2), "X_1_1_A_G"));
+
+		assertEquals(2, found.size());
+
+		// reopen the file
+		FileOncotatorCache reopened = new FileOncotatorCache(this.file);
+
+		assertEquals(10, reopened.size());
+		assertEquals(cache.getRawJson(generateKey(9)), reopened.getRawJson(generateKey(9)));
+		assertEquals(10, reopened.getKeys().size());
+		assertEquals(generateKey(0), reopened.getKeys().get(0));
+	}
+
+	public void testTornRecord() throws Exception
+	{
+		this.file = createFile("torn_record");
+		FileOncotatorCache cache = new FileOncotatorCache(this.file);
+		cache.put(createRecord(0));
+		cache.put(createRecord(1));
+
+		long length = this.file.length();
+
+		// a partially written record (e.g. a crashed writer)
+		FileOutputStream out = new FileOutputStream(this.file, true);
+		out.write(FileOncotatorCache.encode(generateKey(2), "{\"gene\": \"GENE2\"}").array(), 0, 20);
+		out.close();
+
+		FileOncotatorCache reopened = new FileOncotatorCache(this.file);
+
+		assertEquals(2, reopened.size());
+		assertNull(reopened.get(generateKey(2)));
+
+		// the next writer discards the partial record
+		assertEquals(1, reopened.put(createRecord(2)));
+		assertEquals("GENE2", reopened.get(generateKey(2)).getBestEffectTranscript().getGene());
+		assertEquals(3, new FileOncotatorCache(this.file).size());
+		assertTrue(this.file.length() > length);
+	}
+
+	public void testSharedFile() throws Exception
+	{
+		this.file = createFile("shared_file");
+		// two instances act like two processes using the same file
+		FileOncotatorCache first = new FileOncotatorCache(this.file);
+		FileOncotatorCache second = new FileOncotatorCache(this.file);
+
+		first.put(createRecord(0));
+
+		// the reader picks up records appended by the other instance
+		assertNotNull(second.get(generateKey(0)));
+
+		// the writer does not append a record already added by the other
+		assertEquals(0, second.put(createRecord(0)));
+		assertEquals(1, second.put(createRecord(1)));
+		assertNotNull(first.get(generateKey(1)));
+		assertEquals(2, new FileOncotatorCache(this.file).size());
+	}
+
+	public void testMultipleProcesses() throws Exception
+	{
+		this.file = createFile("multiple_processes");
+		int numRecords = 300;
+		String java = System.getProperty("java.home") + "/bin/java";
+		List<Process> processes = new ArrayList<Process>();
+
+		// writers with overlapping keys, each starting from a different key
+		for (int i = 0; i < 3; i++)
+		{
+			ProcessBuilder builder = new ProcessBuilder(java,
+				"-cp", System.getProperty("java.class.path"),
+				TestFileOncotatorCache.class.getName(),
+				this.file.getAbsolutePath(),
+				String.valueOf(i * 100),
+				String.valueOf(numRecords));
+
+			builder.redirectErrorStream(true);
+			processes.add(builder.start());
+		}
+
+		for (Process process : processes)
+		{
+			assertEquals(0, process.waitFor());
+		}
+
+		FileOncotatorCache cache = new FileOncotatorCache(this.file);
+
+		assertEquals(numRecords, cache.size());
+
+		for (int i = 0; i < numRecords; i++)
+		{
+			assertEquals("GENE" + i, cache.get(generateKey(i)).getBestEffectTranscript().getGene());
+		}
+	}
+
+	public void testExport() throws Exception
+	{
+		this.file = createFile("export");
+		FileOncotatorCache cache = new FileOncotatorCache(this.file);
+		List<OncotatorRecord> records = new ArrayList<OncotatorRecord>();
+
+		for (int i = 0; i < OncotatorCacheTool.BATCH_SIZE + 10; i++)
+		{
+			records.add(createRecord(i));
+		}
+
+		cache.putAll(records);
+
+		HashCacheService target = new HashCacheService();
+		target.put(createRecord(0));
+
+		int[] counts = OncotatorCacheTool.exportRecords(cache, target, true);
+
+		assertEquals(records.size(), counts[0]);
+		assertEquals(records.size() - 1, counts[1]);
+		assertEquals("GENE5", target.get(generateKey(5)).getBestEffectTranscript().getGene());
+	}
+
+	/**
+	 * Writer process for the multiple process test: adds the given number
+	 * of records to the cache, in small batches, starting from the given
+	 * index and wrapping around.
+	 *
+	 * @param args  cache file, start index, number of records
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		FileOncotatorCache cache = FileOncotatorCache.getInstance(new File(args[0]));
+		int start = Integer.parseInt(args[1]);
+		int numRecords = Integer.parseInt(args[2]);
+
+		for (int i = 0; i < numRecords; i += 5)
+		{
+			List<OncotatorRecord> batch = new ArrayList<OncotatorRecord>();
+
+			for (int j = i; j < i + 5 && j < numRecords; j++)
+			{
+				batch.add(createRecord((start + j) % numRecords));
+			}
+
+			cache.putAll(batch);
+
+			// reads without locking between the writes
+			cache.get(generateKey((start + i + 50) % numRecords));
+		}
+
+		cache.flush();
+	}
+
+	static File createFile(String name)
+	{
+		File file = new File("target/test-classes/file_cache/" + name + ".cache");
+		file.getParentFile().mkdirs();
+		file.delete();
+
+		return file;
+	}
+
+	private static String generateKey(int index)
+	{
+		return EmbeddedCacheDatabase.generateKey(index);
+	}
+
+	static OncotatorRecord createRecord(int index)
+	{
+		OncotatorRecord record = new OncotatorRecord(generateKey(index));
+
+		record.setRawJson("{\"genome_change\": \"g.chr1:" + index + "A>G\", " +
+			"\"best_effect_transcript\": 0, " +
+			"\"transcripts\": [{\"gene\": \"GENE" + index + "\"}]}");
+
+		return record;
+	}
+}
@@ -0,0 +1,152 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the in-memory record cache, both on its own and as the first
+ * tier of the cached oncotator service.
+ */
+public class TestMemoryRecordCache extends TestCase
+{
+	public void testEvictByEntries()
+	{
+		MemoryRecordCache memoryCache = new MemoryRecordCache(3, Long.MAX_VALUE);
+
+		memoryCache.put(this.record(0));
+		memoryCache.put(this.record(1));
+		memoryCache.put(this.record(2));
+
+		// record 0 is now the most recently used one
+		assertNotNull(memoryCache.get(this.key(0)));
+
+		memoryCache.put(this.record(3));
+
+		assertEquals(3, memoryCache.size());
+		assertEquals(1, memoryCache.getEvictions());
+		assertNull(memoryCache.get(this.key(1)));
+		assertNotNull(memoryCache.get(this.key(0)));
+		assertNotNull(memoryCache.get(this.key(3)));
+
+		assertEquals(3, memoryCache.getHits());
+		assertEquals(1, memoryCache.getMisses());
+	}
+
+	public void testEvictByMemory()
+	{
+		long size = MemoryRecordCache.estimateSize(this.record(0));
+		MemoryRecordCache memoryCache = new MemoryRecordCache(100, size * 5 / 2);
+
+		for (int i = 0; i < 10; i++)
+		{
+			memoryCache.put(this.record(i));
+		}
+
+		assertEquals(2, memoryCache.size());
+		assertTrue(memoryCache.getNumBytes() <= size * 5 / 2);
+		assertNotNull(memoryCache.get(this.key(9)));
+
+		// shrinking the limits evicts the least recently used records
+		memoryCache.setLimits(1, Long.MAX_VALUE);
+
+		assertEquals(1, memoryCache.size());
+		assertNotNull(memoryCache.get(this.key(9)));
+
+		// disabled
+		memoryCache.setLimits(0, Long.MAX_VALUE);
+		memoryCache.put(this.record(0));
+
+		assertEquals(0, memoryCache.size());
+		assertEquals(0, memoryCache.getNumBytes());
+	}
+
+	public void testTiers() throws Exception
+	{
+		LookupCounter cache = new LookupCounter();
+		List<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < 10; i++)
+		{
+			cache.put(this.record(i));
+			keys.add(this.key(i));
+		}
+
+		MemoryRecordCache memoryCache = new MemoryRecordCache(100, Long.MAX_VALUE);
+
+		// two services (e.g. of two files) sharing the same memory cache
+		CachedOncotatorService first = new CachedOncotatorService(cache, memoryCache);
+		CachedOncotatorService second = new CachedOncotatorService(cache, memoryCache);
+
+		Map<String, OncotatorRecord> records = first.getOncotatorRecords(keys.subList(0, 6));
+
+		assertEquals(6, records.size());
+		assertEquals(6, cache.numLookups);
+
+		records = second.getOncotatorRecords(keys);
+
+		// only the remaining keys go to the persistent cache
+		assertEquals(10, records.size());
+		assertEquals(10, cache.numLookups);
+		assertEquals("GENE7", records.get(this.key(7)).getBestEffectTranscript().getGene());
+
+		assertNotNull(second.getOncotatorRecord(this.key(8)));
+		assertEquals(10, cache.numLookups);
+
+		assertEquals(7, memoryCache.getHits());
+		assertEquals(10, memoryCache.getMisses());
+		assertEquals(10, memoryCache.getBackingHits());
+		assertEquals(0, memoryCache.getBackingMisses());
+	}
+
+	private String key(int index)
+	{
+		return EmbeddedCacheDatabase.generateKey(index);
+	}
+
+	private OncotatorRecord record(int index)
+	{
+		return EmbeddedCacheDatabase.createRecord(this.key(index), index);
+	}
+
+	/**
+	 * Hash cache which counts the number of keys looked up.
+	 */
+	private static class LookupCounter extends HashCacheService
+	{
+		protected int numLookups = 0;
+
+		public OncotatorRecord get(String key) throws OncotatorCacheException
+		{
+			this.numLookups++;
+			return super.get(key);
+		}
+
+		public Map<String, OncotatorRecord> getAll(Collection<String> keys)
+				throws OncotatorCacheException
+		{
+			this.numLookups += keys.size();
+			return super.getAll(keys);
+		}
+	}
+}
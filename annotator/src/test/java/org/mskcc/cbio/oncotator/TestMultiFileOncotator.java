@@ -0,0 +1,127 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.mskcc.cbio.annotator.AnnotatorConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests that oncotating multiple files in parallel produces the same
+ * outputs as the sequential mode.
+ */
+public class TestMultiFileOncotator extends TestCase
+{
+	private static final String[] INPUTS = {
+		"with_onco_columns.txt",
+		"without_onco_columns.txt",
+		"with_onco_cols_shuffled.txt",
+		"without_onco_cols_shuffled.txt"};
+
+	public void testParallelOncotator() throws Exception
+	{
+		File workDir = new File("target/test-classes/multi_oncotator").getAbsoluteFile();
+		File sourceDir = this.createSourceDir(workDir);
+		File sequentialDir = new File(workDir, "sequential");
+		File parallelDir = new File(workDir, "parallel");
+
+		MultiFileOncotator sequential = new MultiFileOncotator(this.createConfig(workDir, 1));
+		sequential.annotate(sourceDir.getAbsolutePath(), sequentialDir.getAbsolutePath());
+
+		MultiFileOncotator parallel = new MultiFileOncotator(this.createConfig(workDir, 4));
+		parallel.annotate(sourceDir.getAbsolutePath(), parallelDir.getAbsolutePath());
+
+		assertEquals(0, sequential.getFailures().size());
+		assertEquals(0, parallel.getFailures().size());
+
+		for (int i = 0; i < INPUTS.length; i++)
+		{
+			File expected = new File(sequentialDir, "study" + i + "/data_mutations_extended.txt");
+			File actual = new File(parallelDir, "study" + i + "/data_mutations_extended.txt");
+
+			assertTrue(expected.exists());
+			assertTrue(FileUtils.contentEquals(expected, actual));
+		}
+
+		// files not matching the default pattern are not processed
+		assertFalse(new File(parallelDir, "custom/data_mutations_custom.txt").exists());
+	}
+
+	public void testFileGlob() throws Exception
+	{
+		File workDir = new File("target/test-classes/multi_oncotator_glob").getAbsoluteFile();
+		File sourceDir = this.createSourceDir(workDir);
+		File targetDir = new File(workDir, "target");
+
+		AnnotatorConfig config = this.createConfig(workDir, 2);
+		config.setFileGlob("**/data_mutations_*.txt");
+
+		MultiFileOncotator oncotator = new MultiFileOncotator(config);
+		oncotator.annotate(sourceDir.getAbsolutePath(), targetDir.getAbsolutePath());
+
+		assertEquals(0, oncotator.getFailures().size());
+		assertTrue(new File(targetDir, "custom/data_mutations_custom.txt").exists());
+		assertTrue(new File(targetDir, "study0/data_mutations_extended.txt").exists());
+		assertFalse(new File(targetDir, "custom/notes.txt").exists());
+
+		// a pattern without a directory part matches file names at any depth
+		oncotator.setFileGlob("data_mutations_custom.txt");
+
+		assertEquals(Arrays.asList(new File(sourceDir, "custom/data_mutations_custom.txt")),
+			oncotator.getMafFiles(sourceDir.getAbsolutePath()));
+	}
+
+	private File createSourceDir(File workDir) throws IOException
+	{
+		FileUtils.deleteDirectory(workDir);
+
+		File sourceDir = new File(workDir, "source");
+
+		for (int i = 0; i < INPUTS.length; i++)
+		{
+			FileUtils.copyFile(new File("target/test-classes/" + INPUTS[i]),
+				new File(sourceDir, "study" + i + "/data_mutations_extended.txt"));
+		}
+
+		FileUtils.copyFile(new File("target/test-classes/" + INPUTS[0]),
+			new File(sourceDir, "custom/data_mutations_custom.txt"));
+		FileUtils.writeStringToFile(new File(sourceDir, "custom/notes.txt"), "notes\n");
+
+		return sourceDir;
+	}
+
+	private AnnotatorConfig createConfig(File workDir, int numWorkers)
+	{
+		HashCacheService hashCache = new HashCacheService();
+
+		// records are resolved from memory, no service requests are sent
+		for (OncotatorRecord record : hashCache.cache.values())
+		{
+			MemoryRecordCache.getShared().put(record);
+		}
+
+		AnnotatorConfig config = new AnnotatorConfig();
+		config.setNumWorkers(numWorkers);
+		config.setOncotatorCacheFile(new File(workDir, "oncotator.cache").getAbsolutePath());
+
+		return config;
+	}
+}
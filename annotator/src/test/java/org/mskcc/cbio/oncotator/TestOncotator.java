@@ -18,6 +18,7 @@
 package org.mskcc.cbio.oncotator;
 
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
 import org.mskcc.cbio.maf.MafHeaderUtil;
 import org.mskcc.cbio.maf.MafRecord;
 import org.mskcc.cbio.maf.MafUtil;
@@ -26,6 +27,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Test class for the Oncotator tool.
@@ -207,6 +213,108 @@ public class TestOncotator extends TestCase
 
 	}
 
+	/**
+	 * Tests that each unique key is resolved only once, even if the same
+	 * variant occurs in multiple records.
+	 */
+	public void testDuplicateKeys() throws Exception
+	{
+		File input = new File("target/test-classes/duplicate_keys.txt");
+		File output = new File("target/test-classes/duplicate_keys_out.txt");
+
+		List<String> lines = FileUtils.readLines(
+			new File("target/test-classes/without_onco_columns.txt"));
+		List<String> duplicated = new ArrayList<String>(lines);
+		List<String> dataLines = new ArrayList<String>();
+
+		for (String line : lines)
+		{
+			if (line.startsWith("37\t"))
+			{
+				dataLines.add(line);
+			}
+		}
+
+		// repeat all data lines two more times
+		duplicated.addAll(dataLines);
+		duplicated.addAll(dataLines);
+		FileUtils.writeLines(input, duplicated);
+
+		final List<String> requestedKeys = new ArrayList<String>();
+
+		OncotatorService oncotatorService = new CachedOncotatorService(new HashCacheService()) {
+			public Map<String, OncotatorRecord> getOncotatorRecords(Collection<String> keys)
+					throws OncotatorServiceException
+			{
+				requestedKeys.addAll(keys);
+				return super.getOncotatorRecords(keys);
+			}
+		};
+
+		Oncotator oncotator = new Oncotator(oncotatorService);
+		oncotator.oncotateMaf(input, output);
+
+		assertEquals(0, oncotatorService.getErrorCount());
+		assertEquals(12, oncotator.getNumRecordsProcessed());
+		assertEquals(4, oncotator.getTotalNumKeys());
+		assertEquals(4, requestedKeys.size());
+		assertEquals(4, new HashSet<String>(requestedKeys).size());
+
+		// every record is still annotated
+		BufferedReader reader = new BufferedReader(new FileReader(output));
+		MafHeaderUtil headerUtil = new MafHeaderUtil();
+		MafUtil util = new MafUtil(headerUtil.extractHeader(reader));
+		String line;
+		int count = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.length() > 0)
+			{
+				this.validateMafRecord(util.parseRecord(line));
+				count++;
+			}
+		}
+
+		reader.close();
+
+		assertEquals(12, count);
+	}
+
+	/**
+	 * Tests that the resolved records are kept without their raw JSON,
+	 * and that the records of the memory tier are not modified.
+	 */
+	public void testResolvedRecordsCompact() throws Exception
+	{
+		HashCacheService cache = new HashCacheService();
+		MemoryRecordCache memoryCache = new MemoryRecordCache(100, Long.MAX_VALUE);
+		List<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < 3; i++)
+		{
+			OncotatorRecord record = TestFileOncotatorCache.createRecord(i);
+			record.setDbSnpRs("rs" + i);
+			record.getBestEffectTranscript().setGene("GENE" + i);
+
+			cache.put(record);
+			keys.add(record.getKey());
+		}
+
+		Oncotator oncotator = new Oncotator(new CachedOncotatorService(cache, memoryCache));
+		oncotator.resolveKeys(keys);
+
+		for (int i = 0; i < 3; i++)
+		{
+			OncotatorRecord resolved = oncotator.resolvedRecords.get(keys.get(i));
+
+			assertNull(resolved.getRawJson());
+			assertEquals("rs" + i, resolved.getDbSnpRs());
+			assertEquals("GENE" + i, resolved.getBestEffectTranscript().getGene());
+			assertNotNull(memoryCache.get(keys.get(i)).getRawJson());
+		}
+	}
+
 	private void oncotate(File input,
 			File output,
 			boolean useCache,
@@ -0,0 +1,316 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Tests concurrent, rate limited retrieval of records from the oncotator
+ * web service against an in-process stub server.
+ */
+public class TestOncotatorFetch extends TestCase
+{
+	private StubOncotatorServer server;
+
+	protected void setUp() throws Exception
+	{
+		this.server = new StubOncotatorServer(50);
+	}
+
+	protected void tearDown() throws Exception
+	{
+		this.server.stop();
+	}
+
+	public void testConcurrentFetch() throws Exception
+	{
+		List<String> keys = this.keys("KEY", 20);
+
+		// duplicates are requested once
+		keys.add("KEY_3");
+
+		BasicOncotatorService service = this.createService(new BasicOncotatorService());
+		service.setNumFetchers(4);
+
+		Map<String, OncotatorRecord> records = service.getOncotatorRecords(keys);
+
+		// records are returned in key order
+		assertEquals(keys.subList(0, 20), new ArrayList<String>(records.keySet()));
+
+		for (String key : records.keySet())
+		{
+			assertTrue(records.get(key).getRawJson().contains(key));
+		}
+
+		assertEquals(20, this.server.getNumRequests());
+		assertTrue(this.server.getMaxActive() > 1);
+		assertTrue(this.server.getMaxActive() <= 4);
+		assertEquals(0, service.getErrorCount());
+	}
+
+	public void testFetcherPool() throws Exception
+	{
+		BasicOncotatorService service = this.createService(new BasicOncotatorService());
+		service.setNumFetchers(4);
+
+		service.getOncotatorRecords(this.keys("KEY", 5));
+		ExecutorService pool = service.fetcherPool;
+
+		// the same pool is used for the next block
+		service.getOncotatorRecords(this.keys("NEXT", 5));
+
+		assertTrue(pool == service.fetcherPool);
+		assertFalse(pool.isShutdown());
+
+		service.close();
+
+		assertTrue(pool.isShutdown());
+		assertNull(service.fetcherPool);
+	}
+
+	public void testSharedRequestPermits() throws Exception
+	{
+		final Semaphore permits = new Semaphore(2);
+		List<Thread> threads = new ArrayList<Thread>();
+
+		// services of two files, each with more fetchers than the shared limit
+		for (int i = 0; i < 2; i++)
+		{
+			final BasicOncotatorService service = this.createService(new BasicOncotatorService());
+			final List<String> keys = this.keys("FILE" + i, 10);
+
+			service.setNumFetchers(4);
+			service.setRequestPermits(permits);
+
+			threads.add(new Thread(new Runnable() {
+				public void run()
+				{
+					try {
+						service.getOncotatorRecords(keys);
+					} catch (OncotatorServiceException e) {
+						fail(e.getMessage());
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads)
+		{
+			thread.start();
+		}
+
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(20, this.server.getNumRequests());
+		assertTrue(this.server.getMaxActive() <= 2);
+		assertEquals(2, permits.availablePermits());
+	}
+
+	public void testRetry() throws Exception
+	{
+		BasicOncotatorService service = this.createService(new BasicOncotatorService());
+
+		List<String> keys = new ArrayList<String>();
+		keys.add("FLAKY_1");
+		keys.add("BAD_1");
+
+		Map<String, OncotatorRecord> records = service.getOncotatorRecords(keys);
+
+		// retried until it succeeds
+		assertEquals(3, this.server.getAttempts("FLAKY_1"));
+		assertTrue(records.get("FLAKY_1").getRawJson().contains("FLAKY_1"));
+
+		// rejected requests are not retried
+		assertEquals(1, this.server.getAttempts("BAD_1"));
+		assertNull(records.get("BAD_1").getRawJson());
+		assertEquals(1, service.getErrorCount());
+	}
+
+	public void testRateLimit() throws Exception
+	{
+		this.server.stop();
+		this.server = new StubOncotatorServer(0);
+
+		BasicOncotatorService service = this.createService(new BasicOncotatorService());
+		service.setNumFetchers(4);
+		service.setMaxRate(20);
+
+		long start = System.currentTimeMillis();
+		service.getOncotatorRecords(this.keys("KEY", 11));
+		long time = System.currentTimeMillis() - start;
+
+		// 11 requests at 20 per second take at least half a second
+		assertTrue(time >= 450);
+		assertEquals(11, this.server.getNumRequests());
+	}
+
+	public void testCircuitBreaker() throws Exception
+	{
+		BasicOncotatorService service = this.createService(new BasicOncotatorService());
+		service.setMaxRetries(0);
+		service.setCircuitBreaker(new CircuitBreaker(3, 60000));
+
+		Map<String, OncotatorRecord> records =
+			service.getOncotatorRecords(this.keys("DOWN", 10));
+
+		// requests are not sent after the third consecutive failure
+		assertEquals(10, records.size());
+		assertEquals(3, this.server.getNumRequests());
+		assertEquals(7, service.getCircuitBreaker().getNumRejected());
+		assertEquals(10, service.getErrorCount());
+	}
+
+	public void testCircuitBreakerRecovery() throws Exception
+	{
+		CircuitBreaker breaker = new CircuitBreaker(2, 100);
+
+		breaker.recordFailure();
+		breaker.recordFailure();
+
+		assertTrue(breaker.isOpen());
+		assertFalse(breaker.allowRequest());
+
+		Thread.sleep(150);
+
+		// single trial request after the cool down period
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+
+		breaker.recordSuccess();
+
+		assertFalse(breaker.isOpen());
+		assertTrue(breaker.allowRequest());
+	}
+
+	public void testCachedFetch() throws Exception
+	{
+		HashCacheService cache = new HashCacheService();
+		cache.put(new OncotatorRecord("KEY_0"));
+
+		CachedOncotatorService service = this.createService(new CachedOncotatorService(cache));
+		service.setNumFetchers(4);
+
+		List<String> keys = this.keys("KEY", 10);
+		Map<String, OncotatorRecord> records = service.getOncotatorRecords(keys);
+
+		// only missing keys are requested, and all are cached afterwards
+		assertEquals(10, records.size());
+		assertEquals(9, this.server.getNumRequests());
+		assertEquals(10, cache.getAll(keys).size());
+	}
+
+	public void testFailedFetchNotMemoized() throws Exception
+	{
+		MemoryRecordCache memoryCache = new MemoryRecordCache(100, Long.MAX_VALUE);
+		FileOncotatorCache cache = FileOncotatorCache.getInstance(
+			TestFileOncotatorCache.createFile("failed_fetch"));
+
+		List<String> keys = new ArrayList<String>();
+		keys.add("FLAKY_1");
+		keys.add("KEY_1");
+
+		// the first request for FLAKY_1 fails
+		CachedOncotatorService service =
+			this.createService(new CachedOncotatorService(cache, memoryCache));
+		service.setMaxRetries(0);
+
+		Map<String, OncotatorRecord> records = service.getOncotatorRecords(keys);
+
+		assertNull(records.get("FLAKY_1").getRawJson());
+		assertNull(memoryCache.get("FLAKY_1"));
+		assertNotNull(memoryCache.get("KEY_1"));
+		assertEquals(1, service.getErrorCount());
+
+		// next file in the same run (the second request fails as well)
+		service = this.createService(new CachedOncotatorService(cache, memoryCache));
+		service.setMaxRetries(1);
+
+		OncotatorRecord record = service.getOncotatorRecord("FLAKY_1");
+
+		assertTrue(record.getRawJson().contains("FLAKY_1"));
+		assertNotNull(memoryCache.get("FLAKY_1"));
+		assertEquals(3, this.server.getAttempts("FLAKY_1"));
+		assertEquals(1, this.server.getAttempts("KEY_1"));
+		assertEquals(0, service.getErrorCount());
+	}
+
+	public void testFailedFetchNotCached() throws Exception
+	{
+		HashCacheService cache = new HashCacheService();
+		MemoryRecordCache memoryCache = new MemoryRecordCache(100, Long.MAX_VALUE);
+		List<String> keys = this.keys("FLAKY", 5);
+
+		// the circuit opens after the first two failures
+		CachedOncotatorService service =
+			this.createService(new CachedOncotatorService(cache, memoryCache));
+		service.setNumFetchers(1);
+		service.setMaxRetries(0);
+		service.setCircuitBreaker(new CircuitBreaker(2, 60000));
+
+		Map<String, OncotatorRecord> records = service.getOncotatorRecords(keys);
+
+		assertEquals(5, records.size());
+		assertEquals(2, this.server.getNumRequests());
+		assertEquals(5, service.getErrorCount());
+		assertTrue(cache.getAll(keys).isEmpty());
+
+		// a rerun fetches all of them again
+		service = this.createService(new CachedOncotatorService(cache, memoryCache));
+		service.setNumFetchers(1);
+		service.setMaxRetries(2);
+
+		records = service.getOncotatorRecords(keys);
+
+		for (String key : keys)
+		{
+			assertTrue(records.get(key).getRawJson().contains(key));
+		}
+
+		assertEquals(5, cache.getAll(keys).size());
+		assertEquals(0, service.getErrorCount());
+	}
+
+	private <T extends OncotatorService> T createService(T service)
+	{
+		service.setBaseUrl(this.server.getBaseUrl());
+		service.setRetryDelay(10);
+
+		return service;
+	}
+
+	private List<String> keys(String prefix, int count)
+	{
+		List<String> keys = new ArrayList<String>();
+
+		for (int i = 0; i < count; i++)
+		{
+			keys.add(prefix + "_" + i);
+		}
+
+		return keys;
+	}
+}
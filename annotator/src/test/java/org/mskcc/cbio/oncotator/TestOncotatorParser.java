@@ -0,0 +1,191 @@
+/** Copyright (c) 2012 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.  The software and
+ * documentation provided hereunder is on an "as is" basis, and
+ * Memorial Sloan-Kettering Cancer Center 
+ * has no obligations to provide maintenance, support,
+ * updates, enhancements or modifications.  In no event shall
+ * Memorial Sloan-Kettering Cancer Center
+ * be liable to any party for direct, indirect, special,
+ * incidental or consequential damages, including lost profits, arising
+ * out of the use of this software and its documentation, even if
+ * Memorial Sloan-Kettering Cancer Center 
+ * has been advised of the possibility of such damage.
+*/
+
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Tests that the streaming parser produces the same records as the tree
+ * parser, on a corpus of stored oncotator responses and on responses with
+ * a large number of transcripts.
+ */
+public class TestOncotatorParser extends TestCase
+{
+	public void testCorpus() throws IOException
+	{
+		BufferedReader reader = new BufferedReader(
+			new FileReader("target/test-classes/oncotator_responses.txt"));
+
+		String line;
+		int count = 0;
+		int valid = 0;
+
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.startsWith("#"))
+			{
+				continue;
+			}
+
+			String[] parts = line.split("\t", 2);
+
+			OncotatorRecord expected = OncotatorParser.parseJSONTree(parts[0], parts[1]);
+			OncotatorRecord actual = OncotatorParser.parseJSONStream(parts[0], parts[1]);
+
+			assertRecordEquals(parts[0], expected, actual);
+
+			count++;
+			valid += expected != null ? 1 : 0;
+		}
+
+		reader.close();
+
+		assertEquals(12, count);
+		assertEquals(8, valid);
+	}
+
+	public void testLargeTranscriptList()
+	{
+		// indices after the transcripts, and before the transcripts
+		String[] jsons = {
+			generateResponse(5000, 1234, 4999, false),
+			generateResponse(5000, 0, 2500, true)
+		};
+
+		for (String json : jsons)
+		{
+			OncotatorRecord expected = OncotatorParser.parseJSONTree("KEY", json);
+			OncotatorRecord actual = OncotatorParser.parseJSON("KEY", json);
+
+			assertNotNull(actual.getBestCanonicalTranscript());
+			assertNotNull(actual.getBestEffectTranscript());
+			assertRecordEquals("KEY", expected, actual);
+		}
+	}
+
+	/**
+	 * Generates a response with the given number of transcripts.
+	 *
+	 * @param numTranscripts    number of transcripts
+	 * @param canonical         index of the best canonical transcript
+	 * @param effect            index of the best effect transcript
+	 * @param indicesFirst      whether the indices come before the transcripts
+	 * @return                  JSON response
+	 */
+	public static String generateResponse(int numTranscripts,
+			int canonical,
+			int effect,
+			boolean indicesFirst)
+	{
+		StringBuilder builder = new StringBuilder("{\"genome_change\": \"g.chr7:140453136A>T\", ");
+		String indices = "\"best_canonical_transcript\": " + canonical +
+			", \"best_effect_transcript\": " + effect + ", ";
+
+		if (indicesFirst)
+		{
+			builder.append(indices);
+		}
+
+		builder.append("\"transcripts\": [");
+
+		for (int i = 0; i < numTranscripts; i++)
+		{
+			if (i > 0)
+			{
+				builder.append(", ");
+			}
+
+			builder.append("{\"transcript_id\": \"ENST").append(i).append("\", ")
+				.append("\"gene\": \"GENE").append(i).append("\", ")
+				.append("\"variant_classification\": \"Missense_Mutation\", ")
+				.append("\"protein_change\": \"p.V").append(i).append("E\", ")
+				.append("\"exon_affected\": ").append(i % 20).append(", ")
+				.append("\"refseq_mRNA_id\": \"NM_").append(i).append("\", ")
+				.append("\"refseq_prot_id\": \"NP_").append(i).append("\", ")
+				.append("\"uniprot_entry_name\": \"GENE").append(i).append("_HUMAN\", ")
+				.append("\"uniprot_accession\": \"P").append(i).append("\", ")
+				.append("\"codon_change\": \"c.(1798-1800)gTg>gAg\", ")
+				.append("\"transcript_change\": \"c.1799T>A\", ")
+				.append("\"protein_position_start\": ").append(i).append(", ")
+				.append("\"protein_position_end\": ").append(i).append(", ")
+				.append("\"domains\": [{\"name\": \"Pkinase\", \"start\": 457, \"end\": 717}]}");
+		}
+
+		builder.append("], ");
+
+		if (!indicesFirst)
+		{
+			builder.append(indices);
+		}
+
+		builder.append("\"Cosmic_overlapping_mutations\": \"p.V600E(18543)\", ")
+			.append("\"dbSNP_RS\": \"rs113488022\", \"dbSNP_Val_Status\": \"byFrequency\"}");
+
+		return builder.toString();
+	}
+
+	private static void assertRecordEquals(String key,
+			OncotatorRecord expected,
+			OncotatorRecord actual)
+	{
+		if (expected == null)
+		{
+			assertNull(key, actual);
+			return;
+		}
+
+		assertNotNull(key, actual);
+		assertEquals(key, expected.getKey(), actual.getKey());
+		assertEquals(key, expected.getRawJson(), actual.getRawJson());
+		assertEquals(key, expected.getGenomeChange(), actual.getGenomeChange());
+		assertEquals(key, expected.getCosmicOverlappingMutations(), actual.getCosmicOverlappingMutations());
+		assertEquals(key, expected.getDbSnpRs(), actual.getDbSnpRs());
+		assertEquals(key, expected.getDbSnpValStatus(), actual.getDbSnpValStatus());
+		assertTranscriptEquals(key, expected.getBestCanonicalTranscript(), actual.getBestCanonicalTranscript());
+		assertTranscriptEquals(key, expected.getBestEffectTranscript(), actual.getBestEffectTranscript());
+	}
+
+	private static void assertTranscriptEquals(String key,
+			Transcript expected,
+			Transcript actual)
+	{
+		if (expected == null)
+		{
+			assertNull(key, actual);
+			return;
+		}
+
+		assertNotNull(key, actual);
+		assertEquals(key, expected.getGene(), actual.getGene());
+		assertEquals(key, expected.getProteinChange(), actual.getProteinChange());
+		assertEquals(key, expected.getVariantClassification(), actual.getVariantClassification());
+		assertEquals(key, expected.getExonAffected(), actual.getExonAffected());
+		assertEquals(key, expected.getRefseqMrnaId(), actual.getRefseqMrnaId());
+		assertEquals(key, expected.getRefseqProtId(), actual.getRefseqProtId());
+		assertEquals(key, expected.getUniprotName(), actual.getUniprotName());
+		assertEquals(key, expected.getUniprotAccession(), actual.getUniprotAccession());
+		assertEquals(key, expected.getCodonChange(), actual.getCodonChange());
+		assertEquals(key, expected.getTranscriptChange(), actual.getTranscriptChange());
+		assertEquals(key, expected.getProteinPosStart(), actual.getProteinPosStart());
+		assertEquals(key, expected.getProteinPosEnd(), actual.getProteinPosEnd());
+	}
+}
@@ -0,0 +1,106 @@
+package org.mskcc.cbio.oncotator;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tests the write-behind buffer in front of a hash map based cache.
+ */
+public class TestWriteBehindCache extends TestCase
+{
+	public void testFlushOnSize() throws Exception
+	{
+		BatchCounter delegate = new BatchCounter();
+		WriteBehindCacheService cache = new WriteBehindCacheService(delegate, 3, 60000);
+
+		cache.put(this.record(1));
+		cache.put(this.record(2));
+
+		// not flushed yet, but visible
+		assertEquals(0, delegate.batches.size());
+		assertEquals(2, cache.getBufferSize());
+		assertNotNull(cache.get(EmbeddedCacheDatabase.generateKey(1)));
+		assertEquals(2, cache.getAll(Arrays.asList(
+			EmbeddedCacheDatabase.generateKey(1),
+			EmbeddedCacheDatabase.generateKey(2),
+			"X_1_1_A_G")).size());
+
+		// duplicate of a buffered record is ignored
+		assertEquals(0, cache.put(this.record(1)));
+
+		cache.put(this.record(3));
+
+		assertEquals(1, delegate.batches.size());
+		assertEquals(3, (int) delegate.batches.get(0));
+		assertEquals(0, cache.getBufferSize());
+
+		cache.close();
+	}
+
+	public void testFlushOnTime() throws Exception
+	{
+		BatchCounter delegate = new BatchCounter();
+		WriteBehindCacheService cache = new WriteBehindCacheService(delegate, 100, 50);
+
+		cache.put(this.record(1));
+
+		long start = System.currentTimeMillis();
+
+		while (cache.getBufferSize() > 0 &&
+		       System.currentTimeMillis() - start < 5000)
+		{
+			Thread.sleep(10);
+		}
+
+		assertEquals(0, cache.getBufferSize());
+		assertEquals(1, delegate.batches.size());
+
+		cache.close();
+	}
+
+	public void testFlushOnClose() throws Exception
+	{
+		BatchCounter delegate = new BatchCounter();
+		WriteBehindCacheService cache = new WriteBehindCacheService(delegate, 100, 60000);
+
+		// already in the underlying cache
+		delegate.put(this.record(2));
+
+		cache.put(this.record(1));
+		cache.put(this.record(2));
+		cache.close();
+
+		assertEquals(1, delegate.batches.size());
+		assertEquals(2, cache.getNumFlushed());
+		assertEquals(1, delegate.added);
+		assertNotNull(delegate.get(EmbeddedCacheDatabase.generateKey(1)));
+	}
+
+	private OncotatorRecord record(int index)
+	{
+		return EmbeddedCacheDatabase.createRecord(EmbeddedCacheDatabase.generateKey(index), index);
+	}
+
+	/**
+	 * Hash cache which keeps track of the batch inserts.
+	 */
+	private static class BatchCounter extends HashCacheService
+	{
+		protected List<Integer> batches = new ArrayList<Integer>();
+		protected int added = 0;
+
+		public synchronized int putAll(Collection<OncotatorRecord> records) throws OncotatorCacheException
+		{
+			int count = super.putAll(records);
+
+			this.batches.add(records.size());
+			this.added += count;
+
+			return count;
+		}
+	}
+}
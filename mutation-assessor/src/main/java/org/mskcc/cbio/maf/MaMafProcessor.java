@@ -28,6 +28,10 @@ import java.util.List;
  */
 public class MaMafProcessor extends MafProcessor
 {
+	// indices of the MA columns within the new header list
+	private int[] maIndices;
+	private List<String> indexedHeaders;
+
 	public MaMafProcessor(String headerLine)
 	{
 		super(headerLine);
@@ -149,10 +153,6 @@ public class MaMafProcessor extends MafProcessor
 			maRecord = new MutationAssessorRecord("NA");
 		}
 
-		// create a new maf util for the new header line to get new oncotator indices
-		String newHeaderLine = this.newHeaderLineAsString();
-		MafUtil mafUtil = new MafUtil(newHeaderLine);
-
 		String impact = maRecord.getImpact();
 		String score = (maRecord.getImpactScore() == null) ?
 				null : maRecord.getImpactScore().toString();
@@ -161,13 +161,53 @@ public class MaMafProcessor extends MafProcessor
 		String pdb = maRecord.getStructureLink();
 		String var = generateLinkVar(maRecord.getKey());
 
+		int[] indices = this.getMaIndices();
+
 		// update mutation assessor values
-		data.set(mafUtil.getMaFImpactIndex(), impact);
-		data.set(mafUtil.getMaFisIndex(), score);
-		data.set(mafUtil.getMaProteinChangeIndex(), proteinChange);
-		data.set(mafUtil.getMaLinkMsaIndex(), msa);
-		data.set(mafUtil.getMaLinkPdbIndex(), pdb);
-		data.set(mafUtil.getMaLinkVarIndex(), var);
+		data.set(indices[0], impact);
+		data.set(indices[1], score);
+		data.set(indices[2], proteinChange);
+		data.set(indices[3], msa);
+		data.set(indices[4], pdb);
+		data.set(indices[5], var);
+	}
+
+	/**
+	 * Returns the indices of the MA columns (impact, score, protein change,
+	 * MSA, PDB and variant links) within the new header list. Indices are
+	 * resolved only once for the current header list.
+	 *
+	 * @return  array of column indices
+	 */
+	protected int[] getMaIndices()
+	{
+		if (this.maIndices == null ||
+		    this.indexedHeaders != this.newHeaders)
+		{
+			// create a new maf util for the new header line to get new MA indices
+			MafUtil mafUtil = new MafUtil(this.newHeaderLineAsString());
+
+			this.maIndices = new int[] {
+				mafUtil.getMaFImpactIndex(),
+				mafUtil.getMaFisIndex(),
+				mafUtil.getMaProteinChangeIndex(),
+				mafUtil.getMaLinkMsaIndex(),
+				mafUtil.getMaLinkPdbIndex(),
+				mafUtil.getMaLinkVarIndex()
+			};
+
+			this.indexedHeaders = this.newHeaders;
+		}
+
+		return this.maIndices;
+	}
+
+	public void setNewHeaders(List<String> newHeaders)
+	{
+		super.setNewHeaders(newHeaders);
+
+		// the list may have been modified in place, so always re-index
+		this.maIndices = null;
 	}
 
 	/**
@@ -17,6 +17,8 @@
 
 package org.mskcc.cbio.mutassessor;
 
+import org.mskcc.cbio.annotator.ProgressReporter;
+
 import java.io.*;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -141,15 +143,24 @@ public class CacheBuilder
 		String line = reader.readLine();
 		this.headerIndices = this.buildIndexMap(line);
 
+		// percentage is estimated from the input size (no extra pass to count lines)
+		ProgressReporter progress = new ProgressReporter(inputMA.getName(), 0);
+		progress.setInput(inputMA);
+
+		// the header line is already read
+		progress.skip(line);
+
 		// process each data line
 		while ((line = reader.readLine()) != null)
 		{
 			// skip empty lines
 			if (line.trim().length() == 0)
 			{
+				progress.skip(line);
 				continue;
 			}
 
+			progress.increment(line);
 			MutationAssessorRecord record = this.parseDataLine(line);
 
 			if (!record.hasNoInfo())
@@ -189,6 +200,7 @@ public class CacheBuilder
 		}
 
 		reader.close();
+		progress.finish();
 
 		if (writer != null)
 		{
@@ -17,6 +17,7 @@
 
 package org.mskcc.cbio.mutassessor;
 
+import org.mskcc.cbio.annotator.ProgressReporter;
 import org.mskcc.cbio.maf.*;
 
 import java.io.*;
@@ -95,6 +96,13 @@ public class DataImporter
 		FileIOUtil.writeLine(writer, columnNames);
 
 		int numRecordsProcessed = 0;
+		// percentage is estimated from the input size (no extra pass to count lines)
+		ProgressReporter progress = new ProgressReporter("Mutation assessor", 0);
+		progress.setInput(inputMaf);
+
+		// comments and the header line are already read
+		progress.skip(headerUtil.getComments());
+		progress.skip(line);
 
 		// process each data line
 		while ((line = reader.readLine()) != null)
@@ -102,6 +110,7 @@ public class DataImporter
 			// skip empty lines
 			if (line.trim().length() == 0)
 			{
+				progress.skip(line);
 				continue;
 			}
 
@@ -119,8 +128,11 @@ public class DataImporter
 			FileIOUtil.writeLine(writer, data);
 
 			numRecordsProcessed++;
+			progress.increment(line);
 		}
 
+		progress.finish();
+
 		System.out.println("Total number of records processed: " +
 		                   numRecordsProcessed);
 
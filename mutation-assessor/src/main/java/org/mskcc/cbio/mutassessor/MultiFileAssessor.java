@@ -48,11 +48,16 @@ public class MultiFileAssessor extends MultiFileAnnotator
 			boolean sort = true;
 			boolean addMissing = true;
 
+			long start = System.currentTimeMillis();
+
 			MutationAssessorTool.driver(inputMaf,
 				outputMaf,
 				db,
 				sort,
 				addMissing);
+
+			this.timingReport.add("assess",
+				System.currentTimeMillis() - start, 0, file.length());
 		}
 	}
 }